@@ -1,7 +1,6 @@
 package com.dayani.m.roboplatform;
 
 import android.hardware.Sensor;
-import android.hardware.SensorEvent;
 import android.os.Bundle;
 import android.util.Log;
 
@@ -21,6 +20,7 @@ import com.dayani.m.roboplatform.utils.interfaces.MyMessages.MsgUsb.UsbCommand;
 import com.dayani.m.roboplatform.utils.view_models.SensorsViewModel;
 
 import java.util.Arrays;
+import java.util.List;
 
 
 public class FlightControlFragment extends
@@ -221,6 +221,12 @@ public class FlightControlFragment extends
 
     /* ------------------------------- Channel Transactions --------------------------------- */
 
+    @Override
+    public List<Class<? extends MyMessages.MyMessage>> getSubscribedTypes() {
+        return Arrays.asList(MyMessages.MsgWireless.class, MyMessages.MsgSensorBatch.class,
+                MsgUsb.class);
+    }
+
     @Override
     public void onMessageReceived(MyMessages.MyMessage msg) {
 
@@ -238,12 +244,15 @@ public class FlightControlFragment extends
                 }
             }
         }
-        else if (msg instanceof MyMessages.MsgSensor) {
+        else if (msg instanceof MyMessages.MsgSensorBatch) {
 //            Log.v(TAG, "Sensor message received: " + msg);
-            MyMessages.MsgSensor msgSen = (MyMessages.MsgSensor) msg;
-            SensorEvent sensorEvent = msgSen.getSensorEvent();
-            if (sensorEvent != null && sensorEvent.sensor.getType() == Sensor.TYPE_GRAVITY) {
-                mQcController.updateSensor(sensorEvent.values);
+            MyMessages.MsgSensorBatch batch = (MyMessages.MsgSensorBatch) msg;
+            if (batch.getSensorType() == Sensor.TYPE_GRAVITY) {
+                float[] gVec = new float[batch.getNumValues()];
+                for (int i = 0; i < batch.getNumSamples(); i++) {
+                    batch.copyValues(i, gVec);
+                    mQcController.updateSensor(gVec);
+                }
             }
         }
         else if (msg instanceof MsgUsb) {
@@ -25,10 +25,13 @@ import com.dayani.m.roboplatform.utils.interfaces.MyChannels;
 import com.dayani.m.roboplatform.utils.interfaces.MyMessages;
 import com.dayani.m.roboplatform.utils.view_models.SensorsViewModel;
 
+import java.util.Arrays;
+import java.util.List;
+
 
 public class ManualControlFragment extends Fragment
         implements View.OnClickListener, MyDrvUsb.UsbCmdInterpreter,
-        MyChannels.ChannelTransactions {
+        MyChannels.ChannelTransactions, MyChannels.TopicSubscriber {
 
     private static final String TAG = ManualControlFragment.class.getSimpleName();
 
@@ -290,6 +293,16 @@ public class ManualControlFragment extends Fragment
 
     }
 
+    @Override
+    public String getChannelTag() {
+        return null;
+    }
+
+    @Override
+    public List<Class<? extends MyMessages.MyMessage>> getSubscribedTypes() {
+        return Arrays.asList(MyMessages.MsgUsb.class, MyMessages.MsgWireless.class);
+    }
+
     @Override
     public void onMessageReceived(MyMessages.MyMessage msg) {
 
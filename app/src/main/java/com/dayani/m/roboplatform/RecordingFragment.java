@@ -27,35 +27,57 @@ import androidx.lifecycle.ViewModelProvider;
 
 import com.dayani.m.roboplatform.managers.CameraFlyVideo;
 import com.dayani.m.roboplatform.managers.MyBaseManager;
+import com.dayani.m.roboplatform.managers.MyStorageManager;
+import com.dayani.m.roboplatform.managers.RecordingMonitor;
 import com.dayani.m.roboplatform.utils.cutom_views.AutoFitTextureView;
+import com.dayani.m.roboplatform.utils.data_types.MyChannelMetrics;
 import com.dayani.m.roboplatform.utils.helpers.MyScreenOperations;
+import com.dayani.m.roboplatform.utils.interfaces.MyBackgroundExecutor;
 import com.dayani.m.roboplatform.utils.interfaces.MyChannels.ChannelTransactions;
+import com.dayani.m.roboplatform.utils.interfaces.MyChannels.TopicSubscriber;
 import com.dayani.m.roboplatform.utils.interfaces.MyMessages;
 import com.dayani.m.roboplatform.utils.view_models.SensorsViewModel;
 
+import java.util.Collections;
 import java.util.List;
 
 
 public class RecordingFragment extends Fragment
-        implements View.OnClickListener, ChannelTransactions, DisplayManager.DisplayListener {
+        implements View.OnClickListener, ChannelTransactions, TopicSubscriber,
+        DisplayManager.DisplayListener {
 
     private static final String TAG = RecordingFragment.class.getSimpleName();
 
+    private static final long METRICS_UPDATE_MS = 1000;
+
     private DisplayManager mDisplayManager;
 
     private List<MyBaseManager> mlManagers;
 
     private CameraFlyVideo mCameraManager;
+    // feeds the recording scheduler with the device state
+    private RecordingMonitor mRecordingMonitor;
 
     private Button mButtonVideo;
     private Chronometer mChronometer;
     private TextView mReportTxt;
+    private TextView mMetricsTxt;
     private AutoFitTextureView mTextureView;
 
     private int mCurrScreenOrientation;
 
     boolean mbIsRecording = false;
 
+    private final Runnable mMetricsUpdater = new Runnable() {
+        @Override
+        public void run() {
+            if (mMetricsTxt != null && mbIsRecording) {
+                mMetricsTxt.setText(MyChannelMetrics.getInstance().getSummary());
+                mMetricsTxt.postDelayed(this, METRICS_UPDATE_MS);
+            }
+        }
+    };
+
     public RecordingFragment() {
         // Required empty public constructor
     }
@@ -91,6 +113,12 @@ public class RecordingFragment extends Fragment
             }
         }
 
+        MyBaseManager storageManager = MyBaseManager.getManager(mlManagers,
+                MyStorageManager.class.getSimpleName());
+        if (storageManager != null) {
+            mRecordingMonitor = new RecordingMonitor(context, storageManager);
+        }
+
         mDisplayManager = (DisplayManager) requireActivity().getSystemService(Context.DISPLAY_SERVICE);
     }
 
@@ -123,6 +151,8 @@ public class RecordingFragment extends Fragment
         mReportTxt = view.findViewById(R.id.txtReport);
         mReportTxt.setText("");
 
+        mMetricsTxt = view.findViewById(R.id.txtMetrics);
+
         mTextureView = view.findViewById(R.id.texture);
     }
 
@@ -214,8 +244,20 @@ public class RecordingFragment extends Fragment
             manager.execute(requireActivity(), MyBaseManager.LifeCycleState.START_RECORDING);
         }
 
+        // after the managers have added their policies
+        FragmentActivity context = requireActivity();
+        if (mRecordingMonitor != null && context instanceof MyBackgroundExecutor.JobListener) {
+            mRecordingMonitor.start(((MyBackgroundExecutor.JobListener) context).getBackgroundHandler());
+        }
+
         MyScreenOperations.setScreenOn(requireActivity());
 
+        // storage manager enables the metrics on start (if requested)
+        if (MyChannelMetrics.getInstance().isEnabled()) {
+            mMetricsTxt.setVisibility(View.VISIBLE);
+            mMetricsTxt.post(mMetricsUpdater);
+        }
+
         Log.d(TAG, "Managers are started");
     }
 
@@ -223,6 +265,16 @@ public class RecordingFragment extends Fragment
 
         MyScreenOperations.unsetScreenOn(requireActivity());
 
+        mMetricsTxt.removeCallbacks(mMetricsUpdater);
+        mMetricsTxt.setVisibility(View.GONE);
+
+        if (mRecordingMonitor != null) {
+            String report = mRecordingMonitor.stop();
+            if (report != null) {
+                mReportTxt.append(report + "\n");
+            }
+        }
+
         for (MyBaseManager manager : mlManagers) {
             manager.execute(requireActivity(), MyBaseManager.LifeCycleState.STOP_RECORDING);
         }
@@ -379,6 +431,17 @@ public class RecordingFragment extends Fragment
         }
     }
 
+    @Override
+    public String getChannelTag() {
+        return TAG;
+    }
+
+    @Override
+    public List<Class<? extends MyMessages.MyMessage>> getSubscribedTypes() {
+        // keep high-rate sensor messages off the UI thread's logger
+        return Collections.singletonList(MyMessages.MsgLogging.class);
+    }
+
     @Override
     public void registerChannel(ChannelTransactions channel) {
 
@@ -188,7 +188,7 @@ public class SensorsListFragment extends Fragment implements View.OnClickListene
 
         publishMessage(storageConfig);
 
-        String fullPath = storageConfig.toString();
+        String fullPath = storageConfig.getFullPath();
         Toast.makeText(requireActivity(), "Saved to: " + fullPath, Toast.LENGTH_SHORT).show();
     }
 
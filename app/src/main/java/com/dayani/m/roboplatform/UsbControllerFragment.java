@@ -22,8 +22,12 @@ import com.dayani.m.roboplatform.utils.interfaces.MyChannels;
 import com.dayani.m.roboplatform.utils.interfaces.MyMessages;
 import com.dayani.m.roboplatform.utils.view_models.SensorsViewModel;
 
+import java.util.Collections;
+import java.util.List;
+
 public class UsbControllerFragment extends Fragment
-        implements View.OnClickListener, MyChannels.ChannelTransactions {
+        implements View.OnClickListener, MyChannels.ChannelTransactions,
+        MyChannels.TopicSubscriber {
 
     private static final String TAG = UsbControllerFragment.class.getSimpleName();
 
@@ -287,6 +291,16 @@ public class UsbControllerFragment extends Fragment
 
     }
 
+    @Override
+    public String getChannelTag() {
+        return null;
+    }
+
+    @Override
+    public List<Class<? extends MyMessages.MyMessage>> getSubscribedTypes() {
+        return Collections.singletonList(MyMessages.MsgUsb.class);
+    }
+
     @Override
     public void onMessageReceived(MyMessages.MyMessage msg) {
 
@@ -133,29 +133,50 @@ public class MyDrvUsb {
 
     public static int[] decodeAdcSensorMsg(byte[] rawBuff) {
 
-        if (rawBuff == null || rawBuff.length < 2) {
+        int adcOutLen = getAdcSensorCount(rawBuff);
+        if (adcOutLen < 0) {
             return null;
         }
 
-        // first byte is the length of the data
-        byte dataLength = rawBuff[0];
+        int[] adcOutArr = new int[adcOutLen];
+        decodeAdcSensorMsg(rawBuff, adcOutArr);
+
+        return adcOutArr;
+    }
+
+    /**
+     * @return number of adc readings in the message or -1 if it's not a valid adc message
+     */
+    public static int getAdcSensorCount(byte[] rawBuff) {
+
+        if (rawBuff == null || rawBuff.length < 2) {
+            return -1;
+        }
+
+        // first byte is the length of the data (unsigned)
+        int dataLength = rawBuff[0] & 0xFF;
         // 0: command, 1: data
         byte cmdOrData = rawBuff[1];
 
         if (dataLength + 2 > rawBuff.length || cmdOrData != 0) {
-            return null;
+            return -1;
         }
 
         // two bytes for each adc reading
-        int adcOutLen = dataLength/2;
-        int[] adcOutArr = new int[adcOutLen];
+        return dataLength/2;
+    }
 
-        for (int i = 0; i < dataLength; i += 2) {
+    /**
+     * Decodes into a reusable array (at least getAdcSensorCount(rawBuff) long)
+     */
+    public static void decodeAdcSensorMsg(byte[] rawBuff, int[] adcOut) {
 
-            adcOutArr[i/2] = getAdcInt(rawBuff[i+3], rawBuff[i+2]);
-        }
+        int adcOutLen = getAdcSensorCount(rawBuff);
 
-        return adcOutArr;
+        for (int i = 0; i < adcOutLen; i++) {
+
+            adcOut[i] = getAdcInt(rawBuff[2*i+3], rawBuff[2*i+2]);
+        }
     }
 
     public static byte[] encodeUsbCommand(String cmd) {
@@ -204,7 +225,7 @@ public class MyDrvUsb {
             return null;
         }
 
-        int dataLength = rawInput[0];
+        int dataLength = rawInput[0] & 0xFF;
         int cmdOrData = rawInput[1];
 
         if (dataLength + 2 > rawInput.length || cmdOrData != 0) {
@@ -214,6 +235,23 @@ public class MyDrvUsb {
         return Arrays.copyOfRange(rawInput, 2, 2+dataLength);
     }
 
+    /**
+     * @return the data length of a received packet (size, command, data[size]) in the first
+     * length bytes of the buffer, -1 if it's truncated
+     */
+    public static int getUsbPacketDataLength(byte[] packet, int length) {
+
+        if (packet == null || length < 2) {
+            return -1;
+        }
+
+        int dataLength = packet[0] & 0xFF;
+        if (dataLength + 2 > length) {
+            return -1;
+        }
+        return dataLength;
+    }
+
     public static String decodeUsbCommandStr(byte[] rawInput) {
         byte[] decodedMsg = decodeUsbCommand(rawInput);
         if (decodedMsg != null && decodedMsg.length > 0) {
@@ -235,7 +273,7 @@ public class MyDrvUsb {
             return;
         }
 
-        int dataLength = rawBuff[0];
+        int dataLength = rawBuff[0] & 0xFF;
         int cmdOrData = rawBuff[1];
 
         if (dataLength + 2 > rawBuff.length || cmdOrData != 0) {
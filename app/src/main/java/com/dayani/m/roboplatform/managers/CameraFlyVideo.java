@@ -51,6 +51,8 @@ import android.hardware.camera2.params.SessionConfiguration;
 import android.hardware.camera2.params.StreamConfigurationMap;
 import android.media.Image;
 import android.media.ImageReader;
+import android.media.MediaCodec;
+import android.media.MediaFormat;
 import android.os.Build;
 import android.os.SystemClock;
 import android.util.Log;
@@ -64,29 +66,40 @@ import android.view.TextureView;
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 
+import com.dayani.m.roboplatform.utils.AppGlobals;
 import com.dayani.m.roboplatform.utils.cutom_views.AutoFitTextureView;
 import com.dayani.m.roboplatform.utils.data_types.MySensorGroup;
 import com.dayani.m.roboplatform.utils.data_types.MySensorInfo;
+import com.dayani.m.roboplatform.utils.helpers.CaptureGovernor;
+import com.dayani.m.roboplatform.utils.helpers.FrameSetSynchronizer;
+import com.dayani.m.roboplatform.utils.helpers.RecordingScheduler;
+import com.dayani.m.roboplatform.utils.helpers.VideoEncoder;
+import com.dayani.m.roboplatform.utils.helpers.YuvFrameFormat;
 import com.dayani.m.roboplatform.utils.interfaces.ActivityRequirements.Requirement;
+import com.dayani.m.roboplatform.utils.interfaces.MyMessagePool;
 import com.dayani.m.roboplatform.utils.interfaces.MyMessages;
 import com.dayani.m.roboplatform.utils.interfaces.MyMessages.MsgConfig;
 import com.dayani.m.roboplatform.utils.interfaces.MyMessages.StorageConfig;
 import com.dayani.m.roboplatform.utils.interfaces.MyMessages.StorageInfo;
 
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 
 public class CameraFlyVideo extends MyBaseManager {
@@ -98,6 +111,8 @@ public class CameraFlyVideo extends MyBaseManager {
     private static final int ANDROID_INTRINSIC_PARAMS_VERSION = Build.VERSION_CODES.M;
     private static final int ANDROID_DISTORTION_PARAMS_VERSION = Build.VERSION_CODES.P;
     private static final int ANDROID_ADVANCED_CAM_FEATURES_VERSION = Build.VERSION_CODES.P;
+    // persistent encoder input surfaces
+    private static final int ANDROID_VIDEO_RECORDING_VERSION = Build.VERSION_CODES.M;
 //    private static final int ANDROID_OUTPUT_CONFIG_VERSION = Build.VERSION_CODES.N;
 
     private static final String PATH_BASE_CAMERA = "cam";
@@ -105,15 +120,55 @@ public class CameraFlyVideo extends MyBaseManager {
     private static final String IMAGES_FILE_NAME = "images.txt";
     private static final String DEF_IMAGE_FILE_EXTENSION = ".jpg";
     private static final String DEF_IMAGE_RAW_EXTENSION = ".dng";
-
+    private static final String DEF_IMAGE_YUV_EXTENSION = YuvFrameFormat.YUV_FILE_EXT;
+    private static final String VIDEO_FILE_NAME = "video.mp4";
+    // <timestamp, frame index> pairs of the video (same role as images.txt)
+    private static final String VIDEO_FRAMES_FILE_NAME = "video.txt";
+    // <request id, timestamps of each physical camera> of the matched frame sets
+    private static final String FRAME_SETS_FILE_NAME = "frame_sets.txt";
+
+    private static final Size SIZE_240P = new Size(320, 240);
     private static final Size SIZE_480P = new Size(640, 480);
     private static final Size SIZE_1080P = new Size(1920, 1080);
     // TODO: add these parameters to preferences
     private static final Size DEF_IM_READER_SIZE = SIZE_480P;
+    private static final Size DEF_MIN_IM_READER_SIZE = SIZE_240P;
 //    private static final Size DEF_PREVIEW_SIZE = SIZE_480P;
     private static final Size MAX_PREVIEW_SIZE = SIZE_1080P;
+    private static final Size DEF_VIDEO_SIZE = SIZE_1080P;
+    private static final int DEF_VIDEO_FRAME_RATE = 30;
 
     private static final int FRAME_BUFF_COUNT = 3;
+    // copied frames waiting for the storage, the next frames are dropped
+    private static final int MAX_PENDING_IMAGES = 8;
+    // RAW frames are large and wait for the DNG encoders (see MyStorageManager)
+    private static final int MAX_PENDING_RAW_IMAGES = 4;
+    // recent capture results / request ids per camera, matched to the frames by sensor timestamp
+    // (the frames wait in the ImageReaders and the executor, the results in the pipeline)
+    private static final int MAX_RECENT_RESULTS = 16;
+    // a RAW frame waits this long for its capture result, then it's dropped (no DNG)
+    private static final long MAX_RESULT_WAIT_MS = 200;
+
+    // frames of a multi-camera group without a known request are paired within this skew,
+    // incomplete sets are dropped after the window or when too many are waiting
+    // (their frames are held in the image message pool)
+    private static final long MAX_SYNC_SKEW_NS = 10000000L;
+    private static final long SYNC_WINDOW_NS = 200000000L;
+    private static final int MAX_PENDING_FRAME_SETS = 3;
+
+    // the capture governor checks the storage every period (see CaptureGovernor)
+    private static final long GOVERNOR_PERIOD_MS = 1000;
+    // mean write time of an image above which the storage is considered behind
+    private static final long MAX_IMAGE_WRITE_LATENCY_NS = 100000000L;
+    private static final int DEF_MAX_JPEG_QUALITY = 95;
+    private static final int DEF_MIN_JPEG_QUALITY = 60;
+    private static final int DEF_MAX_CAPTURE_FPS = 30;
+    private static final int DEF_MIN_CAPTURE_FPS = 5;
+    // each lower resolution of the governor has about half the pixels
+    private static final double RESOLUTION_STEP = Math.sqrt(0.5);
+
+    // frame rate limits of the recording scheduler's levels (level 0: not limited)
+    private static final int[] SCHEDULER_MAX_FPS = {0, 15, 10, 5};
 
     /**
      * Timeout for the pre-capture sequence.
@@ -123,6 +178,52 @@ public class CameraFlyVideo extends MyBaseManager {
     private static final boolean supportsMultiCamApi =
             Build.VERSION.SDK_INT >= ANDROID_ADVANCED_CAM_FEATURES_VERSION;
 
+    // stream the capture request (repeating) instead of issuing one capture per consumed image
+    public static final String KEY_STREAMING_CAPTURE = AppGlobals.PACKAGE_BASE_NAME +
+            ".CameraFlyVideo.KEY_STREAMING_CAPTURE";
+
+    // capture YUV_420_888 frames (written unencoded to cam<id>/image.yuv, see YuvFrameFormat)
+    public static final String KEY_YUV_CAPTURE = AppGlobals.PACKAGE_BASE_NAME +
+            ".CameraFlyVideo.KEY_YUV_CAPTURE";
+
+    // append images to a few indexed segment files instead of one file per frame
+    // (see ImagePackFormat for the extractor)
+    public static final String KEY_PACKED_IMAGES = AppGlobals.PACKAGE_BASE_NAME +
+            ".CameraFlyVideo.KEY_PACKED_IMAGES";
+
+    // record a hardware encoded video of the logical camera alongside the images
+    public static final String KEY_VIDEO_RECORDING = AppGlobals.PACKAGE_BASE_NAME +
+            ".CameraFlyVideo.KEY_VIDEO_RECORDING";
+    // HEVC instead of H.264 (if there is an encoder)
+    public static final String KEY_VIDEO_HEVC = AppGlobals.PACKAGE_BASE_NAME +
+            ".CameraFlyVideo.KEY_VIDEO_HEVC";
+
+    // store only the frames of a multi-camera group that are matched into complete sets
+    // (see FrameSetSynchronizer), the sets are listed in frame_sets.txt
+    public static final String KEY_SYNC_FRAMES = AppGlobals.PACKAGE_BASE_NAME +
+            ".CameraFlyVideo.KEY_SYNC_FRAMES";
+
+    // image size (the nearest supported size is selected)
+    public static final String KEY_IMAGE_WIDTH = AppGlobals.PACKAGE_BASE_NAME +
+            ".CameraFlyVideo.KEY_IMAGE_WIDTH";
+    public static final String KEY_IMAGE_HEIGHT = AppGlobals.PACKAGE_BASE_NAME +
+            ".CameraFlyVideo.KEY_IMAGE_HEIGHT";
+
+    // lower the JPEG quality, frame rate and image size when the storage falls behind
+    // (within the bounds below), the changes are listed in capture_changes.txt
+    public static final String KEY_ADAPTIVE_CAPTURE = AppGlobals.PACKAGE_BASE_NAME +
+            ".CameraFlyVideo.KEY_ADAPTIVE_CAPTURE";
+    public static final String KEY_MIN_JPEG_QUALITY = AppGlobals.PACKAGE_BASE_NAME +
+            ".CameraFlyVideo.KEY_MIN_JPEG_QUALITY";
+    public static final String KEY_MIN_CAPTURE_FPS = AppGlobals.PACKAGE_BASE_NAME +
+            ".CameraFlyVideo.KEY_MIN_CAPTURE_FPS";
+    public static final String KEY_MAX_CAPTURE_FPS = AppGlobals.PACKAGE_BASE_NAME +
+            ".CameraFlyVideo.KEY_MAX_CAPTURE_FPS";
+    public static final String KEY_MIN_IMAGE_WIDTH = AppGlobals.PACKAGE_BASE_NAME +
+            ".CameraFlyVideo.KEY_MIN_IMAGE_WIDTH";
+    public static final String KEY_MIN_IMAGE_HEIGHT = AppGlobals.PACKAGE_BASE_NAME +
+            ".CameraFlyVideo.KEY_MIN_IMAGE_HEIGHT";
+
     /* ------------------------------------ Multithreading -------------------------------------- */
 
     /**
@@ -132,6 +233,12 @@ public class CameraFlyVideo extends MyBaseManager {
 
     private final Object mCameraStateLock = new Object();
 
+    /**
+     * Image tasks hold the read lock while they use an acquired image,
+     * the ImageReaders are closed with the write lock (taken before mCameraStateLock).
+     */
+    private final ReentrantReadWriteLock mImageReadersLock = new ReentrantReadWriteLock();
+
     /* --------------------------------------- Preview ------------------------------------------ */
 
     public enum PreviewConfigState {
@@ -214,6 +321,70 @@ public class CameraFlyVideo extends MyBaseManager {
     private boolean mbIsFirstCapture = true;
 
     private CaptureResult mLastCaptureResult;
+    // logical and physical timestamps: MAX_RECENT_RESULTS for each camera (see startFrameSync),
+    // guarded by mCameraStateLock
+    private int mRecentCapacity = MAX_RECENT_RESULTS;
+    // map<sensor timestamp, capture result>, guarded by mCameraStateLock (notified on put)
+    private final Map<Long, CaptureResult> mRecentResults =
+            new LinkedHashMap<Long, CaptureResult>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, CaptureResult> eldest) {
+                    return size() > mRecentCapacity;
+                }
+            };
+
+    // map<sensor timestamp, request id>, guarded by mCameraStateLock
+    private final Map<Long, Long> mRecentRequests =
+            new LinkedHashMap<Long, Long>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+                    return size() > mRecentCapacity;
+                }
+            };
+    // null unless a multi-camera group is recorded with KEY_SYNC_FRAMES
+    private volatile FrameSetSynchronizer<MyMessages.MsgImage> mFrameSync;
+
+    private final MyMessagePool<MyMessages.MsgImage> mImageMsgPool =
+            new MyMessagePool<>("Image", MAX_PENDING_IMAGES, MyMessages.MsgImage::new);
+    private final MyMessagePool<MyMessages.MsgImage> mRawMsgPool =
+            new MyMessagePool<>("RawImage", MAX_PENDING_RAW_IMAGES, MyMessages.MsgImage::new);
+
+    private boolean mbStreamingCapture = false;
+    private boolean mbStreamingActive = false;
+
+    private boolean mbPackedImages = false;
+
+    private boolean mbVideoRecording = false;
+    private boolean mbVideoHevc = false;
+    private VideoEncoder mVideoEncoder;
+
+    // size requested for the ImageReaders (KEY_IMAGE_WIDTH/HEIGHT, lowered by the governor)
+    private Size mMaxImReaderSize = DEF_IM_READER_SIZE;
+    private volatile Size mImReaderSize = DEF_IM_READER_SIZE;
+
+    // null unless KEY_ADAPTIVE_CAPTURE, updated on the background thread (see runGovernor)
+    private volatile CaptureGovernor mGovernor;
+    private final Runnable mGovernorTick = this::runGovernor;
+    // supported sizes of the governor's resolution levels (the largest first)
+    private List<Size> mGovernorSizes = new ArrayList<>();
+    // the changes are saved with this camera, its image channel is monitored
+    private int mGovernorSensorId = -1;
+    private long mLastFlushCount = 0;
+    private long mLastFlushLatencySumNs = 0;
+    private long mLastNotStored = 0;
+
+    // applied capture settings (0: not limited / the device's default)
+    private volatile long mMinFrameIntervalNs = 0;
+    // set by the recording scheduler (the larger interval applies)
+    private volatile long mSchedulerFrameIntervalNs = 0;
+    private volatile int mJpegQuality = 0;
+    // pacing of the single capture loop (ns) and of streamed frames (sensor ts per camera)
+    private long mLastCaptureNs = 0;
+    // per camera, updated by the image tasks of the background executor
+    private final Map<Integer, AtomicLong> mLastKeptFrameTs = new ConcurrentHashMap<>();
+    private volatile long mLastFrameTs = 0;
+    // guarded by mCameraStateLock: resume the capture when the new session is configured
+    private boolean mbRestartCaptureLoop = false;
 
     /* -------------------------------------- Callbacks ----------------------------------------- */
 
@@ -318,6 +489,24 @@ public class CameraFlyVideo extends MyBaseManager {
                     return;
                 }
 
+                // the capture request template depends on the capture mode
+                mbStreamingCapture = MyStateManager.getBoolPref(context, KEY_STREAMING_CAPTURE, false);
+                mbVideoRecording = Build.VERSION.SDK_INT >= ANDROID_VIDEO_RECORDING_VERSION &&
+                        MyStateManager.getBoolPref(context, KEY_VIDEO_RECORDING, false);
+                mbVideoHevc = MyStateManager.getBoolPref(context, KEY_VIDEO_HEVC, false);
+
+                mMaxImReaderSize = new Size(
+                        MyStateManager.getIntegerPref(context, KEY_IMAGE_WIDTH, DEF_IM_READER_SIZE.getWidth()),
+                        MyStateManager.getIntegerPref(context, KEY_IMAGE_HEIGHT, DEF_IM_READER_SIZE.getHeight()));
+                mImReaderSize = mMaxImReaderSize;
+
+                if (MyStateManager.getBoolPref(context, KEY_YUV_CAPTURE, false)) {
+                    setImageOutputFormat(ImageFormat.YUV_420_888);
+                }
+                else if (getImageOutputFormat() == ImageFormat.YUV_420_888) {
+                    setImageOutputFormat(ImageFormat.JPEG);
+                }
+
                 // detect selected sensors & config. ImageReaders
                 configureCameraSensorsAndOutputStreams();
 
@@ -355,8 +544,21 @@ public class CameraFlyVideo extends MyBaseManager {
                 }
 
                 super.execute(context, state);
+                // DngCreator needs one file per image, YUV frames have their own container
+                mbPackedImages = getImageOutputFormat() == ImageFormat.JPEG &&
+                        MyStateManager.getBoolPref(context, KEY_PACKED_IMAGES, false);
+                // before the channels, the frame sets file depends on it
+                startFrameSync(MyStateManager.getBoolPref(context, KEY_SYNC_FRAMES, false));
+                startGovernor(context);
                 openStorageChannels();
+                if (mSelectedCamGroup != null) {
+                    mSelectedCamGroup.resetFrameStats();
+                }
+                startVideoRecording();
                 startPreviewAndCaptureLoop();
+                if (mGovernor != null) {
+                    getBgHandler().postDelayed(mGovernorTick, GOVERNOR_PERIOD_MS);
+                }
                 break;
             }
             case STOP_RECORDING: {
@@ -369,6 +571,10 @@ public class CameraFlyVideo extends MyBaseManager {
                 // call first to stop the process (isProcessing)
                 super.execute(context, state);
                 stopPreviewAndCaptureLoop();
+                stopFrameSync();
+                stopGovernor();
+                // the last frames are written to the video sidecar before closing it
+                stopVideoRecording();
                 closeStorageChannels();
                 break;
             }
@@ -397,6 +603,22 @@ public class CameraFlyVideo extends MyBaseManager {
             // image directory
             return prefixId + sensorId + "_Image_Dir";
         }
+        else if (resState == 2) {
+            // video file (written by the encoder, see startVideoRecording)
+            return prefixId + sensorId + "_Video_File";
+        }
+        else if (resState == 3) {
+            // text file containing <timestamp, video frame> pairs
+            return prefixId + sensorId + "_Video_Frames";
+        }
+        else if (resState == 4) {
+            // text file containing the matched frame sets of a multi-camera group
+            return prefixId + sensorId + "_Frame_Sets";
+        }
+        else if (resState == 5) {
+            // text file containing the changes of the capture governor
+            return prefixId + sensorId + "_Capture_Changes";
+        }
         else {
             return null;
         }
@@ -425,18 +647,96 @@ public class CameraFlyVideo extends MyBaseManager {
 
         lConfigMsgPairs.add(new Pair<>(getResourceId(resId), storageConfig));
 
-        // add images directory
+        // add images directory (or image pack: cam<id>/image_000.pack, ...)
         resId.setState(1);
-        ss = StorageInfo.StreamType.TRAIN_BYTE;
-        List<String> extCamFolders = Arrays.asList(camFolders.get(0), PATH_BASE_IMAGES);
-        storageInfo = new StorageInfo(extCamFolders, "", ss);
+        if (getImageOutputFormat() == ImageFormat.YUV_420_888) {
+            ss = StorageInfo.StreamType.YUV_FRAMES;
+            storageInfo = new StorageInfo(camFolders, PATH_BASE_IMAGES + DEF_IMAGE_YUV_EXTENSION, ss);
+        }
+        else if (mbPackedImages) {
+            ss = StorageInfo.StreamType.PACKED_BYTE;
+            storageInfo = new StorageInfo(camFolders, PATH_BASE_IMAGES, ss);
+        }
+        else {
+            ss = StorageInfo.StreamType.TRAIN_BYTE;
+            List<String> extCamFolders = Arrays.asList(camFolders.get(0), PATH_BASE_IMAGES);
+            storageInfo = new StorageInfo(extCamFolders, "", ss);
+        }
         storageConfig = new StorageConfig(configAction, TAG, storageInfo);
 
         lConfigMsgPairs.add(new Pair<>(getResourceId(resId), storageConfig));
 
+        // the video of the logical camera is saved with one of its physical cameras
+        if (mVideoEncoder != null && mSelectedCamGroup != null &&
+                sensorId == mSelectedCamGroup.getVideoSensorId()) {
+
+            resId.setState(2);
+            ss = StorageInfo.StreamType.TRAIN_BYTE;
+            storageInfo = new StorageInfo(camFolders, VIDEO_FILE_NAME, ss);
+            storageConfig = new StorageConfig(configAction, TAG, storageInfo);
+
+            lConfigMsgPairs.add(new Pair<>(getResourceId(resId), storageConfig));
+
+            resId.setState(3);
+            ss = StorageInfo.StreamType.STREAM_STRING;
+            storageInfo = new StorageInfo(camFolders, VIDEO_FRAMES_FILE_NAME, ss);
+            storageConfig = new StorageConfig(configAction, TAG, storageInfo);
+            storageConfig.setStringMessage(getVideoFramesHeader());
+
+            lConfigMsgPairs.add(new Pair<>(getResourceId(resId), storageConfig));
+        }
+
+        // frame sets of the group are also saved with its first physical camera
+        FrameSetSynchronizer<MyMessages.MsgImage> frameSync = mFrameSync;
+        if (frameSync != null && sensorId == frameSync.getStreamIds()[0]) {
+
+            resId.setState(4);
+            ss = StorageInfo.StreamType.STREAM_STRING;
+            storageInfo = new StorageInfo(camFolders, FRAME_SETS_FILE_NAME, ss);
+            storageConfig = new StorageConfig(configAction, TAG, storageInfo);
+            storageConfig.setStringMessage(getFrameSetsHeader(frameSync.getStreamIds()));
+
+            lConfigMsgPairs.add(new Pair<>(getResourceId(resId), storageConfig));
+        }
+
+        // the governor's changes apply to all cameras of the group
+        CaptureGovernor governor = mGovernor;
+        if (governor != null && sensorId == mGovernorSensorId) {
+
+            resId.setState(5);
+            ss = StorageInfo.StreamType.STREAM_STRING;
+            storageInfo = new StorageInfo(camFolders, CaptureGovernor.CHANGES_FILE_NAME, ss);
+            storageConfig = new StorageConfig(configAction, TAG, storageInfo);
+            storageConfig.setStringMessage(CaptureGovernor.getHeader() +
+                    "# initial: " + governor.getSettings() + "\n");
+
+            lConfigMsgPairs.add(new Pair<>(getResourceId(resId), storageConfig));
+        }
+
         return lConfigMsgPairs;
     }
 
+    /**
+     * The frame rate is the first to go when the device heats up (see RecordingScheduler)
+     */
+    @Override
+    protected List<RecordingScheduler.Policy> getDegradationPolicies() {
+
+        String[] settings = new String[SCHEDULER_MAX_FPS.length];
+        settings[0] = "max";
+        for (int i = 1; i < settings.length; i++) {
+            settings[i] = SCHEDULER_MAX_FPS[i] + " fps";
+        }
+
+        return Collections.singletonList(new LevelPolicy(TAG, "frame_rate",
+                RecordingScheduler.PRIORITY_CAMERA_RATE, settings) {
+            @Override
+            public void apply(int level) {
+                mSchedulerFrameIntervalNs = (level == 0) ? 0 : 1000000000L / SCHEDULER_MAX_FPS[level];
+            }
+        });
+    }
+
     /* ====================================== Camera2 =========================================== */
 
     private CameraManager getCameraManager() {
@@ -476,11 +776,19 @@ public class CameraFlyVideo extends MyBaseManager {
             @Override
             public void onConfigured(@NonNull CameraCaptureSession session) {
 
+                boolean restartCapture;
                 synchronized (mCameraStateLock) {
                     mCaptureSession = session;
                     //Log.i(TAG, "Camera session configured successfully, "+mCounter.get());
+                    restartCapture = mbRestartCaptureLoop;
+                    mbRestartCaptureLoop = false;
                 }
                 startPreview();
+
+                if (restartCapture && isProcessing()) {
+                    // the output streams were reconfigured while recording
+                    startPreviewAndCaptureLoop();
+                }
             }
 
             @Override
@@ -534,8 +842,31 @@ public class CameraFlyVideo extends MyBaseManager {
     private ImageReader.OnImageAvailableListener getOnImAvailableCallback(int sensorId) {
 
         return imageReader -> doInBackground(() -> {
-            Image image = imageReader.acquireNextImage();
-            processCapturedImage(sensorId, image);
+
+            // the reader can't be closed while its image is used (see reconfigureImageReaders)
+            mImageReadersLock.readLock().lock();
+            try {
+                Image image;
+                try {
+                    // while streaming, frames the consumer can't keep up with are skipped
+                    // (counted as dropped) instead of throttling the camera
+                    image = mbStreamingCapture ? imageReader.acquireLatestImage() :
+                            imageReader.acquireNextImage();
+                }
+                catch (IllegalStateException e) {
+                    // closed before this task ran
+                    Log.w(TAG, "Cannot acquire image for camera " + sensorId + ": " + e.getMessage());
+                    return;
+                }
+
+                if (image != null && mSelectedCamGroup != null) {
+                    mSelectedCamGroup.onFrameDelivered(sensorId, image.getTimestamp());
+                }
+                processCapturedImage(sensorId, image);
+            }
+            finally {
+                mImageReadersLock.readLock().unlock();
+            }
         });
     }
 
@@ -609,7 +940,24 @@ public class CameraFlyVideo extends MyBaseManager {
             public void onCaptureStarted(CameraCaptureSession session, CaptureRequest request,
                                          long timestamp, long frameNumber) {
 
-                // configure?
+                // repeating requests share one tag, the frame number identifies the request
+                Object tag = request.getTag();
+                long requestId = (!mbStreamingActive && tag instanceof Integer) ?
+                        (Integer) tag : frameNumber;
+                synchronized (mCameraStateLock) {
+                    mRecentRequests.put(timestamp, requestId);
+                }
+
+                // each request targets all physical cameras in the group
+                CameraGroup cameraGroup = mSelectedCamGroup;
+                if (cameraGroup != null) {
+                    cameraGroup.onCaptureStarted();
+                }
+
+                VideoEncoder videoEncoder = mVideoEncoder;
+                if (videoEncoder != null) {
+                    videoEncoder.onFrameCaptured(timestamp);
+                }
             }
 
             @Override
@@ -617,7 +965,17 @@ public class CameraFlyVideo extends MyBaseManager {
                                            TotalCaptureResult result) {
 
                 // setup messages (e.g. with capture result and ...)
-                mLastCaptureResult = result;
+                Long sensorTs = result.get(CaptureResult.SENSOR_TIMESTAMP);
+                synchronized (mCameraStateLock) {
+                    mLastCaptureResult = result;
+                    if (sensorTs != null) {
+                        mRecentResults.put(sensorTs, result);
+                        // physical cameras might not share the logical timestamp
+                        registerPhysicalResults(result, mRecentRequests.get(sensorTs));
+                    }
+                    // RAW frames wait for their result (see getCaptureResult)
+                    mCameraStateLock.notifyAll();
+                }
 
                 if (mbIsFirstCapture) {
                     lockPrecaptureRequest();
@@ -962,7 +1320,7 @@ public class CameraFlyVideo extends MyBaseManager {
         int outputFormat = mCaptureFormat;
 
         CameraCharacteristics characteristics = camera.getCharacteristics();
-        Size outputSize = SizeSelector.getSurfaceSize(characteristics, outputFormat, DEF_IM_READER_SIZE);
+        Size outputSize = SizeSelector.getSurfaceSize(characteristics, outputFormat, mImReaderSize);
 
         if (outputSize == null) {
             return null;
@@ -1024,6 +1382,39 @@ public class CameraFlyVideo extends MyBaseManager {
         mSelectedCamGroup.setPhysicalOutConfig(lAllConfigurations);
         mSelectedCamGroup.setPhysicalImageReaders(lImageReaders);
         mSelectedCamGroup.setPhysicalSurfaces(lPhysicalSurfaces);
+
+        configureVideoOutput();
+    }
+
+    @SuppressLint("NewApi")
+    private void configureVideoOutput() {
+
+        if (!mbVideoRecording || mSelectedCamGroup == null) {
+            return;
+        }
+
+        if (mVideoEncoder == null) {
+
+            Size videoSize = SizeSelector.getSurfaceSize(mSelectedCamGroup.getLogicalCamCharacteristics(),
+                    MediaCodec.class, DEF_VIDEO_SIZE);
+            String mimeType = mbVideoHevc ? MediaFormat.MIMETYPE_VIDEO_HEVC : MediaFormat.MIMETYPE_VIDEO_AVC;
+
+            mVideoEncoder = new VideoEncoder(mimeType, videoSize, DEF_VIDEO_FRAME_RATE);
+            Log.d(TAG, "Video output: " + mVideoEncoder.getMimeType() + ", " + videoSize);
+        }
+
+        mSelectedCamGroup.setVideoSurface(mVideoEncoder.getInputSurface());
+    }
+
+    private void releaseVideoOutput() {
+
+        if (mVideoEncoder != null) {
+            mVideoEncoder.release();
+            mVideoEncoder = null;
+        }
+        if (mSelectedCamGroup != null) {
+            mSelectedCamGroup.setVideoSurface(null);
+        }
     }
 
 
@@ -1104,7 +1495,7 @@ public class CameraFlyVideo extends MyBaseManager {
         return null;
     }
 
-    private CaptureRequest.Builder getMultiCamRequest() {
+    private CaptureRequest.Builder getMultiCamRequest(int template) {
 
         List<Surface> targetSurfaces = new ArrayList<>();
         if (mSelectedCamGroup != null) {
@@ -1118,10 +1509,9 @@ public class CameraFlyVideo extends MyBaseManager {
             }
 
             try {
-                // Create the single request and dispatch it
+                // Create the single (or streaming) request and dispatch it
                 // NOTE: This may disrupt the ongoing repeating request momentarily
-                CaptureRequest.Builder singleRequest = mCameraDevice
-                        .createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
+                CaptureRequest.Builder singleRequest = mCameraDevice.createCaptureRequest(template);
 
                 for (Surface surface : targetSurfaces) {
                     singleRequest.addTarget(surface);
@@ -1184,11 +1574,14 @@ public class CameraFlyVideo extends MyBaseManager {
     private void closeCamera() {
         try {
             mCameraOpenCloseLock.acquire();
+            // wait for the image tasks before closing the readers
+            mImageReadersLock.writeLock().lock();
             synchronized (mCameraStateLock) {
                 if (null != mCaptureSession) {
                     mCaptureSession.close();
                     mCaptureSession = null;
                 }
+                mbStreamingActive = false;
                 if (null != mCameraDevice) {
                     mCameraDevice.close();
                     mCameraDevice = null;
@@ -1206,6 +1599,7 @@ public class CameraFlyVideo extends MyBaseManager {
 
                     mSelectedCamGroup.releasePreviewSurface();
                 }
+                releaseVideoOutput();
                 setCameraState(CameraState.CLOSED);
             }
         }
@@ -1213,6 +1607,9 @@ public class CameraFlyVideo extends MyBaseManager {
             throw new RuntimeException("Interrupted while trying to lock camera closing.", e);
         }
         finally {
+            if (mImageReadersLock.isWriteLockedByCurrentThread()) {
+                mImageReadersLock.writeLock().unlock();
+            }
             mCameraOpenCloseLock.release();
         }
     }
@@ -1262,7 +1659,9 @@ public class CameraFlyVideo extends MyBaseManager {
         // 2. better fragment's lifecycle management
         // 3. unchain initialization steps (call this method startPreviewAndCaptureLoop)
         mPreviewRequest = getPreviewRequest();
-        mCaptureRequest = getMultiCamRequest();
+        // still captures are too slow to stream (e.g. high quality noise reduction)
+        mCaptureRequest = getMultiCamRequest(mbStreamingCapture ?
+                CameraDevice.TEMPLATE_RECORD : CameraDevice.TEMPLATE_STILL_CAPTURE);
 
         synchronized (mCameraStateLock) {
             // disable distortion correction
@@ -1280,6 +1679,84 @@ public class CameraFlyVideo extends MyBaseManager {
 
     private void stopPreviewAndCaptureLoop() {
 
+        boolean wasStreaming;
+
+        synchronized (mCameraStateLock) {
+
+            wasStreaming = mbStreamingActive;
+            mbStreamingActive = false;
+
+            if (wasStreaming && mCaptureSession != null) {
+                try {
+                    mCaptureSession.stopRepeating();
+                }
+                catch (CameraAccessException | IllegalStateException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        if (wasStreaming) {
+            // go back to the preview-only repeating request
+            startPreview();
+        }
+
+        if (mSelectedCamGroup != null) {
+            String report = mSelectedCamGroup.getFrameStatsReport();
+            Log.i(TAG, report);
+            logMessage(report, TAG);
+        }
+    }
+
+    private void startVideoRecording() {
+
+        VideoEncoder videoEncoder = mVideoEncoder;
+        if (videoEncoder == null || mSelectedCamGroup == null) {
+            return;
+        }
+
+        int sensorId = mSelectedCamGroup.getVideoSensorId();
+        MyResourceIdentifier resId = new MyResourceIdentifier(sensorId, 2);
+
+        // the storage manager resolves the full path of the video file
+        MsgConfig videoConfig = getResourceMsg(resId);
+        if (!(videoConfig instanceof StorageConfig)) {
+            Log.w(TAG, "Video storage channel is not open");
+            return;
+        }
+        StorageConfig pathConfig = new StorageConfig(MsgConfig.ConfigAction.GET_STATE, TAG,
+                ((StorageConfig) videoConfig).getStorageInfo());
+        pathConfig.setTargetId(videoConfig.getTargetId());
+        publishMessage(pathConfig);
+
+        String videoPath = pathConfig.getFullPath();
+        if (videoPath == null || videoPath.isEmpty()) {
+            Log.w(TAG, "Cannot resolve the video file path");
+            return;
+        }
+
+        resId.setState(3);
+        int framesTarget = getTargetId(resId);
+
+        boolean started = videoEncoder.start(videoPath, (timestampNs, frameIdx) -> {
+            if (framesTarget >= 0) {
+                publishMessage(new MyMessages.MsgStorage(timestampNs + ", " + frameIdx + "\n",
+                        null, framesTarget));
+            }
+        });
+
+        if (!started) {
+            Log.w(TAG, "Cannot start the video encoder");
+        }
+    }
+
+    private void stopVideoRecording() {
+
+        VideoEncoder videoEncoder = mVideoEncoder;
+        if (videoEncoder != null && videoEncoder.isRunning()) {
+            videoEncoder.stop();
+            Log.i(TAG, "Video frames: " + videoEncoder.getFrameCount());
+        }
     }
 
     private void startPreview() {
@@ -1367,6 +1844,7 @@ public class CameraFlyVideo extends MyBaseManager {
             if (mbIsFirstCapture) {
                 // Use the same AE and AF modes as the preview.
                 setup3AControlsLocked(mCaptureRequest, mSelectedCamGroup.getLogicalCamCharacteristics());
+                applyJpegQualityLocked();
 
                 setCameraState(CameraState.LOCKED_RUNNING);
 
@@ -1375,10 +1853,16 @@ public class CameraFlyVideo extends MyBaseManager {
 
             // Set orientation.
 
+            if (mbStreamingCapture) {
+                startStreamingCaptureLocked();
+                return;
+            }
+
             // Set request tag to easily track results in callbacks.
             mCaptureRequest.setTag(mCounter.getAndIncrement());
 
             try {
+                mLastCaptureNs = System.nanoTime();
                 mCaptureSession.capture(mCaptureRequest.build(), mCaptureCallback, getBgHandler());
             }
             catch (CameraAccessException e) {
@@ -1387,82 +1871,668 @@ public class CameraFlyVideo extends MyBaseManager {
         }
     }
 
-    private void processCapturedImage(int sensorId, Image image) {
+    /**
+     * Replace the preview with a repeating capture request, so the camera keeps as many
+     * requests in flight as its pipeline allows, independent of how fast images are consumed.
+     * <p/>
+     * Call this only with {@link #mCameraStateLock} held.
+     */
+    private void startStreamingCaptureLocked() {
 
-        synchronized (mCameraStateLock) {
+        if (mbStreamingActive) {
+            return;
+        }
 
-            if (image == null) {
-                return;
+        try {
+            mCaptureSession.setRepeatingRequest(mCaptureRequest.build(), mCaptureCallback, getBgHandler());
+            mbStreamingActive = true;
+
+            Byte pipelineDepth = mSelectedCamGroup.getLogicalCamCharacteristics()
+                    .get(CameraCharacteristics.REQUEST_PIPELINE_MAX_DEPTH);
+            Log.d(TAG, "Streaming capture started, max pipeline depth: " + pipelineDepth);
+        }
+        catch (CameraAccessException | IllegalStateException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Waits up to MAX_RESULT_WAIT_MS if the frame's capture is not completed yet
+     * (another frame's metadata would make a wrong DNG).
+     * @return the capture result of the frame, null if it didn't arrive in time
+     */
+    private CaptureResult getCaptureResult(long sensorTs) {
+
+        long deadlineMs = SystemClock.elapsedRealtime() + MAX_RESULT_WAIT_MS;
+
+        synchronized (mCameraStateLock) {
+            CaptureResult result = mRecentResults.get(sensorTs);
+            long waitMs = MAX_RESULT_WAIT_MS;
+            while (result == null && waitMs > 0) {
+                try {
+                    mCameraStateLock.wait(waitMs);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+                result = mRecentResults.get(sensorTs);
+                waitMs = deadlineMs - SystemClock.elapsedRealtime();
             }
+            return result;
+        }
+    }
+
+    /**
+     * Copies the frame into a pooled message and releases the image right away,
+     * so the ImageReader queue (FRAME_BUFF_COUNT) never waits for the storage.
+     * When MAX_PENDING_IMAGES frames are still waiting to be written, the frame is dropped
+     * (see CameraGroup.getFrameStatsReport).
+     * RAW frames are copied with their capture result and encoded to DNG by the storage.
+     */
+    private void processCapturedImage(int sensorId, Image image) {
 
-            int imageFormat = image.getFormat();
+        if (image == null) {
+            return;
+        }
+
+        int imageFormat = image.getFormat();
+
+        String imageExtension = DEF_IMAGE_FILE_EXTENSION;
+        if (imageFormat == ImageFormat.RAW_SENSOR) {
+            imageExtension = DEF_IMAGE_RAW_EXTENSION;
+        }
+        else if (imageFormat == ImageFormat.YUV_420_888) {
+            imageExtension = DEF_IMAGE_YUV_EXTENSION;
+        }
+
+        // create image message
+        long imageTs = image.getTimestamp();
+        if (mbStreamingCapture && isFrameThrottled(sensorId, imageTs)) {
+            // the repeating request is not paced, skip the frame (not counted as dropped)
+            image.close();
+            return;
+        }
+        mLastFrameTs = imageTs;
+
+        String fileName = imageTs + imageExtension;
+        String filePath = PATH_BASE_IMAGES + "/" + fileName;
+        //Log.v(TAG, "New image: " + fileName);
+
+        int imageTarget = getTargetId(new MyResourceIdentifier(sensorId, 1));
+
+        MyMessages.MsgImage imageMsg = null;
+
+        boolean isRaw = imageFormat == ImageFormat.RAW_SENSOR;
+        MyMessagePool<MyMessages.MsgImage> msgPool = isRaw ? mRawMsgPool : mImageMsgPool;
+        int maxPending = isRaw ? MAX_PENDING_RAW_IMAGES : MAX_PENDING_IMAGES;
+
+        if (msgPool.getOutstandingCount() < maxPending) {
+
+            imageMsg = msgPool.acquire();
+            imageMsg.setTargetId(imageTarget);
+            imageMsg.setImage(image, filePath);
 
-            String imageExtension = DEF_IMAGE_FILE_EXTENSION;
-            if (imageFormat == ImageFormat.RAW_SENSOR) {
-                imageExtension = DEF_IMAGE_RAW_EXTENSION;
+            if (isRaw) {
+                imageMsg.copyRawPlane();
+                // DngCreator needs the metadata of this frame
+                CaptureResult captureResult = getCaptureResult(imageTs);
+                if (captureResult != null) {
+                    imageMsg.setCaptureResult(captureResult);
+                    if (mSelectedCamGroup != null) {
+                        imageMsg.setCharacteristics(mSelectedCamGroup.getPhysicalCamCharacteristics(sensorId));
+                    }
+                }
+                else {
+                    Log.w(TAG, "No capture result for RAW frame " + imageTs + ", dropped");
+                    imageMsg.release();
+                    imageMsg = null;
+                    if (mSelectedCamGroup != null) {
+                        mSelectedCamGroup.onFrameDropped(sensorId);
+                    }
+                }
+            }
+            else if (imageFormat == ImageFormat.YUV_420_888) {
+                imageMsg.copyYuvPlanes();
+            }
+            else {
+                imageMsg.copyImageData();
             }
 
-            // create image message
-            long imageTs = image.getTimestamp();
-            String fileName = imageTs + imageExtension;
-            String filePath = PATH_BASE_IMAGES + "/" + fileName;
-            //Log.v(TAG, "New image: " + fileName);
+            image.close();
+            image = null;
+        }
+        else if (mSelectedCamGroup != null) {
+            // the storage is behind
+            mSelectedCamGroup.onFrameDropped(sensorId);
+        }
 
-            MyResourceIdentifier resId = new MyResourceIdentifier(sensorId, 0);
+        if (imageMsg != null) {
 
-            // image message
-            resId.setState(1);
-            int imageTarget = getTargetId(resId);
-            MyMessages.MsgImage imageMsg = new MyMessages.MsgImage(image, filePath, imageTarget);
             // show full path in image message but use only the file name to save image
             imageMsg.setFileName(fileName);
 
-            //byte[] bytes = null;
+            FrameSetSynchronizer<MyMessages.MsgImage> frameSync = mFrameSync;
+            if (frameSync != null) {
+                // published with the other frames of its set (see onFrameSet)
+                frameSync.addFrame(sensorId, getRequestId(imageTs), imageTs, imageMsg);
+            }
+            else {
+                publishImage(sensorId, imageMsg);
+            }
+        }
 
-            if (imageFormat == ImageFormat.JPEG) {
+        if (image != null) {
+            image.close();
+        }
 
-                // create JPEG message
-                ByteBuffer buffer = image.getPlanes()[0].getBuffer();
-                byte[] bytes = new byte[buffer.remaining()];
-                buffer.get(bytes);
+        if (isProcessing() && !mbStreamingCapture) { // recursive loop
+            scheduleCaptureLoop();
+        }
+    }
 
-                imageMsg.setData(bytes);
-            }
-            else if (imageFormat == ImageFormat.RAW_SENSOR) {
+    /**
+     * Issues the next single capture, delayed if the governor limits the frame rate
+     */
+    private void scheduleCaptureLoop() {
 
-                // create RAW image message
-                imageMsg.setCaptureResult(mLastCaptureResult);
-                if (mSelectedCamGroup != null) {
-                    imageMsg.setCharacteristics(mSelectedCamGroup.getPhysicalCamCharacteristics(sensorId));
-                }
+        long intervalNs = getMinFrameIntervalNs();
+        long delayMs = (intervalNs - (System.nanoTime() - mLastCaptureNs)) / 1000000;
+
+        if (intervalNs <= 0 || delayMs <= 0) {
+            runCaptureLoop();
+            return;
+        }
+
+        getBgHandler().postDelayed(() -> {
+            if (isProcessing()) {
+                runCaptureLoop();
             }
+        }, delayMs);
+    }
 
-            publishMessage(imageMsg);
+    private long getMinFrameIntervalNs() {
+        return Math.max(mMinFrameIntervalNs, mSchedulerFrameIntervalNs);
+    }
 
-            // text message (images.txt -> file names)
-            resId.setState(0);
-            int imgTxtTarget = getTargetId(resId);
+    /**
+     * Runs on the image tasks of the background executor (several frames of a camera
+     * can be processed at once).
+     * @return true if the frame comes sooner than the governor's or scheduler's frame interval
+     */
+    private boolean isFrameThrottled(int sensorId, long imageTs) {
+
+        long intervalNs = getMinFrameIntervalNs();
+        if (intervalNs <= 0) {
+            return false;
+        }
 
-            // register the file name only if image is jpg or raw
-            if (imgTxtTarget >= 0 && imageFormat != ImageFormat.YUV_420_888) {
+        AtomicLong lastKeptTs = mLastKeptFrameTs.get(sensorId);
+        if (lastKeptTs == null) {
+            mLastKeptFrameTs.putIfAbsent(sensorId, new AtomicLong(Long.MIN_VALUE));
+            lastKeptTs = mLastKeptFrameTs.get(sensorId);
+        }
 
-                MyMessages.MsgStorage txtMsg = new MyMessages.MsgStorage(imageMsg.toString(), fileName, imgTxtTarget);
-                publishMessage(txtMsg);
+        while (true) {
+            long lastTs = lastKeptTs.get();
+            // tolerate the jitter of the sensor timestamps
+            if (lastTs != Long.MIN_VALUE && imageTs - lastTs < intervalNs - intervalNs / 8) {
+                return true;
+            }
+            if (lastKeptTs.compareAndSet(lastTs, imageTs)) {
+                return false;
             }
         }
+    }
 
-        if (isProcessing()) { // recursive loop
+    private void publishImage(int sensorId, MyMessages.MsgImage imageMsg) {
 
-            image.close();
-            runCaptureLoop();
+        String fileName = imageMsg.getFileName();
+        // pooled messages are recycled after publishing
+        String imageRecord = imageMsg.toString();
+
+        publishMessage(imageMsg);
+
+        // text message (images.txt -> file names)
+        // YUV frames are registered with the names the extractor gives them
+        int imgTxtTarget = getTargetId(new MyResourceIdentifier(sensorId, 0));
+        if (imgTxtTarget >= 0) {
+
+            MyMessages.MsgStorage txtMsg = new MyMessages.MsgStorage(imageRecord, fileName, imgTxtTarget);
+            publishMessage(txtMsg);
+        }
+    }
+
+    /* ----------------------------------- Frame Synchronizer ----------------------------------- */
+
+    /**
+     * Pairs the frames of the physical cameras if a multi-camera group is selected
+     */
+    private void startFrameSync(boolean syncFrames) {
+
+        mFrameSync = null;
+
+        CameraGroup cameraGroup = mSelectedCamGroup;
+        int nPhysical = (cameraGroup != null && cameraGroup.isMultiCam()) ?
+                cameraGroup.getPhysicalCameras().size() : 0;
+        synchronized (mCameraStateLock) {
+            // each request adds the logical timestamp and the physical ones
+            mRecentCapacity = MAX_RECENT_RESULTS * (1 + nPhysical);
+        }
+
+        if (!syncFrames || cameraGroup == null || !cameraGroup.isMultiCam()) {
+            return;
+        }
+
+        List<Integer> sensorIds = new ArrayList<>();
+        for (CameraSensor camera : cameraGroup.getPhysicalCameras()) {
+            sensorIds.add(camera.getId());
+        }
+        Collections.sort(sensorIds);
+
+        int[] streamIds = new int[sensorIds.size()];
+        for (int i = 0; i < streamIds.length; i++) {
+            streamIds[i] = sensorIds.get(i);
+        }
+
+        mFrameSync = new FrameSetSynchronizer<>(streamIds, MAX_SYNC_SKEW_NS, SYNC_WINDOW_NS,
+                MAX_PENDING_FRAME_SETS, new FrameSetSynchronizer.Listener<MyMessages.MsgImage>() {
+
+                    @Override
+                    public void onFrameSet(FrameSetSynchronizer.FrameSet<MyMessages.MsgImage> frameSet) {
+
+                        for (int i = 0; i < frameSet.size(); i++) {
+                            publishImage(frameSet.getStreamId(i), frameSet.getFrame(i));
+                        }
+
+                        int setsTarget = getTargetId(new MyResourceIdentifier(frameSet.getStreamId(0), 4));
+                        if (setsTarget >= 0) {
+                            publishMessage(new MyMessages.MsgStorage(frameSet.toString(), null, setsTarget));
+                        }
+                    }
+
+                    @Override
+                    public void onFrameDropped(int streamId, long timestamp, MyMessages.MsgImage frame) {
+
+                        // never published, back to the pool
+                        frame.release();
+                        CameraGroup group = mSelectedCamGroup;
+                        if (group != null) {
+                            group.onFrameDropped(streamId);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Drops the incomplete sets and saves the skew statistics (call before closing the channels)
+     */
+    private void stopFrameSync() {
+
+        FrameSetSynchronizer<MyMessages.MsgImage> frameSync = mFrameSync;
+        if (frameSync == null) {
+            return;
+        }
+        mFrameSync = null;
+        frameSync.flush();
+
+        String report = frameSync.getReport();
+        Log.i(TAG, report);
+        logMessage(report, TAG);
+
+        int setsTarget = getTargetId(new MyResourceIdentifier(frameSync.getStreamIds()[0], 4));
+        if (setsTarget >= 0) {
+            String comment = "# " + report.replace("\n", "\n# ") + "\n";
+            publishMessage(new MyMessages.MsgStorage(comment, null, setsTarget));
+        }
+    }
+
+    /**
+     * @return the request (tag or frame number) of the frame, or UNKNOWN_REQUEST
+     */
+    private long getRequestId(long sensorTs) {
+
+        synchronized (mCameraStateLock) {
+            Long requestId = mRecentRequests.get(sensorTs);
+            return (requestId != null) ? requestId : FrameSetSynchronizer.UNKNOWN_REQUEST;
+        }
+    }
+
+    /**
+     * Keeps the results of the physical cameras (and their request if the frames are synchronized)
+     * by their own sensor timestamps.
+     * <p/>
+     * Call this only with {@link #mCameraStateLock} held.
+     */
+    private void registerPhysicalResults(TotalCaptureResult result, Long requestId) {
+
+        if (Build.VERSION.SDK_INT < ANDROID_ADVANCED_CAM_FEATURES_VERSION) {
+            return;
+        }
+
+        Collection<? extends CaptureResult> physicalResults;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            physicalResults = result.getPhysicalCameraTotalResults().values();
         }
         else {
-            image.close();
+            physicalResults = getPhysicalCameraResultsCompat(result);
+        }
+
+        for (CaptureResult physicalResult : physicalResults) {
+
+            Long physicalTs = physicalResult.get(CaptureResult.SENSOR_TIMESTAMP);
+            if (physicalTs == null || physicalTs.equals(result.get(CaptureResult.SENSOR_TIMESTAMP))) {
+                continue;
+            }
+            mRecentResults.put(physicalTs, physicalResult);
+            if (mFrameSync != null && requestId != null) {
+                mRecentRequests.put(physicalTs, requestId);
+            }
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private static Collection<CaptureResult> getPhysicalCameraResultsCompat(TotalCaptureResult result) {
+        // deprecated on API 31 in favor of getPhysicalCameraTotalResults
+        return result.getPhysicalCameraResults().values();
+    }
+
+    private static String getFrameSetsHeader(int[] sensorIds) {
+
+        StringBuilder sb = new StringBuilder("# request_id");
+        for (int sensorId : sensorIds) {
+            sb.append(", timestamp_ns_cam").append(sensorId);
+        }
+        return sb.append('\n').toString();
+    }
+
+    private static String getVideoFramesHeader() {
+
+        return "# timestamp_ns, video_frame_index\n";
+    }
+
+    /* ------------------------------------ Capture Governor ------------------------------------ */
+
+    /**
+     * Creates the governor if KEY_ADAPTIVE_CAPTURE is set, before the storage channels are opened.
+     * The quality only applies to JPEG images and the size can't change for YUV frames
+     * (one container of fixed size) and RAW frames (sensor size).
+     */
+    private void startGovernor(Context context) {
+
+        mGovernor = null;
+        mMinFrameIntervalNs = 0;
+        mJpegQuality = 0;
+        mLastKeptFrameTs.clear();
+
+        CameraGroup cameraGroup = mSelectedCamGroup;
+        if (!MyStateManager.getBoolPref(context, KEY_ADAPTIVE_CAPTURE, false) ||
+                cameraGroup == null || cameraGroup.getPhysicalCameras().isEmpty()) {
+            return;
+        }
+
+        CameraSensor firstCamera = null;
+        for (CameraSensor camera : cameraGroup.getPhysicalCameras()) {
+            if (firstCamera == null || camera.getId() < firstCamera.getId()) {
+                firstCamera = camera;
+            }
+        }
+        mGovernorSensorId = firstCamera.getId();
+
+        boolean isJpeg = getImageOutputFormat() == ImageFormat.JPEG;
+
+        int maxQuality = DEF_MAX_JPEG_QUALITY;
+        int minQuality = isJpeg ? MyStateManager.getIntegerPref(context, KEY_MIN_JPEG_QUALITY,
+                DEF_MIN_JPEG_QUALITY) : maxQuality;
+        int minFps = MyStateManager.getIntegerPref(context, KEY_MIN_CAPTURE_FPS, DEF_MIN_CAPTURE_FPS);
+        int maxFps = MyStateManager.getIntegerPref(context, KEY_MAX_CAPTURE_FPS, DEF_MAX_CAPTURE_FPS);
+
+        Size minSize = new Size(
+                MyStateManager.getIntegerPref(context, KEY_MIN_IMAGE_WIDTH, DEF_MIN_IM_READER_SIZE.getWidth()),
+                MyStateManager.getIntegerPref(context, KEY_MIN_IMAGE_HEIGHT, DEF_MIN_IM_READER_SIZE.getHeight()));
+        mGovernorSizes = isJpeg ? getResolutionLevels(firstCamera.getCharacteristics(), minSize) :
+                Collections.singletonList(mImReaderSize);
+
+        String[] sizeNames = new String[mGovernorSizes.size()];
+        for (int i = 0; i < sizeNames.length; i++) {
+            sizeNames[i] = mGovernorSizes.get(i).toString();
+        }
+
+        CaptureGovernor governor = new CaptureGovernor(minQuality, maxQuality, minFps, maxFps,
+                sizeNames, MAX_IMAGE_WRITE_LATENCY_NS);
+
+        if (isJpeg) {
+            mJpegQuality = governor.getJpegQuality();
+        }
+        mMinFrameIntervalNs = governor.getFrameIntervalNs();
+        mLastFlushCount = 0;
+        mLastFlushLatencySumNs = 0;
+        mLastNotStored = 0;
+        mGovernor = governor;
+
+        if (!mImReaderSize.equals(mGovernorSizes.get(0))) {
+            // a previous recording ended at a lower resolution
+            getBgHandler().post(() -> reconfigureImageReaders(mGovernorSizes.get(0)));
+        }
+        Log.d(TAG, "Capture governor: " + governor.getSettings());
+    }
+
+    private void stopGovernor() {
+
+        CaptureGovernor governor = mGovernor;
+        if (governor == null) {
+            return;
+        }
+        mGovernor = null;
+        getBgHandler().removeCallbacks(mGovernorTick);
+        mMinFrameIntervalNs = 0;
+
+        String report = governor.getReport();
+        Log.i(TAG, report);
+        logMessage(report, TAG);
+
+        int changesTarget = getTargetId(new MyResourceIdentifier(mGovernorSensorId, 5));
+        if (changesTarget >= 0) {
+            publishMessage(new MyMessages.MsgStorage("# " + report + "\n", null, changesTarget));
+        }
+    }
+
+    /**
+     * @return supported sizes from the requested image size down to minSize (the largest first),
+     * each about half of the previous one
+     */
+    private List<Size> getResolutionLevels(CameraCharacteristics characteristics, Size minSize) {
+
+        int format = getImageOutputFormat();
+        long minArea = (long) minSize.getWidth() * minSize.getHeight();
+
+        List<Size> sizes = new ArrayList<>();
+        Size target = mMaxImReaderSize;
+
+        while (sizes.isEmpty() || (long) target.getWidth() * target.getHeight() >= minArea) {
+
+            Size size = SizeSelector.getSurfaceSize(characteristics, format, target);
+            Size lastSize = sizes.isEmpty() ? null : sizes.get(sizes.size() - 1);
+
+            if (lastSize == null || new SizeSelector.CompareSizesByArea().compare(size, lastSize) < 0) {
+                sizes.add(size);
+            }
+
+            target = new Size((int) Math.round(target.getWidth() * RESOLUTION_STEP),
+                    (int) Math.round(target.getHeight() * RESOLUTION_STEP));
+        }
+        return sizes;
+    }
+
+    /**
+     * Feeds the governor with the image queue, write latency and dropped frames of the
+     * last period and applies its decision. Runs periodically on the background thread.
+     */
+    private void runGovernor() {
+
+        CaptureGovernor governor = mGovernor;
+        CameraGroup cameraGroup = mSelectedCamGroup;
+        if (governor == null || cameraGroup == null || !isProcessing()) {
+            return;
+        }
+
+        boolean isRaw = getImageOutputFormat() == ImageFormat.RAW_SENSOR;
+        long queueDepth = isRaw ? mRawMsgPool.getOutstandingCount() : mImageMsgPool.getOutstandingCount();
+        int queueCapacity = isRaw ? MAX_PENDING_RAW_IMAGES : MAX_PENDING_IMAGES;
+
+        long notStored = cameraGroup.getNotStoredFrames();
+        long dropped = notStored - mLastNotStored;
+        mLastNotStored = notStored;
+
+        CaptureGovernor.Change change = governor.update(mLastFrameTs, (int) queueDepth, queueCapacity,
+                getImageWriteLatency(), dropped);
+
+        if (change != null) {
+            applyCaptureChange(governor, change);
+        }
+
+        getBgHandler().postDelayed(mGovernorTick, GOVERNOR_PERIOD_MS);
+    }
+
+    /**
+     * @return mean write latency of the images stored since the last call (0: none)
+     */
+    private long getImageWriteLatency() {
+
+        MsgConfig imageConfig = getResourceMsg(new MyResourceIdentifier(mGovernorSensorId, 1));
+        if (!(imageConfig instanceof StorageConfig)) {
+            return 0;
+        }
+
+        // answered synchronously by the storage manager
+        StorageConfig stateConfig = new StorageConfig(MsgConfig.ConfigAction.GET_STATE, TAG,
+                ((StorageConfig) imageConfig).getStorageInfo());
+        stateConfig.setTargetId(imageConfig.getTargetId());
+        publishMessage(stateConfig);
+
+        MyMessages.StorageStats stats = stateConfig.getStorageStats();
+        if (stats == null) {
+            return 0;
+        }
+
+        long flushCount = stats.mFlushCount - mLastFlushCount;
+        long latencySumNs = stats.mFlushLatencySumNs - mLastFlushLatencySumNs;
+        mLastFlushCount = stats.mFlushCount;
+        mLastFlushLatencySumNs = stats.mFlushLatencySumNs;
+
+        return (flushCount > 0) ? latencySumNs / flushCount : 0;
+    }
+
+    /**
+     * The change is saved with the timestamp of the last frame before it
+     * (frames of requests already in flight might still have the old settings).
+     */
+    private void applyCaptureChange(CaptureGovernor governor, CaptureGovernor.Change change) {
+
+        String record = change.toString();
+
+        switch (change.getParameter()) {
+            case JPEG_QUALITY: {
+                mJpegQuality = governor.getJpegQuality();
+                synchronized (mCameraStateLock) {
+                    applyJpegQualityLocked();
+                    if (mbStreamingActive && mCaptureSession != null && mCaptureRequest != null) {
+                        try {
+                            mCaptureSession.setRepeatingRequest(mCaptureRequest.build(),
+                                    mCaptureCallback, getBgHandler());
+                        }
+                        catch (CameraAccessException | IllegalStateException e) {
+                            e.printStackTrace();
+                        }
+                    }
+                }
+                break;
+            }
+            case FRAME_RATE: {
+                mMinFrameIntervalNs = governor.getFrameIntervalNs();
+                break;
+            }
+            case RESOLUTION: {
+                reconfigureImageReaders(mGovernorSizes.get(change.getNewValue()));
+                break;
+            }
+        }
+
+        Log.i(TAG, "Capture change: " + record.trim());
+        logMessage(record.trim(), TAG);
+
+        int changesTarget = getTargetId(new MyResourceIdentifier(mGovernorSensorId, 5));
+        if (changesTarget >= 0) {
+            publishMessage(new MyMessages.MsgStorage(record, null, changesTarget));
         }
     }
 
+    /**
+     * Recreates the ImageReaders with a new size and a new session for them.
+     * If recording, the capture loop resumes when the session is configured,
+     * the frames in between are lost. Runs on the background thread.
+     */
+    private void reconfigureImageReaders(Size size) {
+
+        // the image tasks in flight finish before their readers are closed,
+        // the queued ones fail to acquire an image from the closed readers
+        mImageReadersLock.writeLock().lock();
+        try {
+            synchronized (mCameraStateLock) {
+
+                mImReaderSize = size;
+
+                if (mCameraDevice == null || mSelectedCamGroup == null) {
+                    // applied when the camera is opened
+                    return;
+                }
+
+                mbStreamingActive = false;
+                if (mCaptureSession != null) {
+                    try {
+                        mCaptureSession.abortCaptures();
+                    }
+                    catch (CameraAccessException | IllegalStateException e) {
+                        e.printStackTrace();
+                    }
+                    mCaptureSession.close();
+                    mCaptureSession = null;
+                }
+
+                List<ImageReader> lImReaders = mSelectedCamGroup.getPhysicalImageReaders();
+                if (lImReaders != null) {
+                    for (ImageReader imageReader : lImReaders) {
+                        imageReader.close();
+                    }
+                }
+
+                // the new capture request needs the 3A settings again
+                mbIsFirstCapture = true;
+                mbRestartCaptureLoop = isProcessing();
+            }
+        }
+        finally {
+            mImageReadersLock.writeLock().unlock();
+        }
+
+        configureCameraSensorsAndOutputStreams();
+        initCameraSession();
+    }
+
     /* ------------------------------- Capture Request Configs ---------------------------------- */
 
+    /**
+     * Sets the governor's JPEG quality on the capture request.
+     * <p/>
+     * Call this only with {@link #mCameraStateLock} held.
+     */
+    private void applyJpegQualityLocked() {
+
+        if (mCaptureRequest != null && mJpegQuality > 0) {
+            mCaptureRequest.set(CaptureRequest.JPEG_QUALITY, (byte) mJpegQuality);
+        }
+    }
+
     /**
      * Configure the given {@link CaptureRequest.Builder} to use auto-focus, auto-exposure, and
      * auto-white-balance controls if available.
@@ -1684,6 +2754,11 @@ public class CameraFlyVideo extends MyBaseManager {
         private List<OutputConfiguration> mPhysicalOutConfig;
         private List<Surface> mPhysicalSurfaces;
 
+        // encoder input of the logical camera (owned by the encoder)
+        private Surface mVideoSurface;
+
+        private final Map<Integer, FrameStats> mFrameStats = new HashMap<>();
+
 
         public CameraGroup(String logicalId, CameraCharacteristics logicalCamCharacteristics,
                            Set<CameraSensor> physicalCams) {
@@ -1744,6 +2819,29 @@ public class CameraFlyVideo extends MyBaseManager {
             }
         }
 
+        synchronized public Surface getVideoSurface() {
+            return mVideoSurface;
+        }
+        synchronized public void setVideoSurface(Surface videoSurface) {
+            mVideoSurface = videoSurface;
+        }
+
+        /**
+         * @return the physical camera that stores the logical camera's video (lowest id)
+         */
+        synchronized public int getVideoSensorId() {
+
+            int sensorId = -1;
+            if (mPhysicalCameras != null) {
+                for (CameraSensor camera : mPhysicalCameras) {
+                    if (sensorId < 0 || camera.getId() < sensorId) {
+                        sensorId = camera.getId();
+                    }
+                }
+            }
+            return sensorId;
+        }
+
         synchronized public List<Surface> getAllSurfaces() {
 
             List<Surface> targetSurfaces = new ArrayList<>();
@@ -1751,6 +2849,9 @@ public class CameraFlyVideo extends MyBaseManager {
             if (mPreviewSurface != null) {
                 targetSurfaces.add(mPreviewSurface);
             }
+            if (mVideoSurface != null) {
+                targetSurfaces.add(mVideoSurface);
+            }
             if (mPhysicalSurfaces != null && !mPhysicalSurfaces.isEmpty()) {
                 targetSurfaces.addAll(mPhysicalSurfaces);
             }
@@ -1766,6 +2867,9 @@ public class CameraFlyVideo extends MyBaseManager {
                 if (mPreviewSurface != null) {
                     lAllOutConfigs.add(new OutputConfiguration(mPreviewSurface));
                 }
+                if (mVideoSurface != null) {
+                    lAllOutConfigs.add(new OutputConfiguration(mVideoSurface));
+                }
             }
             if (mPhysicalOutConfig != null && !mPhysicalOutConfig.isEmpty()) {
                 lAllOutConfigs.addAll(mPhysicalOutConfig);
@@ -1796,6 +2900,115 @@ public class CameraFlyVideo extends MyBaseManager {
             }
             return null;
         }
+
+        /* ---- Frame Statistics ---- */
+
+        synchronized public void resetFrameStats() {
+
+            mFrameStats.clear();
+            if (mPhysicalCameras != null) {
+                for (CameraSensor camera : mPhysicalCameras) {
+                    mFrameStats.put(camera.getId(), new FrameStats());
+                }
+            }
+        }
+
+        synchronized public void onCaptureStarted() {
+
+            for (FrameStats stats : mFrameStats.values()) {
+                stats.mRequested++;
+            }
+        }
+
+        synchronized public void onFrameDelivered(int sensorId, long timestamp) {
+
+            FrameStats stats = mFrameStats.get(sensorId);
+            if (stats != null) {
+                stats.onFrame(timestamp);
+            }
+        }
+
+        synchronized public void onFrameDropped(int sensorId) {
+
+            FrameStats stats = mFrameStats.get(sensorId);
+            if (stats != null) {
+                stats.mNotStored++;
+            }
+        }
+
+        synchronized public double getAchievedFps(int sensorId) {
+
+            FrameStats stats = mFrameStats.get(sensorId);
+            return stats != null ? stats.getFps() : 0.0;
+        }
+
+        synchronized public long getDroppedFrames(int sensorId) {
+
+            FrameStats stats = mFrameStats.get(sensorId);
+            return stats != null ? stats.getDropped() : 0;
+        }
+
+        /**
+         * @return frames of all cameras dropped before storage (write backlog)
+         */
+        synchronized public long getNotStoredFrames() {
+
+            long notStored = 0;
+            for (FrameStats stats : mFrameStats.values()) {
+                notStored += stats.mNotStored;
+            }
+            return notStored;
+        }
+
+        synchronized public String getFrameStatsReport() {
+
+            StringBuilder sb = new StringBuilder("Camera frames (" + mLogicalCamera + "):");
+
+            for (Map.Entry<Integer, FrameStats> entry : mFrameStats.entrySet()) {
+
+                FrameStats stats = entry.getValue();
+                sb.append(String.format(Locale.US,
+                        "\n  cam%d: %d frames, %.1f fps, %d dropped, %d not stored",
+                        entry.getKey(), stats.mDelivered, stats.getFps(), stats.getDropped(),
+                        stats.mNotStored));
+            }
+            return sb.toString();
+        }
+
+        /**
+         * Per physical camera counters. Every started capture should deliver one image,
+         * so the captures in flight when the stats are read are also counted as dropped.
+         */
+        private static class FrameStats {
+
+            private long mRequested = 0;
+            private long mDelivered = 0;
+            // delivered but dropped before storage (write backlog)
+            private long mNotStored = 0;
+            private long mFirstTs = -1;
+            private long mLastTs = -1;
+
+            void onFrame(long timestamp) {
+
+                if (mFirstTs < 0) {
+                    mFirstTs = timestamp;
+                }
+                mLastTs = timestamp;
+                mDelivered++;
+            }
+
+            long getDropped() {
+                return Math.max(0, mRequested - mDelivered);
+            }
+
+            double getFps() {
+
+                if (mDelivered < 2 || mLastTs <= mFirstTs) {
+                    return 0.0;
+                }
+                return (mDelivered - 1) * 1e9 / (mLastTs - mFirstTs);
+            }
+        }
     }
 
     static class CameraSensor extends MySensorInfo {
@@ -1903,6 +3116,25 @@ public class CameraFlyVideo extends MyBaseManager {
             return SizeSelector.getNearestSize(Arrays.asList(choices), targetSize);
         }
 
+        // for surface based outputs (e.g. MediaCodec)
+        public static Size getSurfaceSize(CameraCharacteristics characteristics,
+                                          Class<?> outputClass, Size targetSize) {
+
+            if (characteristics == null) {
+                return targetSize;
+            }
+
+            Size[] choices = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP)
+                    .getOutputSizes(outputClass);
+
+            if (choices == null || choices.length == 0) {
+                Log.w(TAG, "Selected camera doesn't support the requested output class");
+                return targetSize;
+            }
+
+            return SizeSelector.getNearestSize(Arrays.asList(choices), targetSize);
+        }
+
         /**
          * Return true if the two given {@link Size}s have the same aspect ratio.
          *
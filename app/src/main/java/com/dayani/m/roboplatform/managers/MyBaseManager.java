@@ -19,6 +19,7 @@ package com.dayani.m.roboplatform.managers;
 
 import android.content.Context;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.util.Log;
 import android.util.Pair;
 
@@ -28,6 +29,7 @@ import com.dayani.m.roboplatform.RecordingFragment;
 import com.dayani.m.roboplatform.utils.AppGlobals;
 import com.dayani.m.roboplatform.utils.data_types.MySensorGroup;
 import com.dayani.m.roboplatform.utils.data_types.MySensorInfo;
+import com.dayani.m.roboplatform.utils.helpers.RecordingScheduler;
 import com.dayani.m.roboplatform.utils.interfaces.ActivityRequirements.OnRequirementResolved;
 import com.dayani.m.roboplatform.utils.interfaces.ActivityRequirements.HandlePermissionRequirement;
 import com.dayani.m.roboplatform.utils.interfaces.ActivityRequirements.Requirement;
@@ -35,22 +37,23 @@ import com.dayani.m.roboplatform.utils.interfaces.ActivityRequirements.Requireme
 import com.dayani.m.roboplatform.utils.interfaces.ActivityRequirements.HandleBroadcastReceivers;
 import com.dayani.m.roboplatform.utils.interfaces.MyBackgroundExecutor;
 import com.dayani.m.roboplatform.utils.interfaces.MyChannels.ChannelTransactions;
+import com.dayani.m.roboplatform.utils.interfaces.MyChannels.TopicSubscriber;
+import com.dayani.m.roboplatform.utils.interfaces.MyMessageBus;
 import com.dayani.m.roboplatform.utils.interfaces.MyMessages;
 import com.dayani.m.roboplatform.utils.interfaces.MyMessages.MsgConfig;
 import com.dayani.m.roboplatform.utils.interfaces.MyMessages.MsgLogging;
 import com.dayani.m.roboplatform.utils.interfaces.MyMessages.MyMessage;
 import com.dayani.m.roboplatform.utils.interfaces.MyMessages.StorageConfig;
 
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.Executor;
 
 
-public abstract class MyBaseManager implements ChannelTransactions,
+public abstract class MyBaseManager implements ChannelTransactions, TopicSubscriber,
         HandlePermissionRequirement, HandleBroadcastReceivers {
 
     // Class Variables
@@ -60,6 +63,17 @@ public abstract class MyBaseManager implements ChannelTransactions,
     public static final String KEY_INTENT_ACTIVITY_LAUNCHER =
             AppGlobals.PACKAGE_BASE_NAME + ".key_intent_activity_launcher";
 
+    // publish hot-channel messages from pools instead of allocating one per sample
+    public static final String KEY_POOLED_MESSAGES = AppGlobals.PACKAGE_BASE_NAME +
+            ".MyBaseManager.KEY_POOLED_MESSAGES";
+    // pooled messages held longer than this after recording are reported as leaks
+    protected static final long POOL_LEAK_AGE_NS = 10000000000L; // 10 s
+
+    // degrade the managers' rates when the device heats up or the battery drains too fast
+    // (see RecordingScheduler, the device state is sampled by RecordingMonitor)
+    public static final String KEY_RECORDING_SCHEDULER = AppGlobals.PACKAGE_BASE_NAME +
+            ".MyBaseManager.KEY_RECORDING_SCHEDULER";
+
     protected final boolean mbIsSupported;
     // requirements consist of other booleans
     protected boolean mbIsPermitted;
@@ -67,6 +81,9 @@ public abstract class MyBaseManager implements ChannelTransactions,
 
     protected boolean mIsProcessing;
 
+    // updated on each START_RECORDING
+    protected boolean mbPooledMessages = false;
+
     // spreading multi-threading logic everywhere doesn't provide performance!
     protected MyBackgroundExecutor.JobListener mBackgroundJobListener;
 
@@ -76,7 +93,8 @@ public abstract class MyBaseManager implements ChannelTransactions,
     protected OnRequirementResolved mRequirementResponseListener;
 
     //protected final Map<MyChannels.ChannelType, Set<MessageChannel>> mlChannels;
-    protected final Set<ChannelTransactions> mlChannels;
+    // routes published messages to the channels that handle them
+    protected final MyMessageBus mMessageBus;
     // map<ChannelId, Map<taskId, targetId>>
     //protected final Map<String, Map<Integer, Integer>> mChannelTargetMap;
 
@@ -92,7 +110,7 @@ public abstract class MyBaseManager implements ChannelTransactions,
 
         setIsProcessing(false);
 
-        mlChannels = new HashSet<>();
+        mMessageBus = new MyMessageBus(getClass().getSimpleName());
         //mChannelTargetMap = new HashMap<>();
 
         mlSensorGroup = getSensorGroups(context);
@@ -316,6 +334,13 @@ public abstract class MyBaseManager implements ChannelTransactions,
                     execute(context, LifeCycleState.STOP_RECORDING);
                 }
                 setIsProcessing(true);
+                mbPooledMessages = MyStateManager.getBoolPref(context, KEY_POOLED_MESSAGES, false);
+
+                if (MyStateManager.getBoolPref(context, KEY_RECORDING_SCHEDULER, false)) {
+                    for (RecordingScheduler.Policy policy : getDegradationPolicies()) {
+                        RecordingScheduler.getInstance().addPolicy(policy);
+                    }
+                }
 
                 String mClassName = getClass().getSimpleName();
                 Log.d(TAG, mClassName + " started successfully");
@@ -327,6 +352,10 @@ public abstract class MyBaseManager implements ChannelTransactions,
 
                 setIsProcessing(false);
 
+                // restores the degraded rates for the next recording
+                RecordingScheduler.getInstance().removePolicies(getClass().getSimpleName(),
+                        SystemClock.elapsedRealtimeNanos());
+
                 String mClassName = getClass().getSimpleName();
                 Log.d(TAG, mClassName + " stopped successfully");
                 // publish a logging message
@@ -353,6 +382,21 @@ public abstract class MyBaseManager implements ChannelTransactions,
     public synchronized boolean isProcessing() { return mIsProcessing; }
     protected synchronized void setIsProcessing(boolean state) { mIsProcessing = state; }
 
+    /**
+     * @return the degradable settings of the recording, the lowest priorities are degraded first
+     * (added to the RecordingScheduler on START_RECORDING)
+     */
+    protected List<RecordingScheduler.Policy> getDegradationPolicies() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * @return current settings of the degradation policies, null if the manager has none
+     */
+    public String getLoad() {
+        return RecordingScheduler.getInstance().getLoad(getClass().getSimpleName());
+    }
+
     // Resources
 
     protected Executor getBgExecutor() {
@@ -471,6 +515,7 @@ public abstract class MyBaseManager implements ChannelTransactions,
                 StorageConfig storageConfig = (StorageConfig) configMsg;
                 StorageConfig closeMsg = new StorageConfig(MsgConfig.ConfigAction.CLOSE,
                         storageConfig.getSender(), storageConfig.getStorageInfo());
+                closeMsg.setTargetId(storageConfig.getTargetId());
 
                 publishMessage(closeMsg);
 
@@ -483,31 +528,39 @@ public abstract class MyBaseManager implements ChannelTransactions,
     @Override
     public void registerChannel(ChannelTransactions channel) {
 
-        if (mlChannels != null) {
-            mlChannels.add(channel);
-        }
+        mMessageBus.register(channel);
     }
 
     @Override
     public void unregisterChannel(ChannelTransactions channel) {
 
-        if (mlChannels != null) {
-            mlChannels.remove(channel);
-        }
+        mMessageBus.unregister(channel);
     }
 
     @Override
     public void publishMessage(MyMessage msg) {
 
-        for (ChannelTransactions channel : mlChannels) {
-            channel.onMessageReceived(msg);
-        }
+        mMessageBus.publish(msg);
     }
 
     @Override
     public void onMessageReceived(MyMessage msg) {
     }
 
+    /**
+     * Managers receive every message by default,
+     * override to only be routed the messages handled in onMessageReceived
+     */
+    @Override
+    public String getChannelTag() {
+        return null;
+    }
+
+    @Override
+    public List<Class<? extends MyMessage>> getSubscribedTypes() {
+        return null;
+    }
+
     protected void logMessage(String msg, String loggerTag) {
 
         MsgLogging loggingMsg = new MsgLogging(msg, RecordingFragment.class.getSimpleName());
@@ -565,6 +618,40 @@ public abstract class MyBaseManager implements ChannelTransactions,
         }
     }
 
+    /**
+     * A degradation policy with one named setting per level (0: full rate)
+     */
+    protected abstract static class LevelPolicy implements RecordingScheduler.Policy {
+
+        private final String mManager;
+        private final String mName;
+        private final int mPriority;
+        private final String[] mSettings;
+
+        protected LevelPolicy(String manager, String name, int priority, String... settings) {
+
+            mManager = manager;
+            mName = name;
+            mPriority = priority;
+            mSettings = settings;
+        }
+
+        @Override
+        public String getManager() { return mManager; }
+
+        @Override
+        public String getName() { return mName; }
+
+        @Override
+        public int getPriority() { return mPriority; }
+
+        @Override
+        public int getMaxLevel() { return mSettings.length - 1; }
+
+        @Override
+        public String getSetting(int level) { return mSettings[level]; }
+    }
+
     public enum LifeCycleState {
 
         ACT_CREATED,
@@ -755,6 +755,11 @@ public class MyBluetoothManager extends MyBaseManager implements HandleEnableSet
         return mbPassedConnTest;
     }
 
+    @Override
+    public List<Class<? extends MyMessages.MyMessage>> getSubscribedTypes() {
+        return Collections.singletonList(MyMessages.MsgWireless.class);
+    }
+
     @Override
     public void onMessageReceived(MyMessages.MyMessage msg) {
 
@@ -27,18 +27,27 @@ import android.content.Context;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
+import android.hardware.SensorEventListener2;
 import android.hardware.SensorManager;
 import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
 import android.util.Log;
 import android.util.Pair;
 
+import com.dayani.m.roboplatform.RecordingFragment;
+import com.dayani.m.roboplatform.utils.AppGlobals;
 import com.dayani.m.roboplatform.utils.data_types.MySensorGroup;
 import com.dayani.m.roboplatform.utils.data_types.MySensorGroup.SensorType;
 import com.dayani.m.roboplatform.utils.data_types.MySensorInfo;
+import com.dayani.m.roboplatform.utils.helpers.BinaryRecordFormat;
+import com.dayani.m.roboplatform.utils.helpers.RecordingScheduler;
+import com.dayani.m.roboplatform.utils.interfaces.MyBackgroundExecutor;
 import com.dayani.m.roboplatform.utils.interfaces.ActivityRequirements.Requirement;
+import com.dayani.m.roboplatform.utils.interfaces.MyMessagePool;
 import com.dayani.m.roboplatform.utils.interfaces.MyMessages;
 import com.dayani.m.roboplatform.utils.interfaces.MyMessages.MsgConfig;
-import com.dayani.m.roboplatform.utils.interfaces.MyMessages.MyMessage;
 import com.dayani.m.roboplatform.utils.interfaces.MyMessages.StorageConfig;
 import com.dayani.m.roboplatform.utils.interfaces.MyMessages.StorageInfo;
 
@@ -49,6 +58,10 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 
 public class MySensorManager extends MyBaseManager {
@@ -62,6 +75,10 @@ public class MySensorManager extends MyBaseManager {
     public static final int ANDROID_VERSION_UNCALIB_SENSORS = Build.VERSION_CODES.O;
     public static final int ANDROID_VERSION_ACQ_MODE = Build.VERSION_CODES.N;
 
+    // record IMU streams in BinaryRecordFormat instead of text (convert offline)
+    public static final String KEY_BINARY_RECORDING = AppGlobals.PACKAGE_BASE_NAME +
+            ".MySensorManager.KEY_BINARY_RECORDING";
+
     private static final List<Integer> mCalibratedTypes = initCalibratedTypes();
     private static final List<Integer> mUncalibratedTypes = initUncalibratedTypes();
     private static final List<Integer> mMotionSensorTypes = initMotionSensorTypes();
@@ -75,6 +92,39 @@ public class MySensorManager extends MyBaseManager {
 
     private final SensorEventListener mSensorCallback = new MySensorListener(this);
 
+    private boolean mbBinaryRecording = false;
+
+    // register on a dedicated high-priority thread and use the hardware FIFO (batching)
+    public static final String KEY_BATCHED_RECORDING = AppGlobals.PACKAGE_BASE_NAME +
+            ".MySensorManager.KEY_BATCHED_RECORDING";
+    public static final int DEF_MAX_REPORT_LATENCY_US = 100000;
+    private static final long FLUSH_TIMEOUT_MS = 500;
+
+    // sampling periods of the recording scheduler's levels (level 0: the fastest)
+    private static final int[] SCHEDULER_MAGNETIC_PERIODS_US = {MAX_SENSOR_READ_INTERVAL, 20000, 100000};
+    // fused orientation and gravity (e.g. the flight controller), not below 20 Hz
+    private static final int[] SCHEDULER_MOTION_PERIODS_US = {MAX_SENSOR_READ_INTERVAL, 10000, 20000, 50000};
+    private static final int[] SCHEDULER_IMU_PERIODS_US = {MAX_SENSOR_READ_INTERVAL, 5000, 10000};
+
+    private boolean mbBatchedRecording = false;
+    private HandlerThread mSensorThread;
+    private Handler mSensorHandler;
+    private CountDownLatch mFlushLatch;
+
+    // capture path: sensor callbacks copy samples into preallocated per-sensor rings,
+    // a single drainer thread publishes them in batches (per-sensor order is kept)
+    private static final int SAMPLE_RING_SIZE = 2048;
+    private static final int MAX_SENSOR_VALUES = 16;
+    private static final long DRAIN_INTERVAL_NS = 5000000L;
+    // pooled mode: fixed-size batches recycled after storage writes them
+    private static final int POOLED_BATCH_SIZE = 64;
+    private static final int BATCH_POOL_SIZE = SAMPLE_RING_SIZE / POOLED_BATCH_SIZE;
+
+    // replaced as a whole when sensors are registered, read-only while recording
+    private volatile Map<android.hardware.Sensor, SampleRing> mmSampleRings = new HashMap<>();
+    private volatile boolean mbDrainerRunning = false;
+    private Thread mDrainerThread;
+
     /* ==================================== Construction ======================================== */
 
     public MySensorManager(Context context) {
@@ -377,8 +427,11 @@ public class MySensorManager extends MyBaseManager {
                 }
 
                 super.execute(context, state);
+                mbBinaryRecording = MyStateManager.getBoolPref(context, KEY_BINARY_RECORDING, false);
+                mbBatchedRecording = MyStateManager.getBoolPref(context, KEY_BATCHED_RECORDING, false);
                 openStorageChannels();
                 registerSensors();
+                startDrainer();
                 break;
             }
             case STOP_RECORDING: {
@@ -389,6 +442,7 @@ public class MySensorManager extends MyBaseManager {
                 }
 
                 unregisterSensors();
+                stopDrainer();
                 closeStorageChannels();
                 super.execute(context, state);
                 break;
@@ -410,6 +464,26 @@ public class MySensorManager extends MyBaseManager {
             return;
         }
 
+        // the rings must exist before the first callback
+        Map<android.hardware.Sensor, SampleRing> sampleRings = new HashMap<>();
+        for (MySensorGroup sensorGroup : mlSensorGroup) {
+
+            for (MySensorInfo sensor : sensorGroup.getSensors()) {
+
+                if (sensor.isChecked() && sensor instanceof MotionSensor) {
+
+                    android.hardware.Sensor androidSensor = ((MotionSensor) sensor).getSensor();
+                    int targetId = getTargetId(new MyResourceIdentifier(androidSensor.getType(), -1));
+                    sampleRings.put(androidSensor, new SampleRing(androidSensor, targetId));
+                }
+            }
+        }
+        mmSampleRings = sampleRings;
+
+        if (mbBatchedRecording) {
+            startSensorThread();
+        }
+
         int cnt = 0;
         for (MySensorGroup sensorGroup : mlSensorGroup) {
 
@@ -417,14 +491,91 @@ public class MySensorManager extends MyBaseManager {
 
                 if (sensor.isChecked() && sensor instanceof MotionSensor) {
 
-                    MotionSensor motionSensor = (MotionSensor) sensor;
-                    mSensorManager.registerListener(mSensorCallback, motionSensor.getSensor(),
-                                                    MAX_SENSOR_READ_INTERVAL);
+                    registerSensor((MotionSensor) sensor);
                     cnt++;
                 }
             }
         }
-        Log.d(TAG, "Registered " + cnt + " sensors");
+        Log.d(TAG, "Registered " + cnt + " sensors" + ((mbBatchedRecording) ? " (batched)" : ""));
+    }
+
+    private void registerSensor(MotionSensor motionSensor) {
+
+        if (mbBatchedRecording) {
+            mSensorManager.registerListener(mSensorCallback, motionSensor.getSensor(),
+                    motionSensor.getSamplingPeriodUs(), motionSensor.getMaxReportLatencyUs(),
+                    mSensorHandler);
+        }
+        else {
+            mSensorManager.registerListener(mSensorCallback, motionSensor.getSensor(),
+                    motionSensor.getSamplingPeriodUs());
+        }
+    }
+
+    /* ---------------------------------- Recording Scheduler ----------------------------------- */
+
+    /**
+     * The magnetometer and the other motion sensors are slowed down before the IMU
+     * (see RecordingScheduler)
+     */
+    @Override
+    protected List<RecordingScheduler.Policy> getDegradationPolicies() {
+
+        List<RecordingScheduler.Policy> policies = new ArrayList<>();
+        addRatePolicy(policies, SensorType.TYPE_MAGNET, "magnetic_rate",
+                RecordingScheduler.PRIORITY_MAGNETIC_RATE, SCHEDULER_MAGNETIC_PERIODS_US);
+        addRatePolicy(policies, SensorType.TYPE_MOTION, "motion_rate",
+                RecordingScheduler.PRIORITY_MOTION_RATE, SCHEDULER_MOTION_PERIODS_US);
+        addRatePolicy(policies, SensorType.TYPE_IMU, "imu_rate",
+                RecordingScheduler.PRIORITY_IMU_RATE, SCHEDULER_IMU_PERIODS_US);
+        return policies;
+    }
+
+    private void addRatePolicy(List<RecordingScheduler.Policy> policies, SensorType grpType,
+                               String name, int priority, int[] periodsUs) {
+
+        List<MotionSensor> sensors = new ArrayList<>();
+        for (MySensorGroup sensorGroup : mlSensorGroup) {
+            if (sensorGroup.getType() != grpType) {
+                continue;
+            }
+            for (MySensorInfo sensor : sensorGroup.getSensors()) {
+                if (sensor.isChecked() && sensor instanceof MotionSensor) {
+                    sensors.add((MotionSensor) sensor);
+                }
+            }
+        }
+
+        if (sensors.isEmpty()) {
+            return;
+        }
+
+        String[] settings = new String[periodsUs.length];
+        settings[0] = "fastest";
+        for (int i = 1; i < settings.length; i++) {
+            settings[i] = (1000000 / periodsUs[i]) + " Hz";
+        }
+
+        policies.add(new LevelPolicy(TAG, name, priority, settings) {
+            @Override
+            public void apply(int level) {
+                setSamplingPeriod(sensors, periodsUs[level]);
+            }
+        });
+    }
+
+    private void setSamplingPeriod(List<MotionSensor> sensors, int periodUs) {
+
+        for (MotionSensor sensor : sensors) {
+
+            sensor.setSamplingPeriodUs(periodUs);
+
+            if (isProcessing() && mSensorManager != null) {
+                // the samples keep going to the sensor's ring
+                mSensorManager.unregisterListener(mSensorCallback, sensor.getSensor());
+                registerSensor(sensor);
+            }
+        }
     }
 
     private void unregisterSensors() {
@@ -434,10 +585,151 @@ public class MySensorManager extends MyBaseManager {
             return;
         }
 
+        if (mbBatchedRecording) {
+            // deliver the samples still in the hardware FIFO
+            flushSensors();
+        }
+
         mSensorManager.unregisterListener(mSensorCallback);
+        stopSensorThread();
         Log.d(TAG, "Unregistered sensors successfully");
     }
 
+    private void startSensorThread() {
+
+        if (mSensorThread != null) {
+            return;
+        }
+
+        Pair<HandlerThread, Handler> threadHandler = MyBackgroundExecutor.startThread(
+                TAG, Process.THREAD_PRIORITY_URGENT_DISPLAY);
+        mSensorThread = threadHandler.first;
+        mSensorHandler = threadHandler.second;
+    }
+
+    private void stopSensorThread() {
+
+        if (mSensorThread == null) {
+            return;
+        }
+
+        MyBackgroundExecutor.stopThread(mSensorThread);
+        mSensorThread = null;
+        mSensorHandler = null;
+    }
+
+    /**
+     * Blocks until all registered sensors report onFlushCompleted (or timeout)
+     */
+    private void flushSensors() {
+
+        int nSensors = mmSampleRings.size();
+        if (nSensors == 0) {
+            return;
+        }
+
+        mFlushLatch = new CountDownLatch(nSensors);
+        if (!mSensorManager.flush(mSensorCallback)) {
+            Log.w(TAG, "Sensor flush is not supported");
+            mFlushLatch = null;
+            return;
+        }
+
+        try {
+            if (!mFlushLatch.await(FLUSH_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                Log.w(TAG, "Sensor flush timed out");
+            }
+        }
+        catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        mFlushLatch = null;
+    }
+
+    private void onFlushCompleted() {
+
+        CountDownLatch flushLatch = mFlushLatch;
+        if (flushLatch != null) {
+            flushLatch.countDown();
+        }
+    }
+
+    /* ------------------------------------- Sample Capture ------------------------------------- */
+
+    /**
+     * Runs on the sensor callback thread: only copies primitives (no allocation)
+     * because Android reuses SensorEvent objects
+     */
+    private void onSensorSample(SensorEvent event) {
+
+        SampleRing ring = mmSampleRings.get(event.sensor);
+        if (ring != null) {
+            ring.put(event);
+        }
+    }
+
+    private synchronized void startDrainer() {
+
+        if (mbDrainerRunning) {
+            return;
+        }
+
+        mbDrainerRunning = true;
+        mDrainerThread = new Thread(this::runDrainer, TAG + "-Drainer");
+        mDrainerThread.start();
+    }
+
+    private synchronized void stopDrainer() {
+
+        if (mDrainerThread == null) {
+            return;
+        }
+
+        mbDrainerRunning = false;
+        LockSupport.unpark(mDrainerThread);
+
+        try {
+            mDrainerThread.join();
+        }
+        catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        mDrainerThread = null;
+
+        long nDropped = 0;
+        for (SampleRing ring : mmSampleRings.values()) {
+            nDropped += ring.getDropCount();
+            ring.reportLeaks();
+        }
+        if (nDropped > 0) {
+            logMessage("Sensor capture rings dropped " + nDropped + " samples\n",
+                    RecordingFragment.class.getSimpleName());
+        }
+    }
+
+    private void runDrainer() {
+
+        while (mbDrainerRunning) {
+            drainSampleRings();
+            LockSupport.parkNanos(DRAIN_INTERVAL_NS);
+        }
+        // samples received before unregistering
+        drainSampleRings();
+    }
+
+    private void drainSampleRings() {
+
+        boolean pooled = mbPooledMessages;
+
+        for (SampleRing ring : mmSampleRings.values()) {
+
+            MyMessages.MsgSensorBatch batch;
+            while ((batch = ring.drain(pooled)) != null) {
+                publishMessage(batch);
+            }
+        }
+    }
+
     /* ----------------------------------- Message Passing -------------------------------------- */
 
     @Override
@@ -477,7 +769,9 @@ public class MySensorManager extends MyBaseManager {
         List<String> imuDirs = Collections.singletonList("imu");
         List<String> magDirs = Collections.singletonList("magnetic_field");
 
-        StorageInfo.StreamType ss = StorageInfo.StreamType.STREAM_STRING;
+        StorageInfo.StreamType ss = (mbBinaryRecording) ? StorageInfo.StreamType.STREAM_BINARY :
+                StorageInfo.StreamType.STREAM_STRING;
+        String ext = (mbBinaryRecording) ? BinaryRecordFormat.BIN_FILE_EXT : BinaryRecordFormat.TEXT_FILE_EXT;
 
         StorageInfo storageInfo;
         String header;
@@ -485,31 +779,31 @@ public class MySensorManager extends MyBaseManager {
         switch (sensorType) {
             case android.hardware.Sensor.TYPE_ACCELEROMETER_UNCALIBRATED:
                 header = "# timestamp_ns, ax_m_s2, ay_m_s2, az_m_s2, b_ax_m_s2, b_ay_m_s2, b_az_m_s2, sensor_id\n";
-                storageInfo = new StorageInfo(imuDirs, "accel_raw.txt", ss);
+                storageInfo = new StorageInfo(imuDirs, "accel_raw" + ext, ss);
                 break;
             case android.hardware.Sensor.TYPE_GYROSCOPE_UNCALIBRATED:
                 header = "# timestamp_ns, rx_rad_s, ry_rad_s, rz_rad_s, b_rx_rad_s, b_ry_rad_s, b_rz_rad_s, sensor_id\n";
-                storageInfo = new StorageInfo(imuDirs, "gyro_raw.txt", ss);
+                storageInfo = new StorageInfo(imuDirs, "gyro_raw" + ext, ss);
                 break;
             case android.hardware.Sensor.TYPE_MAGNETIC_FIELD_UNCALIBRATED:
                 header = "# timestamp_ns, mx_uT, my_uT, mz_uT, b_mx_uT, b_my_uT, b_mz_uT, sensor_id\n";
-                storageInfo = new StorageInfo(magDirs, "mag_raw.txt", ss);
+                storageInfo = new StorageInfo(magDirs, "mag_raw" + ext, ss);
                 break;
             case android.hardware.Sensor.TYPE_ACCELEROMETER:
                 header = "# timestamp_ns, ax_m_s2, ay_m_s2, az_m_s2, sensor_id\n";
-                storageInfo = new StorageInfo(imuDirs, "accel.txt", ss);
+                storageInfo = new StorageInfo(imuDirs, "accel" + ext, ss);
                 break;
             case android.hardware.Sensor.TYPE_GYROSCOPE:
                 header = "# timestamp_ns, rx_rad_s, ry_rad_s, rz_rad_s, sensor_id\n";
-                storageInfo = new StorageInfo(imuDirs, "gyro.txt", ss);
+                storageInfo = new StorageInfo(imuDirs, "gyro" + ext, ss);
                 break;
             case android.hardware.Sensor.TYPE_MAGNETIC_FIELD:
                 header = "# timestamp_ns, mx_uT, my_uT, mz_uT, sensor_id\n";
-                storageInfo = new StorageInfo(magDirs, "mag.txt", ss);
+                storageInfo = new StorageInfo(magDirs, "mag" + ext, ss);
                 break;
             default:
                 header = "# unknown sensor type\n";
-                storageInfo = new StorageInfo(imuDirs, "undefined_sensor.txt", ss);
+                storageInfo = new StorageInfo(imuDirs, "undefined_sensor" + ext, ss);
                 break;
         }
 
@@ -542,14 +836,32 @@ public class MySensorManager extends MyBaseManager {
         public void setSensor(android.hardware.Sensor sensor) { mMotionSensor = sensor; }
         public android.hardware.Sensor getSensor() { return mMotionSensor; }
 
+        public int getSamplingPeriodUs() { return mSamplingPeriodUs; }
+        public void setSamplingPeriodUs(int periodUs) { mSamplingPeriodUs = periodUs; }
+
+        /**
+         * @return max batch latency, 0 if the sensor has no hardware FIFO
+         */
+        public int getMaxReportLatencyUs() {
+            if (mMotionSensor == null || mMotionSensor.getFifoMaxEventCount() <= 0) {
+                return 0;
+            }
+            return mMaxReportLatencyUs;
+        }
+        public void setMaxReportLatencyUs(int latencyUs) { mMaxReportLatencyUs = latencyUs; }
+
         private android.hardware.Sensor mMotionSensor;
+
+        // used in batched recording mode
+        private int mSamplingPeriodUs = MAX_SENSOR_READ_INTERVAL;
+        private int mMaxReportLatencyUs = DEF_MAX_REPORT_LATENCY_US;
     }
 
-    private static class MySensorListener implements SensorEventListener {
+    private static class MySensorListener implements SensorEventListener2 {
 
-        private final MyBaseManager mManager;
+        private final MySensorManager mManager;
 
-        public MySensorListener(MyBaseManager manager) {
+        public MySensorListener(MySensorManager manager) {
             mManager = manager;
         }
 
@@ -561,31 +873,119 @@ public class MySensorManager extends MyBaseManager {
         @Override
         public void onSensorChanged(SensorEvent event) {
 
-            mManager.doInBackground(new SensorReceiveTask(mManager, event));
+            mManager.onSensorSample(event);
+        }
+
+        @Override
+        public void onFlushCompleted(android.hardware.Sensor sensor) {
+
+            mManager.onFlushCompleted();
         }
     }
 
-    private static class SensorReceiveTask implements Runnable {
+    /**
+     * Single-producer (sensor callback), single-consumer (drainer) ring of primitive samples
+     */
+    private static class SampleRing {
 
-        private final MyBaseManager mManager;
-        private final SensorEvent mEvent;
+        private final int mMask;
+        private final long[] mTimestamps;
+        private final float[] mValues;
 
-        public SensorReceiveTask(MyBaseManager manager, SensorEvent event) {
+        private final int mSensorType;
+        private final int mSensorId;
+        private final int mTargetId;
+        // defined by the first event (published with the head)
+        private int mNumValues = 0;
 
-            mManager = manager;
-            mEvent = event;
+        private final AtomicLong mHead = new AtomicLong(0);
+        private final AtomicLong mTail = new AtomicLong(0);
+        private final AtomicLong mDropCount = new AtomicLong(0);
+
+        // created by the drainer once the number of values is known
+        private MyMessagePool<MyMessages.MsgSensorBatch> mBatchPool = null;
+
+        public SampleRing(android.hardware.Sensor sensor, int targetId) {
+
+            mMask = SAMPLE_RING_SIZE - 1;
+            mTimestamps = new long[SAMPLE_RING_SIZE];
+            mValues = new float[SAMPLE_RING_SIZE * MAX_SENSOR_VALUES];
+
+            mSensorType = sensor.getType();
+            mSensorId = (SDK_INT >= ANDROID_VERSION_ACQ_MODE) ? sensor.getId() :
+                    BinaryRecordFormat.NO_SENSOR_ID;
+            mTargetId = targetId;
         }
 
-        @Override
-        public void run() {
+        public void put(SensorEvent event) {
+
+            long head = mHead.get();
+            if (head - mTail.get() > mMask) {
+                // full: the drainer is too slow
+                mDropCount.incrementAndGet();
+                return;
+            }
 
-            Log.d(TAG,"Processing Sensor receive job in background.");
+            int idx = (int) (head & mMask);
+            int nValues = Math.min(event.values.length, MAX_SENSOR_VALUES);
+            if (mNumValues == 0) {
+                mNumValues = nValues;
+            }
+
+            mTimestamps[idx] = event.timestamp;
+            System.arraycopy(event.values, 0, mValues, idx * MAX_SENSOR_VALUES, nValues);
+
+            mHead.lazySet(head + 1);
+        }
+
+        /**
+         * @param pooled take a fixed-size batch from the pool (call again for the rest),
+         *               otherwise all available samples are returned in a new batch
+         * @return null if there are no samples
+         */
+        public MyMessages.MsgSensorBatch drain(boolean pooled) {
 
-            MyResourceIdentifier rId = new MyResourceIdentifier(mEvent.sensor.getType(), -1);
-            int targetId = mManager.getTargetId(rId);
+            long tail = mTail.get();
+            long head = mHead.get();
+            int nSamples = (int) (head - tail);
 
-            MyMessage sensorMsg = new MyMessages.MsgSensor(mEvent, targetId);
-            mManager.publishMessage(sensorMsg);
+            if (nSamples <= 0) {
+                return null;
+            }
+
+            MyMessages.MsgSensorBatch batch;
+            if (pooled) {
+                if (mBatchPool == null) {
+                    final int numValues = mNumValues;
+                    mBatchPool = new MyMessagePool<>("SensorBatch" + mSensorType, BATCH_POOL_SIZE,
+                            () -> new MyMessages.MsgSensorBatch(mTargetId, mSensorType,
+                                    mSensorId, numValues, POOLED_BATCH_SIZE));
+                }
+                batch = mBatchPool.acquire();
+                nSamples = Math.min(nSamples, batch.getCapacity());
+            }
+            else {
+                batch = new MyMessages.MsgSensorBatch(mTargetId, mSensorType, mSensorId,
+                        mNumValues, nSamples);
+            }
+
+            long end = tail + nSamples;
+            for (long i = tail; i < end; i++) {
+                int idx = (int) (i & mMask);
+                batch.addSample(mTimestamps[idx], mValues, idx * MAX_SENSOR_VALUES);
+            }
+
+            mTail.lazySet(end);
+            return batch;
+        }
+
+        public long getDropCount() { return mDropCount.get(); }
+
+        public void reportLeaks() {
+
+            if (mBatchPool != null) {
+                mBatchPool.reportLeaks(POOL_LEAK_AGE_NS);
+            }
         }
     }
 }
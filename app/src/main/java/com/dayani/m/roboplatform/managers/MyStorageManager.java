@@ -16,17 +16,28 @@ import android.media.Image;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Environment;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.provider.Settings;
 import android.util.Log;
 import android.util.Pair;
+import android.util.Size;
 
 import androidx.activity.result.ActivityResult;
 import androidx.appcompat.app.AppCompatActivity;
 
+import com.dayani.m.roboplatform.RecordingFragment;
 import com.dayani.m.roboplatform.utils.AppGlobals;
+import com.dayani.m.roboplatform.utils.data_types.MyChannelMetrics;
 import com.dayani.m.roboplatform.utils.data_types.MySensorGroup;
 import com.dayani.m.roboplatform.utils.data_types.MySensorGroup.SensorType;
+import com.dayani.m.roboplatform.utils.data_types.MyRingBuffer;
 import com.dayani.m.roboplatform.utils.data_types.MySensorInfo;
+import com.dayani.m.roboplatform.utils.helpers.BinaryStorageStream;
+import com.dayani.m.roboplatform.utils.helpers.ImagePackStream;
+import com.dayani.m.roboplatform.utils.helpers.ImuFrameIndex;
+import com.dayani.m.roboplatform.utils.helpers.StorageStream;
+import com.dayani.m.roboplatform.utils.helpers.YuvFrameStream;
 import com.dayani.m.roboplatform.utils.interfaces.ActivityRequirements.Requirement;
 import com.dayani.m.roboplatform.utils.interfaces.MyMessages;
 import com.dayani.m.roboplatform.utils.interfaces.MyMessages.MsgConfig;
@@ -35,18 +46,27 @@ import com.dayani.m.roboplatform.utils.interfaces.MyMessages.StorageConfig;
 import com.dayani.m.roboplatform.utils.interfaces.MyMessages.StorageInfo;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 
 public class MyStorageManager extends MyBaseManager {
@@ -70,6 +90,15 @@ public class MyStorageManager extends MyBaseManager {
     public static final String BASE_STORAGE_PATH = "robo-platform";
     public static final String DS_FOLDER_PREFIX = "dataset-";
 
+    // record channel latency/throughput metrics (see MyChannelMetrics)
+    public static final String KEY_CHANNEL_METRICS = PACKAGE_NAME +
+            ".MyStorageManager.KEY_CHANNEL_METRICS";
+    public static final String METRICS_FILE_NAME = "channel_metrics.txt";
+
+    // index frame timestamps to the sensor samples around them (see ImuFrameIndex)
+    public static final String KEY_IMU_FRAME_INDEX = PACKAGE_NAME +
+            ".MyStorageManager.KEY_IMU_FRAME_INDEX";
+
     private static final String ANDROID_REL_PATH_NAME = "/Android";
 
     private static final int ANDROID_SCOPED_STORAGE_VERSION = Build.VERSION_CODES.R;
@@ -80,7 +109,63 @@ public class MyStorageManager extends MyBaseManager {
     private final String mDsRoot;
 
     private static int mStorageId = 0;
-    private final HashMap<Integer, StorageHandle> mmStorage = new HashMap<>();
+    // accessed by producer threads (open, state) and the writer thread (write, close)
+    private final Map<Integer, StorageHandle> mmStorage = new ConcurrentHashMap<>();
+
+    // what to do when producers are faster than the writer thread
+    public enum OverflowPolicy {
+        BLOCK,          // wait for free space (lossless, may stall producers)
+        DROP_OLDEST,    // evict the oldest pending message
+        DROP_NEWEST     // discard the incoming message
+    }
+
+    private static final int DEF_WRITE_QUEUE_SIZE = 8192;
+    private static final int MAX_WRITE_BATCH = 256;
+    private static final long PRODUCER_BLOCK_WAIT_NS = 100000L;
+    private static final long DROP_REPORT_INTERVAL_NS = 1000000000L;
+
+    // stream messages are written by a single writer thread
+    private final MyRingBuffer<MyMessage> mWriteQueue = new MyRingBuffer<>(DEF_WRITE_QUEUE_SIZE);
+    // close requests evicted from the full write queue (DROP_OLDEST),
+    // written before the messages queued after them
+    private final ConcurrentLinkedQueue<MyMessage> mControlQueue = new ConcurrentLinkedQueue<>();
+    private volatile OverflowPolicy mOverflowPolicy = OverflowPolicy.BLOCK;
+    private final AtomicLong mDropCount = new AtomicLong(0);
+    private volatile boolean mbWriterRunning = false;
+    private volatile Thread mWriterThread;
+    // the writer is parked on an empty queue, producers unpark it
+    private volatile boolean mbWriterIdle = false;
+    // stop the writer once the stream channels of the recording are closed
+    private volatile boolean mbWriterStopPending = false;
+
+    // image files (copied and released by the camera) are written by bounded worker pools,
+    // images are dropped (and counted) when a pool's queue is full
+    private static final int DEF_IMAGE_WRITERS = 2;
+    private static final int IMAGE_QUEUE_SIZE = 16;
+    // DNG encoding is much slower than writing a JPEG, RAW frames get their own pool
+    // (each queued frame holds a full-resolution 16-bit copy)
+    private static final int DEF_DNG_WRITERS = 2;
+    private static final int DNG_QUEUE_SIZE = 4;
+    private static final long IMAGE_WRITER_KEEP_ALIVE_MS = 1000;
+    private static final long IMAGE_DRAIN_TIMEOUT_MS = 5000;
+
+    private final ImageWriterPool mImageWriters =
+            new ImageWriterPool("ImageWriter", DEF_IMAGE_WRITERS, IMAGE_QUEUE_SIZE);
+    private final ImageWriterPool mDngWriters =
+            new ImageWriterPool("DngWriter", DEF_DNG_WRITERS, DNG_QUEUE_SIZE);
+
+    private final MyChannelMetrics mMetrics = MyChannelMetrics.getInstance();
+    // written when the last stream channel of the recording is closed
+    private volatile boolean mbMetricsDumpPending = false;
+
+    // fed by the image and sensor channels, closed with the last stream channel
+    private volatile ImuFrameIndex mFrameIndex;
+    private StorageStream mFrameIndexStream;
+    // not the manager's monitor: the writer thread closes the index (see stopWriterThread)
+    private final Object mFrameIndexLock = new Object();
+    private volatile boolean mbFrameIndexClosePending = false;
+    // not the manager's lock: the writer thread dumps while stopWriterThread may be joining it
+    private final Object mMetricsLock = new Object();
 
     /* ==================================== Construction ======================================== */
 
@@ -312,6 +397,10 @@ public class MyStorageManager extends MyBaseManager {
     public void execute(Context context, LifeCycleState state) {
 
         if (state == LifeCycleState.ACT_DESTROYED) {
+
+            // write all pending messages first
+            stopWriterThread();
+
             for (int keyStore : mmStorage.keySet()) {
 
                 StorageHandle store = mmStorage.get(keyStore);
@@ -319,8 +408,41 @@ public class MyStorageManager extends MyBaseManager {
                     store.close();
                 }
             }
+            mmStorage.clear();
+            mbFrameIndexClosePending = true;
+            onStreamChannelClosed();
+
             super.execute(context, state);
         }
+        else if (state == LifeCycleState.START_RECORDING) {
+
+            // before other managers open their channels
+            if (MyStateManager.getBoolPref(context, KEY_CHANNEL_METRICS, false)) {
+                mMetrics.start();
+            }
+            else {
+                mMetrics.stop();
+            }
+            mbMetricsDumpPending = false;
+            mbWriterStopPending = false;
+
+            openFrameIndex(MyStateManager.getBoolPref(context, KEY_IMU_FRAME_INDEX, false));
+        }
+        else if (state == LifeCycleState.STOP_RECORDING) {
+
+            // the writer is not kept between recordings
+            mbWriterStopPending = true;
+            stopWriterIfIdle();
+
+            if (mMetrics.isEnabled()) {
+                mbMetricsDumpPending = true;
+                dumpMetricsIfIdle();
+            }
+            if (mFrameIndex != null) {
+                mbFrameIndexClosePending = true;
+                closeFrameIndexIfIdle();
+            }
+        }
         else if (state == LifeCycleState.ACT_CREATED) {
             super.execute(context, state);
         }
@@ -518,6 +640,12 @@ public class MyStorageManager extends MyBaseManager {
 
     /* ----------------------------------- Message Passing -------------------------------------- */
 
+    @Override
+    public String getChannelTag() {
+        // all data and storage config. messages, but no loggers' messages
+        return TAG;
+    }
+
     @Override
     public void onMessageReceived(MyMessage msg) {
 
@@ -554,10 +682,11 @@ public class MyStorageManager extends MyBaseManager {
         }
         else if (msg.isConfigurationAction(MsgConfig.ConfigAction.GET_STATE)) {
             getFullFilePath(msg);
+            getChannelStats(msg);
         }
     }
 
-    private void openNewChannel(StorageConfig config) {
+    private synchronized void openNewChannel(StorageConfig config) {
 
         if (!this.isAvailable()) {
             Log.w(TAG, "Storage not available, abort");
@@ -589,9 +718,27 @@ public class MyStorageManager extends MyBaseManager {
         // create a new handle
         StorageHandle fileHandle = new StorageHandle(storageInfo, filePath);
 
+        if (mMetrics.isEnabled()) {
+            String name = storageInfo.getFileName();
+            if (name == null || name.isEmpty()) {
+                name = new File(filePath).getName();
+            }
+            fileHandle.setMetrics(mMetrics.openTarget(newId, name));
+        }
+
+        ImuFrameIndex frameIndex = mFrameIndex;
+        if (frameIndex != null && storageInfo.isStream()) {
+            // registered with the first sensor record
+            fileHandle.setFrameIndex(frameIndex, getRelativePath(storageInfo));
+        }
+
         // TODO: Maybe check for existing channels
         mmStorage.put(newId, fileHandle);
 
+        if (storageInfo.isStream()) {
+            startWriterThread();
+        }
+
         // write file header if it contains one
         //fileHandle.write(config);
 
@@ -605,9 +752,22 @@ public class MyStorageManager extends MyBaseManager {
             int targetId = config.getTargetId();
             StorageHandle store = mmStorage.get(targetId);
 
-            if (store != null) {
+            if (store == null) {
+                return;
+            }
+
+            if (store.isStream() && mbWriterRunning) {
+                // close after the pending messages of this channel
+                enqueueBlocking(config);
+            }
+            else {
+                if (!store.isStream()) {
+                    // image files still in the writer pool
+                    awaitImageWriters();
+                }
                 store.close();
                 mmStorage.remove(targetId);
+                onStreamChannelClosed();
             }
         }
     }
@@ -618,134 +778,702 @@ public class MyStorageManager extends MyBaseManager {
 
             StorageHandle store = mmStorage.get(config.getTargetId());
             if (store != null) {
-                config.setStringMessage(store.getFullPath());
+                config.setFullPath(store.getFullPath());
                 // WARNING: publishing a response message may result in an implicit infinite loop
             }
         }
     }
 
+    public void getChannelStats(StorageConfig config) {
+
+        if (this.isAvailable()) {
+
+            StorageHandle store = mmStorage.get(config.getTargetId());
+            if (store != null) {
+                config.setStorageStats(store.getStats().copy());
+            }
+        }
+    }
+
     public void handleStorageMessage(MyMessage msg) {
 
         if (this.isAvailable()) {
 
             StorageHandle store = mmStorage.get(msg.getTargetId());
-            if (store != null) {
+            if (store == null) {
+                return;
+            }
+
+            ImuFrameIndex frameIndex = mFrameIndex;
+            if (frameIndex != null && msg instanceof MyMessages.MsgImage) {
+                frameIndex.onFrame(((MyMessages.MsgImage) msg).getTimestamp());
+            }
+
+            if (store.isStream() && mbWriterRunning) {
+                // pooled messages must outlive the publisher's dispatch
+                enqueue(msg.retain());
+            }
+            else if (msg instanceof MyMessages.MsgImage &&
+                    ((MyMessages.MsgImage) msg).getImage() == null) {
+                // the image is already copied and released
+                submitImage(store, msg);
+            }
+            else {
+                // one-shot files (images) must be written before the caller releases them
                 store.write(msg);
             }
         }
     }
 
-    /*======================================== Helpers ===========================================*/
+    /* ------------------------------------- Writer Thread -------------------------------------- */
 
-    public static String getTimePrefix() {
-        // also 'SSS' ?
-        return new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss", Locale.US).format(new Date());
+    public OverflowPolicy getOverflowPolicy() { return mOverflowPolicy; }
+    public void setOverflowPolicy(OverflowPolicy policy) { mOverflowPolicy = policy; }
+
+    public long getDropCount() { return mDropCount.get(); }
+
+    public int getQueueDepth() { return mWriteQueue.size(); }
+
+    private synchronized void startWriterThread() {
+
+        if (mbWriterRunning) {
+            return;
+        }
+
+        Thread stoppedWriter = mWriterThread;
+        if (stoppedWriter != null) {
+            // stopped at the end of the last recording, it may still be writing
+            try {
+                stoppedWriter.join();
+            }
+            catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+
+        mbWriterRunning = true;
+        mWriterThread = new Thread(this::runWriter, TAG + "-Writer");
+        mWriterThread.start();
     }
 
-    public static String getStorageRootDir(String uriPath) {
+    private synchronized void stopWriterThread() {
 
-        if (uriPath.contains("primary")) {
-            return "/storage/self/";
+        if (mWriterThread == null) {
+            return;
         }
-        return "/storage/";
+
+        mbWriterRunning = false;
+        LockSupport.unpark(mWriterThread);
+
+        try {
+            mWriterThread.join();
+        }
+        catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        mWriterThread = null;
+
+        // in case a producer enqueued after the last drain
+        drainWriteQueue(Integer.MAX_VALUE);
     }
 
-    public static String convertUriToPath(Uri uri) {
+    /**
+     * Lets the writer finish when the recording is stopped and its stream channels are closed.
+     * Can run on the writer thread (it closes the channels), so it doesn't wait for it.
+     */
+    private void stopWriterIfIdle() {
 
-        return getStorageRootDir(uri.getPath())+uri.getLastPathSegment().replace(':', '/');
+        if (!mbWriterStopPending || !mbWriterRunning) {
+            return;
+        }
+
+        for (StorageHandle store : mmStorage.values()) {
+            if (store.isStream()) {
+                return;
+            }
+        }
+
+        mbWriterStopPending = false;
+        mbWriterRunning = false;
+        LockSupport.unpark(mWriterThread);
     }
 
-    public static String initDsPath() {
-        return DS_FOLDER_PREFIX + getTimePrefix();
+    private void wakeWriter() {
+
+        if (mbWriterIdle) {
+            LockSupport.unpark(mWriterThread);
+        }
     }
 
-    /*=================================== Types & Interfaces =====================================*/
+    private void enqueue(MyMessage msg) {
 
-    private static class StorageStream {
+        if (mWriteQueue.offer(msg)) {
+            wakeWriter();
+            return;
+        }
 
-        public StorageStream(String path, String fileName, boolean append) {
+        switch (mOverflowPolicy) {
+            case DROP_NEWEST: {
+                mDropCount.incrementAndGet();
+                msg.release();
+                break;
+            }
+            case DROP_OLDEST: {
+                while (!mWriteQueue.offer(msg)) {
+                    MyMessage oldest = mWriteQueue.poll();
+                    if (oldest instanceof StorageConfig) {
+                        // never lose a close request, it stays ahead of the later messages
+                        mControlQueue.offer(oldest);
+                    }
+                    else if (oldest != null) {
+                        mDropCount.incrementAndGet();
+                        oldest.release();
+                    }
+                }
+                wakeWriter();
+                break;
+            }
+            case BLOCK:
+            default: {
+                enqueueBlocking(msg);
+                break;
+            }
+        }
+    }
 
-            mFile = new File(path, fileName);
+    private void enqueueBlocking(MyMessage msg) {
 
-            try {
-                mOs = new FileOutputStream(mFile, append);
+        while (!mWriteQueue.offer(msg)) {
+
+            if (!mbWriterRunning) {
+                // no consumer, write it here
+                writeMessage(msg);
+                return;
             }
-            catch (FileNotFoundException e) {
-                e.printStackTrace();
+            LockSupport.unpark(mWriterThread);
+            LockSupport.parkNanos(PRODUCER_BLOCK_WAIT_NS);
+        }
+        wakeWriter();
+    }
+
+    private void runWriter() {
+
+        long lastDropCount = 0;
+        long lastReportNs = System.nanoTime();
+
+        while (mbWriterRunning) {
+
+            if (mMetrics.isEnabled()) {
+                mMetrics.sampleQueueDepth(mWriteQueue.size());
+            }
+
+            int nWritten = drainWriteQueue(MAX_WRITE_BATCH);
+
+            long now = System.nanoTime();
+            if (now - lastReportNs >= DROP_REPORT_INTERVAL_NS) {
+
+                long dropCount = mDropCount.get();
+                if (dropCount != lastDropCount) {
+                    reportDrops(dropCount - lastDropCount, dropCount);
+                    lastDropCount = dropCount;
+                }
+                lastReportNs = now;
+            }
+
+            // the streams only check their flush interval when they are written
+            long nextFlushNs = flushDueStreams(now);
+
+            if (nWritten == 0) {
+                // announce the park before the last check: a producer either sees
+                // the flag (and unparks) or its message is seen here
+                mbWriterIdle = true;
+                if (mWriteQueue.isEmpty() && mControlQueue.isEmpty() && mbWriterRunning) {
+                    if (nextFlushNs > 0) {
+                        LockSupport.parkNanos(this, nextFlushNs);
+                    }
+                    else {
+                        LockSupport.park(this);
+                    }
+                }
+                mbWriterIdle = false;
             }
         }
 
-        public void write(String msg) {
+        drainWriteQueue(Integer.MAX_VALUE);
+
+        long dropCount = mDropCount.get();
+        if (dropCount != lastDropCount) {
+            reportDrops(dropCount - lastDropCount, dropCount);
+        }
+    }
 
-            if (mOs == null) {
+    /**
+     * Flushes the quiet streams whose data is due (writer thread only)
+     * @return ns until the next stream is due, -1 if none is waiting
+     */
+    private long flushDueStreams(long nowNs) {
+
+        long nextFlushNs = -1;
+        for (StorageHandle store : mmStorage.values()) {
+
+            if (!store.isStream()) {
+                continue;
+            }
+            long dueNs = store.flushIfDue(nowNs);
+            if (dueNs > 0 && (nextFlushNs < 0 || dueNs < nextFlushNs)) {
+                nextFlushNs = dueNs;
+            }
+        }
+        return nextFlushNs;
+    }
+
+    private int drainWriteQueue(int maxBatch) {
+
+        int nWritten = 0;
+
+        while (nWritten < maxBatch) {
+
+            // an evicted close request goes before the messages queued after it
+            MyMessage msg = mControlQueue.poll();
+            if (msg == null) {
+                msg = mWriteQueue.poll();
+            }
+            if (msg == null) {
+                break;
+            }
+            writeMessage(msg);
+            nWritten++;
+        }
+        return nWritten;
+    }
+
+    /**
+     * Writes and releases a dequeued message
+     */
+    private void writeMessage(MyMessage msg) {
+
+        try {
+            int targetId = msg.getTargetId();
+            StorageHandle store = mmStorage.get(targetId);
+
+            if (store == null) {
                 return;
             }
 
-            try {
-                mOs.write(msg.getBytes());
+            if (msg instanceof StorageConfig) {
+                if (((StorageConfig) msg).isConfigurationAction(MsgConfig.ConfigAction.CLOSE)) {
+                    store.close();
+                    mmStorage.remove(targetId);
+                    onStreamChannelClosed();
+                }
             }
-            catch (IOException e) {
-                e.printStackTrace();
+            else {
+                store.write(msg);
             }
         }
+        finally {
+            msg.release();
+        }
+    }
 
-        public void close() {
+    /* ------------------------------------- Image Writers -------------------------------------- */
+
+    public int getPendingImages() { return mImageWriters.getPending() + mDngWriters.getPending(); }
+
+    public long getImageDropCount() { return mImageWriters.getDropCount() + mDngWriters.getDropCount(); }
 
-            if (mOs == null) {
+    /**
+     * @return "<frames/s>, <queue depth>" of the DNG encoders (RAW capture)
+     */
+    public String getDngWriterStatus() { return mDngWriters.getStatus(); }
+
+    private void submitImage(StorageHandle store, MyMessage msg) {
+
+        boolean isRaw = ((MyMessages.MsgImage) msg).getFormat() == ImageFormat.RAW_SENSOR;
+        (isRaw ? mDngWriters : mImageWriters).submit(store, msg);
+    }
+
+    /**
+     * Waits for the submitted images (call before closing image channels)
+     */
+    private void awaitImageWriters() {
+
+        for (ImageWriterPool writers : new ImageWriterPool[] {mImageWriters, mDngWriters}) {
+
+            if (!writers.await(IMAGE_DRAIN_TIMEOUT_MS)) {
+                Log.w(TAG, "Timed out waiting for " + writers.getPending() + " image writes");
+            }
+
+            long dropCount = writers.getDropCount();
+            if (writers.getWrittenCount() > 0 || dropCount > 0) {
+                reportStatus(writers.getReport());
+            }
+            if (dropCount > 0) {
+                reportDrops(dropCount, dropCount);
+            }
+            writers.resetStats();
+        }
+    }
+
+    /* ---------------------------------------- Metrics ----------------------------------------- */
+
+    /**
+     * Writes the channel metrics to the dataset once the recording is stopped
+     * and all stream channels are closed (their pending messages are written)
+     */
+    private void dumpMetricsIfIdle() {
+
+        synchronized (mMetricsLock) {
+
+            if (!mbMetricsDumpPending) {
                 return;
             }
 
-            try {
-                mOs.close();
+            for (StorageHandle store : mmStorage.values()) {
+                if (store.isStream()) {
+                    return;
+                }
             }
-            catch (IOException e) {
-                e.printStackTrace();
+
+            mbMetricsDumpPending = false;
+        }
+        mMetrics.stop();
+
+        String dsPath = resolveFilePath(Arrays.asList(getBasePath(), mDsRoot));
+        if (dsPath == null) {
+            Log.w(TAG, "Cannot resolve the dataset path to write metrics");
+            return;
+        }
+
+        try (FileOutputStream os = new FileOutputStream(new File(dsPath, METRICS_FILE_NAME))) {
+            os.write(mMetrics.getReport().getBytes());
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void onStreamChannelClosed() {
+
+        dumpMetricsIfIdle();
+        closeFrameIndexIfIdle();
+        stopWriterIfIdle();
+    }
+
+    /* -------------------------------------- Frame Index --------------------------------------- */
+
+    private void openFrameIndex(boolean state) {
+
+        closeFrameIndex();
+        mbFrameIndexClosePending = false;
+
+        if (!state) {
+            return;
+        }
+
+        String dsPath = resolveFilePath(Arrays.asList(getBasePath(), mDsRoot));
+        if (dsPath == null) {
+            Log.w(TAG, "Cannot resolve the dataset path to write the frame index");
+            return;
+        }
+
+        StorageStream indexStream = new StorageStream(dsPath, ImuFrameIndex.INDEX_FILE_NAME,
+                false, StorageInfo.DEF_WRITE_BUFF_SIZE, StorageInfo.DEF_FLUSH_INTERVAL_MS);
+        indexStream.write(ImuFrameIndex.getHeader());
+
+        synchronized (mFrameIndexLock) {
+            // index lines are written under the index's own lock
+            mFrameIndexStream = indexStream;
+            mFrameIndex = new ImuFrameIndex(indexStream::write);
+        }
+    }
+
+    /**
+     * The index is complete once all sensor streams of the recording are closed
+     */
+    private void closeFrameIndexIfIdle() {
+
+        synchronized (mFrameIndexLock) {
+
+            if (!mbFrameIndexClosePending || mFrameIndex == null) {
+                return;
+            }
+
+            for (StorageHandle store : mmStorage.values()) {
+                if (store.isStream()) {
+                    return;
+                }
             }
+            mbFrameIndexClosePending = false;
         }
 
-        public String getFullPath() {
+        String report = closeFrameIndex();
+        if (report != null) {
+            reportStatus(report + "\n");
+        }
+    }
+
+    /**
+     * @return the index report, null if there was no index
+     */
+    private String closeFrameIndex() {
+
+        ImuFrameIndex frameIndex;
+        StorageStream indexStream;
+
+        synchronized (mFrameIndexLock) {
+            frameIndex = mFrameIndex;
+            indexStream = mFrameIndexStream;
+            mFrameIndex = null;
+            mFrameIndexStream = null;
+        }
+
+        if (frameIndex == null) {
+            return null;
+        }
+
+        // the remaining lines are written before the stream is closed
+        frameIndex.close();
+        indexStream.close();
+
+        return frameIndex.getReport();
+    }
+
+    private static String getRelativePath(StorageInfo storageInfo) {
+
+        StringBuilder sb = new StringBuilder();
+        for (String folder : storageInfo.getFolders()) {
+            sb.append(folder).append('/');
+        }
+        return sb.append(storageInfo.getFileName()).toString();
+    }
+
+    private void reportStatus(String report) {
+
+        Log.i(TAG, report);
+
+        Handler uiHandler = getUiHandler();
+        if (uiHandler != null) {
+            uiHandler.post(() -> logMessage(report, RecordingFragment.class.getSimpleName()));
+        }
+        else {
+            logMessage(report, RecordingFragment.class.getSimpleName());
+        }
+    }
+
+    private void reportDrops(long newDrops, long totalDrops) {
+
+        String report = "Storage queue overflow: dropped " + newDrops +
+                " messages (total: " + totalDrops + ")\n";
+        Log.w(TAG, report);
+
+        // loggers update the UI
+        Handler uiHandler = getUiHandler();
+        if (uiHandler != null) {
+            uiHandler.post(() -> logMessage(report, RecordingFragment.class.getSimpleName()));
+        }
+        else {
+            logMessage(report, RecordingFragment.class.getSimpleName());
+        }
+    }
+
+    /*======================================== Helpers ===========================================*/
+
+    public static String getTimePrefix() {
+        // also 'SSS' ?
+        return new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss", Locale.US).format(new Date());
+    }
+
+    public static String getStorageRootDir(String uriPath) {
 
-            return mFile.getAbsolutePath();
+        if (uriPath.contains("primary")) {
+            return "/storage/self/";
         }
+        return "/storage/";
+    }
 
-        private final File mFile;
-        private FileOutputStream mOs;
+    public static String convertUriToPath(Uri uri) {
+
+        return getStorageRootDir(uri.getPath())+uri.getLastPathSegment().replace(':', '/');
+    }
+
+    public static String initDsPath() {
+        return DS_FOLDER_PREFIX + getTimePrefix();
     }
 
+    /*=================================== Types & Interfaces =====================================*/
+
     private static class StorageHandle {
 
         private final StorageInfo mStorageInfo;
 
         private StorageStream mFileHandle;
+        private BinaryStorageStream mBinHandle;
+        private ImagePackStream mPackHandle;
+        private YuvFrameStream mYuvHandle;
         private final String mFilePath;
 
+        // one-shot files: each file counts as a flush
+        private final MyMessages.StorageStats mTrainStats = new MyMessages.StorageStats();
+
+        // null: metrics are disabled
+        private MyChannelMetrics.TargetStats mMetrics;
+
+        // null: frame index is disabled, the stream is added with its first sensor record
+        private ImuFrameIndex mFrameIndex;
+        private String mIndexName;
+        private int mIndexStreamId = -1;
+
         public StorageHandle(StorageInfo channelInfo, String filePath) {
 
             mStorageInfo = channelInfo;
             mFilePath = filePath;
             String fileName = channelInfo.getFileName();
 
-            if (channelInfo.isStream()) {
+            if (channelInfo.isBinary()) {
+
+                mBinHandle = new BinaryStorageStream(filePath, fileName,
+                        channelInfo.getWriteBuffSize(), channelInfo.getFlushIntervalMs());
+            }
+            else if (channelInfo.isPacked()) {
+
+                mPackHandle = new ImagePackStream(filePath, fileName, channelInfo.getSegmentSize());
+            }
+            else if (channelInfo.isYuvFrames()) {
+
+                mYuvHandle = new YuvFrameStream(filePath, fileName);
+            }
+            else if (channelInfo.isStream()) {
 
                 boolean append = channelInfo.isStreamType(StorageInfo.StreamType.STREAM_STRING_APPEND);
-                mFileHandle = new StorageStream(filePath, fileName, append);
+                mFileHandle = new StorageStream(filePath, fileName, append,
+                        channelInfo.getWriteBuffSize(), channelInfo.getFlushIntervalMs());
             }
         }
 
+        public boolean isStream() {
+            return mStorageInfo.isStream();
+        }
+
+        /**
+         * @return ns until the buffered data is due, -1 if nothing waits for the flush interval
+         */
+        public long flushIfDue(long nowNs) {
+
+            if (mFileHandle != null) {
+                return mFileHandle.flushIfDue(nowNs);
+            }
+            if (mBinHandle != null) {
+                return mBinHandle.flushIfDue(nowNs);
+            }
+            return -1;
+        }
+
+        public void setMetrics(MyChannelMetrics.TargetStats metrics) { mMetrics = metrics; }
+
+        public void setFrameIndex(ImuFrameIndex frameIndex, String name) {
+
+            mFrameIndex = frameIndex;
+            mIndexName = name;
+        }
+
         public void close() {
 
             if (mFileHandle != null) {
                 mFileHandle.close();
             }
+            if (mBinHandle != null) {
+                mBinHandle.close();
+            }
+            if (mPackHandle != null) {
+                mPackHandle.close();
+            }
+            if (mYuvHandle != null) {
+                mYuvHandle.close();
+            }
         }
 
         public void write(MyMessage msg) {
 
-            if (mStorageInfo.isStream()) {
+            MyChannelMetrics.TargetStats metrics = mMetrics;
+            if (metrics == null) {
+                writeMessage(msg);
+                return;
+            }
+
+            long t0 = System.nanoTime();
+            writeMessage(msg);
+            long writeNs = System.nanoTime() - t0;
+
+            long sampleTs = msg.getSampleTimestamp();
+            long latencyNs = (sampleTs > 0) ? SystemClock.elapsedRealtimeNanos() - sampleTs : -1;
+            int nRecords = (msg instanceof MyMessages.BinaryRecord) ?
+                    ((MyMessages.BinaryRecord) msg).getNumRecords() : 1;
+
+            metrics.onWrite(nRecords, writeNs, latencyNs);
+        }
+
+        private void writeMessage(MyMessage msg) {
+
+            if (mStorageInfo.isBinary()) {
+
+                if (mBinHandle == null) {
+                    return;
+                }
+
+                if (msg instanceof MyMessages.BinaryRecord) {
+
+                    MyMessages.BinaryRecord record = (MyMessages.BinaryRecord) msg;
+                    if (mBinHandle.write(record) && mFrameIndex != null) {
+
+                        // records are fixed-width, the last one ends at the current position
+                        int nRecords = record.getNumRecords();
+                        long recordSize = mBinHandle.getRecordSize();
+                        long end = mBinHandle.getPosition();
+                        for (int i = 0; i < nRecords; i++) {
+                            indexSample(record.getRecordTimestamp(i), end - (nRecords - i) * recordSize);
+                        }
+                    }
+                }
+                else if (msg instanceof MyMessages.MsgStorage) {
+                    // file header
+                    mBinHandle.setTextHeader(msg.toString());
+                }
+            }
+            else if (mStorageInfo.isPacked()) {
+
+                // images are appended to the current segment (file headers are ignored)
+                if (mPackHandle != null && msg instanceof MyMessages.MsgImage) {
+
+                    MyMessages.MsgImage imageMsg = (MyMessages.MsgImage) msg;
+                    if (imageMsg.getData() != null) {
+                        mPackHandle.append(imageMsg.getTimestamp(), imageMsg.getFormat(),
+                                imageMsg.getData(), imageMsg.getDataLength());
+                    }
+                }
+            }
+            else if (mStorageInfo.isYuvFrames()) {
+
+                // frames are written from the message's direct buffer (file headers are ignored)
+                if (mYuvHandle != null && msg instanceof MyMessages.MsgImage) {
+
+                    MyMessages.MsgImage imageMsg = (MyMessages.MsgImage) msg;
+                    mYuvHandle.append(imageMsg.getTimestamp(), imageMsg.getWidth(),
+                            imageMsg.getHeight(), imageMsg.getDirectData());
+                }
+            }
+            else if (mStorageInfo.isStream()) {
 
                 // streaming operation
                 if (mFileHandle != null) {
-                    mFileHandle.write(msg.toString());
+
+                    long start = mFileHandle.getPosition();
+                    String lines = msg.toString();
+                    mFileHandle.write(lines);
+
+                    if (mFrameIndex != null && msg instanceof MyMessages.BinaryRecord) {
+                        indexTextRecords((MyMessages.BinaryRecord) msg, lines, start);
+                    }
                 }
             }
             else if (mStorageInfo.isTrain()) {
@@ -755,43 +1483,53 @@ public class MyStorageManager extends MyBaseManager {
 
                     // image
                     MyMessages.MsgImage imageMsg = (MyMessages.MsgImage) msg;
-                    Image image = imageMsg.getImage();
 
-                    if (image.getFormat() == ImageFormat.RAW_SENSOR) {
+                    if (imageMsg.getFormat() == ImageFormat.RAW_SENSOR) {
+                        // called by the DNG writer threads concurrently
                         writeRawImage(mFilePath, imageMsg.getFileName(), imageMsg);
                     }
                     else {
-                        writeFileAndClose(mFilePath, imageMsg.getFileName(), imageMsg.getData());
+                        writeFileAndClose(mFilePath, imageMsg.getFileName(),
+                                imageMsg.getData(), imageMsg.getDataLength());
                     }
                 }
                 else if (msg instanceof MyMessages.MsgStorage) {
 
                     // storage message (file headers, images.txt, calib.txt, ...)
                     MyMessages.MsgStorage storageMsg = (MyMessages.MsgStorage) msg;
-                    writeFileAndClose(mFilePath, storageMsg.getFileName(), msg.toString().getBytes());
+                    byte[] data = msg.toString().getBytes();
+                    writeFileAndClose(mFilePath, storageMsg.getFileName(), data, data.length);
                 }
             }
         }
 
-        private static void writeFileAndClose(String path, String fileName, byte[] data) {
+        // called by the image writer threads concurrently
+        private void writeFileAndClose(String path, String fileName, byte[] data, int length) {
 
-            if (path == null || fileName == null) {
+            if (path == null || fileName == null || data == null) {
                 return;
             }
 
             File file = new File(path, fileName);
+            long t0 = System.nanoTime();
 
             try {
                 FileOutputStream fileOs = new FileOutputStream(file);
-                fileOs.write(data);
+                fileOs.write(data, 0, length);
                 fileOs.close();
             }
             catch (IOException e) {
                 e.printStackTrace();
             }
+
+            mTrainStats.onFlush(length, System.nanoTime() - t0);
         }
 
-        private static void writeRawImage(String path, String fileName, MyMessages.MsgImage imageMsg) {
+        /**
+         * Encodes a DNG from the copied RAW pixels (see MsgImage.copyRawPlane),
+         * or from the image itself if the publisher didn't release it
+         */
+        private void writeRawImage(String path, String fileName, MyMessages.MsgImage imageMsg) {
 
             if (path == null || fileName == null || imageMsg == null) {
                 return;
@@ -800,26 +1538,65 @@ public class MyStorageManager extends MyBaseManager {
             CaptureResult captureResult = imageMsg.getCaptureResult();
             CameraCharacteristics characteristics = imageMsg.getCharacteristics();
             Image image = imageMsg.getImage();
+            ByteBuffer pixels = imageMsg.getDirectData();
 
-            if (image == null || captureResult == null || characteristics == null) {
+            if (captureResult == null || characteristics == null ||
+                    (image == null && (pixels == null || !pixels.hasRemaining()))) {
                 return;
             }
 
-            DngCreator dngCreator = new DngCreator(characteristics, captureResult);
-
             File file = new File(path, fileName);
             FileOutputStream fileOs = null;
+            long t0 = System.nanoTime();
+
+            try (DngCreator dngCreator = new DngCreator(characteristics, captureResult)) {
 
-            try {
                 fileOs = new FileOutputStream(file);
-                dngCreator.writeImage(fileOs, image);
+                if (image != null) {
+                    dngCreator.writeImage(fileOs, image);
+                }
+                else {
+                    dngCreator.writeByteBuffer(fileOs,
+                            new Size(imageMsg.getWidth(), imageMsg.getHeight()),
+                            pixels.duplicate(), 0);
+                }
             }
-            catch (IOException e) {
+            catch (IOException | IllegalArgumentException | IllegalStateException e) {
                 e.printStackTrace();
             }
             finally {
                 closeOutput(fileOs);
             }
+
+            mTrainStats.onFlush((int) file.length(), System.nanoTime() - t0);
+        }
+
+        private void indexSample(long timestamp, long offset) {
+
+            if (mIndexStreamId < 0) {
+                mIndexStreamId = mFrameIndex.addStream(mIndexName);
+            }
+            mFrameIndex.onSample(mIndexStreamId, timestamp, offset);
+        }
+
+        /**
+         * One line per record, sensor text is ASCII (one byte per char)
+         */
+        private void indexTextRecords(MyMessages.BinaryRecord record, String lines, long start) {
+
+            int lineStart = 0;
+            int nRecords = record.getNumRecords();
+
+            for (int i = 0; i < nRecords && lineStart < lines.length(); i++) {
+
+                indexSample(record.getRecordTimestamp(i), start + lineStart);
+
+                int lineEnd = lines.indexOf('\n', lineStart);
+                if (lineEnd < 0) {
+                    break;
+                }
+                lineStart = lineEnd + 1;
+            }
         }
 
         private static void closeOutput(OutputStream outputStream) {
@@ -832,11 +1609,37 @@ public class MyStorageManager extends MyBaseManager {
             }
         }
 
+        public MyMessages.StorageStats getStats() {
+
+            if (mFileHandle != null) {
+                return mFileHandle.getStats();
+            }
+            if (mBinHandle != null) {
+                return mBinHandle.getStats();
+            }
+            if (mPackHandle != null) {
+                return mPackHandle.getStats();
+            }
+            if (mYuvHandle != null) {
+                return mYuvHandle.getStats();
+            }
+            return mTrainStats.copy();
+        }
+
         public String getFullPath() {
 
             if (mFileHandle != null) {
                 return mFileHandle.getFullPath();
             }
+            if (mBinHandle != null) {
+                return mBinHandle.getFullPath();
+            }
+            if (mPackHandle != null) {
+                return mPackHandle.getFullPath();
+            }
+            if (mYuvHandle != null) {
+                return mYuvHandle.getFullPath();
+            }
             if (mStorageInfo != null) {
                 File file = new File(mFilePath, mStorageInfo.getFileName());
                 return file.getAbsolutePath();
@@ -844,4 +1647,164 @@ public class MyStorageManager extends MyBaseManager {
             return mFilePath;
         }
     }
+
+    /**
+     * Bounded worker pool for copied images, a submission is dropped (and counted)
+     * when the queue is full instead of blocking the publisher (camera thread).
+     * Keeps the counters of the current recording: written frames, throughput, queue depth.
+     */
+    private static class ImageWriterPool {
+
+        private final String mName;
+        private final int mWriters;
+        private final int mQueueSize;
+
+        private ThreadPoolExecutor mExecutor;
+
+        private final AtomicInteger mPending = new AtomicInteger(0);
+        private final AtomicLong mDropCount = new AtomicLong(0);
+        private final AtomicLong mWritten = new AtomicLong(0);
+        private final AtomicLong mWriteNsSum = new AtomicLong(0);
+        private final AtomicInteger mMaxPending = new AtomicInteger(0);
+        private volatile long mFirstSubmitNs = 0;
+        private volatile long mLastDoneNs = 0;
+
+        ImageWriterPool(String name, int nWriters, int queueSize) {
+
+            mName = name;
+            mWriters = nWriters;
+            mQueueSize = queueSize;
+        }
+
+        private synchronized ThreadPoolExecutor getExecutor() {
+
+            if (mExecutor == null) {
+
+                int nWriters = Math.max(1, Math.min(mWriters,
+                        Runtime.getRuntime().availableProcessors() - 1));
+                AtomicInteger writerId = new AtomicInteger(0);
+
+                mExecutor = new ThreadPoolExecutor(nWriters, nWriters,
+                        IMAGE_WRITER_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS,
+                        new ArrayBlockingQueue<>(mQueueSize),
+                        r -> new Thread(r, TAG + "-" + mName + writerId.getAndIncrement()),
+                        new ThreadPoolExecutor.AbortPolicy());
+                // no threads are kept between recordings
+                mExecutor.allowCoreThreadTimeOut(true);
+            }
+            return mExecutor;
+        }
+
+        public void submit(StorageHandle store, MyMessage msg) {
+
+            // pooled messages must outlive the publisher's dispatch
+            msg.retain();
+            int pending = mPending.incrementAndGet();
+
+            int maxPending = mMaxPending.get();
+            while (pending > maxPending && !mMaxPending.compareAndSet(maxPending, pending)) {
+                maxPending = mMaxPending.get();
+            }
+            if (mFirstSubmitNs == 0) {
+                mFirstSubmitNs = System.nanoTime();
+            }
+
+            try {
+                getExecutor().execute(() -> {
+                    long t0 = System.nanoTime();
+                    try {
+                        store.write(msg);
+                    }
+                    finally {
+                        msg.release();
+                        long now = System.nanoTime();
+                        mWriteNsSum.addAndGet(now - t0);
+                        mWritten.incrementAndGet();
+                        mLastDoneNs = now;
+                        onDone();
+                    }
+                });
+            }
+            catch (RejectedExecutionException e) {
+                mDropCount.incrementAndGet();
+                msg.release();
+                onDone();
+            }
+        }
+
+        private void onDone() {
+
+            if (mPending.decrementAndGet() == 0) {
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
+        }
+
+        /**
+         * @return false if some images are still pending after the timeout
+         */
+        public synchronized boolean await(long timeoutMs) {
+
+            long deadline = SystemClock.elapsedRealtime() + timeoutMs;
+            long waitMs = timeoutMs;
+
+            while (mPending.get() > 0 && waitMs > 0) {
+                try {
+                    wait(waitMs);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                waitMs = deadline - SystemClock.elapsedRealtime();
+            }
+            return mPending.get() == 0;
+        }
+
+        public int getPending() { return mPending.get(); }
+
+        public long getDropCount() { return mDropCount.get(); }
+
+        public long getWrittenCount() { return mWritten.get(); }
+
+        /**
+         * @return written images per second, from the first submission to the last write
+         */
+        public double getThroughput() {
+
+            long durationNs = mLastDoneNs - mFirstSubmitNs;
+            return (durationNs <= 0) ? 0 : mWritten.get() * 1e9 / durationNs;
+        }
+
+        public String getStatus() {
+
+            return String.format(Locale.US, "%.1f fps, queue: %d/%d",
+                    getThroughput(), mPending.get(), mQueueSize);
+        }
+
+        public String getReport() {
+
+            long nWritten = mWritten.get();
+            double meanWriteMs = (nWritten == 0) ? 0 : mWriteNsSum.get() * 1e-6 / nWritten;
+
+            return String.format(Locale.US, "%s: %d images, %.2f images/s, " +
+                            "mean write: %.1f ms, max queue depth: %d/%d, dropped: %d\n",
+                    mName, nWritten, getThroughput(), meanWriteMs,
+                    mMaxPending.get(), mQueueSize, mDropCount.get());
+        }
+
+        /**
+         * Clears the counters (pending images are not affected)
+         */
+        public void resetStats() {
+
+            mDropCount.set(0);
+            mWritten.set(0);
+            mWriteNsSum.set(0);
+            mMaxPending.set(mPending.get());
+            mFirstSubmitNs = 0;
+            mLastDoneNs = 0;
+        }
+    }
 }
\ No newline at end of file
@@ -55,10 +55,13 @@ import com.dayani.m.roboplatform.requirements.UsbReqFragment;
 import com.dayani.m.roboplatform.utils.AppGlobals;
 import com.dayani.m.roboplatform.utils.data_types.MySensorGroup;
 import com.dayani.m.roboplatform.utils.data_types.MySensorInfo;
+import com.dayani.m.roboplatform.utils.helpers.SerialPacketAssembler;
 import com.dayani.m.roboplatform.utils.helpers.TestCommSpecs;
 import com.dayani.m.roboplatform.utils.interfaces.ActivityRequirements;
 import com.dayani.m.roboplatform.utils.interfaces.MyChannels;
+import com.dayani.m.roboplatform.utils.interfaces.MyMessagePool;
 import com.dayani.m.roboplatform.utils.interfaces.MyMessages;
+import com.dayani.m.roboplatform.utils.interfaces.MyMessages.MsgAdcReading;
 import com.dayani.m.roboplatform.utils.interfaces.MyMessages.MsgConfig;
 import com.dayani.m.roboplatform.utils.interfaces.MyMessages.MsgUsb;
 import com.dayani.m.roboplatform.utils.interfaces.MyMessages.MsgUsb.MyControlTransferInfo;
@@ -94,6 +97,8 @@ public class MyUSBManager extends MyBaseManager implements ActivityRequirements.
     // send to usb device & compare with in_msg stored in device
     private static final String DEFAULT_TEST_IN_MESSAGE = "in-code-9372";
     private static final String DEFAULT_TEST_OUT_MESSAGE = "out-code-6334";
+    private static final byte[] DEFAULT_TEST_OUT_BYTES =
+            DEFAULT_TEST_OUT_MESSAGE.getBytes(StandardCharsets.US_ASCII);
 
     private static final int DEFAULT_VENDOR_ID = 5824; //V-USB VID //1659; //Omega VID //0x2341; //Arduino VID
     private static final int DEFAULT_DEVICE_ID = 2002; //V-USB led device (avr)
@@ -461,6 +466,11 @@ public class MyUSBManager extends MyBaseManager implements ActivityRequirements.
         }
     }
 
+    @Override
+    public List<Class<? extends MyMessage>> getSubscribedTypes() {
+        return Arrays.asList(MsgUsb.class, MyMessages.MsgWireless.class);
+    }
+
     @Override
     public void onMessageReceived(MyMessage msg) {
 
@@ -769,6 +779,17 @@ public class MyUSBManager extends MyBaseManager implements ActivityRequirements.
     // two-way command: makes a request and gets a response
     protected MsgUsb sendDataCommand(MsgUsb usbOutMsg) {
 
+        // get response
+        MsgUsb usbInMsg = MyDrvUsb.getInputMessage(UsbCommand.CMD_GET_CMD_RES, mInputBuffer);
+
+        return sendDataCommand(usbOutMsg, usbInMsg);
+    }
+
+    /**
+     * Two-way command with a caller-provided (reusable) response message
+     */
+    protected MsgUsb sendDataCommand(MsgUsb usbOutMsg, MsgUsb usbInMsg) {
+
         debug_cnt = 0;
         // send the command
         //MsgUsb usbOutMsg = MyDrvUsb.getCommandMessage(cmd, cmdData);
@@ -776,9 +797,6 @@ public class MyUSBManager extends MyBaseManager implements ActivityRequirements.
         int res = sendControlMsg(usbOutMsg);
         //Log.d(TAG, "sendDataCommand, sent: "+res+" bytes");
 
-        // get response
-        MsgUsb usbInMsg = MyDrvUsb.getInputMessage(UsbCommand.CMD_GET_CMD_RES, mInputBuffer);
-
 //        if (res >= 0) {
         sendControlMsg(usbInMsg);
         //Log.d(TAG, "sendDataCommand, got: "+res+" bytes");
@@ -1099,67 +1117,27 @@ public class MyUSBManager extends MyBaseManager implements ActivityRequirements.
         //public static final int DSR_CHANGE = 2;
         // Possible values for BD: 9600, 14400, 19200, 38400, 57600, 115200, 128000 and 256000 (bps)
         private static final int BAUD_RATE = 115200;
+        // buffer of the synchronous reads (readSync), the callback's packets have no size limit
         private static final int LEN_BUFF = 64;
+        // IN requests kept in flight, so the endpoint is not idle while a packet is handled
+        private static final int READ_REQUESTS = 4;
+        // other writes are batched for up to this delay, output updates (control) are sent right away
+        private static final long WRITE_DELAY_US = 2000;
 
         // Support Arduino Serial Connection
+        // the asynchronous responses are published ("usb-response"), not kept here
         private String mSerialData = "";
+        // readSync only
         private final byte[] mSerialBuffer = new byte[LEN_BUFF];
-        private int mSerialBufferIdx = 0;
-        private int mSerialDataSz = 0;
-        private boolean recCompleted = false;
+        private final UsbCommand[] mCommands = UsbCommand.values();
+        // size, command, data[size] packets from transfers of any size
+        private final SerialPacketAssembler mPacketAssembler =
+                new SerialPacketAssembler(mCommands.length, this::handleSerialPacket);
         //private Handler mHandler;
         private UsbSerialDevice serialPort;
         private boolean serialPortConnected;
         private final WeakReference<MyBaseManager> mUsbManager;
 
-        private void handleSerialMessage(byte[] arg0) {
-            int buffLen = arg0.length;
-            if (buffLen > 0) {
-                if (mSerialBufferIdx == 0) {
-                    mSerialDataSz = arg0[0];
-                    mSerialBuffer[mSerialBufferIdx++] = arg0[0];
-                    buffLen--;
-//                    Log.d("UsbCb.onReceivedData", "data size is " + mSerialDataSz);
-                    byte[] newArg0 = new byte[buffLen];
-                    System.arraycopy(arg0, 1, newArg0, 0, buffLen);
-                    recCompleted = false;
-                    handleSerialMessage(newArg0);
-                    return;
-                }
-                if (mSerialBufferIdx == 1) {
-                    // get command
-                    mSerialBuffer[mSerialBufferIdx++] = arg0[0];
-                    buffLen--;
-//                    Log.d("UsbCb.onReceivedData", "Buffer Idx is " + mSerialBufferIdx);
-                    byte[] newArg0 = new byte[buffLen];
-                    System.arraycopy(arg0, 1, newArg0, 0, buffLen);
-                    handleSerialMessage(newArg0);
-                    return;
-                }
-                if (mSerialBufferIdx >= 2) {
-                    for (int i = 0; i < buffLen && mSerialBufferIdx < mSerialDataSz + 2; i++, mSerialBufferIdx++) {
-                        mSerialBuffer[mSerialBufferIdx] = arg0[i];
-                    }
-                }
-                if (mSerialBufferIdx >= mSerialDataSz + 2) {
-
-//                    byte[] newArg0 = new byte[mSerialDataSz];
-//                    System.arraycopy(mSerialBuffer, 2, newArg0, 0, mSerialDataSz);
-//                    mSerialData = new String(newArg0, StandardCharsets.UTF_8);
-//                    Log.d("UsbCb.onReceivedData", "reconst data: " + Arrays.toString(newArg0));
-//                    Log.d("UsbCb.onReceivedData", "out message: " + mSerialData);
-
-                    mSerialBufferIdx = 0;
-                    mSerialDataSz = 0;
-
-                    recCompleted = true;
-                }
-            }
-            else {
-                Log.d("UsbCb.onReceivedData", "arg0 is empty");
-            }
-        }
-
         private void printTransferredBytes(String prefix, byte[] buffer) {
             if (buffer == null || buffer.length == 0) {
                 Log.d(TAG, prefix + ", Empty byte array");
@@ -1168,30 +1146,17 @@ public class MyUSBManager extends MyBaseManager implements ActivityRequirements.
             Log.d(TAG, prefix + ", " + Arrays.toString(buffer));
         }
 
-        private void handleSerialMessageOrig(byte[] arg0) {
+        // packet is only valid in this call, it's copied when a response is published
+        private void handleSerialPacket(long timestamp, byte[] packet, int length) {
 
-            handleSerialMessage(arg0);
-            if (!recCompleted) {
+            int dataLength = MyDrvUsb.getUsbPacketDataLength(packet, length);
+            if (dataLength <= 0) {
                 return;
             }
 
-            if (mSerialBuffer.length == 0) {
-                return;
-            }
-            int buffSize = mSerialBuffer[0]+2;
-            arg0 = new byte[buffSize];
-            System.arraycopy(mSerialBuffer, 0, arg0, 0, buffSize);
-            printTransferredBytes("Received Bytes", arg0);
-
-            int code = arg0[1];
-            arg0[1] = 0;
-
-            mSerialData = MyDrvUsb.decodeUsbCommandStr(arg0);
-            if (mSerialData.isEmpty()) {
-                return;
-            }
+            UsbCommand cmd = mCommands[packet[1]];
 
-            if (mSerialData.equals(DEFAULT_TEST_OUT_MESSAGE)) {
+            if (isTestOutMessage(packet, dataLength)) {
                 mbPassedConnTest = true;
                 //handleTest(null);
                 updateUsbAvailabilityState();
@@ -1199,19 +1164,38 @@ public class MyUSBManager extends MyBaseManager implements ActivityRequirements.
                     mRequirementResponseListener.onAvailabilityStateChanged(mUsbManager.get());
             }
             else {
-                if (code == UsbCommand.CMD_TEST_LTC.ordinal() || code == UsbCommand.CMD_TEST_TP.ordinal()) {
-                    if (mUsbCommTest != null) {
-                        mUsbCommTest.processUsbResponse(arg0);
+                if (cmd == UsbCommand.CMD_TEST_LTC || cmd == UsbCommand.CMD_TEST_TP) {
+                    // only reads the first two data bytes
+                    if (mUsbCommTest != null && length > 3) {
+                        mUsbCommTest.processUsbResponse(packet);
                     }
                 }
                 else {
-                    MyMessage msg = new MyMessage(MyChannels.ChannelType.DATA,
-                            "usb-response", mSerialData);
+                    byte[] rawBuffer = Arrays.copyOf(packet, length);
+                    rawBuffer[1] = 0;
+
+                    MsgUsb msg = new MsgUsb();
+                    msg.setChTag("usb-response");
+                    msg.setStringMessage(new String(packet, 2, dataLength, StandardCharsets.US_ASCII));
+                    msg.setCmd(cmd);
+                    msg.setRawBuffer(rawBuffer);
+                    msg.setTimestamp(timestamp);
                     publishMessage(msg);
                 }
             }
+        }
 
-            mSerialData = "";
+        private boolean isTestOutMessage(byte[] packet, int dataLength) {
+
+            if (dataLength != DEFAULT_TEST_OUT_BYTES.length) {
+                return false;
+            }
+            for (int i = 0; i < dataLength; i++) {
+                if (packet[i + 2] != DEFAULT_TEST_OUT_BYTES[i]) {
+                    return false;
+                }
+            }
+            return true;
         }
 
         /*
@@ -1219,17 +1203,9 @@ public class MyUSBManager extends MyBaseManager implements ActivityRequirements.
          *  In this particular example. byte stream is converted to String and send to UI thread to
          *  be treated there.
          */
-        private final UsbSerialInterface.UsbReadCallback mCallback = arg0 -> {
-//            Log.d(TAG, "UsbSerialInterface.UsbReadCallback: data received: " + Arrays.toString(arg0));
-            if (arg0 == null) {
-//                Log.d(TAG, "UsbSerialInterface.UsbReadCallback: arg0 is null");
-                return;
-            }
-            handleSerialMessageOrig(arg0);
-//                if (mHandler != null && mSerialData != null) {
-//                    Log.d("UsbCb.onReceivedData", "sending data to handler");
-//                    mHandler.obtainMessage(MESSAGE_FROM_SERIAL_PORT, mSerialData).sendToTarget();
-//                }
+        private final UsbSerialInterface.UsbReadBufferCallback mCallback = data -> {
+            // data is only valid in this call
+            mPacketAssembler.push(SystemClock.elapsedRealtimeNanos(), data);
         };
 
         /*
@@ -1263,7 +1239,22 @@ public class MyUSBManager extends MyBaseManager implements ActivityRequirements.
             if (serialPort != null) {
                 serialPort.close();
                 Log.d(TAG, "Serial port closed successfully.");
+                reportResults();
+            }
+        }
+
+        private void reportResults() {
+            long droppedWrites = serialPort.getDroppedWriteCount();
+            String report = "Serial link, " + mPacketAssembler.getReport() +
+                    ", dropped writes: " + droppedWrites;
+            if (mPacketAssembler.getResyncBytes() > 0 || mPacketAssembler.getDroppedPackets() > 0 ||
+                    droppedWrites > 0) {
+                Log.w(TAG, report);
+            }
+            else {
+                Log.i(TAG, report);
             }
+            publishMessage(new MyMessages.MsgLogging(report, "logging"));
         }
 
         /*public String runTest() {
@@ -1313,7 +1304,7 @@ public class MyUSBManager extends MyBaseManager implements ActivityRequirements.
                 if (outbytes.length > 1) {
                     outbytes[1] = (byte) msg.getCmdFlag();
                     printTransferredBytes("Sent buffer", outbytes);
-                    serialPort.write(outbytes);
+                    serialPort.write(outbytes, msg.getCmd() == UsbCommand.CMD_UPDATE_OUTPUT);
                 }
             }
         }
@@ -1349,6 +1340,8 @@ public class MyUSBManager extends MyBaseManager implements ActivityRequirements.
                 serialPort = UsbSerialDevice.createUsbSerialDevice(mDevice, mConnection);
                 if (serialPort != null) {
                     Log.d(TAG, "created serial port");
+                    serialPort.setReadRequestCount(READ_REQUESTS);
+                    serialPort.setWriteDelay(WRITE_DELAY_US);
                     if (serialPort.open()) {
                         Log.d(TAG, "opened serial port");
                         serialPortConnected = true;
@@ -1363,7 +1356,7 @@ public class MyUSBManager extends MyBaseManager implements ActivityRequirements.
                          * UsbSerialInterface.FLOW_CONTROL_DSR_DTR only for CP2102 and FT232
                          */
                         serialPort.setFlowControl(UsbSerialInterface.FLOW_CONTROL_OFF);
-                        serialPort.read(mCallback);
+                        serialPort.readBuffer(mCallback);
                         serialPort.getCTS(ctsCallback);
                         serialPort.getDSR(dsrCallback);
 
@@ -1407,8 +1400,14 @@ public class MyUSBManager extends MyBaseManager implements ActivityRequirements.
 
         private final String TAG = MyUSBSensor.class.getSimpleName();
 
+        private static final int ADC_MSG_POOL_SIZE = 256;
+
         //private MyMessages.MyUsbInfo mUsbInfo = null;
 
+        // pooled mode: adc readings only go to storage, like the MsgStorage of the regular mode
+        private final MyMessagePool<MsgAdcReading> mAdcMsgPool = new MyMessagePool<>("UsbAdc",
+                ADC_MSG_POOL_SIZE, MsgAdcReading::new);
+
         public MyUSBSensor() {
         }
 
@@ -1523,6 +1522,11 @@ public class MyUSBManager extends MyBaseManager implements ActivityRequirements.
                 }
                 Log.v(TAG, "ADC readings period is: "+samplePeriod_ns);
 
+                if (mbPooledMessages) {
+                    runPooled();
+                    return;
+                }
+
                 while (isProcessing()) {
 
                     //long startTime = SystemClock.elapsedRealtimeNanos();
@@ -1546,6 +1550,38 @@ public class MyUSBManager extends MyBaseManager implements ActivityRequirements.
                     // not necessary, already too slow!
                 }
             }
+
+            /**
+             * Same round trip without per-reading allocations: the command and response
+             * messages are reused and readings are copied into recycled messages
+             */
+            private void runPooled() {
+
+                MsgUsb usbOutMsg = MyDrvUsb.getCommandMessage(UsbCommand.CMD_ADC_READ, null);
+                MsgUsb usbInMsg = MyDrvUsb.getInputMessage(UsbCommand.CMD_GET_CMD_RES, mInputBuffer);
+                int targetId = getTargetId(new MyResourceIdentifier(SENSOR_ID, -1));
+
+                while (isProcessing()) {
+
+                    sendDataCommand(usbOutMsg, usbInMsg);
+
+                    byte[] rawBuffer = usbInMsg.getRawBuffer();
+                    int nReadings = MyDrvUsb.getAdcSensorCount(rawBuffer);
+                    if (nReadings < 0) {
+                        continue;
+                    }
+
+                    MsgAdcReading adcMsg = mAdcMsgPool.acquire();
+                    adcMsg.setTargetId(targetId);
+                    adcMsg.setTimestamp(usbInMsg.getTimestamp());
+                    MyDrvUsb.decodeAdcSensorMsg(rawBuffer, adcMsg.obtainAdcData(nReadings));
+
+                    // the bus releases it after delivery
+                    publishMessage(adcMsg);
+                }
+
+                mAdcMsgPool.reportLeaks(POOL_LEAK_AGE_NS);
+            }
         }
     }
 
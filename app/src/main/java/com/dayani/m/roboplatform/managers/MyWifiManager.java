@@ -646,6 +646,11 @@ public class MyWifiManager extends MyBaseManager implements HandleEnableSettings
         updateSettingsEnabled();
     }
 
+    @Override
+    public List<Class<? extends MyMessages.MyMessage>> getSubscribedTypes() {
+        return Collections.singletonList(MsgWireless.class);
+    }
+
     @Override
     public void onMessageReceived(MyMessages.MyMessage msg) {
 
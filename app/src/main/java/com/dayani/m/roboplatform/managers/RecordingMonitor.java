@@ -0,0 +1,162 @@
+package com.dayani.m.roboplatform.managers;
+
+/*
+ * Samples the device state while recording (see KEY_RECORDING_SCHEDULER) and feeds the
+ * RecordingScheduler: thermal status (PowerManager, or a rough one from the battery
+ * temperature before Android 10) and battery level (sticky ACTION_BATTERY_CHANGED).
+ *
+ * The scheduler's decisions are written to the dataset (scheduler.txt) through a storage
+ * channel, like the managers' files. Owned by the recording fragment: started after the
+ * managers (their policies are added on START_RECORDING) and stopped before them.
+ */
+
+import static android.os.Build.VERSION.SDK_INT;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.dayani.m.roboplatform.utils.helpers.RecordingScheduler;
+import com.dayani.m.roboplatform.utils.interfaces.MyChannels.ChannelTransactions;
+import com.dayani.m.roboplatform.utils.interfaces.MyMessageBus;
+import com.dayani.m.roboplatform.utils.interfaces.MyMessages.MsgConfig;
+import com.dayani.m.roboplatform.utils.interfaces.MyMessages.MsgStorage;
+import com.dayani.m.roboplatform.utils.interfaces.MyMessages.StorageConfig;
+import com.dayani.m.roboplatform.utils.interfaces.MyMessages.StorageInfo;
+
+import java.util.Collections;
+
+
+public class RecordingMonitor {
+
+    private static final String TAG = RecordingMonitor.class.getSimpleName();
+
+    private static final long SAMPLE_PERIOD_MS = 10000;
+    private static final int ANDROID_THERMAL_STATUS_VERSION = Build.VERSION_CODES.Q;
+
+    private final Context mAppContext;
+    private final MyMessageBus mMessageBus = new MyMessageBus(TAG);
+
+    private final RecordingScheduler mScheduler = RecordingScheduler.getInstance();
+    private final Runnable mTick = this::sample;
+    private volatile Handler mHandler;
+    private StorageConfig mLogConfig;
+
+    /**
+     * @param storage the channel of scheduler.txt (the storage manager)
+     */
+    public RecordingMonitor(Context context, ChannelTransactions storage) {
+
+        mAppContext = context.getApplicationContext();
+        mMessageBus.register(storage);
+    }
+
+    /**
+     * Starts the scheduler if it's enabled, the device state is sampled on handler
+     */
+    public void start(Handler handler) {
+
+        stop();
+
+        if (handler == null ||
+                !MyStateManager.getBoolPref(mAppContext, MyBaseManager.KEY_RECORDING_SCHEDULER, false)) {
+            return;
+        }
+
+        StorageInfo storageInfo = new StorageInfo(Collections.emptyList(),
+                RecordingScheduler.LOG_FILE_NAME, StorageInfo.StreamType.STREAM_STRING);
+        StorageConfig logConfig = new StorageConfig(MsgConfig.ConfigAction.OPEN, TAG, storageInfo);
+        mMessageBus.publish(logConfig);
+
+        final int targetId = logConfig.getTargetId();
+        if (targetId < 0) {
+            Log.w(TAG, "Cannot start the recording scheduler");
+            return;
+        }
+        mMessageBus.publish(new MsgStorage(RecordingScheduler.getHeader(), null, targetId));
+
+        mLogConfig = logConfig;
+        mScheduler.start(line -> mMessageBus.publish(new MsgStorage(line, null, targetId)),
+                RecordingScheduler.DEF_MAX_DRAIN_PCT_PER_HOUR);
+
+        mHandler = handler;
+        handler.post(mTick);
+    }
+
+    /**
+     * @return the report of the scheduler, null if it was not started
+     */
+    public String stop() {
+
+        StorageConfig logConfig = mLogConfig;
+        if (logConfig == null) {
+            return null;
+        }
+        mLogConfig = null;
+
+        Handler handler = mHandler;
+        mHandler = null;
+        if (handler != null) {
+            handler.removeCallbacks(mTick);
+        }
+
+        // the scheduler doesn't write after this
+        String report = mScheduler.stop();
+        int targetId = logConfig.getTargetId();
+        mMessageBus.publish(new MsgStorage("# " + report.replace("\n", "\n# ") + "\n",
+                null, targetId));
+
+        StorageConfig closeConfig = new StorageConfig(MsgConfig.ConfigAction.CLOSE, TAG,
+                logConfig.getStorageInfo());
+        closeConfig.setTargetId(targetId);
+        mMessageBus.publish(closeConfig);
+
+        return report;
+    }
+
+    private void sample() {
+
+        if (!mScheduler.isStarted()) {
+            return;
+        }
+
+        float batteryPct = 100f;
+        float batteryTempC = 0f;
+        boolean charging = false;
+
+        // sticky broadcast: no receiver is registered
+        Intent battery = mAppContext.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery != null) {
+
+            int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+            int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+            if (level >= 0 && scale > 0) {
+                batteryPct = 100f * level / scale;
+            }
+            charging = battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+            // tenths of a degree
+            batteryTempC = battery.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, 0) / 10f;
+        }
+
+        int thermalStatus = RecordingScheduler.getThermalStatusFromTemperature(batteryTempC);
+        if (SDK_INT >= ANDROID_THERMAL_STATUS_VERSION) {
+            PowerManager powerManager = (PowerManager) mAppContext.getSystemService(Context.POWER_SERVICE);
+            if (powerManager != null) {
+                thermalStatus = powerManager.getCurrentThermalStatus();
+            }
+        }
+
+        mScheduler.update(SystemClock.elapsedRealtimeNanos(), thermalStatus, batteryPct, charging);
+
+        Handler handler = mHandler;
+        if (handler != null && mScheduler.isStarted()) {
+            handler.postDelayed(mTick, SAMPLE_PERIOD_MS);
+        }
+    }
+}
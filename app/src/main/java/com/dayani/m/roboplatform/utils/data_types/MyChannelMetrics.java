@@ -0,0 +1,226 @@
+package com.dayani.m.roboplatform.utils.data_types;
+/*
+ * Process-wide latency/throughput counters of the message channels (one recording at a time):
+ *      - call time of each subscriber's onMessageReceived, per publisher (MyMessageBus)
+ *      - storage write queue depth
+ *      - per storage target: messages, records and messages/s, write time,
+ *        and end-to-end latency from the sample timestamp to the storage write
+ *
+ * Disabled by default, recording sites check isEnabled() so the cost is one volatile read.
+ * Histograms are reset in place, so callers may cache them.
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+public final class MyChannelMetrics {
+
+    private static final MyChannelMetrics sInstance = new MyChannelMetrics();
+
+    private volatile boolean mbEnabled = false;
+    private volatile long mStartNs = System.nanoTime();
+
+    // map<"publisher -> subscriber", onMessageReceived call time>
+    private final ConcurrentHashMap<String, MyLatencyHistogram> mmCallTimes = new ConcurrentHashMap<>();
+    // map<storage target id, stats>
+    private final Map<Integer, TargetStats> mmTargets = new ConcurrentHashMap<>();
+
+    private final AtomicLong mQueueSamples = new AtomicLong(0);
+    private final AtomicLong mQueueDepthSum = new AtomicLong(0);
+    private final AtomicLong mQueueDepthMax = new AtomicLong(0);
+
+    private MyChannelMetrics() {}
+
+    public static MyChannelMetrics getInstance() { return sInstance; }
+
+    public boolean isEnabled() { return mbEnabled; }
+
+    /**
+     * Enables and clears all counters (call before a recording starts)
+     */
+    public void start() {
+
+        reset();
+        mbEnabled = true;
+    }
+
+    public void stop() { mbEnabled = false; }
+
+    public void reset() {
+
+        for (MyLatencyHistogram hist : mmCallTimes.values()) {
+            hist.reset();
+        }
+        // targets are reopened on each recording
+        mmTargets.clear();
+
+        mQueueSamples.set(0);
+        mQueueDepthSum.set(0);
+        mQueueDepthMax.set(0);
+        mStartNs = System.nanoTime();
+    }
+
+    /* --------------------------------------- Recording ---------------------------------------- */
+
+    public MyLatencyHistogram getCallTime(String publisher, String subscriber) {
+
+        String key = publisher + " -> " + subscriber;
+        MyLatencyHistogram hist = mmCallTimes.get(key);
+        if (hist == null) {
+            MyLatencyHistogram newHist = new MyLatencyHistogram();
+            hist = mmCallTimes.putIfAbsent(key, newHist);
+            if (hist == null) {
+                hist = newHist;
+            }
+        }
+        return hist;
+    }
+
+    public TargetStats openTarget(int targetId, String name) {
+
+        TargetStats stats = new TargetStats(targetId, name);
+        mmTargets.put(targetId, stats);
+        return stats;
+    }
+
+    public void sampleQueueDepth(int depth) {
+
+        mQueueSamples.incrementAndGet();
+        mQueueDepthSum.addAndGet(depth);
+
+        long max = mQueueDepthMax.get();
+        while (depth > max && !mQueueDepthMax.compareAndSet(max, depth)) {
+            max = mQueueDepthMax.get();
+        }
+    }
+
+    /* ---------------------------------------- Reports ----------------------------------------- */
+
+    /**
+     * @return one line per storage target and the queue depth (for the overlay)
+     */
+    public String getSummary() {
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.US, "queue: avg %.1f, max %d\n",
+                getMeanQueueDepth(), mQueueDepthMax.get()));
+
+        for (TargetStats stats : getSortedTargets()) {
+            sb.append(String.format(Locale.US, "%s: %.1f msg/s, e2e p99 %.1f ms\n",
+                    stats.mName, stats.getMessageRate(),
+                    stats.mEndToEnd.getPercentile(0.99) * 1e-6));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return full report (written to the dataset at the end of a recording)
+     */
+    public String getReport() {
+
+        StringBuilder sb = new StringBuilder();
+        long durationNs = System.nanoTime() - mStartNs;
+
+        sb.append(String.format(Locale.US, "# channel metrics, duration: %.3f s\n", durationNs * 1e-9));
+
+        sb.append("\n# subscriber call time (onMessageReceived)\n");
+        List<String> keys = new ArrayList<>(mmCallTimes.keySet());
+        Collections.sort(keys);
+        for (String key : keys) {
+            MyLatencyHistogram hist = mmCallTimes.get(key);
+            if (hist != null && hist.getCount() > 0) {
+                sb.append(key).append(": ").append(hist).append('\n');
+            }
+        }
+
+        sb.append("\n# storage write queue depth\n");
+        sb.append(String.format(Locale.US, "samples: %d, mean: %.2f, max: %d\n",
+                mQueueSamples.get(), getMeanQueueDepth(), mQueueDepthMax.get()));
+
+        sb.append("\n# storage targets\n");
+        for (TargetStats stats : getSortedTargets()) {
+            sb.append(stats).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private double getMeanQueueDepth() {
+        long n = mQueueSamples.get();
+        return (n == 0) ? 0 : (double) mQueueDepthSum.get() / n;
+    }
+
+    private List<TargetStats> getSortedTargets() {
+
+        List<TargetStats> targets = new ArrayList<>(mmTargets.values());
+        Collections.sort(targets, (a, b) -> Integer.compare(a.mTargetId, b.mTargetId));
+        return targets;
+    }
+
+    /*=================================== Types & Interfaces ====================================*/
+
+    public static final class TargetStats {
+
+        private final int mTargetId;
+        private final String mName;
+
+        private final AtomicLong mMessages = new AtomicLong(0);
+        private final AtomicLong mRecords = new AtomicLong(0);
+        private volatile long mFirstNs = 0;
+        private volatile long mLastNs = 0;
+
+        private final MyLatencyHistogram mWriteTime = new MyLatencyHistogram();
+        private final MyLatencyHistogram mEndToEnd = new MyLatencyHistogram();
+
+        TargetStats(int targetId, String name) {
+            mTargetId = targetId;
+            mName = name;
+        }
+
+        /**
+         * @param nRecords samples in the message (batches)
+         * @param writeNs time spent in the storage write
+         * @param latencyNs from the oldest sample to the write, negative if unknown
+         */
+        public void onWrite(int nRecords, long writeNs, long latencyNs) {
+
+            long now = System.nanoTime();
+            if (mFirstNs == 0) {
+                mFirstNs = now;
+            }
+            mLastNs = now;
+
+            mMessages.incrementAndGet();
+            mRecords.addAndGet(nRecords);
+            mWriteTime.record(writeNs);
+            if (latencyNs >= 0) {
+                mEndToEnd.record(latencyNs);
+            }
+        }
+
+        public double getMessageRate() {
+
+            long durationNs = mLastNs - mFirstNs;
+            return (durationNs <= 0) ? 0 : mMessages.get() * 1e9 / durationNs;
+        }
+
+        public long getMessageCount() { return mMessages.get(); }
+
+        public MyLatencyHistogram getWriteTime() { return mWriteTime; }
+
+        public MyLatencyHistogram getEndToEnd() { return mEndToEnd; }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "[%d] %s: messages: %d, records: %d, rate: %.2f msg/s\n" +
+                            "    write: %s\n    sample-to-write: %s",
+                    mTargetId, mName, mMessages.get(), mRecords.get(), getMessageRate(),
+                    mWriteTime, mEndToEnd);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.dayani.m.roboplatform.utils.data_types;
+/*
+ * Lock-free histogram of durations (ns) with power-of-two buckets:
+ * bucket i holds values in [2^(i-1), 2^i), so percentiles are accurate within a factor of 2.
+ * Cheap enough to record from hot paths (a few atomic increments).
+ */
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+public class MyLatencyHistogram {
+
+    // 2^40 ns ~ 18 minutes
+    private static final int NUM_BUCKETS = 41;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(NUM_BUCKETS);
+    private final AtomicLong mCount = new AtomicLong(0);
+    private final AtomicLong mSum = new AtomicLong(0);
+    private final AtomicLong mMax = new AtomicLong(0);
+
+    public void record(long valueNs) {
+
+        if (valueNs < 0) {
+            valueNs = 0;
+        }
+
+        int bucket = Math.min(64 - Long.numberOfLeadingZeros(valueNs), NUM_BUCKETS - 1);
+        mBuckets.incrementAndGet(bucket);
+        mCount.incrementAndGet();
+        mSum.addAndGet(valueNs);
+
+        long max = mMax.get();
+        while (valueNs > max && !mMax.compareAndSet(max, valueNs)) {
+            max = mMax.get();
+        }
+    }
+
+    public long getCount() { return mCount.get(); }
+
+    public long getMax() { return mMax.get(); }
+
+    public long getMean() {
+        long count = mCount.get();
+        return (count == 0) ? 0 : mSum.get() / count;
+    }
+
+    /**
+     * @param fraction in [0, 1], e.g. 0.99
+     * @return upper bound of the bucket containing the percentile (clamped to max)
+     */
+    public long getPercentile(double fraction) {
+
+        long count = mCount.get();
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(fraction * count);
+        long seen = 0;
+
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += mBuckets.get(i);
+            if (seen >= rank) {
+                long upper = (i == 0) ? 0 : (1L << i) - 1;
+                return Math.min(upper, getMax());
+            }
+        }
+        return getMax();
+    }
+
+    public void reset() {
+
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            mBuckets.set(i, 0);
+        }
+        mCount.set(0);
+        mSum.set(0);
+        mMax.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "n: %d, mean: %.3f ms, p50: %.3f ms, p99: %.3f ms, max: %.3f ms",
+                getCount(), getMean() * 1e-6, getPercentile(0.5) * 1e-6,
+                getPercentile(0.99) * 1e-6, getMax() * 1e-6);
+    }
+}
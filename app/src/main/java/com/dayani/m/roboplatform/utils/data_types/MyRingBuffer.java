@@ -0,0 +1,116 @@
+package com.dayani.m.roboplatform.utils.data_types;
+/*
+ * Bounded lock-free queue (array ring with per-slot sequence numbers).
+ * Safe for many producers and many consumers, so producers can also
+ * evict the oldest element when the queue is full (drop-oldest policy).
+ * The capacity is rounded up to a power of two.
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+public class MyRingBuffer<T> {
+
+    private final int mMask;
+    private final AtomicReferenceArray<T> mBuffer;
+    private final AtomicLongArray mSequence;
+
+    // next position to write (producers) and read (consumer)
+    private final AtomicLong mHead = new AtomicLong(0);
+    private final AtomicLong mTail = new AtomicLong(0);
+
+    public MyRingBuffer(int capacity) {
+
+        int cap = 1;
+        while (cap < capacity) {
+            cap <<= 1;
+        }
+
+        mMask = cap - 1;
+        mBuffer = new AtomicReferenceArray<>(cap);
+        mSequence = new AtomicLongArray(cap);
+
+        for (int i = 0; i < cap; i++) {
+            mSequence.set(i, i);
+        }
+    }
+
+    /**
+     * @param item non-null element
+     * @return false if the queue is full
+     */
+    public boolean offer(T item) {
+
+        long pos = mHead.get();
+
+        while (true) {
+
+            int idx = (int) (pos & mMask);
+            long diff = mSequence.get(idx) - pos;
+
+            if (diff == 0) {
+                if (mHead.compareAndSet(pos, pos + 1)) {
+                    mBuffer.set(idx, item);
+                    // publish the slot to consumers
+                    mSequence.set(idx, pos + 1);
+                    return true;
+                }
+                pos = mHead.get();
+            }
+            else if (diff < 0) {
+                // full
+                return false;
+            }
+            else {
+                pos = mHead.get();
+            }
+        }
+    }
+
+    /**
+     * @return the oldest element or null if the queue is empty
+     */
+    public T poll() {
+
+        long pos = mTail.get();
+
+        while (true) {
+
+            int idx = (int) (pos & mMask);
+            long diff = mSequence.get(idx) - (pos + 1);
+
+            if (diff == 0) {
+                if (mTail.compareAndSet(pos, pos + 1)) {
+                    T item = mBuffer.get(idx);
+                    mBuffer.set(idx, null);
+                    // release the slot for the next round of producers
+                    mSequence.set(idx, pos + mMask + 1);
+                    return item;
+                }
+                pos = mTail.get();
+            }
+            else if (diff < 0) {
+                // empty
+                return null;
+            }
+            else {
+                pos = mTail.get();
+            }
+        }
+    }
+
+    /**
+     * Approximate when accessed concurrently
+     */
+    public int size() {
+
+        long size = mHead.get() - mTail.get();
+        return (int) Math.max(0, Math.min(size, capacity()));
+    }
+
+    public boolean isEmpty() { return size() == 0; }
+
+    public int capacity() { return mMask + 1; }
+}
@@ -0,0 +1,242 @@
+package com.dayani.m.roboplatform.utils.helpers;
+
+/*
+ * Fixed-width binary layout used by StorageInfo.StreamType.STREAM_BINARY channels.
+ *
+ * All fields are little-endian:
+ *      File header:    int32 magic, int32 version, int32 num_values, int32 header_len,
+ *                      byte[header_len] UTF-8 text header (the same '# ...' line as text files)
+ *      Record:         int64 timestamp_ns, float32[num_values] values, int32 sensor_id
+ *
+ * The converter (main) regenerates the legacy text layout (accel.txt, gyro.txt, ...)
+ * so downstream tools keep working:
+ *      java BinaryRecordFormat <file.bin | dataset_dir> [output.txt]
+ *
+ * This class must not depend on Android so it can be used offline.
+ */
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+
+public final class BinaryRecordFormat {
+
+    public static final int MAGIC = 0x46425052; // "RPBF" in little-endian
+    public static final int VERSION = 1;
+
+    public static final String BIN_FILE_EXT = ".bin";
+    public static final String TEXT_FILE_EXT = ".txt";
+
+    // sensor id is not available (older Android versions)
+    public static final int NO_SENSOR_ID = Integer.MIN_VALUE;
+
+    public static final int TIMESTAMP_BYTES = Long.BYTES;
+    public static final int VALUE_BYTES = Float.BYTES;
+    public static final int SENSOR_ID_BYTES = Integer.BYTES;
+
+    private static final int FIXED_HEADER_BYTES = 4 * Integer.BYTES;
+    private static final int READ_BUFF_SIZE = 64 * 1024;
+
+    private BinaryRecordFormat() {}
+
+    /* ------------------------------------- Writing -------------------------------------------- */
+
+    public static int getRecordSize(int numValues) {
+        return TIMESTAMP_BYTES + numValues * VALUE_BYTES + SENSOR_ID_BYTES;
+    }
+
+    public static byte[] makeFileHeader(int numValues, String textHeader) {
+
+        byte[] header = (textHeader == null) ? new byte[0] : textHeader.getBytes(StandardCharsets.UTF_8);
+
+        ByteBuffer buffer = ByteBuffer.allocate(FIXED_HEADER_BYTES + header.length)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(numValues);
+        buffer.putInt(header.length);
+        buffer.put(header);
+
+        return buffer.array();
+    }
+
+    /**
+     * Appends one record, the buffer must be in little-endian order
+     * and have at least getRecordSize(numValues) bytes remaining
+     */
+    public static void putRecord(ByteBuffer buffer, long timestamp, float[] values,
+                                 int numValues, int sensorId) {
+
+        buffer.putLong(timestamp);
+        for (int i = 0; i < numValues; i++) {
+            buffer.putFloat(values[i]);
+        }
+        buffer.putInt(sensorId);
+    }
+
+    /* ------------------------------------- Reading -------------------------------------------- */
+
+    /**
+     * Writes a record in the same layout as MyMessages.MsgSensor.toString()
+     */
+    public static void appendTextRecord(StringBuilder sb, long timestamp, float[] values,
+                                        int numValues, int sensorId) {
+
+        sb.append(timestamp);
+        for (int i = 0; i < numValues; i++) {
+            sb.append(", ").append(values[i]);
+        }
+        if (sensorId != NO_SENSOR_ID) {
+            sb.append(", ").append(sensorId);
+        }
+        sb.append('\n');
+    }
+
+    /**
+     * @return number of converted records
+     */
+    public static long convertToText(File binFile, File textFile) throws IOException {
+
+        try (FileChannel inChannel = new FileInputStream(binFile).getChannel();
+             Writer writer = new BufferedWriter(new OutputStreamWriter(
+                     new FileOutputStream(textFile), StandardCharsets.UTF_8))) {
+
+            ByteBuffer buffer = ByteBuffer.allocate(READ_BUFF_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            // read mode, nothing read yet
+            buffer.limit(0);
+
+            // file header
+            if (!fill(inChannel, buffer, FIXED_HEADER_BYTES)) {
+                throw new IOException("Truncated header: " + binFile);
+            }
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a binary record file: " + binFile);
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported binary record version: " + version);
+            }
+            int numValues = buffer.getInt();
+            int headerLen = buffer.getInt();
+            if (numValues < 0 || headerLen < 0 || headerLen > READ_BUFF_SIZE) {
+                throw new IOException("Corrupted header: " + binFile);
+            }
+
+            if (!fill(inChannel, buffer, headerLen)) {
+                throw new IOException("Truncated header: " + binFile);
+            }
+            byte[] header = new byte[headerLen];
+            buffer.get(header);
+            writer.write(new String(header, StandardCharsets.UTF_8));
+
+            // records
+            int recordSize = getRecordSize(numValues);
+            float[] values = new float[numValues];
+            StringBuilder sb = new StringBuilder();
+            long nRecords = 0;
+
+            while (fill(inChannel, buffer, recordSize)) {
+
+                long ts = buffer.getLong();
+                for (int i = 0; i < numValues; i++) {
+                    values[i] = buffer.getFloat();
+                }
+                int sensorId = buffer.getInt();
+
+                sb.setLength(0);
+                appendTextRecord(sb, ts, values, numValues, sensorId);
+                writer.append(sb);
+                nRecords++;
+            }
+
+            return nRecords;
+        }
+    }
+
+    /**
+     * Converts a single file or all binary files under a dataset directory
+     * @return number of converted files
+     */
+    public static int convertAll(File root) throws IOException {
+
+        if (root.isFile()) {
+            convertToText(root, getTextFile(root));
+            return 1;
+        }
+
+        File[] children = root.listFiles();
+        if (children == null) {
+            return 0;
+        }
+
+        int nFiles = 0;
+        for (File child : children) {
+            if (child.isDirectory()) {
+                nFiles += convertAll(child);
+            }
+            else if (child.getName().endsWith(BIN_FILE_EXT)) {
+                convertToText(child, getTextFile(child));
+                nFiles++;
+            }
+        }
+        return nFiles;
+    }
+
+    public static File getTextFile(File binFile) {
+
+        String name = binFile.getName();
+        if (name.endsWith(BIN_FILE_EXT)) {
+            name = name.substring(0, name.length() - BIN_FILE_EXT.length());
+        }
+        return new File(binFile.getParentFile(), name + TEXT_FILE_EXT);
+    }
+
+    /**
+     * Makes sure the buffer (in read mode) has at least nBytes remaining,
+     * nBytes must not exceed the buffer capacity
+     * @return false on end of file
+     */
+    private static boolean fill(FileChannel channel, ByteBuffer buffer, int nBytes) throws IOException {
+
+        if (buffer.remaining() >= nBytes) {
+            return true;
+        }
+
+        buffer.compact();
+        while (buffer.position() < nBytes) {
+            if (channel.read(buffer) < 0) {
+                buffer.flip();
+                return false;
+            }
+        }
+        buffer.flip();
+        return true;
+    }
+
+    public static void main(String[] args) throws IOException {
+
+        if (args.length < 1) {
+            System.out.println("Usage: BinaryRecordFormat <file.bin | dataset_dir> [output.txt]");
+            return;
+        }
+
+        File input = new File(args[0]);
+        if (args.length > 1 && input.isFile()) {
+            long n = convertToText(input, new File(args[1]));
+            System.out.println("Converted " + n + " records");
+        }
+        else {
+            int n = convertAll(input);
+            System.out.println("Converted " + n + " files");
+        }
+    }
+}
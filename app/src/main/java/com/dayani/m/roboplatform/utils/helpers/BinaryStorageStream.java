@@ -0,0 +1,184 @@
+package com.dayani.m.roboplatform.utils.helpers;
+
+import android.util.Log;
+
+import com.dayani.m.roboplatform.utils.interfaces.MyMessages;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * Writes fixed-width binary records (BinaryRecordFormat) into a preallocated
+ * direct buffer and flushes it to the file channel when it's full,
+ * when the flush interval is passed, or on close.
+ * The text header is kept until the first record defines the number of values.
+ */
+public class BinaryStorageStream {
+
+    private static final String TAG = BinaryStorageStream.class.getSimpleName();
+
+    // large enough for the file header and any sensor record
+    private static final int MIN_BIN_BUFF_SIZE = 4 * 1024;
+
+    public BinaryStorageStream(String path, String fileName, int buffSize, long flushIntervalMs) {
+
+        mFile = new File(path, fileName);
+        mBuffer = ByteBuffer.allocateDirect(Math.max(buffSize, MIN_BIN_BUFF_SIZE))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        mFlushIntervalNs = flushIntervalMs * 1000000L;
+        mLastFlushNs = System.nanoTime();
+        mStats = new MyMessages.StorageStats();
+
+        try {
+            mOs = new FileOutputStream(mFile, false);
+            mChannel = mOs.getChannel();
+        }
+        catch (FileNotFoundException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public void setTextHeader(String header) {
+        mTextHeader = header;
+    }
+
+    /**
+     * @return false if the record is ignored
+     */
+    public boolean write(MyMessages.BinaryRecord record) {
+
+        if (mChannel == null) {
+            return false;
+        }
+
+        if (mNumValues < 0) {
+            mNumValues = record.getNumValues();
+            mRecordSize = BinaryRecordFormat.getRecordSize(mNumValues);
+            writeFileHeader();
+        }
+
+        if (record.getNumValues() != mNumValues) {
+            Log.w(TAG, "Record size mismatch in " + mFile.getName() + ", ignored");
+            return false;
+        }
+
+        int nRecords = record.getNumRecords();
+        for (int i = 0; i < nRecords; i++) {
+
+            if (mBuffer.remaining() < mRecordSize) {
+                flush();
+            }
+            record.writeRecord(mBuffer, i);
+        }
+
+        flushIfDue(System.nanoTime());
+        return true;
+    }
+
+    /**
+     * Flushes the buffered records if the flush interval is passed
+     * (a quiet stream is flushed on time by its writer thread).
+     * @return ns until the buffered data is due, -1 if nothing waits for the interval
+     */
+    public long flushIfDue(long nowNs) {
+
+        if (mFlushIntervalNs <= 0 || mBuffer.position() == 0 || mChannel == null) {
+            return -1;
+        }
+
+        long dueNs = mLastFlushNs + mFlushIntervalNs - nowNs;
+        if (dueNs <= 0) {
+            flush();
+            return -1;
+        }
+        return dueNs;
+    }
+
+    private void writeFileHeader() {
+
+        byte[] header = BinaryRecordFormat.makeFileHeader(Math.max(mNumValues, 0), mTextHeader);
+        if (mBuffer.remaining() < header.length) {
+            flush();
+        }
+        mBuffer.put(header);
+    }
+
+    public void flush() {
+
+        if (mBuffer.position() == 0) {
+            return;
+        }
+
+        long t0 = System.nanoTime();
+        mBuffer.flip();
+        int nBytes = mBuffer.remaining();
+        try {
+            while (mBuffer.hasRemaining()) {
+                mChannel.write(mBuffer);
+            }
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+        mBuffer.clear();
+        mFlushedBytes += nBytes;
+
+        mLastFlushNs = System.nanoTime();
+        mStats.onFlush(nBytes, mLastFlushNs - t0);
+    }
+
+    public void close() {
+
+        if (mChannel == null) {
+            return;
+        }
+
+        if (mNumValues < 0) {
+            // no records, still make a valid (empty) file
+            writeFileHeader();
+        }
+        flush();
+
+        try {
+            mOs.close();
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+        mChannel = null;
+    }
+
+    public String getFullPath() {
+
+        return mFile.getAbsolutePath();
+    }
+
+    public MyMessages.StorageStats getStats() { return mStats; }
+
+    /**
+     * @return file size once the buffer is flushed (offset of the next record)
+     */
+    public long getPosition() { return mFlushedBytes + mBuffer.position(); }
+
+    public int getRecordSize() { return mRecordSize; }
+
+    private final File mFile;
+    private final ByteBuffer mBuffer;
+    private long mFlushedBytes = 0;
+    private FileOutputStream mOs;
+    private FileChannel mChannel;
+
+    private final long mFlushIntervalNs;
+    private long mLastFlushNs;
+    private final MyMessages.StorageStats mStats;
+
+    private String mTextHeader;
+    private int mNumValues = -1;
+    private int mRecordSize = 0;
+}
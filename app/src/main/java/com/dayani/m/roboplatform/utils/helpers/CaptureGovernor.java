@@ -0,0 +1,253 @@
+package com.dayani.m.roboplatform.utils.helpers;
+/*
+ * Adapts the capture settings to the storage throughput, within user-set bounds:
+ *      - pressure: the frame queue (frames copied but not written yet) is above the high
+ *        watermark, the mean write latency is above its limit or frames were dropped
+ *      - relief: the queue is below the low watermark and the latency well below the limit
+ * After DEGRADE_TICKS updates under pressure, one setting is lowered, in this order:
+ *      JPEG quality, frame rate, resolution (level 0: the largest size)
+ * After RECOVER_TICKS updates of relief, one setting is restored in the reverse order.
+ * The counters restart after each change, so the storage has time to react (hysteresis).
+ *
+ * Each change is reported as a line of capture_changes.txt:
+ *      timestamp_ns, parameter, old_value, new_value, reason
+ *      - timestamp: the caller's (e.g. the last frame captured with the old settings)
+ *
+ * A setting with equal bounds is never changed (e.g. the quality of non-JPEG frames).
+ * This class must not depend on Android so it can be used offline.
+ */
+
+import java.util.Locale;
+
+
+public class CaptureGovernor {
+
+    public static final String CHANGES_FILE_NAME = "capture_changes.txt";
+
+    public enum Parameter {
+        JPEG_QUALITY,
+        FRAME_RATE,
+        RESOLUTION
+    }
+
+    // fraction of the queue capacity
+    public static final float HIGH_QUEUE_FILL = 0.5f;
+    public static final float LOW_QUEUE_FILL = 0.125f;
+
+    public static final int DEGRADE_TICKS = 2;
+    public static final int RECOVER_TICKS = 5;
+
+    public static final int JPEG_QUALITY_STEP = 10;
+
+    private final int mMinJpegQuality;
+    private final int mMaxJpegQuality;
+    private final int mMinFps;
+    private final int mMaxFps;
+    // e.g. "640x480", the largest first
+    private final String[] mResolutionNames;
+    private final long mMaxWriteLatencyNs;
+
+    private int mJpegQuality;
+    private int mFps;
+    private int mResolutionLevel = 0;
+
+    private int mPressureTicks = 0;
+    private int mReliefTicks = 0;
+
+    private long mDegradeCount = 0;
+    private long mRecoverCount = 0;
+
+    /**
+     * Starts with the highest settings
+     *
+     * @param resolutionNames the allowed resolutions, the largest first
+     * @param maxWriteLatencyNs mean write latency of a frame above which the storage is behind
+     */
+    public CaptureGovernor(int minJpegQuality, int maxJpegQuality, int minFps, int maxFps,
+                           String[] resolutionNames, long maxWriteLatencyNs) {
+
+        mMaxJpegQuality = clamp(maxJpegQuality, 1, 100);
+        mMinJpegQuality = clamp(minJpegQuality, 1, mMaxJpegQuality);
+        mMaxFps = Math.max(1, maxFps);
+        mMinFps = clamp(minFps, 1, mMaxFps);
+        mResolutionNames = (resolutionNames == null || resolutionNames.length == 0) ?
+                new String[] {"-"} : resolutionNames.clone();
+        mMaxWriteLatencyNs = maxWriteLatencyNs;
+
+        mJpegQuality = mMaxJpegQuality;
+        mFps = mMaxFps;
+    }
+
+    public static String getHeader() {
+        return "# timestamp_ns, parameter, old_value, new_value, reason\n";
+    }
+
+    /**
+     * @param queueDepth frames waiting to be written
+     * @param meanWriteLatencyNs mean write latency of the frames since the last update (0: none)
+     * @param droppedFrames frames dropped since the last update
+     * @return the change to apply, or null
+     */
+    public synchronized Change update(long timestamp, int queueDepth, int queueCapacity,
+                                      long meanWriteLatencyNs, long droppedFrames) {
+
+        boolean pressure = queueDepth >= queueCapacity * HIGH_QUEUE_FILL ||
+                meanWriteLatencyNs > mMaxWriteLatencyNs || droppedFrames > 0;
+        boolean relief = !pressure && queueDepth <= queueCapacity * LOW_QUEUE_FILL &&
+                meanWriteLatencyNs <= mMaxWriteLatencyNs / 2;
+
+        mPressureTicks = pressure ? mPressureTicks + 1 : 0;
+        mReliefTicks = relief ? mReliefTicks + 1 : 0;
+
+        Change change = null;
+        if (mPressureTicks >= DEGRADE_TICKS) {
+            change = degrade(timestamp);
+        }
+        else if (mReliefTicks >= RECOVER_TICKS) {
+            change = recover(timestamp);
+        }
+
+        if (change == null) {
+            return null;
+        }
+
+        mPressureTicks = 0;
+        mReliefTicks = 0;
+        change.mReason = String.format(Locale.US, "queue %d/%d, latency %.1f ms, %d dropped",
+                queueDepth, queueCapacity, meanWriteLatencyNs * 1e-6, droppedFrames);
+        return change;
+    }
+
+    public synchronized int getJpegQuality() { return mJpegQuality; }
+
+    public synchronized int getFps() { return mFps; }
+
+    public synchronized long getFrameIntervalNs() { return 1000000000L / mFps; }
+
+    /**
+     * @return index of the current resolution (0: the largest)
+     */
+    public synchronized int getResolutionLevel() { return mResolutionLevel; }
+
+    public synchronized String getSettings() {
+
+        return String.format(Locale.US, "jpeg_quality: %d [%d, %d], frame_rate: %d [%d, %d], " +
+                        "resolution: %s [%s, %s]", mJpegQuality, mMinJpegQuality, mMaxJpegQuality,
+                mFps, mMinFps, mMaxFps, mResolutionNames[mResolutionLevel],
+                mResolutionNames[mResolutionNames.length - 1], mResolutionNames[0]);
+    }
+
+    public synchronized String getReport() {
+
+        return String.format(Locale.US, "Capture governor: %d degraded, %d recovered, %s",
+                mDegradeCount, mRecoverCount, getSettings());
+    }
+
+    private Change degrade(long timestamp) {
+
+        Change change = null;
+
+        if (mJpegQuality > mMinJpegQuality) {
+
+            int quality = Math.max(mMinJpegQuality, mJpegQuality - JPEG_QUALITY_STEP);
+            change = new Change(timestamp, Parameter.JPEG_QUALITY, mJpegQuality, quality);
+            mJpegQuality = quality;
+        }
+        else if (mFps > mMinFps) {
+
+            // about 2/3 of the rate, at least one frame less
+            int fps = Math.max(mMinFps, Math.min(mFps - 1, mFps * 2 / 3));
+            change = new Change(timestamp, Parameter.FRAME_RATE, mFps, fps);
+            mFps = fps;
+        }
+        else if (mResolutionLevel < mResolutionNames.length - 1) {
+
+            change = new Change(timestamp, Parameter.RESOLUTION, mResolutionLevel, mResolutionLevel + 1);
+            mResolutionLevel++;
+        }
+
+        if (change != null) {
+            mDegradeCount++;
+        }
+        return change;
+    }
+
+    private Change recover(long timestamp) {
+
+        Change change = null;
+
+        if (mResolutionLevel > 0) {
+
+            change = new Change(timestamp, Parameter.RESOLUTION, mResolutionLevel, mResolutionLevel - 1);
+            mResolutionLevel--;
+        }
+        else if (mFps < mMaxFps) {
+
+            int fps = Math.min(mMaxFps, Math.max(mFps + 1, mFps * 3 / 2));
+            change = new Change(timestamp, Parameter.FRAME_RATE, mFps, fps);
+            mFps = fps;
+        }
+        else if (mJpegQuality < mMaxJpegQuality) {
+
+            int quality = Math.min(mMaxJpegQuality, mJpegQuality + JPEG_QUALITY_STEP);
+            change = new Change(timestamp, Parameter.JPEG_QUALITY, mJpegQuality, quality);
+            mJpegQuality = quality;
+        }
+
+        if (change != null) {
+            mRecoverCount++;
+        }
+        return change;
+    }
+
+    private static int clamp(int val, int min, int max) {
+        return Math.max(min, Math.min(max, val));
+    }
+
+    /*=================================== Types & Interfaces ====================================*/
+
+    public final class Change {
+
+        private final long mTimestamp;
+        private final Parameter mParameter;
+        private final int mOldValue;
+        private final int mNewValue;
+        private String mReason;
+
+        Change(long timestamp, Parameter parameter, int oldValue, int newValue) {
+
+            mTimestamp = timestamp;
+            mParameter = parameter;
+            mOldValue = oldValue;
+            mNewValue = newValue;
+        }
+
+        public Parameter getParameter() { return mParameter; }
+
+        /**
+         * @return quality, fps or resolution level
+         */
+        public int getNewValue() { return mNewValue; }
+
+        public boolean isDegraded() {
+            // a higher resolution level is a smaller size
+            return (mParameter == Parameter.RESOLUTION) ? mNewValue > mOldValue : mNewValue < mOldValue;
+        }
+
+        /**
+         * @return "<timestamp>, <parameter>, <old>, <new>, <reason>\n" (resolutions by name)
+         */
+        @Override
+        public String toString() {
+
+            String oldValue = String.valueOf(mOldValue);
+            String newValue = String.valueOf(mNewValue);
+            if (mParameter == Parameter.RESOLUTION) {
+                oldValue = mResolutionNames[mOldValue];
+                newValue = mResolutionNames[mNewValue];
+            }
+            return mTimestamp + ", " + mParameter.name().toLowerCase(Locale.US) + ", " +
+                    oldValue + ", " + newValue + ", " + mReason + "\n";
+        }
+    }
+}
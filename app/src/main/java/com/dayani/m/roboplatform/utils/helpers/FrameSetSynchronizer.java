@@ -0,0 +1,369 @@
+package com.dayani.m.roboplatform.utils.helpers;
+/*
+ * Pairs the frames of several streams (e.g. physical cameras of a logical multi-camera)
+ * into frame sets, one frame per stream:
+ *      - frames with the same request id (capture request tag or frame number) belong together
+ *      - if a request id is unknown (-1), the frame joins the pending set with the closest
+ *        timestamp, provided the difference is within the maximum skew
+ * Pending sets older than the window (relative to the newest frame) or beyond the maximum
+ * number of pending sets are dropped, their frames are handed back to the listener.
+ *
+ * For each pair of streams (a, b), the skew ts_b - ts_a of the emitted sets is recorded
+ * (count, mean, std, min, max) to assess the synchronization of the sensors.
+ *
+ * The listener is called on the caller's thread while the synchronizer is locked.
+ * This class must not depend on Android so it can be used offline.
+ */
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
+
+public class FrameSetSynchronizer<T> {
+
+    public static final long UNKNOWN_REQUEST = -1;
+
+    private final int[] mStreamIds;
+    private final long mMaxSkewNs;
+    private final long mWindowNs;
+    private final int mMaxPendingSets;
+    private final Listener<T> mListener;
+
+    // in creation order (oldest first)
+    private final List<FrameSet<T>> mPendingSets = new ArrayList<>();
+    private long mNewestTs = Long.MIN_VALUE;
+
+    private long mMatchedSets = 0;
+    private final long[] mDroppedFrames;
+    // upper triangle: pair (i, j), i < j
+    private final SkewStats[] mSkewStats;
+
+    /**
+     * @param streamIds the streams of a complete set (e.g. sensor ids)
+     * @param maxSkewNs max timestamp difference of frames matched without a request id
+     * @param windowNs a pending set is dropped when a frame this much newer arrives
+     * @param maxPendingSets the oldest set is dropped when this many sets are waiting
+     */
+    public FrameSetSynchronizer(int[] streamIds, long maxSkewNs, long windowNs,
+                                int maxPendingSets, Listener<T> listener) {
+
+        mStreamIds = streamIds.clone();
+        mMaxSkewNs = maxSkewNs;
+        mWindowNs = windowNs;
+        mMaxPendingSets = Math.max(1, maxPendingSets);
+        mListener = listener;
+
+        int n = mStreamIds.length;
+        mDroppedFrames = new long[n];
+        mSkewStats = new SkewStats[n * (n - 1) / 2];
+        for (int i = 0; i < mSkewStats.length; i++) {
+            mSkewStats[i] = new SkewStats();
+        }
+    }
+
+    public synchronized void addFrame(int streamId, long requestId, long timestamp, T frame) {
+
+        int streamIdx = getStreamIndex(streamId);
+        if (streamIdx < 0) {
+            // not synchronized, nothing to wait for
+            mListener.onFrameDropped(streamId, timestamp, frame);
+            return;
+        }
+
+        if (timestamp > mNewestTs) {
+            mNewestTs = timestamp;
+            dropExpiredSets();
+        }
+
+        FrameSet<T> frameSet = findSet(streamIdx, requestId, timestamp);
+
+        if (frameSet == null) {
+
+            frameSet = new FrameSet<>(mStreamIds, requestId, timestamp);
+            mPendingSets.add(frameSet);
+
+            while (mPendingSets.size() > mMaxPendingSets) {
+                dropSet(mPendingSets.remove(0));
+            }
+        }
+        else if (frameSet.mRequestId == UNKNOWN_REQUEST) {
+            frameSet.mRequestId = requestId;
+        }
+
+        frameSet.mTimestamps[streamIdx] = timestamp;
+        frameSet.mFrames[streamIdx] = frame;
+        frameSet.mCount++;
+
+        if (frameSet.isComplete()) {
+
+            mPendingSets.remove(frameSet);
+            mMatchedSets++;
+            recordSkew(frameSet);
+            mListener.onFrameSet(frameSet);
+        }
+    }
+
+    /**
+     * Drops all pending sets (call when the capture stops)
+     */
+    public synchronized void flush() {
+
+        for (FrameSet<T> frameSet : mPendingSets) {
+            dropSet(frameSet);
+        }
+        mPendingSets.clear();
+    }
+
+    public int[] getStreamIds() { return mStreamIds.clone(); }
+
+    public synchronized int getPendingSets() { return mPendingSets.size(); }
+
+    public synchronized long getMatchedSets() { return mMatchedSets; }
+
+    public synchronized long getDroppedFrames(int streamId) {
+
+        int idx = getStreamIndex(streamId);
+        return (idx < 0) ? 0 : mDroppedFrames[idx];
+    }
+
+    /**
+     * @return skew statistics of ts_b - ts_a (a copy)
+     */
+    public synchronized SkewStats getSkewStats(int streamA, int streamB) {
+
+        int a = getStreamIndex(streamA);
+        int b = getStreamIndex(streamB);
+        if (a < 0 || b < 0 || a == b) {
+            return null;
+        }
+
+        SkewStats stats = mSkewStats[getPairIndex(Math.min(a, b), Math.max(a, b))];
+        return (a < b) ? stats.copy() : stats.copy().negate();
+    }
+
+    public synchronized String getReport() {
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.US, "Frame sets: %d matched, %d pending", mMatchedSets,
+                mPendingSets.size()));
+
+        for (int i = 0; i < mStreamIds.length; i++) {
+            sb.append(String.format(Locale.US, "\n  stream %d: %d unmatched frames dropped",
+                    mStreamIds[i], mDroppedFrames[i]));
+        }
+
+        for (int i = 0; i < mStreamIds.length; i++) {
+            for (int j = i + 1; j < mStreamIds.length; j++) {
+                sb.append(String.format(Locale.US, "\n  skew %d -> %d: %s",
+                        mStreamIds[i], mStreamIds[j], mSkewStats[getPairIndex(i, j)]));
+            }
+        }
+        return sb.toString();
+    }
+
+    private FrameSet<T> findSet(int streamIdx, long requestId, long timestamp) {
+
+        FrameSet<T> closestSet = null;
+        long closestDiff = Long.MAX_VALUE;
+
+        for (FrameSet<T> frameSet : mPendingSets) {
+
+            if (frameSet.mFrames[streamIdx] != null) {
+                continue;
+            }
+
+            boolean knownRequests = requestId != UNKNOWN_REQUEST &&
+                    frameSet.mRequestId != UNKNOWN_REQUEST;
+            if (knownRequests) {
+                if (frameSet.mRequestId == requestId) {
+                    return frameSet;
+                }
+                continue;
+            }
+
+            long diff = Math.abs(frameSet.mRefTimestamp - timestamp);
+            if (diff <= mMaxSkewNs && diff < closestDiff) {
+                closestSet = frameSet;
+                closestDiff = diff;
+            }
+        }
+        return closestSet;
+    }
+
+    private void dropExpiredSets() {
+
+        Iterator<FrameSet<T>> iter = mPendingSets.iterator();
+        while (iter.hasNext()) {
+
+            FrameSet<T> frameSet = iter.next();
+            if (mNewestTs - frameSet.mRefTimestamp > mWindowNs) {
+                iter.remove();
+                dropSet(frameSet);
+            }
+        }
+    }
+
+    private void dropSet(FrameSet<T> frameSet) {
+
+        for (int i = 0; i < mStreamIds.length; i++) {
+
+            T frame = frameSet.mFrames[i];
+            if (frame != null) {
+                frameSet.mFrames[i] = null;
+                mDroppedFrames[i]++;
+                mListener.onFrameDropped(mStreamIds[i], frameSet.mTimestamps[i], frame);
+            }
+        }
+    }
+
+    private void recordSkew(FrameSet<T> frameSet) {
+
+        for (int i = 0; i < mStreamIds.length; i++) {
+            for (int j = i + 1; j < mStreamIds.length; j++) {
+                mSkewStats[getPairIndex(i, j)].record(
+                        frameSet.mTimestamps[j] - frameSet.mTimestamps[i]);
+            }
+        }
+    }
+
+    private int getStreamIndex(int streamId) {
+
+        for (int i = 0; i < mStreamIds.length; i++) {
+            if (mStreamIds[i] == streamId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int getPairIndex(int i, int j) {
+
+        // pairs before row i + offset in row i
+        int n = mStreamIds.length;
+        return i * (2 * n - i - 1) / 2 + (j - i - 1);
+    }
+
+    /*=================================== Types & Interfaces ====================================*/
+
+    public interface Listener<T> {
+
+        /**
+         * @param frameSet one frame per stream, the listener owns the frames
+         */
+        void onFrameSet(FrameSet<T> frameSet);
+
+        /**
+         * @param frame an unmatched frame, the listener owns it
+         */
+        void onFrameDropped(int streamId, long timestamp, T frame);
+    }
+
+    public static final class FrameSet<T> {
+
+        private final int[] mStreamIds;
+        private long mRequestId;
+        // timestamp of the first frame
+        private final long mRefTimestamp;
+        private final long[] mTimestamps;
+        private final T[] mFrames;
+        private int mCount = 0;
+
+        @SuppressWarnings("unchecked")
+        FrameSet(int[] streamIds, long requestId, long refTimestamp) {
+
+            mStreamIds = streamIds;
+            mRequestId = requestId;
+            mRefTimestamp = refTimestamp;
+            mTimestamps = new long[streamIds.length];
+            mFrames = (T[]) new Object[streamIds.length];
+        }
+
+        boolean isComplete() { return mCount == mStreamIds.length; }
+
+        public int size() { return mStreamIds.length; }
+
+        public int getStreamId(int i) { return mStreamIds[i]; }
+
+        public long getRequestId() { return mRequestId; }
+
+        public long getTimestamp(int i) { return mTimestamps[i]; }
+
+        public T getFrame(int i) { return mFrames[i]; }
+
+        /**
+         * @return "<request id>, <ts_0>, <ts_1>, ...\n" (streams in the synchronizer's order)
+         */
+        @Override
+        public String toString() {
+
+            StringBuilder sb = new StringBuilder();
+            sb.append(mRequestId);
+            for (long ts : mTimestamps) {
+                sb.append(", ").append(ts);
+            }
+            return sb.append('\n').toString();
+        }
+    }
+
+    /**
+     * Running statistics of a timestamp difference (ns)
+     */
+    public static final class SkewStats {
+
+        private long mCount = 0;
+        private double mMean = 0;
+        // sum of squared differences from the mean (Welford)
+        private double mM2 = 0;
+        private long mMin = Long.MAX_VALUE;
+        private long mMax = Long.MIN_VALUE;
+
+        void record(long skewNs) {
+
+            mCount++;
+            double delta = skewNs - mMean;
+            mMean += delta / mCount;
+            mM2 += delta * (skewNs - mMean);
+            mMin = Math.min(mMin, skewNs);
+            mMax = Math.max(mMax, skewNs);
+        }
+
+        SkewStats copy() {
+
+            SkewStats stats = new SkewStats();
+            stats.mCount = mCount;
+            stats.mMean = mMean;
+            stats.mM2 = mM2;
+            stats.mMin = mMin;
+            stats.mMax = mMax;
+            return stats;
+        }
+
+        SkewStats negate() {
+
+            mMean = -mMean;
+            long min = mMin;
+            mMin = (mMax == Long.MIN_VALUE) ? Long.MAX_VALUE : -mMax;
+            mMax = (min == Long.MAX_VALUE) ? Long.MIN_VALUE : -min;
+            return this;
+        }
+
+        public long getCount() { return mCount; }
+
+        public double getMeanNs() { return mMean; }
+
+        public double getStdNs() { return (mCount < 2) ? 0 : Math.sqrt(mM2 / (mCount - 1)); }
+
+        public long getMinNs() { return (mCount == 0) ? 0 : mMin; }
+
+        public long getMaxNs() { return (mCount == 0) ? 0 : mMax; }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "n: %d, mean: %.3f ms, std: %.3f ms, " +
+                            "min: %.3f ms, max: %.3f ms", mCount, getMeanNs() * 1e-6,
+                    getStdNs() * 1e-6, getMinNs() * 1e-6, getMaxNs() * 1e-6);
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package com.dayani.m.roboplatform.utils.helpers;
+
+/*
+ * Packed image layout used by StorageInfo.StreamType.PACKED_BYTE channels:
+ * images are appended to segment files instead of one file per frame.
+ *
+ * A channel named <base> writes <base>_000.pack, <base>_001.pack, ... (rolled over at
+ * a configurable size), each with an index <base>_NNN.idx. All fields are little-endian:
+ *      Segment:        int32 magic, int32 version, image bytes...
+ *      Index:          int32 magic, int32 version, entries...
+ *      Index entry:    int64 timestamp_ns, int64 offset (in the segment), int32 length, int32 format
+ * Index entries are written after their image data, so a truncated recording
+ * only loses the frames that are not indexed yet.
+ *
+ * The extractor (main) regenerates the legacy layout (<base>/<timestamp>.jpg, ...):
+ *      java ImagePackFormat <dataset_dir | base.pack>
+ *
+ * This class must not depend on Android so it can be used offline.
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+
+public final class ImagePackFormat {
+
+    public static final int PACK_MAGIC = 0x50495052; // "RPIP" in little-endian
+    public static final int INDEX_MAGIC = 0x49495052; // "RPII" in little-endian
+    public static final int VERSION = 1;
+
+    public static final String PACK_FILE_EXT = ".pack";
+    public static final String INDEX_FILE_EXT = ".idx";
+
+    // android.graphics.ImageFormat values
+    public static final int FORMAT_JPEG = 0x100;
+    public static final int FORMAT_RAW_SENSOR = 0x20;
+    public static final int FORMAT_YUV_420_888 = 0x23;
+
+    public static final int FILE_HEADER_BYTES = 2 * Integer.BYTES;
+    public static final int INDEX_ENTRY_BYTES = 2 * Long.BYTES + 2 * Integer.BYTES;
+
+    private ImagePackFormat() {}
+
+    /* ------------------------------------- Writing -------------------------------------------- */
+
+    public static String getSegmentName(String baseName, int segmentIdx) {
+        return String.format(Locale.US, "%s_%03d", baseName, segmentIdx);
+    }
+
+    public static void putFileHeader(ByteBuffer buffer, int magic) {
+
+        buffer.putInt(magic);
+        buffer.putInt(VERSION);
+    }
+
+    public static void putIndexEntry(ByteBuffer buffer, long timestamp, long offset, int length, int format) {
+
+        buffer.putLong(timestamp);
+        buffer.putLong(offset);
+        buffer.putInt(length);
+        buffer.putInt(format);
+    }
+
+    public static String getImageExtension(int format) {
+
+        switch (format) {
+            case FORMAT_JPEG:
+                return ".jpg";
+            case FORMAT_RAW_SENSOR:
+                return ".dng";
+            default:
+                return ".bin";
+        }
+    }
+
+    /* ------------------------------------- Reading -------------------------------------------- */
+
+    public static final class Entry {
+
+        public final long timestamp;
+        public final int segment;
+        public final long offset;
+        public final int length;
+        public final int format;
+
+        Entry(long timestamp, int segment, long offset, int length, int format) {
+
+            this.timestamp = timestamp;
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.format = format;
+        }
+    }
+
+    /**
+     * Random access to the images of one packed channel (all segments), sorted by timestamp
+     */
+    public static final class Reader implements AutoCloseable {
+
+        private final File mDir;
+        private final String mBaseName;
+        private final Entry[] mEntries;
+        private final List<RandomAccessFile> mSegments = new ArrayList<>();
+
+        public Reader(File dir, String baseName) throws IOException {
+
+            mDir = dir;
+            mBaseName = baseName;
+
+            List<Entry> entries = new ArrayList<>();
+            for (int seg = 0; ; seg++) {
+
+                String segName = getSegmentName(baseName, seg);
+                File packFile = new File(dir, segName + PACK_FILE_EXT);
+                File indexFile = new File(dir, segName + INDEX_FILE_EXT);
+
+                if (!packFile.isFile()) {
+                    break;
+                }
+                readIndex(indexFile, seg, packFile.length(), entries);
+                mSegments.add(new RandomAccessFile(packFile, "r"));
+            }
+
+            mEntries = entries.toArray(new Entry[0]);
+            // images are written by several threads, the index is almost sorted
+            Arrays.sort(mEntries, (a, b) -> Long.compare(a.timestamp, b.timestamp));
+        }
+
+        public String getBaseName() { return mBaseName; }
+
+        public int size() { return mEntries.length; }
+
+        public Entry get(int idx) { return mEntries[idx]; }
+
+        /**
+         * @return index of the image with this timestamp, or -(insertion point) - 1
+         */
+        public int find(long timestamp) {
+
+            int lo = 0;
+            int hi = mEntries.length - 1;
+
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                long midTs = mEntries[mid].timestamp;
+
+                if (midTs < timestamp) {
+                    lo = mid + 1;
+                }
+                else if (midTs > timestamp) {
+                    hi = mid - 1;
+                }
+                else {
+                    return mid;
+                }
+            }
+            return -(lo + 1);
+        }
+
+        /**
+         * @return index of the image closest to this timestamp, -1 if there are no images
+         */
+        public int findNearest(long timestamp) {
+
+            int idx = find(timestamp);
+            if (idx >= 0 || mEntries.length == 0) {
+                return Math.max(idx, -1);
+            }
+
+            int next = -idx - 1;
+            if (next >= mEntries.length) {
+                return mEntries.length - 1;
+            }
+            if (next == 0) {
+                return 0;
+            }
+            long dNext = mEntries[next].timestamp - timestamp;
+            long dPrev = timestamp - mEntries[next - 1].timestamp;
+            return (dPrev <= dNext) ? next - 1 : next;
+        }
+
+        public byte[] read(Entry entry) throws IOException {
+
+            byte[] data = new byte[entry.length];
+            RandomAccessFile segment = mSegments.get(entry.segment);
+
+            synchronized (segment) {
+                segment.seek(entry.offset);
+                segment.readFully(data);
+            }
+            return data;
+        }
+
+        /**
+         * Writes every image to outDir/<timestamp>.<ext> (the one-file-per-frame layout)
+         * @return number of extracted images
+         */
+        public int extract(File outDir) throws IOException {
+
+            if (!outDir.isDirectory() && !outDir.mkdirs()) {
+                throw new IOException("Cannot create " + outDir);
+            }
+
+            for (Entry entry : mEntries) {
+
+                File imageFile = new File(outDir, entry.timestamp + getImageExtension(entry.format));
+                try (FileOutputStream os = new FileOutputStream(imageFile)) {
+                    os.write(read(entry));
+                }
+            }
+            return mEntries.length;
+        }
+
+        @Override
+        public void close() throws IOException {
+
+            for (RandomAccessFile segment : mSegments) {
+                segment.close();
+            }
+            mSegments.clear();
+        }
+
+        @Override
+        public String toString() {
+            return new File(mDir, mBaseName) + ": " + mEntries.length + " images in " +
+                    mSegments.size() + " segments";
+        }
+    }
+
+    private static void readIndex(File indexFile, int segment, long segmentLength,
+                                  List<Entry> entries) throws IOException {
+
+        if (!indexFile.isFile()) {
+            return;
+        }
+
+        try (FileChannel channel = new FileInputStream(indexFile).getChannel()) {
+
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // read all
+            }
+            buffer.flip();
+
+            if (buffer.remaining() < FILE_HEADER_BYTES || buffer.getInt() != INDEX_MAGIC) {
+                throw new IOException("Not an image pack index: " + indexFile);
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported image pack version: " + version);
+            }
+
+            // a partial last entry is ignored
+            while (buffer.remaining() >= INDEX_ENTRY_BYTES) {
+
+                long ts = buffer.getLong();
+                long offset = buffer.getLong();
+                int length = buffer.getInt();
+                int format = buffer.getInt();
+
+                if (offset < FILE_HEADER_BYTES || length < 0 || offset + length > segmentLength) {
+                    // data of this entry was not written completely
+                    continue;
+                }
+                entries.add(new Entry(ts, segment, offset, length, format));
+            }
+        }
+    }
+
+    /* ------------------------------------- Extraction ----------------------------------------- */
+
+    /**
+     * Extracts all packed channels under root (or the channel of a single segment file)
+     * next to their segments: dir/<base>_000.pack -> dir/<base>/
+     * @return number of extracted images
+     */
+    public static int extractAll(File root) throws IOException {
+
+        if (root.isFile()) {
+            return extractChannel(root);
+        }
+
+        File[] children = root.listFiles();
+        if (children == null) {
+            return 0;
+        }
+
+        int nImages = 0;
+        for (File child : children) {
+            if (child.isDirectory()) {
+                nImages += extractAll(child);
+            }
+            else if (child.getName().endsWith(getSegmentName("", 0) + PACK_FILE_EXT)) {
+                nImages += extractChannel(child);
+            }
+        }
+        return nImages;
+    }
+
+    private static int extractChannel(File segmentFile) throws IOException {
+
+        String baseName = getBaseName(segmentFile);
+        File dir = segmentFile.getParentFile();
+
+        try (Reader reader = new Reader(dir, baseName)) {
+            return reader.extract(new File(dir, baseName));
+        }
+    }
+
+    public static String getBaseName(File segmentFile) {
+
+        String name = segmentFile.getName();
+        if (name.endsWith(PACK_FILE_EXT)) {
+            name = name.substring(0, name.length() - PACK_FILE_EXT.length());
+        }
+        int sepIdx = name.lastIndexOf('_');
+        return (sepIdx > 0) ? name.substring(0, sepIdx) : name;
+    }
+
+    public static void main(String[] args) throws IOException {
+
+        if (args.length < 1) {
+            System.out.println("Usage: ImagePackFormat <dataset_dir | base_000.pack>");
+            return;
+        }
+
+        int n = extractAll(new File(args[0]));
+        System.out.println("Extracted " + n + " images");
+    }
+}
@@ -0,0 +1,182 @@
+package com.dayani.m.roboplatform.utils.helpers;
+
+import com.dayani.m.roboplatform.utils.interfaces.MyMessages;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * Appends images to segment files with an index (see ImagePackFormat),
+ * so a recording creates a few large files instead of one file per frame.
+ * A new segment is started when the current one would exceed the segment size.
+ * Safe to call from several writer threads (appends are serialized).
+ */
+public class ImagePackStream {
+
+    // index entries are buffered, a crash loses at most this many frames
+    private static final int INDEX_BUFF_ENTRIES = 64;
+
+    public ImagePackStream(String path, String baseName, long segmentSize) {
+
+        mDir = new File(path);
+        mBaseName = baseName;
+        mSegmentSize = segmentSize;
+        mIndexBuffer = ByteBuffer.allocateDirect(ImagePackFormat.FILE_HEADER_BYTES +
+                INDEX_BUFF_ENTRIES * ImagePackFormat.INDEX_ENTRY_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        mHeaderBuffer = ByteBuffer.allocate(ImagePackFormat.FILE_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        mStats = new MyMessages.StorageStats();
+
+        openSegment(0);
+    }
+
+    public synchronized void append(long timestamp, int format, byte[] data, int length) {
+
+        if (mPackChannel == null) {
+            return;
+        }
+
+        if (mPackOffset > ImagePackFormat.FILE_HEADER_BYTES && mPackOffset + length > mSegmentSize) {
+            closeSegment();
+            openSegment(mSegmentIdx + 1);
+            if (mPackChannel == null) {
+                return;
+            }
+        }
+
+        long t0 = System.nanoTime();
+        long offset = mPackOffset;
+
+        try {
+            ByteBuffer dataBuffer = ByteBuffer.wrap(data, 0, length);
+            while (dataBuffer.hasRemaining()) {
+                mPackChannel.write(dataBuffer);
+            }
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        mPackOffset += length;
+
+        if (mIndexBuffer.remaining() < ImagePackFormat.INDEX_ENTRY_BYTES) {
+            flushIndex();
+        }
+        ImagePackFormat.putIndexEntry(mIndexBuffer, timestamp, offset, length, format);
+        mImageCount++;
+
+        mStats.onFlush(length, System.nanoTime() - t0);
+    }
+
+    public synchronized void close() {
+
+        closeSegment();
+    }
+
+    public String getFullPath() {
+
+        return new File(mDir, ImagePackFormat.getSegmentName(mBaseName, 0) +
+                ImagePackFormat.PACK_FILE_EXT).getAbsolutePath();
+    }
+
+    public synchronized int getSegmentCount() { return mSegmentIdx + 1; }
+
+    public synchronized long getImageCount() { return mImageCount; }
+
+    public synchronized MyMessages.StorageStats getStats() { return mStats.copy(); }
+
+    private void openSegment(int segmentIdx) {
+
+        mSegmentIdx = segmentIdx;
+        String segName = ImagePackFormat.getSegmentName(mBaseName, segmentIdx);
+
+        try {
+            mPackOs = new FileOutputStream(new File(mDir, segName + ImagePackFormat.PACK_FILE_EXT));
+            mPackChannel = mPackOs.getChannel();
+            mIndexOs = new FileOutputStream(new File(mDir, segName + ImagePackFormat.INDEX_FILE_EXT));
+            mIndexChannel = mIndexOs.getChannel();
+        }
+        catch (FileNotFoundException e) {
+            e.printStackTrace();
+            closeSegment();
+            return;
+        }
+
+        mHeaderBuffer.clear();
+        ImagePackFormat.putFileHeader(mHeaderBuffer, ImagePackFormat.PACK_MAGIC);
+        mHeaderBuffer.flip();
+        try {
+            while (mHeaderBuffer.hasRemaining()) {
+                mPackChannel.write(mHeaderBuffer);
+            }
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+        mPackOffset = ImagePackFormat.FILE_HEADER_BYTES;
+
+        mIndexBuffer.clear();
+        ImagePackFormat.putFileHeader(mIndexBuffer, ImagePackFormat.INDEX_MAGIC);
+    }
+
+    private void flushIndex() {
+
+        if (mIndexChannel == null || mIndexBuffer.position() == 0) {
+            return;
+        }
+
+        mIndexBuffer.flip();
+        try {
+            while (mIndexBuffer.hasRemaining()) {
+                mIndexChannel.write(mIndexBuffer);
+            }
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+        mIndexBuffer.clear();
+    }
+
+    private void closeSegment() {
+
+        flushIndex();
+
+        try {
+            if (mPackOs != null) {
+                mPackOs.close();
+            }
+            if (mIndexOs != null) {
+                mIndexOs.close();
+            }
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+        mPackOs = null;
+        mPackChannel = null;
+        mIndexOs = null;
+        mIndexChannel = null;
+    }
+
+    private final File mDir;
+    private final String mBaseName;
+    private final long mSegmentSize;
+
+    private int mSegmentIdx;
+    private FileOutputStream mPackOs;
+    private FileChannel mPackChannel;
+    private long mPackOffset;
+
+    private FileOutputStream mIndexOs;
+    private FileChannel mIndexChannel;
+    private final ByteBuffer mIndexBuffer;
+    private final ByteBuffer mHeaderBuffer;
+
+    private long mImageCount = 0;
+    private final MyMessages.StorageStats mStats;
+}
@@ -0,0 +1,46 @@
+package com.dayani.m.roboplatform.utils.helpers;
+
+/*
+ * Copies of the strided planes of camera images (android.media.Image.Plane buffers),
+ * shared by the YUV frames (see YuvFrameFormat) and the RAW frames written to DNG.
+ *
+ * This class must not depend on Android so it can be used offline.
+ */
+
+import java.nio.ByteBuffer;
+
+
+public final class ImagePlanes {
+
+    private ImagePlanes() {}
+
+    /**
+     * Copies height rows of width samples (one byte each) from a strided plane into out,
+     * 16-bit RAW planes are copied as bytes (width in bytes, pixel stride 1).
+     * The plane buffer's position is not changed.
+     */
+    public static void copyPlane(ByteBuffer out, ByteBuffer plane, int width, int height,
+                                 int rowStride, int pixelStride) {
+
+        ByteBuffer src = plane.duplicate();
+        int base = plane.position();
+
+        for (int row = 0; row < height; row++) {
+
+            int rowStart = base + row * rowStride;
+
+            if (pixelStride == 1) {
+                // the last row may be shorter than the row stride
+                src.limit(rowStart + width);
+                src.position(rowStart);
+                out.put(src);
+                src.limit(src.capacity());
+            }
+            else {
+                for (int col = 0; col < width; col++) {
+                    out.put(src.get(rowStart + col * pixelStride));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package com.dayani.m.roboplatform.utils.helpers;
+/*
+ * Index from frame timestamps to the sensor samples around them (imu_index.txt),
+ * built while recording so offline tools can seek the IMU files instead of searching them.
+ *
+ * One line per (frame, sensor stream), written once the stream has a sample after the frame:
+ *      frame_ts_ns, stream, prev_index, prev_offset, prev_ts_ns, next_index, next_offset, next_ts_ns
+ *      - prev: last sample at or before the frame, next: first sample after it
+ *      - index: sample number in the stream (0: first sample)
+ *      - offset: byte offset of the sample's record (binary) or line (text) in the stream's file
+ *      - -1 when the sample is unknown: no sample before the frame, the stream ended before
+ *        a sample after the frame, or the frame came too late (older than the kept history)
+ *
+ * Samples of a stream must be added in order, frames in any order.
+ * This class must not depend on Android so it can be used offline.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+
+public class ImuFrameIndex {
+
+    public static final String INDEX_FILE_NAME = "imu_index.txt";
+    public static final long UNKNOWN = -1;
+
+    // recent samples kept per stream for frames delivered after them (~2 s at 500 Hz)
+    public static final int DEF_HISTORY_SIZE = 1024;
+    // frames waiting for a later sample per stream
+    public static final int DEF_MAX_PENDING_FRAMES = 256;
+
+    private final int mHistorySize;
+    private final int mMaxPendingFrames;
+    private final Output mOutput;
+
+    private final List<Stream> mStreams = new ArrayList<>();
+    private final StringBuilder mLine = new StringBuilder(128);
+
+    private long mFrameCount = 0;
+    private long mLateFrames = 0;
+    private boolean mbClosed = false;
+
+    public ImuFrameIndex(int historySize, int maxPendingFrames, Output output) {
+
+        mHistorySize = Math.max(2, historySize);
+        mMaxPendingFrames = Math.max(1, maxPendingFrames);
+        mOutput = output;
+    }
+
+    public ImuFrameIndex(Output output) {
+        this(DEF_HISTORY_SIZE, DEF_MAX_PENDING_FRAMES, output);
+    }
+
+    public static String getHeader() {
+        return "# frame_ts_ns, stream, prev_index, prev_offset, prev_ts_ns, " +
+                "next_index, next_offset, next_ts_ns\n";
+    }
+
+    /**
+     * @param name the stream's file (relative to the dataset, e.g. imu/accel.txt)
+     * @return stream id for onSample
+     */
+    public synchronized int addStream(String name) {
+
+        mStreams.add(new Stream(name, mHistorySize));
+        return mStreams.size() - 1;
+    }
+
+    /**
+     * @param offset byte offset of the sample in the stream's file
+     */
+    public synchronized void onSample(int streamId, long timestamp, long offset) {
+
+        if (mbClosed || streamId < 0 || streamId >= mStreams.size()) {
+            return;
+        }
+
+        Stream stream = mStreams.get(streamId);
+
+        // pending frames are newer than the last sample
+        while (stream.mPendingCount > 0 && stream.peekPending() < timestamp) {
+
+            long frameTs = stream.pollPending();
+            long prevIdx = stream.mCount - 1;
+            if (prevIdx < 0) {
+                writeLine(frameTs, stream, UNKNOWN, UNKNOWN, UNKNOWN, 0, offset, timestamp);
+            }
+            else {
+                writeLine(frameTs, stream, prevIdx, stream.getOffset(prevIdx),
+                        stream.getTimestamp(prevIdx), stream.mCount, offset, timestamp);
+            }
+        }
+
+        stream.add(timestamp, offset);
+    }
+
+    public synchronized void onFrame(long frameTs) {
+
+        if (mbClosed) {
+            return;
+        }
+        mFrameCount++;
+
+        boolean late = false;
+
+        for (Stream stream : mStreams) {
+
+            if (stream.mCount == 0 || stream.getTimestamp(stream.mCount - 1) <= frameTs) {
+
+                if (stream.mPendingCount >= mMaxPendingFrames) {
+                    // the stream stalled: give up on the oldest frame
+                    writeUnknownNext(stream.pollPending(), stream);
+                }
+                stream.addPending(frameTs);
+                continue;
+            }
+
+            // the first kept sample after the frame
+            long next = stream.findFirstAfter(frameTs);
+            long prev = next - 1;
+
+            if (prev < stream.getFirstKept() && prev >= 0) {
+                // the samples before the frame are already dropped from the history
+                late = true;
+                writeLine(frameTs, stream, UNKNOWN, UNKNOWN, UNKNOWN, UNKNOWN, UNKNOWN, UNKNOWN);
+                continue;
+            }
+
+            if (prev < 0) {
+                writeLine(frameTs, stream, UNKNOWN, UNKNOWN, UNKNOWN,
+                        next, stream.getOffset(next), stream.getTimestamp(next));
+            }
+            else {
+                writeLine(frameTs, stream, prev, stream.getOffset(prev), stream.getTimestamp(prev),
+                        next, stream.getOffset(next), stream.getTimestamp(next));
+            }
+        }
+
+        if (late) {
+            mLateFrames++;
+        }
+    }
+
+    /**
+     * Writes the pending frames without a next sample, later calls are ignored
+     */
+    public synchronized void close() {
+
+        if (mbClosed) {
+            return;
+        }
+
+        for (Stream stream : mStreams) {
+            while (stream.mPendingCount > 0) {
+                writeUnknownNext(stream.pollPending(), stream);
+            }
+        }
+        mbClosed = true;
+    }
+
+    public synchronized long getFrameCount() { return mFrameCount; }
+
+    /**
+     * @return frames that arrived after the history of a stream moved past them
+     */
+    public synchronized long getLateFrames() { return mLateFrames; }
+
+    public synchronized String getReport() {
+
+        return String.format(Locale.US, "IMU frame index: %d frames, %d streams, %d late frames",
+                mFrameCount, mStreams.size(), mLateFrames);
+    }
+
+    private void writeUnknownNext(long frameTs, Stream stream) {
+
+        long prevIdx = stream.mCount - 1;
+        if (prevIdx < 0) {
+            writeLine(frameTs, stream, UNKNOWN, UNKNOWN, UNKNOWN, UNKNOWN, UNKNOWN, UNKNOWN);
+        }
+        else {
+            writeLine(frameTs, stream, prevIdx, stream.getOffset(prevIdx), stream.getTimestamp(prevIdx),
+                    UNKNOWN, UNKNOWN, UNKNOWN);
+        }
+    }
+
+    private void writeLine(long frameTs, Stream stream, long prevIdx, long prevOffset, long prevTs,
+                           long nextIdx, long nextOffset, long nextTs) {
+
+        StringBuilder sb = mLine;
+        sb.setLength(0);
+        sb.append(frameTs).append(", ").append(stream.mName)
+                .append(", ").append(prevIdx).append(", ").append(prevOffset).append(", ").append(prevTs)
+                .append(", ").append(nextIdx).append(", ").append(nextOffset).append(", ").append(nextTs)
+                .append('\n');
+        mOutput.write(sb.toString());
+    }
+
+    /*=================================== Types & Interfaces ====================================*/
+
+    public interface Output {
+        void write(String line);
+    }
+
+    /**
+     * Ring of the last samples of one stream (index = sample number) and its pending frames
+     */
+    private static class Stream {
+
+        private final String mName;
+
+        private final long[] mTimestamps;
+        private final long[] mOffsets;
+        private long mCount = 0;
+
+        // sorted frame timestamps, the oldest first
+        private long[] mPending = new long[16];
+        private int mPendingCount = 0;
+
+        Stream(String name, int historySize) {
+
+            mName = name;
+            mTimestamps = new long[historySize];
+            mOffsets = new long[historySize];
+        }
+
+        void add(long timestamp, long offset) {
+
+            int idx = (int) (mCount % mTimestamps.length);
+            mTimestamps[idx] = timestamp;
+            mOffsets[idx] = offset;
+            mCount++;
+        }
+
+        long getFirstKept() { return Math.max(0, mCount - mTimestamps.length); }
+
+        long getTimestamp(long sampleIdx) { return mTimestamps[(int) (sampleIdx % mTimestamps.length)]; }
+
+        long getOffset(long sampleIdx) { return mOffsets[(int) (sampleIdx % mTimestamps.length)]; }
+
+        /**
+         * @return the first kept sample newer than ts (the last sample must be newer)
+         */
+        long findFirstAfter(long ts) {
+
+            long lo = getFirstKept();
+            long hi = mCount - 1;
+            while (lo < hi) {
+                long mid = (lo + hi) >>> 1;
+                if (getTimestamp(mid) <= ts) {
+                    lo = mid + 1;
+                }
+                else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        void addPending(long frameTs) {
+
+            if (mPendingCount == mPending.length) {
+                long[] pending = new long[mPending.length * 2];
+                System.arraycopy(mPending, 0, pending, 0, mPendingCount);
+                mPending = pending;
+            }
+
+            // frames of several cameras might be out of order
+            int pos = mPendingCount;
+            while (pos > 0 && mPending[pos - 1] > frameTs) {
+                mPending[pos] = mPending[pos - 1];
+                pos--;
+            }
+            mPending[pos] = frameTs;
+            mPendingCount++;
+        }
+
+        long peekPending() { return mPending[0]; }
+
+        long pollPending() {
+
+            long frameTs = mPending[0];
+            mPendingCount--;
+            System.arraycopy(mPending, 1, mPending, 0, mPendingCount);
+            return frameTs;
+        }
+    }
+}
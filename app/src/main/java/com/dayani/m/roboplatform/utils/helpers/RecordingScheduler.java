@@ -0,0 +1,393 @@
+package com.dayani.m.roboplatform.utils.helpers;
+/*
+ * Degrades the recording when the device heats up or drains the battery too fast
+ * (one recording at a time, like MyChannelMetrics):
+ *      - managers add their degradation policies when they start recording, each with a
+ *        priority (lower: degraded first) and a number of levels (0: full rate)
+ *      - the device state is fed periodically: thermal status (PowerManager.THERMAL_STATUS_*)
+ *        and battery level, the drain rate is estimated over the last DRAIN_WINDOW_NS
+ *      - under stress (thermal status >= MODERATE or drain above the limit) for DEGRADE_TICKS
+ *        updates, the policy with the lowest priority not at its last level is degraded one
+ *        level (at every update if the status is SEVERE or worse)
+ *      - after RECOVER_TICKS updates of relief, the last degraded policy is restored one level
+ *
+ * Decisions and thermal status changes are written as lines of scheduler.txt:
+ *      timestamp_ns, manager, policy, old_level, new_level, setting, reason
+ *
+ * This class must not depend on Android so it can be used offline.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+
+public final class RecordingScheduler {
+
+    public static final String LOG_FILE_NAME = "scheduler.txt";
+
+    // same values as android.os.PowerManager.THERMAL_STATUS_*
+    public static final int THERMAL_STATUS_NONE = 0;
+    public static final int THERMAL_STATUS_LIGHT = 1;
+    public static final int THERMAL_STATUS_MODERATE = 2;
+    public static final int THERMAL_STATUS_SEVERE = 3;
+    public static final int THERMAL_STATUS_CRITICAL = 4;
+    public static final int THERMAL_STATUS_EMERGENCY = 5;
+    public static final int THERMAL_STATUS_SHUTDOWN = 6;
+    private static final String[] THERMAL_STATUS_NAMES = {"none", "light", "moderate", "severe",
+            "critical", "emergency", "shutdown"};
+
+    // suggested priorities: the camera's rate goes first, the IMU last
+    public static final int PRIORITY_CAMERA_RATE = 0;
+    public static final int PRIORITY_MAGNETIC_RATE = 10;
+    public static final int PRIORITY_MOTION_RATE = 20;
+    public static final int PRIORITY_IMU_RATE = 40;
+
+    public static final int DEGRADE_TICKS = 3;
+    public static final int RECOVER_TICKS = 12;
+
+    public static final float DEF_MAX_DRAIN_PCT_PER_HOUR = 40f;
+    // battery level changes in steps of 1 %, the rate needs a few minutes
+    public static final long DRAIN_WINDOW_NS = 300000000000L;
+    private static final int MAX_BATTERY_SAMPLES = 128;
+
+    private static final RecordingScheduler sInstance = new RecordingScheduler();
+
+    // sorted by priority (insertion order for equal priorities)
+    private final List<Entry> mEntries = new ArrayList<>();
+    // degraded entries, the last one is restored first
+    private final List<Entry> mDegraded = new ArrayList<>();
+
+    private Output mOutput;
+    private float mMaxDrainPctPerHour = DEF_MAX_DRAIN_PCT_PER_HOUR;
+
+    private int mThermalStatus = THERMAL_STATUS_NONE;
+    private int mMaxThermalStatus = THERMAL_STATUS_NONE;
+    private float mDrainPctPerHour = 0;
+    private int mPressureTicks = 0;
+    private int mReliefTicks = 0;
+    private long mDegradeCount = 0;
+    private long mRecoverCount = 0;
+
+    // ring of <timestamp, battery level> while discharging
+    private final long[] mBatteryTs = new long[MAX_BATTERY_SAMPLES];
+    private final float[] mBatteryPct = new float[MAX_BATTERY_SAMPLES];
+    private int mBatteryFirst = 0;
+    private int mBatteryCount = 0;
+
+    public RecordingScheduler() {}
+
+    public static RecordingScheduler getInstance() { return sInstance; }
+
+    public static String getHeader() {
+        return "# timestamp_ns, manager, policy, old_level, new_level, setting, reason\n";
+    }
+
+    /**
+     * Clears the device state and counters and writes the decisions to output (null: none).
+     * The policies of the managers already recording are kept.
+     */
+    public synchronized void start(Output output, float maxDrainPctPerHour) {
+
+        mOutput = output;
+        mMaxDrainPctPerHour = maxDrainPctPerHour;
+
+        mThermalStatus = THERMAL_STATUS_NONE;
+        mMaxThermalStatus = THERMAL_STATUS_NONE;
+        mDrainPctPerHour = 0;
+        mPressureTicks = 0;
+        mReliefTicks = 0;
+        mDegradeCount = 0;
+        mRecoverCount = 0;
+        mBatteryCount = 0;
+    }
+
+    /**
+     * No more lines are written after this returns
+     *
+     * @return the report of the recording
+     */
+    public synchronized String stop() {
+
+        mOutput = null;
+        return getReport();
+    }
+
+    public synchronized boolean isStarted() { return mOutput != null; }
+
+    public synchronized void addPolicy(Policy policy) {
+
+        int pos = mEntries.size();
+        while (pos > 0 && mEntries.get(pos - 1).mPolicy.getPriority() > policy.getPriority()) {
+            pos--;
+        }
+        mEntries.add(pos, new Entry(policy));
+    }
+
+    /**
+     * Restores the manager's degraded policies (level 0) and removes them
+     */
+    public synchronized void removePolicies(String manager, long timestamp) {
+
+        for (int i = mEntries.size() - 1; i >= 0; i--) {
+
+            Entry entry = mEntries.get(i);
+            if (!entry.mPolicy.getManager().equals(manager)) {
+                continue;
+            }
+
+            if (entry.mLevel > 0) {
+                setLevel(timestamp, entry, 0, "removed");
+            }
+            mDegraded.remove(entry);
+            mEntries.remove(i);
+        }
+    }
+
+    /**
+     * @param thermalStatus one of THERMAL_STATUS_*
+     * @param batteryPct battery level [0, 100]
+     * @param charging the drain is not estimated while charging
+     * @return true if a policy was changed
+     */
+    public synchronized boolean update(long timestamp, int thermalStatus, float batteryPct,
+                                       boolean charging) {
+
+        updateDrain(timestamp, batteryPct, charging);
+
+        if (thermalStatus != mThermalStatus) {
+            writeLine(timestamp, "device", "thermal_status", mThermalStatus, thermalStatus,
+                    getThermalStatusName(thermalStatus), getReason());
+            mThermalStatus = thermalStatus;
+            mMaxThermalStatus = Math.max(mMaxThermalStatus, thermalStatus);
+        }
+
+        boolean pressure = thermalStatus >= THERMAL_STATUS_MODERATE ||
+                mDrainPctPerHour > mMaxDrainPctPerHour;
+        boolean relief = !pressure && thermalStatus <= THERMAL_STATUS_LIGHT &&
+                mDrainPctPerHour <= mMaxDrainPctPerHour * 0.75f;
+
+        mPressureTicks = pressure ? mPressureTicks + 1 : 0;
+        mReliefTicks = relief ? mReliefTicks + 1 : 0;
+
+        boolean changed = false;
+        if (mPressureTicks >= DEGRADE_TICKS || (pressure && thermalStatus >= THERMAL_STATUS_SEVERE)) {
+            changed = degrade(timestamp);
+        }
+        else if (mReliefTicks >= RECOVER_TICKS) {
+            changed = recover(timestamp);
+        }
+
+        if (changed) {
+            mPressureTicks = 0;
+            mReliefTicks = 0;
+        }
+        return changed;
+    }
+
+    public synchronized int getThermalStatus() { return mThermalStatus; }
+
+    /**
+     * @return estimated battery drain (%/hour), 0 if unknown or charging
+     */
+    public synchronized float getDrainPctPerHour() { return mDrainPctPerHour; }
+
+    /**
+     * @return "<policy>: <setting> (<level>/<max level>), ..." of the manager, null if it has none
+     */
+    public synchronized String getLoad(String manager) {
+
+        StringBuilder sb = null;
+        for (Entry entry : mEntries) {
+
+            if (!entry.mPolicy.getManager().equals(manager)) {
+                continue;
+            }
+            sb = (sb == null) ? new StringBuilder() : sb.append(", ");
+            sb.append(entry.mPolicy.getName()).append(": ").append(entry.mPolicy.getSetting(entry.mLevel))
+                    .append(" (").append(entry.mLevel).append('/')
+                    .append(entry.mPolicy.getMaxLevel()).append(')');
+        }
+        return (sb == null) ? null : sb.toString();
+    }
+
+    public synchronized String getReport() {
+
+        StringBuilder sb = new StringBuilder(String.format(Locale.US,
+                "Recording scheduler: %d degraded, %d restored, max thermal status: %s, " +
+                        "drain: %.1f %%/h", mDegradeCount, mRecoverCount,
+                getThermalStatusName(mMaxThermalStatus), mDrainPctPerHour));
+
+        List<String> managers = new ArrayList<>();
+        for (Entry entry : mEntries) {
+            String manager = entry.mPolicy.getManager();
+            if (!managers.contains(manager)) {
+                managers.add(manager);
+                sb.append("\n  ").append(manager).append(": ").append(getLoad(manager));
+            }
+        }
+        return sb.toString();
+    }
+
+    public static String getThermalStatusName(int thermalStatus) {
+
+        if (thermalStatus < 0 || thermalStatus >= THERMAL_STATUS_NAMES.length) {
+            return "unknown";
+        }
+        return THERMAL_STATUS_NAMES[thermalStatus];
+    }
+
+    /**
+     * For devices without a thermal status: a rough status from the battery temperature
+     */
+    public static int getThermalStatusFromTemperature(float batteryTempC) {
+
+        if (batteryTempC >= 50f) {
+            return THERMAL_STATUS_CRITICAL;
+        }
+        else if (batteryTempC >= 46f) {
+            return THERMAL_STATUS_SEVERE;
+        }
+        else if (batteryTempC >= 43f) {
+            return THERMAL_STATUS_MODERATE;
+        }
+        else if (batteryTempC >= 40f) {
+            return THERMAL_STATUS_LIGHT;
+        }
+        return THERMAL_STATUS_NONE;
+    }
+
+    private boolean degrade(long timestamp) {
+
+        for (Entry entry : mEntries) {
+
+            if (entry.mLevel < entry.mPolicy.getMaxLevel()) {
+
+                setLevel(timestamp, entry, entry.mLevel + 1, getReason());
+                mDegraded.remove(entry);
+                mDegraded.add(entry);
+                mDegradeCount++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean recover(long timestamp) {
+
+        if (mDegraded.isEmpty()) {
+            return false;
+        }
+
+        Entry entry = mDegraded.get(mDegraded.size() - 1);
+        setLevel(timestamp, entry, entry.mLevel - 1, getReason());
+        if (entry.mLevel == 0) {
+            mDegraded.remove(entry);
+        }
+        mRecoverCount++;
+        return true;
+    }
+
+    private void setLevel(long timestamp, Entry entry, int level, String reason) {
+
+        int oldLevel = entry.mLevel;
+        entry.mLevel = level;
+        entry.mPolicy.apply(level);
+
+        writeLine(timestamp, entry.mPolicy.getManager(), entry.mPolicy.getName(), oldLevel, level,
+                entry.mPolicy.getSetting(level), reason);
+    }
+
+    private String getReason() {
+
+        return String.format(Locale.US, "thermal %s, drain %.1f %%/h",
+                getThermalStatusName(mThermalStatus), mDrainPctPerHour);
+    }
+
+    private void updateDrain(long timestamp, float batteryPct, boolean charging) {
+
+        if (charging) {
+            mBatteryCount = 0;
+            mDrainPctPerHour = 0;
+            return;
+        }
+
+        if (mBatteryCount == MAX_BATTERY_SAMPLES) {
+            mBatteryFirst = (mBatteryFirst + 1) % MAX_BATTERY_SAMPLES;
+            mBatteryCount--;
+        }
+        int last = (mBatteryFirst + mBatteryCount) % MAX_BATTERY_SAMPLES;
+        mBatteryTs[last] = timestamp;
+        mBatteryPct[last] = batteryPct;
+        mBatteryCount++;
+
+        // the oldest sample still within the window
+        while (mBatteryCount > 2 && timestamp - mBatteryTs[(mBatteryFirst + 1) % MAX_BATTERY_SAMPLES]
+                >= DRAIN_WINDOW_NS) {
+            mBatteryFirst = (mBatteryFirst + 1) % MAX_BATTERY_SAMPLES;
+            mBatteryCount--;
+        }
+
+        long dt = timestamp - mBatteryTs[mBatteryFirst];
+        if (dt < DRAIN_WINDOW_NS) {
+            // not long enough to tell
+            mDrainPctPerHour = 0;
+            return;
+        }
+        mDrainPctPerHour = Math.max(0f, (mBatteryPct[mBatteryFirst] - batteryPct) * 3600e9f / dt);
+    }
+
+    private void writeLine(long timestamp, String manager, String policy, int oldLevel, int newLevel,
+                           String setting, String reason) {
+
+        if (mOutput != null) {
+            mOutput.write(timestamp + ", " + manager + ", " + policy + ", " + oldLevel + ", " +
+                    newLevel + ", " + setting + ", " + reason + "\n");
+        }
+    }
+
+    /*=================================== Types & Interfaces ====================================*/
+
+    public interface Output {
+        void write(String line);
+    }
+
+    /**
+     * One degradable setting of a manager (e.g. the camera's frame rate)
+     */
+    public interface Policy {
+
+        String getManager();
+
+        String getName();
+
+        /**
+         * @return lower priorities are degraded first (see PRIORITY_*)
+         */
+        int getPriority();
+
+        int getMaxLevel();
+
+        /**
+         * @return the setting at this level (e.g. "15 fps")
+         */
+        String getSetting(int level);
+
+        /**
+         * Called on the scheduler's thread with the scheduler locked
+         *
+         * @param level 0: no degradation
+         */
+        void apply(int level);
+    }
+
+    private static class Entry {
+
+        private final Policy mPolicy;
+        private int mLevel = 0;
+
+        Entry(Policy policy) {
+            mPolicy = policy;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.dayani.m.roboplatform.utils.helpers;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+
+/**
+ * Reassembles the length-prefixed packets of the serial link from transfers of any size:
+ *      size (1 byte, unsigned), command (1 byte), data[size]
+ *
+ * A transfer can end anywhere in a packet and hold several packets: the bytes go through
+ * a state machine (SIZE -> COMMAND -> DATA) into one packet buffer, without slicing the input.
+ *
+ * Resynchronization: the link has no sync byte or checksum, so a header is only accepted
+ * when its size is at most maxDataSize and its command is known (below numCommands).
+ * Otherwise its first byte is skipped and the next one is tried as the size.
+ * A packet still incomplete when nothing was received for the gap timeout is dropped,
+ * so a corrupted size cannot swallow the packets after it.
+ *
+ * Packets are delivered in the thread calling push, the buffer is only valid in the call.
+ * This class must not depend on Android so it can be used offline.
+ */
+public class SerialPacketAssembler {
+
+    public static final int HEADER_LENGTH = 2;
+    public static final int MAX_DATA_SIZE = 255;
+    public static final long DEF_GAP_TIMEOUT_NS = 50000000L;
+
+    public interface PacketListener {
+        /*
+         * packet: size, command, data[size], length: size + HEADER_LENGTH
+         */
+        void onPacket(long timestamp, byte[] packet, int length);
+    }
+
+    private enum State { SIZE, COMMAND, DATA }
+
+    private final int mNumCommands;
+    private final int mMaxDataSize;
+    private final long mGapTimeoutNs;
+    private final PacketListener mListener;
+
+    private final byte[] mPacket;
+    private State mState = State.SIZE;
+    private int mLength = 0;
+    private int mDataSize = 0;
+    private long mLastTimestamp = 0;
+
+    private long mPackets = 0;
+    private long mResyncBytes = 0;
+    private long mDroppedPackets = 0;
+
+    public SerialPacketAssembler(int numCommands, PacketListener listener) {
+        this(numCommands, MAX_DATA_SIZE, DEF_GAP_TIMEOUT_NS, listener);
+    }
+
+    public SerialPacketAssembler(int numCommands, int maxDataSize, long gapTimeoutNs,
+                                 PacketListener listener) {
+
+        if (maxDataSize < 0 || maxDataSize > MAX_DATA_SIZE) {
+            throw new IllegalArgumentException("Data size must be in [0, " + MAX_DATA_SIZE + "]");
+        }
+        mNumCommands = numCommands;
+        mMaxDataSize = maxDataSize;
+        mGapTimeoutNs = gapTimeoutNs;
+        mListener = listener;
+        mPacket = new byte[maxDataSize + HEADER_LENGTH];
+    }
+
+    /*
+     * Consumes the remaining bytes of data (e.g. the view of a serial read callback)
+     */
+    public void push(long timestamp, ByteBuffer data) {
+
+        if (mState != State.SIZE && timestamp - mLastTimestamp > mGapTimeoutNs) {
+            mDroppedPackets++;
+            mState = State.SIZE;
+        }
+        mLastTimestamp = timestamp;
+
+        while (data.hasRemaining()) {
+            switch (mState) {
+                case SIZE:
+                    acceptSize(data.get());
+                    break;
+                case COMMAND: {
+                    byte cmd = data.get();
+                    if ((cmd & 0xFF) < mNumCommands) {
+                        mPacket[1] = cmd;
+                        mLength = HEADER_LENGTH;
+                        mState = State.DATA;
+                    }
+                    else {
+                        // the size was a stray byte, the command may be the real size
+                        mResyncBytes++;
+                        acceptSize(cmd);
+                    }
+                    break;
+                }
+                case DATA:
+                default: {
+                    int len = Math.min(data.remaining(), mDataSize + HEADER_LENGTH - mLength);
+                    data.get(mPacket, mLength, len);
+                    mLength += len;
+                    break;
+                }
+            }
+            if (mState == State.DATA && mLength == mDataSize + HEADER_LENGTH) {
+                mPackets++;
+                mState = State.SIZE;
+                mListener.onPacket(timestamp, mPacket, mLength);
+            }
+        }
+    }
+
+    public void push(long timestamp, byte[] data, int offset, int length) {
+        push(timestamp, ByteBuffer.wrap(data, offset, length));
+    }
+
+    private void acceptSize(byte size) {
+
+        if ((size & 0xFF) > mMaxDataSize) {
+            mResyncBytes++;
+            mState = State.SIZE;
+            return;
+        }
+        mDataSize = size & 0xFF;
+        mPacket[0] = size;
+        mState = State.COMMAND;
+    }
+
+    public long getPacketCount() {
+        return mPackets;
+    }
+
+    public long getResyncBytes() {
+        return mResyncBytes;
+    }
+
+    public long getDroppedPackets() {
+        return mDroppedPackets;
+    }
+
+    public String getReport() {
+        return String.format(Locale.US, "packets: %d, resync bytes: %d, dropped packets: %d",
+                mPackets, mResyncBytes, mDroppedPackets);
+    }
+}
@@ -0,0 +1,140 @@
+package com.dayani.m.roboplatform.utils.helpers;
+
+import com.dayani.m.roboplatform.utils.interfaces.MyMessages;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+
+/**
+ * Text stream with a write-behind buffer: data is flushed to the file
+ * when the buffer is full, when the flush interval is passed, or on close.
+ * A quiet stream is flushed on time by its writer thread (see flushIfDue).
+ */
+public class StorageStream {
+
+    public StorageStream(String path, String fileName, boolean append,
+                         int buffSize, long flushIntervalMs) {
+
+        mFile = new File(path, fileName);
+        mBuffer = new byte[buffSize];
+        mFlushIntervalNs = flushIntervalMs * 1000000L;
+        mLastFlushNs = System.nanoTime();
+        mStats = new MyMessages.StorageStats();
+
+        mFlushedBytes = (append && mFile.exists()) ? mFile.length() : 0;
+
+        try {
+            mOs = new FileOutputStream(mFile, append);
+        }
+        catch (FileNotFoundException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public void write(String msg) {
+
+        if (mOs == null) {
+            return;
+        }
+
+        byte[] data = msg.getBytes();
+
+        if (data.length > mBuffer.length - mBuffLen) {
+            flush();
+        }
+
+        if (data.length > mBuffer.length) {
+            // too big for the buffer (or unbuffered)
+            writeOut(data, data.length);
+        }
+        else {
+            System.arraycopy(data, 0, mBuffer, mBuffLen, data.length);
+            mBuffLen += data.length;
+        }
+
+        flushIfDue(System.nanoTime());
+    }
+
+    /**
+     * Flushes the buffered data if the flush interval is passed.
+     * @return ns until the buffered data is due, -1 if nothing waits for the interval
+     */
+    public long flushIfDue(long nowNs) {
+
+        if (mFlushIntervalNs <= 0 || mBuffLen == 0 || mOs == null) {
+            return -1;
+        }
+
+        long dueNs = mLastFlushNs + mFlushIntervalNs - nowNs;
+        if (dueNs <= 0) {
+            flush();
+            return -1;
+        }
+        return dueNs;
+    }
+
+    public void flush() {
+
+        if (mBuffLen > 0) {
+            writeOut(mBuffer, mBuffLen);
+            mBuffLen = 0;
+        }
+    }
+
+    private void writeOut(byte[] data, int len) {
+
+        long t0 = System.nanoTime();
+        try {
+            mOs.write(data, 0, len);
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+        mFlushedBytes += len;
+        mLastFlushNs = System.nanoTime();
+        mStats.onFlush(len, mLastFlushNs - t0);
+    }
+
+    public void close() {
+
+        if (mOs == null) {
+            return;
+        }
+
+        flush();
+
+        try {
+            mOs.close();
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+        mOs = null;
+    }
+
+    public String getFullPath() {
+
+        return mFile.getAbsolutePath();
+    }
+
+    public MyMessages.StorageStats getStats() { return mStats; }
+
+    /**
+     * @return file size once the buffer is flushed (offset of the next write)
+     */
+    public long getPosition() { return mFlushedBytes + mBuffLen; }
+
+    private final File mFile;
+    private FileOutputStream mOs;
+
+    private final byte[] mBuffer;
+    private int mBuffLen = 0;
+    private long mFlushedBytes;
+    private final long mFlushIntervalNs;
+    private long mLastFlushNs;
+
+    private final MyMessages.StorageStats mStats;
+}
@@ -0,0 +1,291 @@
+package com.dayani.m.roboplatform.utils.helpers;
+
+import android.annotation.TargetApi;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.os.Build;
+import android.util.Log;
+import android.util.Size;
+import android.view.Surface;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+
+/**
+ * Hardware video encoder fed by a camera output surface.
+ * The input surface is persistent, so it can be added to a capture session once
+ * and reused for every recording (start/stop create a new codec and muxer).
+ * Encoded frames are reported with their full-resolution sensor timestamps
+ * (the codec only keeps microseconds), to write a per-frame sidecar file.
+ */
+@TargetApi(Build.VERSION_CODES.M)
+public class VideoEncoder {
+
+    private static final String TAG = VideoEncoder.class.getSimpleName();
+
+    private static final int I_FRAME_INTERVAL_S = 1;
+    private static final float BITS_PER_PIXEL = 0.15f;
+    private static final long DEQUEUE_TIMEOUT_US = 10000;
+    private static final long STOP_TIMEOUT_MS = 2000;
+    private static final int MAX_PENDING_TIMESTAMPS = 64;
+
+    private final String mMimeType;
+    private final Size mSize;
+    private final int mFrameRate;
+    private final Surface mInputSurface;
+
+    private MediaCodec mCodec;
+    private MediaMuxer mMuxer;
+    private int mTrackIdx = -1;
+    private Thread mDrainThread;
+    private FrameListener mListener;
+
+    // sensor timestamps of the submitted captures, in capture order
+    private final ArrayDeque<Long> mCaptureTs = new ArrayDeque<>();
+
+    private volatile boolean mbRunning = false;
+    // only written by the drain thread
+    private volatile int mFrameCount = 0;
+
+    public VideoEncoder(String mimeType, Size size, int frameRate) {
+
+        mMimeType = isEncoderAvailable(mimeType, size) ? mimeType : MediaFormat.MIMETYPE_VIDEO_AVC;
+        mSize = size;
+        mFrameRate = frameRate;
+        mInputSurface = MediaCodec.createPersistentInputSurface();
+    }
+
+    public Surface getInputSurface() { return mInputSurface; }
+
+    public String getMimeType() { return mMimeType; }
+
+    public Size getSize() { return mSize; }
+
+    public synchronized boolean isRunning() { return mbRunning; }
+
+    public int getFrameCount() { return mFrameCount; }
+
+    /**
+     * @param outputPath mp4 file
+     * @param listener called on the encoder thread for each written frame (can be null)
+     * @return false if the codec or muxer cannot be created
+     */
+    public synchronized boolean start(String outputPath, FrameListener listener) {
+
+        if (mbRunning) {
+            return true;
+        }
+
+        MediaFormat format = getFormat(mMimeType, mSize);
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT,
+                MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+        format.setInteger(MediaFormat.KEY_BIT_RATE,
+                (int) (BITS_PER_PIXEL * mFrameRate * mSize.getWidth() * mSize.getHeight()));
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, mFrameRate);
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, I_FRAME_INTERVAL_S);
+
+        try {
+            mCodec = MediaCodec.createEncoderByType(mMimeType);
+            mCodec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            mCodec.setInputSurface(mInputSurface);
+
+            mMuxer = new MediaMuxer(outputPath, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+
+            mCodec.start();
+        }
+        catch (IOException | IllegalStateException | IllegalArgumentException e) {
+            e.printStackTrace();
+            releaseCodec();
+            return false;
+        }
+
+        synchronized (mCaptureTs) {
+            mCaptureTs.clear();
+        }
+        mListener = listener;
+        mTrackIdx = -1;
+        mFrameCount = 0;
+        mbRunning = true;
+
+        mDrainThread = new Thread(this::drain, TAG + "-Drain");
+        mDrainThread.start();
+
+        return true;
+    }
+
+    /**
+     * Ends the stream and waits for the encoded frames to be written
+     */
+    public synchronized void stop() {
+
+        if (!mbRunning) {
+            return;
+        }
+
+        try {
+            mCodec.signalEndOfInputStream();
+        }
+        catch (IllegalStateException e) {
+            e.printStackTrace();
+        }
+
+        try {
+            mDrainThread.join(STOP_TIMEOUT_MS);
+        }
+        catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+
+        // the drain loop exits on end of stream or here (timeout)
+        mbRunning = false;
+        try {
+            mDrainThread.join();
+        }
+        catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        mDrainThread = null;
+
+        releaseCodec();
+    }
+
+    public synchronized void release() {
+
+        stop();
+        mInputSurface.release();
+    }
+
+    /**
+     * @param timestampNs sensor timestamp of a capture that targets the input surface
+     */
+    public void onFrameCaptured(long timestampNs) {
+
+        if (!mbRunning) {
+            return;
+        }
+
+        synchronized (mCaptureTs) {
+            if (mCaptureTs.size() >= MAX_PENDING_TIMESTAMPS) {
+                mCaptureTs.pollFirst();
+            }
+            mCaptureTs.addLast(timestampNs);
+        }
+    }
+
+    private void drain() {
+
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+
+        while (mbRunning) {
+
+            int outIdx;
+            try {
+                outIdx = mCodec.dequeueOutputBuffer(info, DEQUEUE_TIMEOUT_US);
+            }
+            catch (IllegalStateException e) {
+                e.printStackTrace();
+                break;
+            }
+
+            if (outIdx == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+
+                mTrackIdx = mMuxer.addTrack(mCodec.getOutputFormat());
+                mMuxer.start();
+            }
+            else if (outIdx >= 0) {
+
+                ByteBuffer outBuffer = mCodec.getOutputBuffer(outIdx);
+                boolean isConfig = (info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0;
+
+                if (outBuffer != null && info.size > 0 && !isConfig && mTrackIdx >= 0) {
+
+                    outBuffer.position(info.offset);
+                    outBuffer.limit(info.offset + info.size);
+                    mMuxer.writeSampleData(mTrackIdx, outBuffer, info);
+
+                    int frameIdx = mFrameCount;
+                    mFrameCount = frameIdx + 1;
+                    if (mListener != null) {
+                        mListener.onFrameEncoded(findCaptureTimestamp(info.presentationTimeUs), frameIdx);
+                    }
+                }
+                mCodec.releaseOutputBuffer(outIdx, false);
+
+                if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private long findCaptureTimestamp(long presentationTimeUs) {
+
+        synchronized (mCaptureTs) {
+            while (!mCaptureTs.isEmpty()) {
+
+                long ts = mCaptureTs.peekFirst();
+                long tsUs = ts / 1000;
+
+                if (tsUs > presentationTimeUs) {
+                    break;
+                }
+                mCaptureTs.pollFirst();
+                if (tsUs == presentationTimeUs) {
+                    return ts;
+                }
+            }
+        }
+        // capture callback is late or missing
+        return presentationTimeUs * 1000;
+    }
+
+    private void releaseCodec() {
+
+        if (mCodec != null) {
+            try {
+                mCodec.stop();
+            }
+            catch (IllegalStateException e) {
+                e.printStackTrace();
+            }
+            mCodec.release();
+            mCodec = null;
+        }
+        if (mMuxer != null) {
+            try {
+                if (mTrackIdx >= 0) {
+                    mMuxer.stop();
+                }
+            }
+            catch (IllegalStateException e) {
+                // nothing was written
+                Log.w(TAG, "Cannot finalize the video file: " + e.getMessage());
+            }
+            mMuxer.release();
+            mMuxer = null;
+        }
+        mTrackIdx = -1;
+    }
+
+    private static MediaFormat getFormat(String mimeType, Size size) {
+
+        return MediaFormat.createVideoFormat(mimeType, size.getWidth(), size.getHeight());
+    }
+
+    public static boolean isEncoderAvailable(String mimeType, Size size) {
+
+        MediaCodecList codecList = new MediaCodecList(MediaCodecList.REGULAR_CODECS);
+        return codecList.findEncoderForFormat(getFormat(mimeType, size)) != null;
+    }
+
+    /*=================================== Types & Interfaces =====================================*/
+
+    public interface FrameListener {
+        void onFrameEncoded(long timestampNs, int frameIdx);
+    }
+}
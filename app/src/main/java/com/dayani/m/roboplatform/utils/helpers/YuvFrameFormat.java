@@ -0,0 +1,290 @@
+package com.dayani.m.roboplatform.utils.helpers;
+
+/*
+ * Raw YUV layout used by StorageInfo.StreamType.YUV_FRAMES channels (one file per camera).
+ *
+ * All fields are little-endian:
+ *      File header:    int32 magic, int32 version, int32 width, int32 height, int32 layout
+ *      Frame:          int64 timestamp_ns, byte[width * height * 3 / 2] pixels
+ * Pixels are tightly packed I420 (Y plane, then U and V at half resolution), whatever
+ * the row and pixel strides of the camera planes. Frames have a fixed size, so the
+ * reader maps them directly (no copy) and finds them by index or timestamp.
+ *
+ * The extractor (main) writes one file per frame (<base>/<timestamp>.yuv):
+ *      java YuvFrameFormat <dataset_dir | image.yuv>
+ *
+ * This class must not depend on Android so it can be used offline.
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+
+public final class YuvFrameFormat {
+
+    public static final int MAGIC = 0x59565052; // "RPVY" in little-endian
+    public static final int VERSION = 1;
+
+    public static final int LAYOUT_I420 = 0;
+
+    public static final String YUV_FILE_EXT = ".yuv";
+
+    public static final int FILE_HEADER_BYTES = 5 * Integer.BYTES;
+    public static final int TIMESTAMP_BYTES = Long.BYTES;
+
+    private YuvFrameFormat() {}
+
+    /* ------------------------------------- Writing -------------------------------------------- */
+
+    public static int getFrameBytes(int width, int height) {
+        return width * height + 2 * getChromaBytes(width, height);
+    }
+
+    public static int getRecordSize(int width, int height) {
+        return TIMESTAMP_BYTES + getFrameBytes(width, height);
+    }
+
+    private static int getChromaBytes(int width, int height) {
+        return ((width + 1) / 2) * ((height + 1) / 2);
+    }
+
+    public static void putFileHeader(ByteBuffer buffer, int width, int height) {
+
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(width);
+        buffer.putInt(height);
+        buffer.putInt(LAYOUT_I420);
+    }
+
+    /**
+     * Copies the three planes of a YUV_420_888 image into out (I420) without temporary arrays.
+     * The plane buffers' positions are not changed.
+     */
+    public static void putI420(ByteBuffer out, int width, int height,
+                               ByteBuffer yPlane, int yRowStride,
+                               ByteBuffer uPlane, ByteBuffer vPlane,
+                               int uvRowStride, int uvPixelStride) {
+
+        ImagePlanes.copyPlane(out, yPlane, width, height, yRowStride, 1);
+
+        int chromaWidth = (width + 1) / 2;
+        int chromaHeight = (height + 1) / 2;
+        ImagePlanes.copyPlane(out, uPlane, chromaWidth, chromaHeight, uvRowStride, uvPixelStride);
+        ImagePlanes.copyPlane(out, vPlane, chromaWidth, chromaHeight, uvRowStride, uvPixelStride);
+    }
+
+    /* ------------------------------------- Reading -------------------------------------------- */
+
+    /**
+     * Random access to the frames of a YUV file (memory-mapped, read-only)
+     */
+    public static final class Reader implements AutoCloseable {
+
+        private final FileInputStream mIs;
+        private final FileChannel mChannel;
+
+        private final int mWidth;
+        private final int mHeight;
+        private final int mRecordSize;
+        private final int mNumFrames;
+
+        // frame indices sorted by timestamp (images are written by several threads)
+        private final long[] mSortedTs;
+        private final int[] mSortedIdx;
+
+        public Reader(File yuvFile) throws IOException {
+
+            mIs = new FileInputStream(yuvFile);
+            mChannel = mIs.getChannel();
+
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(header, 0);
+            header.flip();
+
+            if (header.getInt() != MAGIC) {
+                close();
+                throw new IOException("Not a YUV frame file: " + yuvFile);
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                close();
+                throw new IOException("Unsupported YUV frame version: " + version);
+            }
+            mWidth = header.getInt();
+            mHeight = header.getInt();
+            int layout = header.getInt();
+            if (layout != LAYOUT_I420 || mWidth <= 0 || mHeight <= 0) {
+                close();
+                throw new IOException("Corrupted header: " + yuvFile);
+            }
+
+            mRecordSize = getRecordSize(mWidth, mHeight);
+            // a partial last frame is ignored
+            mNumFrames = (int) ((mChannel.size() - FILE_HEADER_BYTES) / mRecordSize);
+
+            long[] rawTs = new long[mNumFrames];
+            Integer[] order = new Integer[mNumFrames];
+            ByteBuffer tsBuffer = ByteBuffer.allocate(TIMESTAMP_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+            for (int i = 0; i < mNumFrames; i++) {
+                tsBuffer.clear();
+                readFully(tsBuffer, getRecordPosition(i));
+                tsBuffer.flip();
+                rawTs[i] = tsBuffer.getLong();
+                order[i] = i;
+            }
+
+            Arrays.sort(order, (a, b) -> Long.compare(rawTs[a], rawTs[b]));
+
+            mSortedTs = new long[mNumFrames];
+            mSortedIdx = new int[mNumFrames];
+            for (int i = 0; i < mNumFrames; i++) {
+                mSortedIdx[i] = order[i];
+                mSortedTs[i] = rawTs[order[i]];
+            }
+        }
+
+        public int getWidth() { return mWidth; }
+
+        public int getHeight() { return mHeight; }
+
+        public int size() { return mNumFrames; }
+
+        /**
+         * @param i frame index in timestamp order
+         */
+        public long getTimestamp(int i) { return mSortedTs[i]; }
+
+        /**
+         * @param i frame index in timestamp order
+         * @return I420 pixels of the frame, mapped read-only (valid until the reader is closed)
+         */
+        public ByteBuffer getFrame(int i) throws IOException {
+
+            long position = getRecordPosition(mSortedIdx[i]) + TIMESTAMP_BYTES;
+            MappedByteBuffer frame = mChannel.map(FileChannel.MapMode.READ_ONLY, position,
+                    getFrameBytes(mWidth, mHeight));
+            return frame.asReadOnlyBuffer();
+        }
+
+        /**
+         * @return index (timestamp order) of the frame with this timestamp, or -(insertion point) - 1
+         */
+        public int find(long timestamp) {
+            return Arrays.binarySearch(mSortedTs, timestamp);
+        }
+
+        /**
+         * Writes every frame to outDir/<timestamp>.yuv
+         * @return number of extracted frames
+         */
+        public int extract(File outDir) throws IOException {
+
+            if (!outDir.isDirectory() && !outDir.mkdirs()) {
+                throw new IOException("Cannot create " + outDir);
+            }
+
+            for (int i = 0; i < mNumFrames; i++) {
+
+                File frameFile = new File(outDir, mSortedTs[i] + YUV_FILE_EXT);
+                try (FileChannel out = new FileOutputStream(frameFile).getChannel()) {
+                    ByteBuffer frame = getFrame(i);
+                    while (frame.hasRemaining()) {
+                        out.write(frame);
+                    }
+                }
+            }
+            return mNumFrames;
+        }
+
+        @Override
+        public void close() throws IOException {
+            mIs.close();
+        }
+
+        private long getRecordPosition(int rawIdx) {
+            return FILE_HEADER_BYTES + (long) rawIdx * mRecordSize;
+        }
+
+        private void readFully(ByteBuffer buffer, long position) throws IOException {
+
+            while (buffer.hasRemaining()) {
+                int n = mChannel.read(buffer, position);
+                if (n < 0) {
+                    throw new IOException("Unexpected end of file");
+                }
+                position += n;
+            }
+        }
+    }
+
+    /* ------------------------------------- Extraction ----------------------------------------- */
+
+    /**
+     * Extracts all YUV files under root (or a single file) next to them: dir/<base>.yuv -> dir/<base>/
+     * @return number of extracted frames
+     */
+    public static int extractAll(File root) throws IOException {
+
+        if (root.isFile()) {
+            return extractFile(root);
+        }
+
+        File[] children = root.listFiles();
+        if (children == null) {
+            return 0;
+        }
+
+        int nFrames = 0;
+        for (File child : children) {
+            if (child.isDirectory()) {
+                nFrames += extractAll(child);
+            }
+            else if (child.getName().endsWith(YUV_FILE_EXT) && isYuvFrameFile(child)) {
+                // extracted frames have the same extension
+                nFrames += extractFile(child);
+            }
+        }
+        return nFrames;
+    }
+
+    public static boolean isYuvFrameFile(File file) throws IOException {
+
+        try (FileInputStream is = new FileInputStream(file)) {
+
+            ByteBuffer magic = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            is.getChannel().read(magic);
+            return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+        }
+    }
+
+    private static int extractFile(File yuvFile) throws IOException {
+
+        String name = yuvFile.getName();
+        String baseName = name.endsWith(YUV_FILE_EXT) ?
+                name.substring(0, name.length() - YUV_FILE_EXT.length()) : name;
+
+        try (Reader reader = new Reader(yuvFile)) {
+            return reader.extract(new File(yuvFile.getParentFile(), baseName));
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+
+        if (args.length < 1) {
+            System.out.println("Usage: YuvFrameFormat <dataset_dir | image.yuv>");
+            return;
+        }
+
+        int n = extractAll(new File(args[0]));
+        System.out.println("Extracted " + n + " frames");
+    }
+}
@@ -0,0 +1,123 @@
+package com.dayani.m.roboplatform.utils.helpers;
+
+import android.util.Log;
+
+import com.dayani.m.roboplatform.utils.interfaces.MyMessages;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * Appends I420 frames (see YuvFrameFormat) straight from direct buffers to the file channel.
+ * The file header is written with the first frame (it defines the frame size).
+ * Safe to call from several writer threads (appends are serialized).
+ */
+public class YuvFrameStream {
+
+    private static final String TAG = YuvFrameStream.class.getSimpleName();
+
+    public YuvFrameStream(String path, String fileName) {
+
+        mFile = new File(path, fileName);
+        mHeaderBuffer = ByteBuffer.allocateDirect(YuvFrameFormat.FILE_HEADER_BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        mTsBuffer = ByteBuffer.allocateDirect(YuvFrameFormat.TIMESTAMP_BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        mStats = new MyMessages.StorageStats();
+
+        try {
+            mOs = new FileOutputStream(mFile, false);
+            mChannel = mOs.getChannel();
+        }
+        catch (FileNotFoundException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @param frame I420 pixels between position and limit (not modified)
+     */
+    public synchronized void append(long timestamp, int width, int height, ByteBuffer frame) {
+
+        if (mChannel == null || frame == null) {
+            return;
+        }
+
+        if (mWidth < 0) {
+            mWidth = width;
+            mHeight = height;
+            mHeaderBuffer.clear();
+            YuvFrameFormat.putFileHeader(mHeaderBuffer, width, height);
+            mHeaderBuffer.flip();
+        }
+
+        ByteBuffer pixels = frame.duplicate();
+        if (width != mWidth || height != mHeight ||
+                pixels.remaining() != YuvFrameFormat.getFrameBytes(width, height)) {
+            Log.w(TAG, "Frame size mismatch in " + mFile.getName() + ", ignored");
+            return;
+        }
+
+        long t0 = System.nanoTime();
+
+        mTsBuffer.clear();
+        mTsBuffer.putLong(timestamp);
+        mTsBuffer.flip();
+        mWriteBuffers[0] = mHeaderBuffer;
+        mWriteBuffers[1] = mTsBuffer;
+        mWriteBuffers[2] = pixels;
+
+        try {
+            // one gathering write per frame
+            while (pixels.hasRemaining()) {
+                mChannel.write(mWriteBuffers);
+            }
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        mStats.onFlush(YuvFrameFormat.getRecordSize(width, height), System.nanoTime() - t0);
+    }
+
+    public synchronized void close() {
+
+        if (mChannel == null) {
+            return;
+        }
+
+        try {
+            mOs.close();
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+        mChannel = null;
+    }
+
+    public String getFullPath() {
+
+        return mFile.getAbsolutePath();
+    }
+
+    public synchronized MyMessages.StorageStats getStats() { return mStats.copy(); }
+
+    private final File mFile;
+    private FileOutputStream mOs;
+    private FileChannel mChannel;
+
+    // the header is empty (already written) after the first frame
+    private final ByteBuffer mHeaderBuffer;
+    private final ByteBuffer mTsBuffer;
+    private final ByteBuffer[] mWriteBuffers = new ByteBuffer[3];
+
+    private int mWidth = -1;
+    private int mHeight = -1;
+    private final MyMessages.StorageStats mStats;
+}
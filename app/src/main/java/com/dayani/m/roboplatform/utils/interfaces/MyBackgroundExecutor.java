@@ -3,6 +3,7 @@ package com.dayani.m.roboplatform.utils.interfaces;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
+import android.os.Process;
 import android.util.Pair;
 
 import androidx.core.os.HandlerCompat;
@@ -85,7 +86,12 @@ public class MyBackgroundExecutor {
 
     public static Pair<HandlerThread, Handler> startThread(String tag) {
 
-        HandlerThread mBackgroundThread = new HandlerThread(tag);
+        return startThread(tag, Process.THREAD_PRIORITY_DEFAULT);
+    }
+
+    public static Pair<HandlerThread, Handler> startThread(String tag, int priority) {
+
+        HandlerThread mBackgroundThread = new HandlerThread(tag, priority);
         mBackgroundThread.start();
         Handler mHandler = new Handler(mBackgroundThread.getLooper());
 
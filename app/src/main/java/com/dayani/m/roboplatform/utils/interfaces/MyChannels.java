@@ -1,5 +1,7 @@
 package com.dayani.m.roboplatform.utils.interfaces;
 
+import java.util.List;
+
 
 public interface MyChannels {
 
@@ -19,4 +21,24 @@ public interface MyChannels {
         void publishMessage(MyMessages.MyMessage msg);
         void onMessageReceived(MyMessages.MyMessage msg);
     }
+
+    /**
+     * Optional for channels: lets the publisher route messages by type and tag
+     * instead of broadcasting everything (see MyMessageBus).
+     * Both values are read once at registration time.
+     */
+    interface TopicSubscriber {
+
+        /**
+         * @return only tagged messages with this tag (and untagged messages) are delivered,
+         *      null to receive messages with any tag
+         */
+        String getChannelTag();
+
+        /**
+         * @return message classes (and their subclasses) this channel handles,
+         *      null to receive all types
+         */
+        List<Class<? extends MyMessages.MyMessage>> getSubscribedTypes();
+    }
 }
@@ -0,0 +1,209 @@
+package com.dayani.m.roboplatform.utils.interfaces;
+/*
+ * Topic-indexed message dispatch used by managers instead of broadcasting to all channels.
+ *
+ * Subscribers are kept in a copy-on-write array, so publishing never locks and
+ * (un)registering during a dispatch is safe (the current dispatch finishes with the old set).
+ * Routes (subscribers per concrete message class) are resolved on the first message of
+ * each class and cached until the subscriber set changes, so a dispatch only walks
+ * the channels that handle that message type.
+ *
+ * Publishing a pooled message (see MyMessagePool) hands the publisher's reference to the bus,
+ * it is released after the last subscriber returns.
+ *
+ * When MyChannelMetrics is enabled, the call time of each subscriber is recorded.
+ */
+
+import com.dayani.m.roboplatform.utils.data_types.MyChannelMetrics;
+import com.dayani.m.roboplatform.utils.data_types.MyLatencyHistogram;
+import com.dayani.m.roboplatform.utils.interfaces.MyChannels.ChannelTransactions;
+import com.dayani.m.roboplatform.utils.interfaces.MyChannels.TopicSubscriber;
+import com.dayani.m.roboplatform.utils.interfaces.MyMessages.MyMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+public class MyMessageBus {
+
+    private static final Subscriber[] EMPTY_SUBSCRIBERS = new Subscriber[0];
+
+    // publisher's name (metrics)
+    private final String mName;
+
+    // replaced (never modified) when a channel is added or removed
+    private volatile Snapshot mSnapshot = new Snapshot(EMPTY_SUBSCRIBERS);
+
+    public MyMessageBus() {
+        this(MyMessageBus.class.getSimpleName());
+    }
+
+    public MyMessageBus(String name) {
+        mName = name;
+    }
+
+    public synchronized boolean register(ChannelTransactions channel) {
+
+        if (channel == null) {
+            return false;
+        }
+
+        Subscriber[] subscribers = mSnapshot.mSubscribers;
+        for (Subscriber subscriber : subscribers) {
+            if (subscriber.mChannel == channel) {
+                return false;
+            }
+        }
+
+        Subscriber[] newSubscribers = new Subscriber[subscribers.length + 1];
+        System.arraycopy(subscribers, 0, newSubscribers, 0, subscribers.length);
+        newSubscribers[subscribers.length] = new Subscriber(channel);
+
+        mSnapshot = new Snapshot(newSubscribers);
+        return true;
+    }
+
+    public synchronized boolean unregister(ChannelTransactions channel) {
+
+        Subscriber[] subscribers = mSnapshot.mSubscribers;
+        for (int i = 0; i < subscribers.length; i++) {
+
+            if (subscribers[i].mChannel == channel) {
+
+                Subscriber[] newSubscribers = new Subscriber[subscribers.length - 1];
+                System.arraycopy(subscribers, 0, newSubscribers, 0, i);
+                System.arraycopy(subscribers, i + 1, newSubscribers, i, newSubscribers.length - i);
+
+                mSnapshot = new Snapshot(newSubscribers);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void publish(MyMessage msg) {
+
+        if (msg == null) {
+            return;
+        }
+
+        Subscriber[] route = mSnapshot.getRoute(msg.getClass());
+        String msgTag = msg.getChTag();
+        MyChannelMetrics metrics = MyChannelMetrics.getInstance();
+        boolean bTimed = metrics.isEnabled();
+
+        try {
+            for (Subscriber subscriber : route) {
+                if (msgTag != null && subscriber.mTag != null && !msgTag.equals(subscriber.mTag)) {
+                    continue;
+                }
+
+                if (bTimed) {
+                    long t0 = System.nanoTime();
+                    subscriber.mChannel.onMessageReceived(msg);
+                    subscriber.getCallTime(metrics, mName).record(System.nanoTime() - t0);
+                }
+                else {
+                    subscriber.mChannel.onMessageReceived(msg);
+                }
+            }
+        }
+        finally {
+            // no-op for regular messages
+            msg.release();
+        }
+    }
+
+    public int getNumSubscribers() { return mSnapshot.mSubscribers.length; }
+
+    public boolean isEmpty() { return getNumSubscribers() == 0; }
+
+    /*=================================== Types & Interfaces ====================================*/
+
+    private static final class Subscriber {
+
+        final ChannelTransactions mChannel;
+        final String mTag;
+        // null: all message types
+        final Class<?>[] mTypes;
+        // cached from the metrics registry (reset in place)
+        MyLatencyHistogram mCallTime;
+
+        Subscriber(ChannelTransactions channel) {
+
+            mChannel = channel;
+
+            String tag = null;
+            Class<?>[] types = null;
+
+            if (channel instanceof TopicSubscriber) {
+
+                TopicSubscriber topicSubscriber = (TopicSubscriber) channel;
+                tag = topicSubscriber.getChannelTag();
+
+                List<Class<? extends MyMessage>> lTypes = topicSubscriber.getSubscribedTypes();
+                if (lTypes != null) {
+                    types = lTypes.toArray(new Class<?>[0]);
+                }
+            }
+
+            mTag = tag;
+            mTypes = types;
+        }
+
+        MyLatencyHistogram getCallTime(MyChannelMetrics metrics, String publisher) {
+
+            MyLatencyHistogram callTime = mCallTime;
+            if (callTime == null) {
+                callTime = metrics.getCallTime(publisher, mChannel.getClass().getSimpleName());
+                mCallTime = callTime;
+            }
+            return callTime;
+        }
+
+        boolean accepts(Class<?> msgClass) {
+
+            if (mTypes == null) {
+                return true;
+            }
+            for (Class<?> type : mTypes) {
+                if (type.isAssignableFrom(msgClass)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class Snapshot {
+
+        final Subscriber[] mSubscribers;
+        // map<message class, subscribers>: belongs to this snapshot only,
+        // so a route computed from a stale set never outlives it
+        final ConcurrentHashMap<Class<?>, Subscriber[]> mRoutes = new ConcurrentHashMap<>();
+
+        Snapshot(Subscriber[] subscribers) {
+            mSubscribers = subscribers;
+        }
+
+        Subscriber[] getRoute(Class<?> msgClass) {
+
+            Subscriber[] route = mRoutes.get(msgClass);
+            if (route != null) {
+                return route;
+            }
+
+            List<Subscriber> lRoute = new ArrayList<>();
+            for (Subscriber subscriber : mSubscribers) {
+                if (subscriber.accepts(msgClass)) {
+                    lRoute.add(subscriber);
+                }
+            }
+            route = lRoute.toArray(EMPTY_SUBSCRIBERS);
+
+            Subscriber[] prev = mRoutes.putIfAbsent(msgClass, route);
+            return (prev != null) ? prev : route;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.dayani.m.roboplatform.utils.interfaces;
+/*
+ * Recycles messages of one type on hot channels (sensor batches, USB ADC readings, ...).
+ *
+ * Ownership:
+ *      acquire():      the publisher owns the message (reference count: 1)
+ *      publish:        MyMessageBus releases the publisher's reference after the last subscriber returns
+ *      retain():       a subscriber that keeps the message (e.g. a write queue) takes a reference
+ *                      and must release() it when done
+ * The message returns to the pool when the count reaches zero, after reset().
+ *
+ * In debug builds, the acquisition site of every outstanding message is recorded
+ * so messages that are never released can be reported (see reportLeaks).
+ */
+
+import android.util.Log;
+
+import com.dayani.m.roboplatform.BuildConfig;
+import com.dayani.m.roboplatform.utils.data_types.MyRingBuffer;
+import com.dayani.m.roboplatform.utils.interfaces.MyMessages.MyMessage;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+public class MyMessagePool<T extends MyMessage> {
+
+    private static final String TAG = MyMessagePool.class.getSimpleName();
+
+    private static volatile boolean sbTrackLeaks = BuildConfig.DEBUG;
+
+    private final String mName;
+    private final Factory<T> mFactory;
+    private final MyRingBuffer<T> mFree;
+
+    private final AtomicLong mCreated = new AtomicLong(0);
+    private final AtomicLong mAcquired = new AtomicLong(0);
+    private final AtomicLong mRecycled = new AtomicLong(0);
+
+    // map<outstanding message, acquisition site>, only used when tracking leaks
+    private final Map<MyMessage, AcquireSite> mmLiveMessages = new IdentityHashMap<>();
+
+    public MyMessagePool(String name, int capacity, Factory<T> factory) {
+
+        mName = name;
+        mFactory = factory;
+        mFree = new MyRingBuffer<>(capacity);
+    }
+
+    /**
+     * @return a recycled message or a new one if the pool is empty,
+     *      the caller owns the only reference
+     */
+    public T acquire() {
+
+        T msg = mFree.poll();
+        if (msg == null) {
+            msg = mFactory.create();
+            mCreated.incrementAndGet();
+        }
+
+        msg.onAcquire(this);
+        mAcquired.incrementAndGet();
+
+        if (sbTrackLeaks) {
+            synchronized (mmLiveMessages) {
+                mmLiveMessages.put(msg, new AcquireSite(mName));
+            }
+        }
+        return msg;
+    }
+
+    /**
+     * Called by MyMessage.release() when the last reference is dropped
+     */
+    @SuppressWarnings("unchecked")
+    void recycle(MyMessage msg) {
+
+        if (sbTrackLeaks) {
+            synchronized (mmLiveMessages) {
+                mmLiveMessages.remove(msg);
+            }
+        }
+
+        msg.reset();
+        mRecycled.incrementAndGet();
+
+        // if the pool is full, the message is left to the GC
+        mFree.offer((T) msg);
+    }
+
+    public String getName() { return mName; }
+
+    public long getCreatedCount() { return mCreated.get(); }
+
+    public long getOutstandingCount() { return mAcquired.get() - mRecycled.get(); }
+
+    public int getFreeCount() { return mFree.size(); }
+
+    /* ------------------------------------- Leak Detection ------------------------------------- */
+
+    public static void setLeakTracking(boolean state) { sbTrackLeaks = state; }
+
+    public static boolean isLeakTracking() { return sbTrackLeaks; }
+
+    /**
+     * @param minAgeNs only messages held longer than this are suspects
+     * @return acquisition sites of the suspected leaks (empty if tracking is disabled)
+     */
+    public List<Throwable> findLeaks(long minAgeNs) {
+
+        List<Throwable> leaks = new ArrayList<>();
+        long now = System.nanoTime();
+
+        synchronized (mmLiveMessages) {
+            for (AcquireSite site : mmLiveMessages.values()) {
+                if (now - site.mAcquireTimeNs >= minAgeNs) {
+                    leaks.add(site);
+                }
+            }
+        }
+        return leaks;
+    }
+
+    /**
+     * Logs suspected leaks (call when no message should be in flight, e.g. after recording)
+     * @return number of suspected leaks
+     */
+    public int reportLeaks(long minAgeNs) {
+
+        List<Throwable> leaks = findLeaks(minAgeNs);
+
+        if (!leaks.isEmpty()) {
+            Log.w(TAG, mName + ": " + leaks.size() + " messages were never released, " +
+                    "first acquired at:", leaks.get(0));
+        }
+        return leaks.size();
+    }
+
+    @Override
+    public String toString() {
+        return mName + " pool: created " + getCreatedCount() + ", outstanding " +
+                getOutstandingCount() + ", free " + getFreeCount();
+    }
+
+    /*=================================== Types & Interfaces ====================================*/
+
+    public interface Factory<T extends MyMessage> {
+        T create();
+    }
+
+    private static final class AcquireSite extends Throwable {
+
+        private static final long serialVersionUID = 1L;
+
+        final long mAcquireTimeNs;
+
+        AcquireSite(String poolName) {
+
+            super("Acquired from " + poolName);
+            mAcquireTimeNs = System.nanoTime();
+        }
+    }
+}
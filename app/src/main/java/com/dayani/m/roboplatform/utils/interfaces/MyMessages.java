@@ -5,6 +5,9 @@ import static android.os.Build.VERSION.SDK_INT;
 import com.dayani.m.roboplatform.drivers.MyDrvUsb;
 import com.dayani.m.roboplatform.managers.MySensorManager;
 import com.dayani.m.roboplatform.managers.MyLocationManager;
+import com.dayani.m.roboplatform.utils.helpers.BinaryRecordFormat;
+import com.dayani.m.roboplatform.utils.helpers.ImagePlanes;
+import com.dayani.m.roboplatform.utils.helpers.YuvFrameFormat;
 
 import android.hardware.SensorEvent;
 import android.hardware.camera2.CameraCharacteristics;
@@ -24,11 +27,28 @@ import com.dayani.m.thirdparty.google.gnsslogger.MeasurementProvider;
 
 import com.dayani.m.roboplatform.utils.interfaces.MyChannels.ChannelType;
 
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 public interface MyMessages {
 
+    /**
+     * Messages that can be written to a binary stream without string formatting
+     */
+    interface BinaryRecord {
+
+        // number of records in this message (batches carry more than one)
+        int getNumRecords();
+        // number of float values per record (fixed for a stream)
+        int getNumValues();
+        // buffer is little-endian with at least BinaryRecordFormat.getRecordSize() bytes remaining
+        void writeRecord(ByteBuffer buffer, int index);
+        // sample timestamp of a record (ns)
+        long getRecordTimestamp(int index);
+    }
+
     class MyMessage implements Parcelable {
 
         // the receiver's tag, null: means it's a broadcast message
@@ -39,6 +59,13 @@ public interface MyMessages {
 
         protected String mStringMsg;
 
+        // pooled messages only (see MyMessagePool), null: garbage-collected
+        private MyMessagePool<?> mPool;
+        // updated through REF_COUNT, no atomic object per message
+        private volatile int mRefCount;
+        private static final AtomicIntegerFieldUpdater<MyMessage> REF_COUNT =
+                AtomicIntegerFieldUpdater.newUpdater(MyMessage.class, "mRefCount");
+
         public MyMessage(ChannelType chType) {
 
             mChType = chType;
@@ -98,13 +125,23 @@ public interface MyMessages {
             }
         };
 
+        /**
+         * Text payloads are formatted lazily, only when a text sink asks for them
+         * @return the explicit string message or the formatted payload
+         */
         @NonNull
         @Override
         public String toString() {
+            if (mStringMsg == null) {
+                mStringMsg = formatMessage();
+            }
             return mStringMsg;
         }
         public void setStringMessage(String msg) { mStringMsg = msg; }
 
+        // override to format typed payloads (called at most once per message)
+        protected String formatMessage() { return ""; }
+
         public String getChTag() {
             return mChTag;
         }
@@ -121,6 +158,62 @@ public interface MyMessages {
         public void setTargetId(int targetId) {
             mTargetId = targetId;
         }
+
+        /**
+         * Used for the sample-to-storage latency (see MyChannelMetrics)
+         * @return capture time of the (oldest) sample in elapsedRealtimeNanos base,
+         *      -1 if the message doesn't carry samples
+         */
+        public long getSampleTimestamp() { return -1; }
+
+        // Pooling
+
+        void onAcquire(MyMessagePool<?> pool) {
+
+            mPool = pool;
+            mRefCount = 1;
+        }
+
+        public boolean isPooled() { return mPool != null; }
+
+        /**
+         * Keep a pooled message after onMessageReceived returns (no-op for regular messages)
+         */
+        public MyMessage retain() {
+
+            if (mPool != null && REF_COUNT.getAndIncrement(this) <= 0) {
+                throw new IllegalStateException("Retained a recycled " + getClass().getSimpleName());
+            }
+            return this;
+        }
+
+        /**
+         * Drops one reference, the last one returns the message to its pool
+         */
+        public void release() {
+
+            MyMessagePool<?> pool = mPool;
+            if (pool == null) {
+                return;
+            }
+
+            int refCount = REF_COUNT.decrementAndGet(this);
+            if (refCount == 0) {
+                pool.recycle(this);
+            }
+            else if (refCount < 0) {
+                throw new IllegalStateException("Released a recycled " + getClass().getSimpleName());
+            }
+        }
+
+        // override to clear the payload before a pooled message is reused
+        protected void reset() {
+
+            setChTag(null);
+            setTargetId(-1);
+            // formatted again from the next payload
+            setStringMessage(null);
+        }
     }
 
     class MsgConfig extends MyMessage {
@@ -171,7 +264,13 @@ public interface MyMessages {
             STREAM_STRING_APPEND,   // open an existing stream and append to it
 
             TRAIN_STRING,           // for one-shot files
-            TRAIN_BYTE              // for images
+            TRAIN_BYTE,             // for images
+
+            STREAM_BINARY,          // fixed-width little-endian records (see BinaryRecordFormat)
+
+            PACKED_BYTE,            // images appended to indexed segment files (see ImagePackFormat)
+
+            YUV_FRAMES              // fixed-size I420 frames in one file (see YuvFrameFormat)
         }
 
         private final List<String> mlFolders;
@@ -181,6 +280,17 @@ public interface MyMessages {
 
         private boolean mbAppendDsRoot;
 
+        // write-behind buffer (streams only), 0: write each message directly
+        public static final int DEF_WRITE_BUFF_SIZE = 32 * 1024;
+        public static final long DEF_FLUSH_INTERVAL_MS = 1000;
+
+        // packed channels roll over to a new segment file at this size
+        public static final long DEF_SEGMENT_SIZE = 256L * 1024 * 1024;
+
+        private int mWriteBuffSize;
+        private long mFlushIntervalMs;
+        private long mSegmentSize;
+
         public StorageInfo(List<String> folders, String fileName, StreamType streamType) {
 
             mlFolders = folders;
@@ -188,6 +298,10 @@ public interface MyMessages {
             mStreamType = streamType;
 
             mbAppendDsRoot = true;
+
+            mWriteBuffSize = DEF_WRITE_BUFF_SIZE;
+            mFlushIntervalMs = DEF_FLUSH_INTERVAL_MS;
+            mSegmentSize = DEF_SEGMENT_SIZE;
         }
 
         public List<String> getFolders() {
@@ -207,23 +321,108 @@ public interface MyMessages {
         }
 
         public boolean isStream() {
-            return mStreamType == StreamType.STREAM_STRING || mStreamType == StreamType.STREAM_STRING_APPEND;
+            return mStreamType == StreamType.STREAM_STRING || mStreamType == StreamType.STREAM_STRING_APPEND ||
+                    mStreamType == StreamType.STREAM_BINARY;
+        }
+
+        public boolean isBinary() {
+            return mStreamType == StreamType.STREAM_BINARY;
         }
 
         public boolean isTrain() {
             return mStreamType == StreamType.TRAIN_STRING || mStreamType == StreamType.TRAIN_BYTE;
         }
 
+        public boolean isPacked() {
+            return mStreamType == StreamType.PACKED_BYTE;
+        }
+
+        public boolean isYuvFrames() {
+            return mStreamType == StreamType.YUV_FRAMES;
+        }
+
         public boolean isStreamType(StreamType type) {
             return mStreamType == type;
         }
 
         public StreamType getStreamType() { return mStreamType; }
+
+        public int getWriteBuffSize() {
+            return mWriteBuffSize;
+        }
+
+        public void setWriteBuffSize(int buffSize) {
+            mWriteBuffSize = Math.max(buffSize, 0);
+        }
+
+        public long getFlushIntervalMs() {
+            return mFlushIntervalMs;
+        }
+
+        public void setFlushIntervalMs(long intervalMs) {
+            mFlushIntervalMs = intervalMs;
+        }
+
+        public long getSegmentSize() {
+            return mSegmentSize;
+        }
+
+        public void setSegmentSize(long segmentSize) {
+            mSegmentSize = segmentSize;
+        }
+    }
+
+    /**
+     * Per-channel write statistics (reported on GET_STATE).
+     * Updated by the writer thread: other threads read a copy(), both lock the stats
+     */
+    class StorageStats {
+
+        public long mBytesWritten;
+        public long mFlushCount;
+        public long mMaxFlushLatencyNs;
+        // mean latency between two reports: difference of the sums over difference of the counts
+        public long mFlushLatencySumNs;
+
+        public synchronized void onFlush(int nBytes, long latencyNs) {
+
+            mBytesWritten += nBytes;
+            mFlushCount++;
+            mFlushLatencySumNs += latencyNs;
+            if (latencyNs > mMaxFlushLatencyNs) {
+                mMaxFlushLatencyNs = latencyNs;
+            }
+        }
+
+        public synchronized StorageStats copy() {
+
+            StorageStats stats = new StorageStats();
+            stats.mBytesWritten = mBytesWritten;
+            stats.mFlushCount = mFlushCount;
+            stats.mMaxFlushLatencyNs = mMaxFlushLatencyNs;
+            stats.mFlushLatencySumNs = mFlushLatencySumNs;
+            return stats;
+        }
+
+        public long getMeanFlushLatencyNs() {
+            return (mFlushCount == 0) ? 0 : mFlushLatencySumNs / mFlushCount;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "bytes_written: " + mBytesWritten + ", flush_count: " + mFlushCount +
+                    ", max_flush_latency_us: " + mMaxFlushLatencyNs / 1000 +
+                    ", mean_flush_latency_us: " + getMeanFlushLatencyNs() / 1000;
+        }
     }
 
     class StorageConfig extends MsgConfig {
 
         private final StorageInfo mStorageInfo;
+        // filled by the storage manager in response to GET_STATE
+        private StorageStats mStorageStats;
+        private String mFullPath;
 
         public StorageConfig(ConfigAction config, String sender, StorageInfo storageInfo) {
 
@@ -238,6 +437,12 @@ public interface MyMessages {
         }
 
         public StorageInfo getStorageInfo() { return mStorageInfo; }
+
+        public StorageStats getStorageStats() { return mStorageStats; }
+        public void setStorageStats(StorageStats stats) { mStorageStats = stats; }
+
+        public String getFullPath() { return mFullPath; }
+        public void setFullPath(String fullPath) { mFullPath = fullPath; }
     }
 
     class MsgLogging extends MyMessage {
@@ -271,16 +476,105 @@ public interface MyMessages {
         public void setFileName(String fileName) {
             this.mFileName = fileName;
         }
+
+        @Override
+        protected void reset() {
+
+            super.reset();
+            mFileName = null;
+        }
     }
 
-    class MsgSensor extends MyMessage {
+    // one usb adc reading for the text sink only (pooled, formatted by the storage writer)
+    class MsgAdcReading extends MsgStorage {
+
+        private long mTimestamp;
+        private int[] mAdcData;
+        // adc array of a recycled message, reused by the next reading
+        private int[] mSpareAdcData;
+
+        public MsgAdcReading() {
+
+            super(null, null, -1);
+        }
+
+        public void setTimestamp(long timestamp) {
+            this.mTimestamp = timestamp;
+        }
+
+        @Override
+        public long getSampleTimestamp() {
+            return (mAdcData != null && mTimestamp > 0) ? mTimestamp : -1;
+        }
+
+        public int[] getAdcData() {
+            return mAdcData;
+        }
+
+        /**
+         * @return the adc array of this message, reused from a previous reading when possible
+         */
+        public int[] obtainAdcData(int numReadings) {
+
+            int[] adcData = mSpareAdcData;
+            if (adcData == null || adcData.length != numReadings) {
+                adcData = new int[numReadings];
+            }
+            mSpareAdcData = null;
+            mAdcData = adcData;
+
+            return adcData;
+        }
+
+        // same line as MsgUsb.getAdcSensorString
+        @Override
+        protected String formatMessage() {
+
+            if (mAdcData == null) {
+                return "";
+            }
+
+            StringBuilder sb = new StringBuilder();
+            sb.append(mTimestamp);
+
+            for (int adcVal : mAdcData) {
+                sb.append(", ").append(adcVal);
+            }
+            sb.append("\n");
+
+            return sb.toString();
+        }
+
+        @Override
+        protected void reset() {
+
+            super.reset();
+            mTimestamp = 0;
+            mSpareAdcData = mAdcData;
+            mAdcData = null;
+        }
+    }
+
+    // one sensor event, MySensorManager publishes the events in batches (MsgSensorBatch)
+    class MsgSensor extends MyMessage implements BinaryRecord {
 
         private SensorEvent mSensorEvent;
 
+        // copied because Android reuses SensorEvent objects
+        private final long mTimestamp;
+        private final float[] mValues;
+        private final int mSensorType;
+        private final int mSensorId;
+
         public MsgSensor(SensorEvent event, int targetId) {
 
-            super(ChannelType.DATA, null, targetId, toString(event));
+            super(ChannelType.DATA, null, targetId, null);
             mSensorEvent = event;
+            mSensorType = event.sensor.getType();
+            mTimestamp = event.timestamp;
+            mValues = event.values.clone();
+            mSensorId = (SDK_INT >= MySensorManager.ANDROID_VERSION_ACQ_MODE) ? event.sensor.getId() :
+                    BinaryRecordFormat.NO_SENSOR_ID;
         }
 
         public static String toString(SensorEvent mSensorEvent) {
@@ -300,6 +594,43 @@ public interface MyMessages {
             return res.toString();
         }
 
+        @Override
+        protected String formatMessage() {
+
+            StringBuilder sb = new StringBuilder(24 + 14 * mValues.length);
+            BinaryRecordFormat.appendTextRecord(sb, mTimestamp, mValues, mValues.length, mSensorId);
+            return sb.toString();
+        }
+
+        public long getTimestamp() { return mTimestamp; }
+        @Override
+        public long getSampleTimestamp() { return mTimestamp; }
+        @Override
+        public long getRecordTimestamp(int index) { return mTimestamp; }
+        public float[] getValues() { return mValues; }
+        public int getSensorType() { return mSensorType; }
+        public int getSensorId() { return mSensorId; }
+
+        @Override
+        public int getNumRecords() {
+            return 1;
+        }
+
+        @Override
+        public int getNumValues() {
+            return mValues.length;
+        }
+
+        @Override
+        public void writeRecord(ByteBuffer buffer, int index) {
+
+            BinaryRecordFormat.putRecord(buffer, mTimestamp, mValues, mValues.length, mSensorId);
+        }
+
+        /**
+         * The event may be reused by Android after the callback returns,
+         * prefer the typed accessors
+         */
         public SensorEvent getSensorEvent() {
             return mSensorEvent;
         }
@@ -309,16 +640,137 @@ public interface MyMessages {
         }
     }
 
+    /**
+     * A batch of samples from one sensor, in capture order.
+     * Filled by the sensor drainer from the preallocated capture ring,
+     * so no objects are created per sensor event.
+     */
+    class MsgSensorBatch extends MyMessage implements BinaryRecord {
+
+        private final int mSensorType;
+        private final int mSensorId;
+        private final int mNumValues;
+
+        private int mNumSamples;
+        private final long[] mTimestamps;
+        private final float[] mValues;
+
+        public MsgSensorBatch(int targetId, int sensorType, int sensorId, int numValues, int capacity) {
+
+            super(ChannelType.DATA, null, targetId, null);
+            mSensorType = sensorType;
+            mSensorId = sensorId;
+            mNumValues = numValues;
+            mNumSamples = 0;
+            mTimestamps = new long[capacity];
+            mValues = new float[capacity * numValues];
+        }
+
+        public int getCapacity() { return mTimestamps.length; }
+
+        public boolean isFull() { return mNumSamples >= mTimestamps.length; }
+
+        public void addSample(long timestamp, float[] values, int offset) {
+
+            mTimestamps[mNumSamples] = timestamp;
+            System.arraycopy(values, offset, mValues, mNumSamples * mNumValues, mNumValues);
+            mNumSamples++;
+        }
+
+        public int getSensorType() { return mSensorType; }
+        public int getSensorId() { return mSensorId; }
+        public int getNumSamples() { return mNumSamples; }
+
+        public long getTimestamp(int index) { return mTimestamps[index]; }
+
+        @Override
+        public long getRecordTimestamp(int index) { return mTimestamps[index]; }
+
+        @Override
+        public long getSampleTimestamp() {
+            return (mNumSamples > 0) ? mTimestamps[0] : -1;
+        }
+
+        public float getValue(int index, int valueIndex) {
+            return mValues[index * mNumValues + valueIndex];
+        }
+
+        public void copyValues(int index, float[] out) {
+            System.arraycopy(mValues, index * mNumValues, out, 0, Math.min(out.length, mNumValues));
+        }
+
+        @Override
+        public int getNumRecords() {
+            return mNumSamples;
+        }
+
+        @Override
+        public int getNumValues() {
+            return mNumValues;
+        }
+
+        @Override
+        public void writeRecord(ByteBuffer buffer, int index) {
+
+            buffer.putLong(mTimestamps[index]);
+            int base = index * mNumValues;
+            for (int i = 0; i < mNumValues; i++) {
+                buffer.putFloat(mValues[base + i]);
+            }
+            buffer.putInt(mSensorId);
+        }
+
+        /**
+         * @return the same layout as MsgSensor, one line per sample
+         */
+        @Override
+        protected String formatMessage() {
+
+            StringBuilder sb = new StringBuilder(mNumSamples * (24 + 14 * mNumValues));
+            float[] values = new float[mNumValues];
+
+            for (int i = 0; i < mNumSamples; i++) {
+                copyValues(i, values);
+                BinaryRecordFormat.appendTextRecord(sb, mTimestamps[i], values, mNumValues, mSensorId);
+            }
+            return sb.toString();
+        }
+
+        /**
+         * Pooled batches keep their sensor and target, only samples are cleared
+         */
+        @Override
+        protected void reset() {
+
+            int targetId = getTargetId();
+            super.reset();
+            setTargetId(targetId);
+            mNumSamples = 0;
+        }
+    }
+
     class MsgLocation extends MyMessage {
 
         private Location mLocEvent;
 
         public MsgLocation(Location locEvent, int targetId) {
 
-            super(ChannelType.DATA, null, targetId, toString(locEvent));
+            super(ChannelType.DATA, null, targetId, null);
             mLocEvent = locEvent;
         }
 
+        @Override
+        protected String formatMessage() {
+            return toString(mLocEvent);
+        }
+
+        public long getTimestamp() { return mLocEvent.getElapsedRealtimeNanos(); }
+        public double getLatitude() { return mLocEvent.getLatitude(); }
+        public double getLongitude() { return mLocEvent.getLongitude(); }
+        public double getAltitude() { return mLocEvent.getAltitude(); }
+        public float getSpeed() { return mLocEvent.getSpeed(); }
+        public float getBearing() { return mLocEvent.getBearing(); }
+
         /**
          * @param loc new location event
          * @return String("timestamp, latitude, longitude, altitude, velocity, bearing")
@@ -345,14 +797,28 @@ public interface MyMessages {
     class MsgGnssMeasurement extends MyMessage {
 
         private GnssMeasurement mMeasurement;
+        // receive time, the measurement is formatted later
+        private final long mTimestamp;
 
         public MsgGnssMeasurement(GnssMeasurement measurement, int targetId) {
 
-            super(ChannelType.DATA, null, targetId, toString(measurement));
+            super(ChannelType.DATA, null, targetId, null);
             mMeasurement = measurement;
+            mTimestamp = SystemClock.elapsedRealtimeNanos();
         }
 
+        @Override
+        protected String formatMessage() {
+            return toString(mMeasurement, mTimestamp);
+        }
+
+        public long getTimestamp() { return mTimestamp; }
+
         public static String toString(GnssMeasurement mea) {
+            return toString(mea, SystemClock.elapsedRealtimeNanos());
+        }
+
+        public static String toString(GnssMeasurement mea, long timestamp) {
 
             if (SDK_INT < MeasurementProvider.ANDROID_GNSS_API_VERSION) {
                 return "";
@@ -368,7 +834,7 @@ public interface MyMessages {
                 typeCode = ", " + mea.getCodeType();
             }
 
-            return SystemClock.elapsedRealtimeNanos() + ", " + mea.getTimeOffsetNanos() + ", " +
+            return timestamp + ", " + mea.getTimeOffsetNanos() + ", " +
                     mea.getReceivedSvTimeNanos() + ", " + mea.getAccumulatedDeltaRangeMeters() + ", " +
                     mea.getPseudorangeRateMetersPerSecond() + ", " + mea.getCn0DbHz() + ", " +
                     mea.getSnrInDb() + ", " + mea.getCarrierFrequencyHz() + ", " +
@@ -395,20 +861,34 @@ public interface MyMessages {
     class MsgGnssNavigation extends MyMessage {
 
         private GnssNavigationMessage mNavMessage;
+        // receive time, the message is formatted later
+        private final long mTimestamp;
 
         public MsgGnssNavigation(GnssNavigationMessage message, int targetId) {
 
-            super(ChannelType.DATA, null, targetId, toString(message));
+            super(ChannelType.DATA, null, targetId, null);
             mNavMessage = message;
+            mTimestamp = SystemClock.elapsedRealtimeNanos();
         }
 
+        @Override
+        protected String formatMessage() {
+            return toString(mNavMessage, mTimestamp);
+        }
+
+        public long getTimestamp() { return mTimestamp; }
+
         public static String toString(GnssNavigationMessage nav) {
+            return toString(nav, SystemClock.elapsedRealtimeNanos());
+        }
+
+        public static String toString(GnssNavigationMessage nav, long timestamp) {
 
             if (SDK_INT < MeasurementProvider.ANDROID_GNSS_API_VERSION) {
                 return "";
             }
 
-            return SystemClock.elapsedRealtimeNanos() + ", " + nav.getSvid() + ", " +
+            return timestamp + ", " + nav.getSvid() + ", " +
                     nav.getType() + ", " + nav.getMessageId() + ", " +
                     nav.getSubmessageId() + ", " + bytesToHex(nav.getData()) + "\n";
         }
@@ -441,25 +921,61 @@ public interface MyMessages {
     // acts as both string file (<ts, image> pairs) and image
     class MsgImage extends MyMessage {
 
-        private final Image mImage;
+        // null once the planes are copied (the image is released by the publisher)
+        private Image mImage;
         private String mFileName;
+        // the image might be closed before formatting
+        private long mTimestamp;
+        private int mFormat;
+        private int mWidth;
+        private int mHeight;
+        private String mFilePath;
 
+        // pooled messages keep (and grow) their buffer, only mDataLength bytes are valid
         private byte[] mData;
+        private int mDataLength;
+        // YUV frames (I420) and RAW pixels are copied into a direct buffer (no byte[] copy)
+        private ByteBuffer mDirectData;
         private CaptureResult mCaptureResult;
         private CameraCharacteristics mCharacteristics;
 
         public MsgImage(Image image, String fileName, int targetId) {
 
-            super(ChannelType.DATA, null, targetId, toString(image, fileName));
+            super(ChannelType.DATA, null, targetId, null);
+            setImage(image, fileName);
+        }
+
+        // for MyMessagePool, see setImage
+        public MsgImage() {
+
+            super(ChannelType.DATA, null, -1, null);
+        }
+
+        public void setImage(Image image, String fileName) {
+
             mImage = image;
             mFileName = fileName;
+            mFilePath = fileName;
+            mTimestamp = image.getTimestamp();
+            mFormat = image.getFormat();
+            mWidth = image.getWidth();
+            mHeight = image.getHeight();
         }
 
-        private static String toString(Image image, String fileName) {
+        @Override
+        protected String formatMessage() {
 
-            return image.getTimestamp() + ", " + fileName + "\n";
+            return mTimestamp + ", " + mFilePath + "\n";
         }
 
+        public long getTimestamp() { return mTimestamp; }
+
+        public int getFormat() { return mFormat; }
+
+        public int getWidth() { return mWidth; }
+
+        public int getHeight() { return mHeight; }
+
         public static String getHeaderMessage() {
 
             return "# timestamp_ns, image_file_name\n";
@@ -475,9 +991,90 @@ public interface MyMessages {
 
         public Image getImage() { return mImage; }
 
+        /**
+         * Copies the first plane (e.g. JPEG bytes) and drops the image reference,
+         * so the caller can close it before the message is written
+         */
+        public void copyImageData() {
+
+            if (mImage == null) {
+                return;
+            }
+
+            ByteBuffer buffer = mImage.getPlanes()[0].getBuffer();
+            int length = buffer.remaining();
+
+            if (mData == null || mData.length < length) {
+                mData = new byte[length];
+            }
+            buffer.get(mData, 0, length);
+            mDataLength = length;
+            mImage = null;
+        }
+
+        /**
+         * Packs the Y, U and V planes (honouring their strides) into the direct buffer
+         * and drops the image reference, so the caller can close it
+         */
+        public void copyYuvPlanes() {
+
+            if (mImage == null) {
+                return;
+            }
+
+            ensureDirectCapacity(YuvFrameFormat.getFrameBytes(mWidth, mHeight));
+
+            Image.Plane[] planes = mImage.getPlanes();
+            YuvFrameFormat.putI420(mDirectData, mWidth, mHeight,
+                    planes[0].getBuffer(), planes[0].getRowStride(),
+                    planes[1].getBuffer(), planes[2].getBuffer(),
+                    planes[1].getRowStride(), planes[1].getPixelStride());
+
+            mDirectData.flip();
+            mImage = null;
+        }
+
+        /**
+         * Copies the RAW_SENSOR plane into the direct buffer with tightly packed rows
+         * (the layout DngCreator.writeByteBuffer expects) and drops the image reference,
+         * set the matching capture result and characteristics to encode it later
+         */
+        public void copyRawPlane() {
+
+            if (mImage == null) {
+                return;
+            }
+
+            Image.Plane plane = mImage.getPlanes()[0];
+            int rowBytes = mWidth * plane.getPixelStride();
+            ensureDirectCapacity(rowBytes * mHeight);
+
+            ImagePlanes.copyPlane(mDirectData, plane.getBuffer(), rowBytes, mHeight,
+                    plane.getRowStride(), 1);
+
+            mDirectData.flip();
+            mImage = null;
+        }
+
+        private void ensureDirectCapacity(int nBytes) {
+
+            if (mDirectData == null || mDirectData.capacity() < nBytes) {
+                mDirectData = ByteBuffer.allocateDirect(nBytes);
+            }
+            mDirectData.clear();
+        }
+
+        public ByteBuffer getDirectData() { return mDirectData; }
+
         public byte[] getData() { return mData; }
 
-        public void setData(byte[] data) { mData = data; }
+        public int getDataLength() { return mDataLength; }
+
+        public void setData(byte[] data) {
+
+            mData = data;
+            mDataLength = (data != null) ? data.length : 0;
+        }
 
         public CaptureResult getCaptureResult() {
             return mCaptureResult;
@@ -494,6 +1091,28 @@ public interface MyMessages {
         public void setCharacteristics(CameraCharacteristics characteristics) {
             this.mCharacteristics = characteristics;
         }
+
+        /**
+         * Pooled image messages keep their data buffer for the next frame
+         */
+        @Override
+        protected void reset() {
+
+            super.reset();
+            mImage = null;
+            mFileName = null;
+            mFilePath = null;
+            mTimestamp = 0;
+            mFormat = 0;
+            mWidth = 0;
+            mHeight = 0;
+            mDataLength = 0;
+            if (mDirectData != null) {
+                mDirectData.limit(0);
+            }
+            mCaptureResult = null;
+            mCharacteristics = null;
+        }
     }
 
     class MsgUsb extends MyMessage {
@@ -617,6 +1236,11 @@ public interface MyMessages {
             this.mTimestamp = timestamp;
         }
 
+        @Override
+        public long getSampleTimestamp() {
+            return (mAdcData != null && mTimestamp > 0) ? mTimestamp : -1;
+        }
+
         public int[] getAdcData() {
             return mAdcData;
         }
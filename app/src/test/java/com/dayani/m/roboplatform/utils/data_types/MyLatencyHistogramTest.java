@@ -0,0 +1,40 @@
+package com.dayani.m.roboplatform.utils.data_types;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+
+public class MyLatencyHistogramTest {
+
+    @Test
+    public void percentilesAreWithinABucket() {
+
+        MyLatencyHistogram hist = new MyLatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            hist.record(i * 1000L);
+        }
+
+        assertEquals(100, hist.getCount());
+        assertEquals(100000, hist.getMax());
+        assertEquals(50500, hist.getMean());
+
+        long p50 = hist.getPercentile(0.5);
+        assertTrue(p50 >= 50000 && p50 < 2 * 50000);
+        assertEquals(100000, hist.getPercentile(1.0));
+    }
+
+    @Test
+    public void resetClearsAllCounters() {
+
+        MyLatencyHistogram hist = new MyLatencyHistogram();
+        hist.record(-5);
+        hist.record(Long.MAX_VALUE);
+        hist.reset();
+
+        assertEquals(0, hist.getCount());
+        assertEquals(0, hist.getMax());
+        assertEquals(0, hist.getPercentile(0.99));
+    }
+}
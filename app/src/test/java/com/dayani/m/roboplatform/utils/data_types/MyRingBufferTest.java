@@ -0,0 +1,78 @@
+package com.dayani.m.roboplatform.utils.data_types;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class MyRingBufferTest {
+
+    @Test
+    public void offerPoll_keepsOrderAndBounds() {
+
+        MyRingBuffer<Integer> queue = new MyRingBuffer<>(3);
+        assertEquals(4, queue.capacity());
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertFalse(queue.offer(4));
+        assertEquals(4, queue.size());
+
+        for (int i = 0; i < 4; i++) {
+            assertEquals(Integer.valueOf(i), queue.poll());
+        }
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void multipleProducers_noLossPerProducerOrder() throws InterruptedException {
+
+        final int nProducers = 4;
+        final int nItems = 100000;
+        final MyRingBuffer<long[]> queue = new MyRingBuffer<>(1024);
+
+        List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < nProducers; p++) {
+            final int producerId = p;
+            Thread t = new Thread(() -> {
+                for (int i = 0; i < nItems; i++) {
+                    long[] item = {producerId, i};
+                    while (!queue.offer(item)) {
+                        Thread.yield();
+                    }
+                }
+            });
+            producers.add(t);
+            t.start();
+        }
+
+        long[] lastSeen = new long[nProducers];
+        Arrays.fill(lastSeen, -1);
+        int received = 0;
+
+        while (received < nProducers * nItems) {
+            long[] item = queue.poll();
+            if (item == null) {
+                Thread.yield();
+                continue;
+            }
+            int producerId = (int) item[0];
+            assertEquals(lastSeen[producerId] + 1, item[1]);
+            lastSeen[producerId] = item[1];
+            received++;
+        }
+
+        for (Thread t : producers) {
+            t.join();
+        }
+        assertTrue(queue.isEmpty());
+    }
+}
@@ -0,0 +1,72 @@
+package com.dayani.m.roboplatform.utils.helpers;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+public class BinaryRecordFormatTest {
+
+    private static final String HEADER = "# timestamp_ns, ax_m_s2, ay_m_s2, az_m_s2, sensor_id\n";
+
+    @Test
+    public void convertToText_matchesTextLayout() throws IOException {
+
+        float[][] values = {{0.1f, -9.81f, 3.0f}, {1e-7f, 2.5f, -0.0f}};
+        long[] ts = {123456789L, 123456999L};
+
+        File binFile = File.createTempFile("accel", BinaryRecordFormat.BIN_FILE_EXT);
+        File textFile = File.createTempFile("accel", BinaryRecordFormat.TEXT_FILE_EXT);
+        binFile.deleteOnExit();
+        textFile.deleteOnExit();
+
+        ByteBuffer buffer = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(BinaryRecordFormat.makeFileHeader(3, HEADER));
+        BinaryRecordFormat.putRecord(buffer, ts[0], values[0], 3, 7);
+        BinaryRecordFormat.putRecord(buffer, ts[1], values[1], 3, BinaryRecordFormat.NO_SENSOR_ID);
+
+        try (FileOutputStream os = new FileOutputStream(binFile)) {
+            os.write(buffer.array(), 0, buffer.position());
+        }
+
+        long nRecords = BinaryRecordFormat.convertToText(binFile, textFile);
+
+        StringBuilder expected = new StringBuilder(HEADER);
+        expected.append(ts[0]).append(", ").append(values[0][0]).append(", ")
+                .append(values[0][1]).append(", ").append(values[0][2]).append(", 7\n");
+        expected.append(ts[1]).append(", ").append(values[1][0]).append(", ")
+                .append(values[1][1]).append(", ").append(values[1][2]).append('\n');
+
+        assertEquals(2, nRecords);
+        assertEquals(expected.toString(),
+                new String(Files.readAllBytes(textFile.toPath()), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void convertToText_ignoresTruncatedRecord() throws IOException {
+
+        File binFile = File.createTempFile("gyro", BinaryRecordFormat.BIN_FILE_EXT);
+        File textFile = File.createTempFile("gyro", BinaryRecordFormat.TEXT_FILE_EXT);
+        binFile.deleteOnExit();
+        textFile.deleteOnExit();
+
+        ByteBuffer buffer = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(BinaryRecordFormat.makeFileHeader(3, HEADER));
+        BinaryRecordFormat.putRecord(buffer, 1L, new float[]{1f, 2f, 3f}, 3, 1);
+        // partial record (e.g. recording was interrupted)
+        buffer.putLong(2L);
+
+        try (FileOutputStream os = new FileOutputStream(binFile)) {
+            os.write(buffer.array(), 0, buffer.position());
+        }
+
+        assertEquals(1, BinaryRecordFormat.convertToText(binFile, textFile));
+    }
+}
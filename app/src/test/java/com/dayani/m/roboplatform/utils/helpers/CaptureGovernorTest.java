@@ -0,0 +1,92 @@
+package com.dayani.m.roboplatform.utils.helpers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CaptureGovernorTest {
+
+    private static final long MS = 1000000L;
+    private static final int CAPACITY = 8;
+
+    private final CaptureGovernor mGovernor = new CaptureGovernor(80, 95, 10, 30,
+            new String[] {"640x480", "320x240"}, 100 * MS);
+
+    private CaptureGovernor.Change underPressure(long ts) {
+        return mGovernor.update(ts, CAPACITY, CAPACITY, 150 * MS, 0);
+    }
+
+    private CaptureGovernor.Change relieved(long ts) {
+        return mGovernor.update(ts, 0, CAPACITY, 10 * MS, 0);
+    }
+
+    @Test
+    public void settingsAreLoweredInOrderUpToTheBounds() {
+
+        // one tick under pressure is not enough
+        assertNull(underPressure(1));
+        CaptureGovernor.Change change = underPressure(2);
+        assertEquals(CaptureGovernor.Parameter.JPEG_QUALITY, change.getParameter());
+        assertEquals(85, change.getNewValue());
+        assertTrue(change.isDegraded());
+        assertEquals("2, jpeg_quality, 95, 85, queue 8/8, latency 150.0 ms, 0 dropped\n",
+                change.toString());
+
+        // the quality stops at its bound, then the frame rate goes down
+        underPressure(3);
+        assertEquals(80, underPressure(4).getNewValue());
+        underPressure(5);
+        change = underPressure(6);
+        assertEquals(CaptureGovernor.Parameter.FRAME_RATE, change.getParameter());
+        assertEquals(20, mGovernor.getFps());
+        underPressure(7);
+        underPressure(8);
+        assertEquals(13, mGovernor.getFps());
+        underPressure(9);
+        underPressure(10);
+        assertEquals(10, mGovernor.getFps());
+        assertEquals(100 * MS, mGovernor.getFrameIntervalNs());
+
+        // the resolution is the last resort, then nothing is left
+        underPressure(11);
+        change = underPressure(12);
+        assertEquals("12, resolution, 640x480, 320x240, queue 8/8, latency 150.0 ms, 0 dropped\n",
+                change.toString());
+        underPressure(13);
+        assertNull(underPressure(14));
+    }
+
+    @Test
+    public void settingsAreRestoredInReverseOrderAfterLongerRelief() {
+
+        // a dropped frame is pressure even with an empty queue
+        mGovernor.update(1, 0, CAPACITY, 0, 1);
+        mGovernor.update(2, 0, CAPACITY, 0, 1);
+        assertEquals(85, mGovernor.getJpegQuality());
+        for (int i = 0; i < 10; i++) {
+            underPressure(3 + i);
+        }
+        assertEquals(1, mGovernor.getResolutionLevel());
+        assertEquals(10, mGovernor.getFps());
+
+        // a quarter-full queue is neither pressure nor relief
+        for (int i = 0; i < CaptureGovernor.RECOVER_TICKS; i++) {
+            assertNull(mGovernor.update(20 + i, CAPACITY / 4, CAPACITY, 10 * MS, 0));
+        }
+
+        for (int i = 1; i < CaptureGovernor.RECOVER_TICKS; i++) {
+            assertNull(relieved(30 + i));
+        }
+        CaptureGovernor.Change change = relieved(40);
+        assertEquals(CaptureGovernor.Parameter.RESOLUTION, change.getParameter());
+        assertEquals(0, mGovernor.getResolutionLevel());
+
+        for (int i = 0; i < CaptureGovernor.RECOVER_TICKS; i++) {
+            change = relieved(50 + i);
+        }
+        assertEquals(CaptureGovernor.Parameter.FRAME_RATE, change.getParameter());
+        assertEquals(15, mGovernor.getFps());
+    }
+}
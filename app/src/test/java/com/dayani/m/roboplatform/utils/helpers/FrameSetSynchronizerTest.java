@@ -0,0 +1,86 @@
+package com.dayani.m.roboplatform.utils.helpers;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class FrameSetSynchronizerTest {
+
+    private static final long MS = 1000000L;
+
+    private final List<String> mSets = new ArrayList<>();
+    private final List<String> mDropped = new ArrayList<>();
+
+    private FrameSetSynchronizer<String> newSynchronizer(int maxPendingSets) {
+
+        return new FrameSetSynchronizer<>(new int[] {0, 1}, 2 * MS, 100 * MS, maxPendingSets,
+                new FrameSetSynchronizer.Listener<String>() {
+                    @Override
+                    public void onFrameSet(FrameSetSynchronizer.FrameSet<String> frameSet) {
+                        mSets.add(frameSet.getFrame(0) + "+" + frameSet.getFrame(1));
+                    }
+
+                    @Override
+                    public void onFrameDropped(int streamId, long timestamp, String frame) {
+                        mDropped.add(frame);
+                    }
+                });
+    }
+
+    @Test
+    public void framesArePairedByRequestIdThenByTimestamp() {
+
+        FrameSetSynchronizer<String> sync = newSynchronizer(4);
+
+        // the second camera delivers out of order
+        sync.addFrame(0, 10, 1000 * MS, "a10");
+        sync.addFrame(0, 11, 1033 * MS, "a11");
+        sync.addFrame(1, 11, 1034 * MS, "b11");
+        sync.addFrame(1, 10, 1001 * MS, "b10");
+
+        // unknown requests: closest timestamp within the max skew
+        sync.addFrame(0, FrameSetSynchronizer.UNKNOWN_REQUEST, 1066 * MS, "a12");
+        sync.addFrame(1, FrameSetSynchronizer.UNKNOWN_REQUEST, 1065 * MS, "b12");
+
+        assertEquals(3, sync.getMatchedSets());
+        assertEquals("a11+b11", mSets.get(0));
+        assertEquals("a10+b10", mSets.get(1));
+        assertEquals("a12+b12", mSets.get(2));
+
+        FrameSetSynchronizer.SkewStats skew = sync.getSkewStats(0, 1);
+        assertEquals(3, skew.getCount());
+        assertEquals(-1 * MS, skew.getMinNs());
+        assertEquals(1 * MS, skew.getMaxNs());
+        assertEquals(MS / 3.0, skew.getMeanNs(), 1.0);
+        assertEquals(-MS / 3.0, sync.getSkewStats(1, 0).getMeanNs(), 1.0);
+    }
+
+    @Test
+    public void unmatchedFramesAreDroppedAfterTheWindow() {
+
+        FrameSetSynchronizer<String> sync = newSynchronizer(2);
+
+        sync.addFrame(0, FrameSetSynchronizer.UNKNOWN_REQUEST, 1000 * MS, "a0");
+        // too far from a0 to be paired
+        sync.addFrame(1, FrameSetSynchronizer.UNKNOWN_REQUEST, 1010 * MS, "b0");
+        assertEquals(2, sync.getPendingSets());
+
+        // beyond the window: both pending sets expire
+        sync.addFrame(0, FrameSetSynchronizer.UNKNOWN_REQUEST, 1200 * MS, "a1");
+        assertEquals(2, mDropped.size());
+
+        // too many pending sets: the oldest is dropped
+        sync.addFrame(0, FrameSetSynchronizer.UNKNOWN_REQUEST, 1233 * MS, "a2");
+        sync.addFrame(0, FrameSetSynchronizer.UNKNOWN_REQUEST, 1266 * MS, "a3");
+        assertEquals("a1", mDropped.get(2));
+
+        sync.flush();
+        assertEquals(0, sync.getPendingSets());
+        assertEquals(0, sync.getMatchedSets());
+        assertEquals(4, sync.getDroppedFrames(0));
+        assertEquals(1, sync.getDroppedFrames(1));
+    }
+}
@@ -0,0 +1,86 @@
+package com.dayani.m.roboplatform.utils.helpers;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+public class ImagePackFormatTest {
+
+    private static File newTempDir() throws IOException {
+
+        File dir = Files.createTempDirectory("pack").toFile();
+        dir.deleteOnExit();
+        return dir;
+    }
+
+    private static byte[] makeImage(int length, int seed) {
+
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (seed + i);
+        }
+        return data;
+    }
+
+    @Test
+    public void packedImagesAreReadBackSortedByTimestamp() throws IOException {
+
+        File dir = newTempDir();
+        long[] ts = {300L, 100L, 200L};
+
+        ImagePackStream stream = new ImagePackStream(dir.getPath(), "image", 1 << 20);
+        for (int i = 0; i < ts.length; i++) {
+            // only the first bytes of the (reused) buffer are valid
+            byte[] buffer = makeImage(64, i);
+            stream.append(ts[i], ImagePackFormat.FORMAT_JPEG, buffer, 10 + i);
+        }
+        stream.close();
+
+        try (ImagePackFormat.Reader reader = new ImagePackFormat.Reader(dir, "image")) {
+
+            assertEquals(3, reader.size());
+            assertEquals(100L, reader.get(0).timestamp);
+            assertEquals(300L, reader.get(2).timestamp);
+
+            int idx = reader.find(300L);
+            assertEquals(2, idx);
+            byte[] expected = new byte[10];
+            System.arraycopy(makeImage(64, 0), 0, expected, 0, 10);
+            assertArrayEquals(expected, reader.read(reader.get(idx)));
+
+            assertEquals(-2, reader.find(150L));
+            assertEquals(1, reader.findNearest(190L));
+            assertEquals(2, reader.findNearest(1000L));
+        }
+    }
+
+    @Test
+    public void segmentsRollOverAndExtractToLegacyLayout() throws IOException {
+
+        File dir = newTempDir();
+        int nImages = 5;
+        int length = 100;
+
+        // two images per segment
+        long segmentSize = ImagePackFormat.FILE_HEADER_BYTES + 2 * length;
+        ImagePackStream stream = new ImagePackStream(dir.getPath(), "image", segmentSize);
+        for (int i = 0; i < nImages; i++) {
+            stream.append(1000L + i, ImagePackFormat.FORMAT_JPEG, makeImage(length, i), length);
+        }
+        assertEquals(3, stream.getSegmentCount());
+        stream.close();
+
+        assertEquals(nImages, ImagePackFormat.extractAll(dir));
+
+        File imageDir = new File(dir, "image");
+        for (int i = 0; i < nImages; i++) {
+            File imageFile = new File(imageDir, (1000L + i) + ".jpg");
+            assertArrayEquals(makeImage(length, i), Files.readAllBytes(imageFile.toPath()));
+        }
+    }
+}
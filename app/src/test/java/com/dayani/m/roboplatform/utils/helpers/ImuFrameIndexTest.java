@@ -0,0 +1,57 @@
+package com.dayani.m.roboplatform.utils.helpers;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ImuFrameIndexTest {
+
+    private static final int RECORD_SIZE = 28;
+
+    private final List<String> mLines = new ArrayList<>();
+
+    @Test
+    public void framesAreBracketedBeforeAndAfterTheSamplesArrive() {
+
+        ImuFrameIndex index = new ImuFrameIndex(mLines::add);
+        int accel = index.addStream("imu/accel.bin");
+
+        // samples every 10 ns, the frame at 25 arrives after them
+        for (int i = 0; i < 5; i++) {
+            index.onSample(accel, i * 10L, 16 + i * RECORD_SIZE);
+        }
+        index.onFrame(25);
+        assertEquals("25, imu/accel.bin, 2, 72, 20, 3, 100, 30\n", mLines.get(0));
+
+        // the frame at 47 waits for the next sample
+        index.onFrame(47);
+        assertEquals(1, mLines.size());
+        index.onSample(accel, 50, 156);
+        assertEquals("47, imu/accel.bin, 4, 128, 40, 5, 156, 50\n", mLines.get(1));
+
+        // a frame before the first sample, and one without a sample after it
+        index.onFrame(-5);
+        index.onFrame(60);
+        index.close();
+        assertEquals("-5, imu/accel.bin, -1, -1, -1, 0, 16, 0\n", mLines.get(2));
+        assertEquals("60, imu/accel.bin, 5, 156, 50, -1, -1, -1\n", mLines.get(3));
+    }
+
+    @Test
+    public void framesOlderThanTheHistoryAreMarkedLate() {
+
+        ImuFrameIndex index = new ImuFrameIndex(4, 8, mLines::add);
+        int gyro = index.addStream("imu/gyro.txt");
+
+        for (int i = 0; i < 10; i++) {
+            index.onSample(gyro, i * 10L, i * 100L);
+        }
+        index.onFrame(15);
+
+        assertEquals(1, index.getLateFrames());
+        assertEquals("15, imu/gyro.txt, -1, -1, -1, -1, -1, -1\n", mLines.get(0));
+    }
+}
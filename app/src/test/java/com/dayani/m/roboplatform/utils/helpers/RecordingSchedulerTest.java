@@ -0,0 +1,128 @@
+package com.dayani.m.roboplatform.utils.helpers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class RecordingSchedulerTest {
+
+    private static final long SEC = 1000000000L;
+
+    private final List<String> mLines = new ArrayList<>();
+    private final RecordingScheduler mScheduler = new RecordingScheduler();
+
+    private final int[] mCameraLevel = new int[1];
+    private final int[] mMagLevel = new int[1];
+
+    private static RecordingScheduler.Policy newPolicy(String manager, String name, int priority,
+                                                       String[] settings, int[] level) {
+
+        return new RecordingScheduler.Policy() {
+            @Override
+            public String getManager() { return manager; }
+
+            @Override
+            public String getName() { return name; }
+
+            @Override
+            public int getPriority() { return priority; }
+
+            @Override
+            public int getMaxLevel() { return settings.length - 1; }
+
+            @Override
+            public String getSetting(int lvl) { return settings[lvl]; }
+
+            @Override
+            public void apply(int lvl) { level[0] = lvl; }
+        };
+    }
+
+    private void addPolicies() {
+
+        mScheduler.start(mLines::add, RecordingScheduler.DEF_MAX_DRAIN_PCT_PER_HOUR);
+        // added out of order: the camera still goes first
+        mScheduler.addPolicy(newPolicy("Sensors", "magnetic_rate", RecordingScheduler.PRIORITY_MAGNETIC_RATE,
+                new String[] {"fastest", "50 Hz"}, mMagLevel));
+        mScheduler.addPolicy(newPolicy("Camera", "frame_rate", RecordingScheduler.PRIORITY_CAMERA_RATE,
+                new String[] {"max", "15 fps", "5 fps"}, mCameraLevel));
+    }
+
+    private void tick(long ts, int thermalStatus, int times) {
+
+        for (int i = 0; i < times; i++) {
+            mScheduler.update(ts + i, thermalStatus, 80f, true);
+        }
+    }
+
+    @Test
+    public void policiesAreDegradedByPriorityAndRestoredInReverse() {
+
+        addPolicies();
+
+        tick(0, RecordingScheduler.THERMAL_STATUS_MODERATE, RecordingScheduler.DEGRADE_TICKS - 1);
+        assertEquals(0, mCameraLevel[0]);
+        assertEquals("0, device, thermal_status, 0, 2, moderate, thermal none, drain 0.0 %/h\n",
+                mLines.get(0));
+
+        tick(10, RecordingScheduler.THERMAL_STATUS_MODERATE, 1);
+        assertEquals(1, mCameraLevel[0]);
+        assertEquals("10, Camera, frame_rate, 0, 1, 15 fps, thermal moderate, drain 0.0 %/h\n",
+                mLines.get(1));
+
+        // severe: one step per update
+        tick(20, RecordingScheduler.THERMAL_STATUS_SEVERE, 3);
+        assertEquals(2, mCameraLevel[0]);
+        assertEquals(1, mMagLevel[0]);
+        assertEquals("Camera: frame_rate: 5 fps (2/2)", "Camera: " + mScheduler.getLoad("Camera"));
+
+        // the last degraded policy comes back first
+        tick(30, RecordingScheduler.THERMAL_STATUS_LIGHT, RecordingScheduler.RECOVER_TICKS);
+        assertEquals(0, mMagLevel[0]);
+        assertEquals(2, mCameraLevel[0]);
+        tick(50, RecordingScheduler.THERMAL_STATUS_NONE, RecordingScheduler.RECOVER_TICKS);
+        assertEquals(1, mCameraLevel[0]);
+
+        // a manager that stops recording is restored
+        mScheduler.removePolicies("Camera", 100);
+        assertEquals(0, mCameraLevel[0]);
+        assertTrue(mLines.get(mLines.size() - 1).startsWith("100, Camera, frame_rate, 1, 0, max, removed"));
+        assertEquals(null, mScheduler.getLoad("Camera"));
+
+        mScheduler.stop();
+        int nLines = mLines.size();
+        tick(200, RecordingScheduler.THERMAL_STATUS_CRITICAL, 1);
+        assertEquals(nLines, mLines.size());
+    }
+
+    @Test
+    public void batteryDrainIsEstimatedOverTheWindow() {
+
+        addPolicies();
+
+        // 1 % per minute
+        for (int min = 0; min < 5; min++) {
+            assertFalse(mScheduler.update(min * 60 * SEC, RecordingScheduler.THERMAL_STATUS_NONE,
+                    90f - min, false));
+        }
+        assertEquals(0f, mScheduler.getDrainPctPerHour(), 0.01f);
+
+        for (int min = 5; min < 5 + RecordingScheduler.DEGRADE_TICKS; min++) {
+            mScheduler.update(min * 60 * SEC, RecordingScheduler.THERMAL_STATUS_NONE, 90f - min, false);
+        }
+        assertEquals(60f, mScheduler.getDrainPctPerHour(), 0.01f);
+        assertEquals(1, mCameraLevel[0]);
+
+        // plugged in
+        mScheduler.update(10 * 60 * SEC, RecordingScheduler.THERMAL_STATUS_NONE, 80f, true);
+        assertEquals(0f, mScheduler.getDrainPctPerHour(), 0.01f);
+
+        assertEquals(RecordingScheduler.THERMAL_STATUS_SEVERE,
+                RecordingScheduler.getThermalStatusFromTemperature(47f));
+    }
+}
@@ -0,0 +1,75 @@
+package com.dayani.m.roboplatform.utils.helpers;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class SerialPacketAssemblerTest {
+
+    private static final int NUM_COMMANDS = 11;
+    private static final long MS = 1000000L;
+
+    private final List<byte[]> mPackets = new ArrayList<>();
+    private final SerialPacketAssembler mAssembler = new SerialPacketAssembler(NUM_COMMANDS,
+            (ts, packet, length) -> mPackets.add(Arrays.copyOf(packet, length)));
+
+    @Test
+    public void packetsAreReassembledWhateverTheSplit() {
+
+        byte[] big = new byte[200 + SerialPacketAssembler.HEADER_LENGTH];
+        big[0] = (byte) 200;
+        big[1] = 3;
+        for (int i = 2; i < big.length; i++) {
+            big[i] = (byte) i;
+        }
+
+        // one byte at a time
+        for (byte b : big) {
+            mAssembler.push(0, new byte[] {b}, 0, 1);
+        }
+        // two packets and the start of a third one in one transfer
+        mAssembler.push(MS, ByteBuffer.wrap(new byte[] {2, 0, 'o', 'k', 0, 5, 1, 4}).asReadOnlyBuffer());
+        mAssembler.push(2 * MS, new byte[] {7}, 0, 1);
+
+        assertEquals(4, mPackets.size());
+        assertArrayEquals(big, mPackets.get(0));
+        assertArrayEquals(new byte[] {2, 0, 'o', 'k'}, mPackets.get(1));
+        assertArrayEquals(new byte[] {0, 5}, mPackets.get(2));
+        assertArrayEquals(new byte[] {1, 4, 7}, mPackets.get(3));
+        assertEquals(0, mAssembler.getResyncBytes());
+    }
+
+    @Test
+    public void corruptedBytesAreSkipped() {
+
+        // 0x20 is not a command: the stray 0x10 is skipped and 0x20 becomes the size,
+        // the same for 0x20 and 12
+        byte[] packet = new byte[12 + SerialPacketAssembler.HEADER_LENGTH];
+        packet[0] = 12;
+        packet[1] = 1;
+        packet[13] = 9;
+        byte[] corrupted = new byte[packet.length + 2];
+        corrupted[0] = 0x10;
+        corrupted[1] = 0x20;
+        System.arraycopy(packet, 0, corrupted, 2, packet.length);
+        mAssembler.push(0, corrupted, 0, corrupted.length);
+
+        assertEquals(2, mAssembler.getResyncBytes());
+        assertArrayEquals(packet, mPackets.get(0));
+
+        // a truncated packet is dropped after the gap
+        mAssembler.push(MS, new byte[] {10, 0, 1, 2}, 0, 4);
+        mAssembler.push(MS + SerialPacketAssembler.DEF_GAP_TIMEOUT_NS + 1, new byte[] {0, 6}, 0, 2);
+
+        assertEquals(1, mAssembler.getDroppedPackets());
+        assertEquals(2, mPackets.size());
+        assertArrayEquals(new byte[] {0, 6}, mPackets.get(1));
+        assertEquals("packets: 2, resync bytes: 2, dropped packets: 1", mAssembler.getReport());
+    }
+}
@@ -0,0 +1,99 @@
+package com.dayani.m.roboplatform.utils.helpers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+public class YuvFrameFormatTest {
+
+    private static final int WIDTH = 4;
+    private static final int HEIGHT = 2;
+
+    /**
+     * Y rows padded to 8 bytes, U/V interleaved (pixel stride 2) like most camera HALs
+     */
+    private static ByteBuffer[] makePlanes(int seed) {
+
+        ByteBuffer y = ByteBuffer.allocateDirect(8 * HEIGHT);
+        for (int row = 0; row < HEIGHT; row++) {
+            for (int col = 0; col < WIDTH; col++) {
+                y.put(row * 8 + col, (byte) (seed + row * WIDTH + col));
+            }
+        }
+
+        // one chroma row of 2 pixels: U0 V0 U1 (V1 is past the end of the U plane)
+        ByteBuffer uv = ByteBuffer.allocateDirect(4);
+        uv.put(0, (byte) 100).put(1, (byte) 200).put(2, (byte) 101).put(3, (byte) 201);
+        ByteBuffer u = uv.duplicate();
+        u.limit(3);
+        ByteBuffer v = uv.duplicate();
+        v.position(1);
+        v = v.slice();
+
+        return new ByteBuffer[] {y, u, v};
+    }
+
+    private static ByteBuffer makeFrame(int seed) {
+
+        ByteBuffer[] planes = makePlanes(seed);
+        ByteBuffer frame = ByteBuffer.allocateDirect(YuvFrameFormat.getFrameBytes(WIDTH, HEIGHT));
+        YuvFrameFormat.putI420(frame, WIDTH, HEIGHT, planes[0], 8, planes[1], planes[2], 4, 2);
+        frame.flip();
+        return frame;
+    }
+
+    @Test
+    public void putI420_honoursRowAndPixelStrides() {
+
+        ByteBuffer frame = makeFrame(0);
+
+        assertEquals(WIDTH * HEIGHT + 4, frame.remaining());
+        for (int i = 0; i < WIDTH * HEIGHT; i++) {
+            assertEquals(i, frame.get(i));
+        }
+        assertEquals((byte) 100, frame.get(8));
+        assertEquals((byte) 101, frame.get(9));
+        assertEquals((byte) 200, frame.get(10));
+        assertEquals((byte) 201, frame.get(11));
+    }
+
+    @Test
+    public void writtenFramesAreMappedBackByTimestamp() throws IOException {
+
+        File dir = Files.createTempDirectory("yuv").toFile();
+        dir.deleteOnExit();
+
+        YuvFrameStream stream = new YuvFrameStream(dir.getPath(), "image.yuv");
+        stream.append(2000L, WIDTH, HEIGHT, makeFrame(10));
+        stream.append(1000L, WIDTH, HEIGHT, makeFrame(20));
+        stream.close();
+
+        File yuvFile = new File(dir, "image.yuv");
+        assertTrue(YuvFrameFormat.isYuvFrameFile(yuvFile));
+
+        try (YuvFrameFormat.Reader reader = new YuvFrameFormat.Reader(yuvFile)) {
+
+            assertEquals(WIDTH, reader.getWidth());
+            assertEquals(HEIGHT, reader.getHeight());
+            assertEquals(2, reader.size());
+            assertEquals(1000L, reader.getTimestamp(0));
+
+            int idx = reader.find(2000L);
+            assertEquals(1, idx);
+            assertEquals(makeFrame(10), reader.getFrame(idx));
+            assertEquals(-2, reader.find(1500L));
+        }
+
+        assertEquals(2, YuvFrameFormat.extractAll(dir));
+        // extracted frames are not containers
+        assertEquals(0, YuvFrameFormat.extractAll(new File(dir, "image")));
+        assertEquals(YuvFrameFormat.getFrameBytes(WIDTH, HEIGHT),
+                new File(dir, "image/1000.yuv").length());
+    }
+}
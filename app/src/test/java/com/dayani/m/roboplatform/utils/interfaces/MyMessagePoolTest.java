@@ -0,0 +1,155 @@
+package com.dayani.m.roboplatform.utils.interfaces;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.dayani.m.roboplatform.utils.interfaces.MyChannels.ChannelTransactions;
+import com.dayani.m.roboplatform.utils.interfaces.MyMessages.MsgStorage;
+import com.dayani.m.roboplatform.utils.interfaces.MyMessages.MyMessage;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+public class MyMessagePoolTest {
+
+    private static MyMessagePool<MsgStorage> newPool() {
+        return new MyMessagePool<>("test", 4, () -> new MsgStorage("", null, -1));
+    }
+
+    @Test
+    public void releasedMessagesAreRecycled() {
+
+        MyMessagePool<MsgStorage> pool = newPool();
+
+        MsgStorage msg = pool.acquire();
+        msg.setStringMessage("data");
+        msg.setFileName("file.txt");
+        msg.setTargetId(3);
+        msg.release();
+
+        assertEquals(0, pool.getOutstandingCount());
+
+        MsgStorage reused = pool.acquire();
+        assertSame(msg, reused);
+        assertEquals("", reused.toString());
+        assertNull(reused.getFileName());
+        assertEquals(-1, reused.getTargetId());
+        assertEquals(1, pool.getCreatedCount());
+    }
+
+    @Test
+    public void recycledMessagesAreFormattedAgain() {
+
+        int[] payload = { 1 };
+        MyMessagePool<MsgStorage> pool = new MyMessagePool<>("test", 4, () -> new MsgStorage(null, null, -1) {
+            @Override
+            protected String formatMessage() {
+                return "value " + payload[0];
+            }
+        });
+
+        MsgStorage msg = pool.acquire();
+        assertEquals("value 1", msg.toString());
+        msg.release();
+
+        payload[0] = 2;
+        MsgStorage reused = pool.acquire();
+        assertSame(msg, reused);
+        assertEquals("value 2", reused.toString());
+    }
+
+    @Test
+    public void retainedMessagesOutliveTheFirstRelease() {
+
+        MyMessagePool<MsgStorage> pool = newPool();
+
+        MsgStorage msg = pool.acquire();
+        msg.retain();
+        msg.release();
+
+        assertEquals(1, pool.getOutstandingCount());
+        assertNotSame(msg, pool.acquire());
+
+        msg.release();
+        assertEquals(1, pool.getOutstandingCount());
+
+        try {
+            msg.release();
+            fail("released a recycled message");
+        }
+        catch (IllegalStateException ignored) {
+        }
+    }
+
+    @Test
+    public void busReleasesAfterTheLastSubscriber() {
+
+        MyMessagePool<MsgStorage> pool = newPool();
+        List<MyMessage> kept = new ArrayList<>();
+
+        MyMessageBus bus = new MyMessageBus();
+        bus.register(new TestChannel(null));
+        bus.register(new TestChannel(kept));
+
+        bus.publish(pool.acquire());
+
+        // the second subscriber still holds it
+        assertEquals(1, pool.getOutstandingCount());
+
+        kept.get(0).release();
+        assertEquals(0, pool.getOutstandingCount());
+    }
+
+    @Test
+    public void unreleasedMessagesAreReportedAsLeaks() {
+
+        boolean tracking = MyMessagePool.isLeakTracking();
+        MyMessagePool.setLeakTracking(true);
+
+        try {
+            MyMessagePool<MsgStorage> pool = newPool();
+
+            pool.acquire().release();
+            pool.acquire();
+
+            assertEquals(1, pool.findLeaks(0).size());
+            assertTrue(pool.findLeaks(Long.MAX_VALUE).isEmpty());
+        }
+        finally {
+            MyMessagePool.setLeakTracking(tracking);
+        }
+    }
+
+    private static class TestChannel implements ChannelTransactions {
+
+        // keeps received messages if not null
+        private final List<MyMessage> mlKept;
+
+        TestChannel(List<MyMessage> kept) {
+            mlKept = kept;
+        }
+
+        @Override
+        public void onMessageReceived(MyMessage msg) {
+            if (mlKept != null) {
+                mlKept.add(msg.retain());
+            }
+        }
+
+        @Override
+        public void registerChannel(ChannelTransactions channel) {}
+
+        @Override
+        public void unregisterChannel(ChannelTransactions channel) {}
+
+        @Override
+        public void publishMessage(MyMessage msg) {}
+    }
+}
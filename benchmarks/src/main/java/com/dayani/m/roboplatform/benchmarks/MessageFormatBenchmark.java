@@ -0,0 +1,148 @@
+package com.dayani.m.roboplatform.benchmarks;
+
+/*
+ * Text formatting of the sensor and GNSS messages (what the storage writer pays per line)
+ */
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.location.GnssMeasurement;
+import android.location.GnssNavigationMessage;
+
+import com.dayani.m.roboplatform.utils.interfaces.MyMessages.MsgGnssMeasurement;
+import com.dayani.m.roboplatform.utils.interfaces.MyMessages.MsgGnssNavigation;
+import com.dayani.m.roboplatform.utils.interfaces.MyMessages.MsgSensor;
+import com.dayani.m.roboplatform.utils.interfaces.MyMessages.MsgSensorBatch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MessageFormatBenchmark {
+
+    private static final int BATCH_SIZE = 64;
+
+    private SensorEvent mEvent;
+    private MsgSensorBatch mBatch;
+    private GnssMeasurement mMeasurement;
+    private GnssNavigationMessage mNavMessage;
+
+    private long mTimestamp = 0;
+
+    @Setup
+    public void setup() {
+
+        Random random = new Random(42);
+
+        mEvent = new SensorEvent(3);
+        mEvent.sensor = new Sensor(Sensor.TYPE_ACCELEROMETER, 1);
+        mEvent.timestamp = 123456789012345L;
+        for (int i = 0; i < mEvent.values.length; i++) {
+            mEvent.values[i] = (random.nextFloat() - 0.5f) * 20f;
+        }
+
+        mBatch = new MsgSensorBatch(0, Sensor.TYPE_ACCELEROMETER, 1, 3, BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            mBatch.addSample(mEvent.timestamp + i * 2500000L, mEvent.values, 0);
+        }
+
+        mMeasurement = new GnssMeasurement();
+        mMeasurement.setSvid(12);
+        mMeasurement.setConstellationType(1);
+        mMeasurement.setTimeOffsetNanos(0.0);
+        mMeasurement.setReceivedSvTimeNanos(345600123456789L);
+        mMeasurement.setAccumulatedDeltaRangeMeters(-12345.678);
+        mMeasurement.setPseudorangeRateMetersPerSecond(-512.25);
+        mMeasurement.setCn0DbHz(38.4);
+        mMeasurement.setSnrInDb(12.5);
+        mMeasurement.setCarrierFrequencyHz(1575420030f);
+        mMeasurement.setCarrierCycles(0);
+        mMeasurement.setCarrierPhase(0.25);
+        mMeasurement.setSatelliteInterSignalBiasNanos(1.5);
+        mMeasurement.setCodeType("C");
+
+        // GPS L1 C/A subframe (10 words)
+        byte[] navData = new byte[40];
+        random.nextBytes(navData);
+        mNavMessage = new GnssNavigationMessage();
+        mNavMessage.setSvid(12);
+        mNavMessage.setType(GnssNavigationMessage.TYPE_GPS_L1CA);
+        mNavMessage.setMessageId(3);
+        mNavMessage.setSubmessageId(2);
+        mNavMessage.setData(navData);
+    }
+
+    /**
+     * Current path: values are copied at receive time and formatted lazily
+     */
+    @Benchmark
+    public String sensorMessage() {
+        return new MsgSensor(mEvent, 0).toString();
+    }
+
+    /**
+     * Legacy String.format path
+     */
+    @Benchmark
+    public String sensorEventToString() {
+        return MsgSensor.toString(mEvent);
+    }
+
+    @Benchmark
+    public String sensorBatch() {
+        // drop the cached text
+        mBatch.setStringMessage(null);
+        return mBatch.toString();
+    }
+
+    @Benchmark
+    public String gnssMeasurement() {
+        return MsgGnssMeasurement.toString(mMeasurement, mTimestamp++);
+    }
+
+    @Benchmark
+    public String gnssNavigation() {
+        return MsgGnssNavigation.toString(mNavMessage, mTimestamp++);
+    }
+
+    @Benchmark
+    public String bytesToHex(NavData data) {
+        return MsgGnssNavigation.bytesToHex(data.mBytes);
+    }
+
+    /*=================================== Types & Interfaces ====================================*/
+
+    @State(Scope.Thread)
+    public static class NavData {
+
+        // GPS L1 C/A subframe, GLONASS string, Galileo I/NAV page, a large blob
+        @Param({"40", "12", "32", "1024"})
+        public int length;
+
+        byte[] mBytes;
+
+        @Setup
+        public void setup() {
+            mBytes = new byte[length];
+            new Random(7).nextBytes(mBytes);
+        }
+    }
+}
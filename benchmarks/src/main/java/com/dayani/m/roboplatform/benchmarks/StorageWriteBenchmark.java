@@ -0,0 +1,129 @@
+package com.dayani.m.roboplatform.benchmarks;
+
+/*
+ * Storage stream strategies for one batch of sensor samples:
+ *      text (formatted lines) vs binary records, with different write-behind buffer sizes
+ *      (0: every text write goes to the file, binary streams keep a minimum buffer)
+ *
+ * The default sink is /dev/null, so only the CPU and system-call costs are measured.
+ * Pass a file path (-p sink=/tmp/bench/accel) to include the file system,
+ * the file is recreated for each iteration.
+ */
+
+import android.hardware.Sensor;
+
+import com.dayani.m.roboplatform.utils.helpers.BinaryStorageStream;
+import com.dayani.m.roboplatform.utils.helpers.StorageStream;
+import com.dayani.m.roboplatform.utils.interfaces.MyMessages.MsgSensorBatch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StorageWriteBenchmark {
+
+    private static final String DEV_NULL = "/dev/null";
+
+    @Param({DEV_NULL})
+    public String sink;
+
+    @Param({"0", "8192", "65536"})
+    public int buffSize;
+
+    @Param({"64"})
+    public int batchSize;
+
+    private MsgSensorBatch mBatch;
+    private String mBatchText;
+
+    private StorageStream mTextStream;
+    private BinaryStorageStream mBinStream;
+
+    @Setup
+    public void setup() {
+
+        Random random = new Random(42);
+        float[] values = new float[3];
+
+        mBatch = new MsgSensorBatch(0, Sensor.TYPE_GYROSCOPE, 4, values.length, batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            for (int j = 0; j < values.length; j++) {
+                values[j] = random.nextFloat() - 0.5f;
+            }
+            mBatch.addSample(123456789012345L + i * 2500000L, values, 0);
+        }
+        mBatchText = mBatch.toString();
+    }
+
+    @Setup(Level.Iteration)
+    public void openStreams() {
+
+        File file = new File(sink);
+
+        // a text and a binary file if the sink is a real file
+        String binName = DEV_NULL.equals(sink) ? file.getName() : file.getName() + ".bin";
+
+        mTextStream = new StorageStream(file.getParent(), file.getName(), false, buffSize, 0);
+        mBinStream = new BinaryStorageStream(file.getParent(), binName, buffSize, 0);
+        mBinStream.setTextHeader("# timestamp_ns, gx, gy, gz, sensor_id");
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeStreams() {
+
+        mTextStream.close();
+        mBinStream.close();
+
+        if (!DEV_NULL.equals(sink)) {
+            new File(mTextStream.getFullPath()).delete();
+            new File(mBinStream.getFullPath()).delete();
+        }
+    }
+
+    /**
+     * Text already formatted (e.g. by the publisher)
+     */
+    @Benchmark
+    public void textWrite() {
+        mTextStream.write(mBatchText);
+    }
+
+    /**
+     * Lazy formatting on the writer thread (the current text path)
+     */
+    @Benchmark
+    public void textFormatAndWrite() {
+
+        mBatch.setStringMessage(null);
+        mTextStream.write(mBatch.toString());
+    }
+
+    /**
+     * Fixed-width records (StreamType.STREAM_BINARY)
+     */
+    @Benchmark
+    public void binaryWrite() {
+        mBinStream.write(mBatch);
+    }
+}
@@ -0,0 +1,86 @@
+package com.dayani.m.roboplatform.benchmarks;
+
+/*
+ * Encoding/decoding of the USB (Arduino) protocol messages
+ */
+
+import com.dayani.m.roboplatform.drivers.MyDrvUsb;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class UsbDriverBenchmark {
+
+    // ADC channels in one reading (two bytes each)
+    @Param({"4", "16"})
+    public int numAdc;
+
+    private byte[] mAdcMessage;
+    private int[] mAdcOut;
+    private byte[] mCmdMessage;
+    private byte[] mRawCommand;
+
+    @Setup
+    public void setup() {
+
+        mAdcMessage = new byte[2 + 2 * numAdc];
+        mAdcMessage[0] = (byte) (2 * numAdc);
+        mAdcMessage[1] = 0;
+        byte[] readings = new byte[2 * numAdc];
+        new Random(42).nextBytes(readings);
+        System.arraycopy(readings, 0, mAdcMessage, 2, readings.length);
+
+        mAdcOut = new int[numAdc];
+
+        mCmdMessage = MyDrvUsb.encodeUsbCommand("get-adc");
+        mRawCommand = new byte[] {0x01, 0x10, 0x7f, 0x00};
+    }
+
+    @Benchmark
+    public byte[] encodeStringCommand() {
+        return MyDrvUsb.encodeUsbCommand("get-adc");
+    }
+
+    @Benchmark
+    public byte[] encodeRawCommand() {
+        return MyDrvUsb.encodeUsbCommand(mRawCommand);
+    }
+
+    @Benchmark
+    public String decodeCommand() {
+        return MyDrvUsb.decodeUsbCommandStr(mCmdMessage);
+    }
+
+    @Benchmark
+    public int[] decodeAdc() {
+        return MyDrvUsb.decodeAdcSensorMsg(mAdcMessage);
+    }
+
+    /**
+     * Into a reused array (pooled ADC messages)
+     */
+    @Benchmark
+    public int[] decodeAdcReused() {
+        MyDrvUsb.decodeAdcSensorMsg(mAdcMessage, mAdcOut);
+        return mAdcOut;
+    }
+}
@@ -0,0 +1,53 @@
+package com.felhr.usbserial;
+
+/*
+ * Stripping of the FTDI status bytes (two per 64-byte packet) from the received data
+ */
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FtdiAdaptArrayBenchmark {
+
+    // status bytes only, one packet, a full 16 KB read buffer
+    @Param({"2", "64", "512", "16384"})
+    public int length;
+
+    private byte[] mFtdiData;
+
+    @Setup
+    public void setup() {
+
+        mFtdiData = new byte[length];
+        new Random(42).nextBytes(mFtdiData);
+        for (int i = 0; i < length; i += 64) {
+            // modem and line status
+            mFtdiData[i] = 0x01;
+            mFtdiData[i + 1] = 0x60;
+        }
+    }
+
+    @Benchmark
+    public byte[] adaptArray() {
+        return FTDISerialDevice.adaptArray(mFtdiData);
+    }
+}
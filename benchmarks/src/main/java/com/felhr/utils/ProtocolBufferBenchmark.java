@@ -0,0 +1,98 @@
+package com.felhr.utils;
+
+/*
+ * Command framing of a stream of "$..,..\r\n" lines arriving in USB-sized chunks
+ */
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ProtocolBufferBenchmark {
+
+    private static final String DELIMITER = "\r\n";
+    private static final int NUM_CHUNKS = 256;
+
+    @Param({ProtocolBuffer.TEXT, ProtocolBuffer.BINARY})
+    public String mode;
+
+    // full-speed bulk packet, a typical FTDI read
+    @Param({"64", "512"})
+    public int chunkSize;
+
+    private ProtocolBuffer mBuffer;
+    private byte[][] mChunks;
+    private int mChunkIdx = 0;
+
+    @Setup
+    public void setup() {
+
+        mBuffer = new ProtocolBuffer(mode);
+        if (ProtocolBuffer.TEXT.equals(mode)) {
+            mBuffer.setDelimiter(DELIMITER);
+        }
+        else {
+            mBuffer.setDelimiter(DELIMITER.getBytes(StandardCharsets.US_ASCII));
+        }
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        int i = 0;
+        while (stream.size() < chunkSize * NUM_CHUNKS) {
+            byte[] line = String.format(Locale.US, "$adc,%d,%d,%d%s",
+                    i, (i * 7) % 1024, (i * 13) % 1024, DELIMITER).getBytes(StandardCharsets.US_ASCII);
+            stream.write(line, 0, line.length);
+            i++;
+        }
+        byte[] data = stream.toByteArray();
+
+        // lines split anywhere, like the USB transfers
+        List<byte[]> chunks = new ArrayList<>();
+        for (int start = 0; start + chunkSize <= data.length && chunks.size() < NUM_CHUNKS; start += chunkSize) {
+            chunks.add(Arrays.copyOfRange(data, start, start + chunkSize));
+        }
+        mChunks = chunks.toArray(new byte[0][]);
+    }
+
+    @Benchmark
+    public void appendData(Blackhole bh) {
+
+        mBuffer.appendData(mChunks[mChunkIdx]);
+        mChunkIdx = (mChunkIdx + 1) % mChunks.length;
+
+        // the consumer drains the commands
+        if (ProtocolBuffer.TEXT.equals(mode)) {
+            while (mBuffer.hasMoreCommands()) {
+                bh.consume(mBuffer.nextTextCommand());
+            }
+        }
+        else {
+            while (mBuffer.hasMoreCommands()) {
+                bh.consume(mBuffer.nextBinaryCommand());
+            }
+        }
+    }
+}
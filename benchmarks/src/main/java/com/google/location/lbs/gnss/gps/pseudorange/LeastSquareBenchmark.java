@@ -0,0 +1,212 @@
+package com.google.location.lbs.gnss.gps.pseudorange;
+
+import android.location.cts.nano.Ephemeris.GpsEphemerisProto;
+import android.location.cts.nano.Ephemeris.GpsNavMessageProto;
+import android.location.cts.nano.Ephemeris.IonosphericModelProto;
+import com.google.location.lbs.gnss.gps.pseudorange.SatellitePositionCalculator.PositionAndVelocity;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Weighted least square position/velocity fix from a synthetic constellation.
+ *
+ * <p>The ephemerides place the satellites above a receiver on the equator, the pseudoranges are
+ * generated with the same satellite clock, ionospheric and tropospheric models the solver uses, so
+ * every fix converges (checked in setup) without removing satellites.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LeastSquareBenchmark {
+
+  private static final double SPEED_OF_LIGHT_MPS = 299792458.0;
+  private static final double EARTH_ROTATION_RATE_RAD_PER_SEC = 7.2921151467e-5;
+
+  private static final int GPS_WEEK = 2200;
+  private static final double RECEIVER_TOW_SECONDS = 345600.0;
+  private static final int DAY_OF_YEAR = 100;
+  private static final double[] RECEIVER_ECEF_METERS = {6378137.0, 0.0, 0.0};
+
+  // {right ascension of the ascending node, argument of latitude} in degrees
+  private static final double[][] SATELLITE_ORBITS_DEG = {
+    {0, 0}, {30, 10}, {-30, -10}, {10, 35}, {-10, -35}, {40, -20}, {-40, 20}, {0, 50},
+    {20, -55}, {-25, 45}
+  };
+
+  private static final double[] IONO_ALPHA = {1.4901e-8, 2.2352e-8, -5.9605e-8, -1.1921e-7};
+  private static final double[] IONO_BETA = {1.1059e5, 1.6384e5, -6.5536e4, -5.2429e5};
+
+  @Param({"4", "6", "10"})
+  public int numSatellites;
+
+  private UserPositionVelocityWeightedLeastSquare solver;
+  private GpsNavMessageProto navMessage;
+  private List<GpsMeasurementWithRangeAndUncertainty> measurements;
+
+  private final double[] positionVelocitySolutionEcef = new double[8];
+  private final double[] positionVelocityUncertaintyEnu = new double[6];
+  private final double[] pseudorangeResidualMeters =
+      new double[GpsNavigationMessageStore.MAX_NUMBER_OF_SATELLITES];
+
+  @Setup
+  public void setup() throws Exception {
+    navMessage = new GpsNavMessageProto();
+    navMessage.iono = new IonosphericModelProto();
+    navMessage.iono.alpha = IONO_ALPHA.clone();
+    navMessage.iono.beta = IONO_BETA.clone();
+    navMessage.ephemerids = new GpsEphemerisProto[numSatellites];
+
+    measurements =
+        Arrays.asList(
+            new GpsMeasurementWithRangeAndUncertainty
+                [GpsNavigationMessageStore.MAX_NUMBER_OF_SATELLITES]);
+
+    for (int i = 0; i < numSatellites; i++) {
+      GpsEphemerisProto ephemeris =
+          makeEphemeris(i + 1, SATELLITE_ORBITS_DEG[i][0], SATELLITE_ORBITS_DEG[i][1]);
+      navMessage.ephemerids[i] = ephemeris;
+
+      GpsMeasurement measurement =
+          new GpsMeasurement(
+              0L /*arrivalTimeSinceGpsWeekNs*/,
+              0.0 /*accumulatedDeltaRangeMeters*/,
+              false /*validAccumulatedDeltaRangeMeters*/,
+              0.0 /*pseudorangeRateMps*/,
+              40.0 /*signalToNoiseRatioDb*/,
+              0.0 /*accumulatedDeltaRangeUncertaintyMeters*/,
+              0.1 /*pseudorangeRateUncertaintyMps*/);
+      measurements.set(
+          i,
+          new GpsMeasurementWithRangeAndUncertainty(
+              measurement, computePseudorangeMeters(ephemeris), 3.0 /*uncertainty*/));
+    }
+
+    // the first fix also resolves the geoid height (no elevation API key)
+    solver = new UserPositionVelocityWeightedLeastSquare(new PseudorangeNoSmoothingSmoother());
+    solve();
+
+    double errorMeters =
+        GpsMathOperations.vectorNorm(
+            GpsMathOperations.subtractTwoVectors(
+                Arrays.copyOf(positionVelocitySolutionEcef, 3), RECEIVER_ECEF_METERS));
+    if (errorMeters > 1.0) {
+      throw new IllegalStateException("Synthetic fix is off by " + errorMeters + " m");
+    }
+  }
+
+  /** Cold start: from the center of the earth and a zero clock bias */
+  @Benchmark
+  public double[] solve() throws Exception {
+    Arrays.fill(positionVelocitySolutionEcef, 0.0);
+    solver.calculateUserPositionVelocityLeastSquare(
+        navMessage,
+        measurements,
+        RECEIVER_TOW_SECONDS,
+        GPS_WEEK,
+        DAY_OF_YEAR,
+        positionVelocitySolutionEcef,
+        positionVelocityUncertaintyEnu,
+        pseudorangeResidualMeters);
+    return positionVelocitySolutionEcef;
+  }
+
+  /** Nearly circular GPS orbit with the satellite at the given node and latitude at toe */
+  private static GpsEphemerisProto makeEphemeris(int prn, double nodeDeg, double latitudeDeg) {
+    GpsEphemerisProto ephemeris = new GpsEphemerisProto();
+    ephemeris.prn = prn;
+    ephemeris.week = GPS_WEEK;
+    ephemeris.toe = RECEIVER_TOW_SECONDS;
+    ephemeris.toc = RECEIVER_TOW_SECONDS;
+    ephemeris.rootOfA = 5153.7;
+    ephemeris.e = 0.005;
+    ephemeris.i0 = Math.toRadians(55.0);
+    ephemeris.omega = 0.0;
+    ephemeris.m0 = Math.toRadians(latitudeDeg);
+    // the node is given in ECEF at toe
+    ephemeris.omega0 =
+        Math.toRadians(nodeDeg) + EARTH_ROTATION_RATE_RAD_PER_SEC * RECEIVER_TOW_SECONDS;
+    ephemeris.omegaDot = -8.0e-9;
+    ephemeris.deltaN = 4.5e-9;
+    ephemeris.af0 = 1.0e-5 * prn;
+    ephemeris.af1 = 1.0e-12;
+    return ephemeris;
+  }
+
+  /**
+   * Pseudorange the solver predicts at the true receiver position with a zero receiver clock bias
+   */
+  private static double computePseudorangeMeters(GpsEphemerisProto ephemeris) throws Exception {
+    double latitudeRadians =
+        Ecef2LlaConverter.convertECEFToLLACloseForm(
+                RECEIVER_ECEF_METERS[0], RECEIVER_ECEF_METERS[1], RECEIVER_ECEF_METERS[2])
+            .latitudeRadians;
+
+    double pseudorangeMeters = 0.075 * SPEED_OF_LIGHT_MPS;
+    for (int i = 0; i < 10; i++) {
+      double transmitTowSeconds = RECEIVER_TOW_SECONDS - pseudorangeMeters / SPEED_OF_LIGHT_MPS;
+      double correctedTowSeconds =
+          transmitTowSeconds
+              + SatelliteClockCorrectionCalculator.calculateSatClockCorrAndEccAnomAndTkIteratively(
+                          ephemeris, transmitTowSeconds, GPS_WEEK)
+                      .satelliteClockCorrectionMeters
+                  / SPEED_OF_LIGHT_MPS;
+
+      PositionAndVelocity satellite =
+          SatellitePositionCalculator.calculateSatellitePositionAndVelocityFromEphemeris(
+              ephemeris,
+              correctedTowSeconds,
+              GPS_WEEK,
+              RECEIVER_ECEF_METERS[0],
+              RECEIVER_ECEF_METERS[1],
+              RECEIVER_ECEF_METERS[2]);
+      double[] satelliteEcefMeters = {
+        satellite.positionXMeters, satellite.positionYMeters, satellite.positionZMeters
+      };
+
+      double satelliteClockMeters =
+          SatelliteClockCorrectionCalculator.calculateSatClockCorrAndEccAnomAndTkIteratively(
+                  ephemeris, correctedTowSeconds, GPS_WEEK)
+              .satelliteClockCorrectionMeters;
+      double ionosphereMeters =
+          IonosphericModel.ionoKlobucharCorrectionSeconds(
+                  RECEIVER_ECEF_METERS,
+                  satelliteEcefMeters,
+                  correctedTowSeconds,
+                  IONO_ALPHA,
+                  IONO_BETA,
+                  IonosphericModel.L1_FREQ_HZ)
+              * SPEED_OF_LIGHT_MPS;
+      double elevationRadians =
+          EcefToTopocentricConverter.convertCartesianToTopocentricRadMeters(
+                  RECEIVER_ECEF_METERS,
+                  GpsMathOperations.subtractTwoVectors(satelliteEcefMeters, RECEIVER_ECEF_METERS))
+              .elevationRadians;
+      double troposphereMeters =
+          TroposphericModelEgnos.calculateTropoCorrectionMeters(
+              elevationRadians, latitudeRadians, 0.0 /*height above sea level*/, DAY_OF_YEAR);
+
+      pseudorangeMeters =
+          GpsMathOperations.vectorNorm(
+                  GpsMathOperations.subtractTwoVectors(satelliteEcefMeters, RECEIVER_ECEF_METERS))
+              - satelliteClockMeters
+              + ionosphereMeters
+              + troposphereMeters;
+    }
+    return pseudorangeMeters;
+  }
+}
@@ -0,0 +1,20 @@
+package android.hardware;
+
+public final class Sensor {
+
+    public static final int TYPE_ACCELEROMETER = 1;
+    public static final int TYPE_MAGNETIC_FIELD = 2;
+    public static final int TYPE_GYROSCOPE = 4;
+
+    private final int mType;
+    private final int mId;
+
+    public Sensor(int type, int id) {
+        mType = type;
+        mId = id;
+    }
+
+    public int getType() { return mType; }
+
+    public int getId() { return mId; }
+}
@@ -0,0 +1,28 @@
+package android.hardware.usb;
+
+public class UsbDevice {
+
+    private final int mDeviceId;
+    private final int mVendorId;
+    private final int mProductId;
+    private final UsbInterface[] mInterfaces;
+
+    public UsbDevice(int deviceId, int vendorId, int productId, UsbInterface... interfaces) {
+        mDeviceId = deviceId;
+        mVendorId = vendorId;
+        mProductId = productId;
+        mInterfaces = interfaces;
+    }
+
+    public String getDeviceName() { return "/dev/bus/usb/001/" + mDeviceId; }
+
+    public int getDeviceId() { return mDeviceId; }
+
+    public int getVendorId() { return mVendorId; }
+
+    public int getProductId() { return mProductId; }
+
+    public int getInterfaceCount() { return mInterfaces.length; }
+
+    public UsbInterface getInterface(int index) { return mInterfaces[index]; }
+}
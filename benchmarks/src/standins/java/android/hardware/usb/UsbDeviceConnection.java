@@ -0,0 +1,37 @@
+package android.hardware.usb;
+
+/**
+ * Not connected to anything: transfers fail as if the device was unplugged
+ */
+public class UsbDeviceConnection {
+
+    public boolean claimInterface(UsbInterface intf, boolean force) { return true; }
+
+    public boolean releaseInterface(UsbInterface intf) { return true; }
+
+    public byte[] getRawDescriptors() { return new byte[0]; }
+
+    public int controlTransfer(int requestType, int request, int value, int index,
+                               byte[] buffer, int length, int timeout) {
+        return -1;
+    }
+
+    public int controlTransfer(int requestType, int request, int value, int index,
+                               byte[] buffer, int offset, int length, int timeout) {
+        return -1;
+    }
+
+    public int bulkTransfer(UsbEndpoint endpoint, byte[] buffer, int length, int timeout) {
+        return -1;
+    }
+
+    public int bulkTransfer(UsbEndpoint endpoint, byte[] buffer, int offset, int length, int timeout) {
+        return -1;
+    }
+
+    public UsbRequest requestWait() { return null; }
+
+    public UsbRequest requestWait(long timeout) { return null; }
+
+    public void close() {}
+}
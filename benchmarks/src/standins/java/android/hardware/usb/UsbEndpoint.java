@@ -0,0 +1,24 @@
+package android.hardware.usb;
+
+public class UsbEndpoint {
+
+    private final int mAddress;
+    private final int mAttributes;
+    private final int mMaxPacketSize;
+
+    public UsbEndpoint(int address, int attributes, int maxPacketSize, int interval) {
+        mAddress = address;
+        mAttributes = attributes;
+        mMaxPacketSize = maxPacketSize;
+    }
+
+    public int getAddress() { return mAddress; }
+
+    public int getEndpointNumber() { return mAddress & 0x0f; }
+
+    public int getDirection() { return mAddress & UsbConstants.USB_ENDPOINT_DIR_MASK; }
+
+    public int getType() { return mAttributes & UsbConstants.USB_ENDPOINT_XFERTYPE_MASK; }
+
+    public int getMaxPacketSize() { return mMaxPacketSize; }
+}
@@ -0,0 +1,30 @@
+package android.hardware.usb;
+
+public class UsbInterface {
+
+    private final int mId;
+    private final int mClass;
+    private final int mSubclass;
+    private final int mProtocol;
+    private final UsbEndpoint[] mEndpoints;
+
+    public UsbInterface(int id, int cls, int subclass, int protocol, UsbEndpoint... endpoints) {
+        mId = id;
+        mClass = cls;
+        mSubclass = subclass;
+        mProtocol = protocol;
+        mEndpoints = endpoints;
+    }
+
+    public int getId() { return mId; }
+
+    public int getInterfaceClass() { return mClass; }
+
+    public int getInterfaceSubclass() { return mSubclass; }
+
+    public int getInterfaceProtocol() { return mProtocol; }
+
+    public int getEndpointCount() { return mEndpoints.length; }
+
+    public UsbEndpoint getEndpoint(int index) { return mEndpoints[index]; }
+}
@@ -0,0 +1,38 @@
+package android.hardware.usb;
+
+import java.nio.ByteBuffer;
+
+public class UsbRequest {
+
+    // read by SafeUsbRequest through reflection
+    private ByteBuffer mBuffer;
+    private int mLength;
+
+    private UsbEndpoint mEndpoint;
+    private Object mClientData;
+
+    public boolean initialize(UsbDeviceConnection connection, UsbEndpoint endpoint) {
+        mEndpoint = endpoint;
+        return true;
+    }
+
+    public void close() {}
+
+    public UsbEndpoint getEndpoint() { return mEndpoint; }
+
+    public Object getClientData() { return mClientData; }
+
+    public void setClientData(Object data) { mClientData = data; }
+
+    public boolean queue(ByteBuffer buffer, int length) {
+        mBuffer = buffer;
+        mLength = length;
+        return true;
+    }
+
+    public boolean queue(ByteBuffer buffer) {
+        return queue(buffer, (buffer == null) ? 0 : buffer.remaining());
+    }
+
+    public boolean cancel() { return true; }
+}
@@ -0,0 +1,57 @@
+package android.location;
+
+public final class GnssMeasurement {
+
+    private int mSvid;
+    private int mConstellationType;
+    private double mTimeOffsetNanos;
+    private long mReceivedSvTimeNanos;
+    private double mCn0DbHz;
+    private double mPseudorangeRateMetersPerSecond;
+    private double mAccumulatedDeltaRangeMeters;
+    private float mCarrierFrequencyHz;
+    private long mCarrierCycles;
+    private double mCarrierPhase;
+    private double mSnrInDb;
+    private String mCodeType = "C";
+    private double mSatelliteInterSignalBiasNanos;
+
+    public int getSvid() { return mSvid; }
+    public void setSvid(int value) { mSvid = value; }
+
+    public int getConstellationType() { return mConstellationType; }
+    public void setConstellationType(int value) { mConstellationType = value; }
+
+    public double getTimeOffsetNanos() { return mTimeOffsetNanos; }
+    public void setTimeOffsetNanos(double value) { mTimeOffsetNanos = value; }
+
+    public long getReceivedSvTimeNanos() { return mReceivedSvTimeNanos; }
+    public void setReceivedSvTimeNanos(long value) { mReceivedSvTimeNanos = value; }
+
+    public double getCn0DbHz() { return mCn0DbHz; }
+    public void setCn0DbHz(double value) { mCn0DbHz = value; }
+
+    public double getPseudorangeRateMetersPerSecond() { return mPseudorangeRateMetersPerSecond; }
+    public void setPseudorangeRateMetersPerSecond(double value) { mPseudorangeRateMetersPerSecond = value; }
+
+    public double getAccumulatedDeltaRangeMeters() { return mAccumulatedDeltaRangeMeters; }
+    public void setAccumulatedDeltaRangeMeters(double value) { mAccumulatedDeltaRangeMeters = value; }
+
+    public float getCarrierFrequencyHz() { return mCarrierFrequencyHz; }
+    public void setCarrierFrequencyHz(float value) { mCarrierFrequencyHz = value; }
+
+    public long getCarrierCycles() { return mCarrierCycles; }
+    public void setCarrierCycles(long value) { mCarrierCycles = value; }
+
+    public double getCarrierPhase() { return mCarrierPhase; }
+    public void setCarrierPhase(double value) { mCarrierPhase = value; }
+
+    public double getSnrInDb() { return mSnrInDb; }
+    public void setSnrInDb(double value) { mSnrInDb = value; }
+
+    public String getCodeType() { return mCodeType; }
+    public void setCodeType(String value) { mCodeType = value; }
+
+    public double getSatelliteInterSignalBiasNanos() { return mSatelliteInterSignalBiasNanos; }
+    public void setSatelliteInterSignalBiasNanos(double value) { mSatelliteInterSignalBiasNanos = value; }
+}
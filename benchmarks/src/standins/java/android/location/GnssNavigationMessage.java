@@ -0,0 +1,27 @@
+package android.location;
+
+public final class GnssNavigationMessage {
+
+    public static final int TYPE_GPS_L1CA = 0x0101;
+
+    private int mType;
+    private int mSvid;
+    private int mMessageId;
+    private int mSubmessageId;
+    private byte[] mData = new byte[0];
+
+    public int getType() { return mType; }
+    public void setType(int value) { mType = value; }
+
+    public int getSvid() { return mSvid; }
+    public void setSvid(int value) { mSvid = value; }
+
+    public int getMessageId() { return mMessageId; }
+    public void setMessageId(int value) { mMessageId = value; }
+
+    public int getSubmessageId() { return mSubmessageId; }
+    public void setSubmessageId(int value) { mSubmessageId = value; }
+
+    public byte[] getData() { return mData; }
+    public void setData(byte[] value) { mData = value; }
+}
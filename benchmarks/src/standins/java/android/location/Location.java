@@ -0,0 +1,36 @@
+package android.location;
+
+public class Location {
+
+    private final String mProvider;
+    private long mElapsedRealtimeNanos;
+    private double mLatitude;
+    private double mLongitude;
+    private double mAltitude;
+    private float mSpeed;
+    private float mBearing;
+
+    public Location(String provider) {
+        mProvider = provider;
+    }
+
+    public String getProvider() { return mProvider; }
+
+    public long getElapsedRealtimeNanos() { return mElapsedRealtimeNanos; }
+    public void setElapsedRealtimeNanos(long time) { mElapsedRealtimeNanos = time; }
+
+    public double getLatitude() { return mLatitude; }
+    public void setLatitude(double latitude) { mLatitude = latitude; }
+
+    public double getLongitude() { return mLongitude; }
+    public void setLongitude(double longitude) { mLongitude = longitude; }
+
+    public double getAltitude() { return mAltitude; }
+    public void setAltitude(double altitude) { mAltitude = altitude; }
+
+    public float getSpeed() { return mSpeed; }
+    public void setSpeed(float speed) { mSpeed = speed; }
+
+    public float getBearing() { return mBearing; }
+    public void setBearing(float bearing) { mBearing = bearing; }
+}
@@ -0,0 +1,26 @@
+package android.os;
+
+public class Build {
+
+    public static final String MANUFACTURER = "jvm";
+    public static final String MODEL = "jvm";
+
+    public static class VERSION {
+        // not a compile-time constant (as on a device) so version checks are not folded away
+        public static final int SDK_INT = Integer.getInteger("android.sdk", 34);
+    }
+
+    public static class VERSION_CODES {
+        public static final int HONEYCOMB_MR2 = 13;
+        public static final int JELLY_BEAN_MR1 = 17;
+        public static final int JELLY_BEAN_MR2 = 18;
+        public static final int KITKAT = 19;
+        public static final int LOLLIPOP = 21;
+        public static final int M = 23;
+        public static final int N = 24;
+        public static final int O = 26;
+        public static final int P = 28;
+        public static final int Q = 29;
+        public static final int R = 30;
+    }
+}
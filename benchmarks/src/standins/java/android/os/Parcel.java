@@ -0,0 +1,28 @@
+package android.os;
+
+import java.util.ArrayDeque;
+
+/**
+ * In-memory FIFO of values, enough for the message (un)marshalling code
+ */
+public final class Parcel {
+
+    private final ArrayDeque<Object> mValues = new ArrayDeque<>();
+
+    public static Parcel obtain() { return new Parcel(); }
+
+    public void recycle() { mValues.clear(); }
+
+    public void writeString(String val) { mValues.add(val == null ? NULL : val); }
+
+    public void writeInt(int val) { mValues.add(val); }
+
+    public String readString() {
+        Object val = mValues.poll();
+        return (val == NULL) ? null : (String) val;
+    }
+
+    public int readInt() { return (Integer) mValues.poll(); }
+
+    private static final Object NULL = new Object();
+}
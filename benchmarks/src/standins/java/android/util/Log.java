@@ -0,0 +1,26 @@
+package android.util;
+
+public final class Log {
+
+    private Log() {}
+
+    public static int v(String tag, String msg) { return 0; }
+    public static int d(String tag, String msg) { return 0; }
+    public static int d(String tag, String msg, Throwable tr) { return 0; }
+    public static int i(String tag, String msg) { return 0; }
+    public static int w(String tag, String msg) { return print(tag, msg, null); }
+    public static int w(String tag, String msg, Throwable tr) { return print(tag, msg, tr); }
+    public static int w(String tag, Throwable tr) { return print(tag, "", tr); }
+    public static int e(String tag, String msg) { return print(tag, msg, null); }
+    public static int e(String tag, String msg, Throwable tr) { return print(tag, msg, tr); }
+
+    // warnings and errors are rare, keep them visible in the benchmark output
+    private static int print(String tag, String msg, Throwable tr) {
+
+        System.err.println(tag + ": " + msg);
+        if (tr != null) {
+            tr.printStackTrace();
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,8 @@
+package com.dayani.m.roboplatform;
+
+// release-like: no leak tracking in the message pools
+public final class BuildConfig {
+
+    public static final boolean DEBUG = false;
+    public static final String APPLICATION_ID = "com.dayani.m.roboplatform";
+}
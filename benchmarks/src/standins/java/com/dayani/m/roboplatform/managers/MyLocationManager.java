@@ -0,0 +1,10 @@
+package com.dayani.m.roboplatform.managers;
+
+import android.os.Build;
+
+// constants referenced by MyMessages (the manager itself needs a device)
+public class MyLocationManager {
+
+    public static final int ANDROID_GNSS_TYPE_CODE_VERSION = Build.VERSION_CODES.Q;
+    public static final int ANDROID_GNSS_INTER_SIG_BIAS_VERSION = Build.VERSION_CODES.R;
+}
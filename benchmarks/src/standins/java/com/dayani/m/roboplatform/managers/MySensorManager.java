@@ -0,0 +1,9 @@
+package com.dayani.m.roboplatform.managers;
+
+import android.os.Build;
+
+// constants referenced by MyMessages (the manager itself needs a device)
+public class MySensorManager {
+
+    public static final int ANDROID_VERSION_ACQ_MODE = Build.VERSION_CODES.N;
+}
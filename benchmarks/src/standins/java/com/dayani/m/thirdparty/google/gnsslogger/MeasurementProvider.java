@@ -0,0 +1,9 @@
+package com.dayani.m.thirdparty.google.gnsslogger;
+
+import android.os.Build;
+
+// constants referenced by MyMessages (the provider itself needs a device)
+public class MeasurementProvider {
+
+    public static final int ANDROID_GNSS_API_VERSION = Build.VERSION_CODES.N;
+}
@@ -130,6 +130,85 @@ public class SerialBufferTest extends TestCase {
         }
     }
 
+    @Test
+    public void testCoalescedWriteBuffer(){
+        serialBuffer = new SerialBuffer(true);
+        serialBuffer.putWriteBuffer("HO".getBytes());
+        serialBuffer.putWriteBuffer("LA".getBytes());
+
+        byte[] dst = new byte[READ_BUFFER_SIZE];
+        int length = serialBuffer.getWriteBuffer(dst);
+        assertEquals(text1, new String(dst, 0, length));
+    }
+
+    @Test
+    public void testUrgentWriteBuffer(){
+        serialBuffer = new SerialBuffer(true);
+        // Would wait 10 s for a full packet
+        serialBuffer.setWriteDelay(10000000);
+        serialBuffer.putWriteBuffer("HO".getBytes());
+        serialBuffer.putWriteBuffer("LA".getBytes(), true);
+
+        long start = System.currentTimeMillis();
+        byte[] dataReceived = serialBuffer.getWriteBuffer();
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertEquals(text1, new String(dataReceived));
+    }
+
+    @Test
+    public void testFullWriteBufferDrops(){
+        serialBuffer = new SerialBuffer(true);
+        int queued = 0;
+        while(serialBuffer.putWriteBuffer(new byte[]{(byte) queued}, false)){
+            queued++;
+            assertTrue(queued <= 1024 * 1024);
+        }
+        assertEquals(1, serialBuffer.getDroppedWriteCount());
+
+        byte[] dst = new byte[READ_BUFFER_SIZE];
+        assertEquals(queued, serialBuffer.getWriteBuffer(dst));
+        assertTrue(serialBuffer.putWriteBuffer(text1.getBytes(), false));
+        assertEquals(1, serialBuffer.getDroppedWriteCount());
+    }
+
+    @Test
+    public void testConcurrentWriteBuffer() throws InterruptedException {
+        final int nWriters = 4;
+        final int nWrites = 5000;
+        serialBuffer = new SerialBuffer(true);
+
+        Thread[] writers = new Thread[nWriters];
+        for(int i=0;i<nWriters;i++){
+            final byte writer = (byte) i;
+            writers[i] = new Thread(() -> {
+                for(int j=0;j<nWrites;j++){
+                    // A full queue rejects the write, retry it
+                    while(!serialBuffer.putWriteBuffer(new byte[]{writer, (byte) j}, false)){
+                        Thread.yield();
+                    }
+                }
+            });
+            writers[i].start();
+        }
+
+        // The writes of each writer are received whole and in order
+        int[] next = new int[nWriters];
+        int received = 0;
+        byte[] dst = new byte[READ_BUFFER_SIZE];
+        while(received < nWriters * nWrites * 2){
+            int length = serialBuffer.getWriteBuffer(dst);
+            assertEquals(0, length % 2);
+            for(int i=0;i<length;i+=2){
+                int writer = dst[i];
+                assertEquals((byte) next[writer]++, dst[i + 1]);
+            }
+            received += length;
+        }
+        for(Thread writer : writers){
+            writer.join();
+        }
+    }
+
     // Testing ReadBuffer
 
     @Test
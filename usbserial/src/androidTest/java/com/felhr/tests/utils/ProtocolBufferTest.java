@@ -211,4 +211,16 @@ public class ProtocolBufferTest extends TestCase {
         byte[] command = protocolBuffer.nextBinaryCommand();
         Assert.assertArrayEquals(command, new byte[]{0x21, 0x3b, 0x20, 0x40});
     }
+
+    @Test
+    public void testOversizePacketIsCounted(){
+        protocolBuffer = new ProtocolBuffer(modeText, 8);
+        protocolBuffer.setDelimiter("\r\n");
+        protocolBuffer.appendData(twoPackets.getBytes());
+        protocolBuffer.appendData("$GP\r\n".getBytes());
+
+        assertEquals(2, protocolBuffer.getDroppedCommands());
+        assertEquals("$GP\r\n", protocolBuffer.nextTextCommand());
+        assertFalse(protocolBuffer.hasMoreCommands());
+    }
 }
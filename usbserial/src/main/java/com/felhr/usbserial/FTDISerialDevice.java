@@ -535,6 +535,21 @@ public class FTDISerialDevice extends UsbSerialDevice
         }
     }
 
+    // Remove the two status bytes of every 64 bytes packet in place, without allocating.
+    // It returns the length of the data left at the beginning of the array
+    static int stripStatusBytes(byte[] ftdiData, int length)
+    {
+        int srcPos = 2, dstPos = 0;
+        while(srcPos < length)
+        {
+            int n = Math.min(62, length - srcPos);
+            System.arraycopy(ftdiData, srcPos, ftdiData, dstPos, n);
+            srcPos += 64;
+            dstPos += n;
+        }
+        return dstPos;
+    }
+
     public class FTDIUtilities
     {
         // Special treatment needed to FTDI devices
@@ -614,9 +629,10 @@ public class FTDISerialDevice extends UsbSerialDevice
                 }
             }
 
-            if(overrunCallback != null) // Overrun error checking
+            if((data[1] & 0x02) == 0x02) // Overrun error checking
             {
-                if((data[1] & 0x02) == 0x02)
+                countOverrun();
+                if(overrunCallback != null)
                 {
                     overrunCallback.onOverrunError();
                 }
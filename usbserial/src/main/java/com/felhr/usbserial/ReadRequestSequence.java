@@ -0,0 +1,55 @@
+package com.felhr.usbserial;
+
+/*
+ * Order of the IN requests kept in flight by the worker thread. Requests are queued again in
+ * the order they are delivered, a request may complete before an older one but it is only
+ * delivered after it.
+ * Not thread safe: it is used under the lock of the worker thread.
+ */
+class ReadRequestSequence
+{
+    private boolean[] completed = new boolean[0];
+    private int head; // Oldest request, the next one to be delivered
+    private int newest = -1; // Last queued request, the next sequence slot has no request yet
+    private int inFlight;
+
+    public void reset(int count)
+    {
+        completed = new boolean[count];
+        head = 0;
+        newest = -1;
+        inFlight = 0;
+    }
+
+    public void onQueued(int index)
+    {
+        inFlight++;
+        newest = index;
+    }
+
+    /*
+     * It returns true for an overrun: the newest request completed with none queued after it,
+     * so the endpoint had no request for the next packet. An older request completing last
+     * (out of order) is not one, the newer requests received the packets after it
+     */
+    public boolean onCompleted(int index)
+    {
+        inFlight--;
+        completed[index] = true;
+        return completed.length > 1 && inFlight == 0 && index == newest;
+    }
+
+    /*
+     * The next request to deliver, -1 until the oldest one has completed
+     */
+    public int poll()
+    {
+        if(completed.length == 0 || !completed[head])
+            return -1;
+
+        int index = head;
+        completed[index] = false;
+        head = (head + 1) % completed.length;
+        return index;
+    }
+}
@@ -1,31 +1,44 @@
 package com.felhr.usbserial;
 
-import java.io.EOFException;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
-
-import okio.Buffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
 
 public class SerialBuffer
 {
     static final int DEFAULT_READ_BUFFER_SIZE = 16 * 1024;
     static final int MAX_BULK_BUFFER = 16 * 1024;
+    static final int MAX_READ_BUFFERS = 16;
+    static final int WRITE_QUEUE_SLOTS = 1024; // Pending writes, must be a power of 2
+    static final int DEFAULT_PACKET_SIZE = 64;
     private ByteBuffer readBuffer;
+    // Rotating read buffers, one per in-flight request (the first one is readBuffer)
+    private ByteBuffer[] readBuffers;
+    // Read-only views of the read buffers, handed to the callbacks without copying
+    private ByteBuffer[] readBufferViews;
 
-    private final SynchronizedBuffer writeBuffer;
+    private final WriteRing writeBuffer;
+    private final AtomicLong droppedWrites = new AtomicLong();
     private byte[] readBufferCompatible; // Read buffer for android < 4.2
+    private ByteBuffer readBufferCompatibleView;
     private boolean debugging = false;
 
     public SerialBuffer(boolean version)
     {
-        writeBuffer = new SynchronizedBuffer();
+        writeBuffer = new WriteRing(WRITE_QUEUE_SLOTS);
         if(version)
         {
             readBuffer = ByteBuffer.allocate(DEFAULT_READ_BUFFER_SIZE);
+            readBuffers = new ByteBuffer[] {readBuffer};
+            readBufferViews = new ByteBuffer[] {readBuffer.asReadOnlyBuffer()};
 
         }else
         {
             readBufferCompatible = new byte[DEFAULT_READ_BUFFER_SIZE];
+            readBufferCompatibleView = ByteBuffer.wrap(readBufferCompatible).asReadOnlyBuffer();
         }
     }
 
@@ -46,24 +59,124 @@ public class SerialBuffer
     }
 
 
+    /*
+     * Allocate the read buffers of the in-flight requests, keeping the first one.
+     * This must be called before the requests are queued
+     */
+    public void setReadBufferCount(int count)
+    {
+        synchronized(this)
+        {
+            if(readBuffer == null)
+                return;
+
+            count = Math.max(1, Math.min(MAX_READ_BUFFERS, count));
+            if(count == readBuffers.length)
+                return;
+
+            ByteBuffer[] buffers = new ByteBuffer[count];
+            ByteBuffer[] views = new ByteBuffer[count];
+            for(int i=0;i<=count-1;i++)
+            {
+                buffers[i] = (i < readBuffers.length) ? readBuffers[i] :
+                        ByteBuffer.allocate(DEFAULT_READ_BUFFER_SIZE);
+                views[i] = (i < readBufferViews.length) ? readBufferViews[i] :
+                        buffers[i].asReadOnlyBuffer();
+            }
+            readBuffers = buffers;
+            readBufferViews = views;
+        }
+    }
+
+    public int getReadBufferCount()
+    {
+        synchronized(this)
+        {
+            return (readBuffers != null) ? readBuffers.length : 0;
+        }
+    }
+
+    public ByteBuffer getReadBuffer(int index)
+    {
+        synchronized(this)
+        {
+            return readBuffers[index];
+        }
+    }
+
     public byte[] getDataReceived()
+    {
+        return getDataReceived(0);
+    }
+
+    public byte[] getDataReceived(int index)
     {
         synchronized(this)
         {
-            byte[] dst = new byte[readBuffer.position()];
-            readBuffer.position(0);
-            readBuffer.get(dst, 0, dst.length);
+            return getDataReceived(index, readBuffers[index].position());
+        }
+    }
+
+    /*
+     * Copy of the first length bytes of a read buffer
+     */
+    public byte[] getDataReceived(int index, int length)
+    {
+        synchronized(this)
+        {
+            byte[] dst = Arrays.copyOf(readBuffers[index].array(), length);
             if(debugging)
                 UsbSerialDebugger.printReadLogGet(dst, true);
             return dst;
         }
     }
 
+    /*
+     * Read-only view of the first length bytes of a read buffer, nothing is copied.
+     * It is only valid until the read buffer is cleared
+     */
+    public ByteBuffer getDataReceivedView(int index, int length)
+    {
+        synchronized(this)
+        {
+            ByteBuffer view = readBufferViews[index];
+            view.clear();
+            view.limit(length);
+            if(debugging)
+                UsbSerialDebugger.printReadLogGet(Arrays.copyOf(readBuffers[index].array(), length), true);
+            return view;
+        }
+    }
+
+    /*
+     * Backing array of a read buffer, to edit the received data in place
+     */
+    public byte[] getReadArray(int index)
+    {
+        synchronized(this)
+        {
+            return readBuffers[index].array();
+        }
+    }
+
+    public int getReceivedLength(int index)
+    {
+        synchronized(this)
+        {
+            return readBuffers[index].position();
+        }
+    }
+
     public void clearReadBuffer()
+    {
+        clearReadBuffer(0);
+    }
+
+    public void clearReadBuffer(int index)
     {
         synchronized(this)
         {
-            readBuffer.clear();
+            readBuffers[index].clear();
         }
     }
 
@@ -72,11 +185,55 @@ public class SerialBuffer
         return writeBuffer.get();
     }
 
+    /*
+     * Coalesce the pending writes into dst, blocking until there is something to write.
+     * It returns the number of bytes, 0 if the thread was interrupted
+     */
+    public int getWriteBuffer(byte[] dst)
+    {
+        return writeBuffer.get(dst);
+    }
+
     public void putWriteBuffer(byte[]data)
     {
-        writeBuffer.put(data);
+        putWriteBuffer(data, false);
     }
 
+    /*
+     * An urgent write (e.g. a control packet) is sent without waiting for the write delay,
+     * together with the writes queued before it.
+     * When the queue is full (the write thread is stopped or behind) the write is dropped and counted
+     */
+    public boolean putWriteBuffer(byte[]data, boolean urgent)
+    {
+        if(writeBuffer.put(data, urgent))
+            return true;
+        droppedWrites.incrementAndGet();
+        return false;
+    }
+
+    public long getDroppedWriteCount()
+    {
+        return droppedWrites.get();
+    }
+
+    /*
+     * Max packet size of the OUT endpoint: the writes are coalesced up to the largest
+     * multiple of it that fits in a bulk transfer
+     */
+    public void setWritePacketSize(int packetSize)
+    {
+        writeBuffer.setPacketSize(packetSize);
+    }
+
+    /*
+     * Nagle-style delay: less than a packet of data waits up to delayUs for more writes
+     * before it is sent. 0 (default) sends every write as soon as possible (latency first)
+     */
+    public void setWriteDelay(long delayUs)
+    {
+        writeBuffer.setDelay(delayUs);
+    }
 
     public byte[] getBufferCompatible()
     {
@@ -88,55 +245,191 @@ public class SerialBuffer
         return Arrays.copyOfRange(readBufferCompatible, 0, numberBytes);
     }
 
-    private class SynchronizedBuffer
+    public ByteBuffer getDataReceivedViewCompatible(int numberBytes)
     {
-        private final Buffer buffer;
+        readBufferCompatibleView.clear();
+        readBufferCompatibleView.limit(numberBytes);
+        return readBufferCompatibleView;
+    }
+
+    /*
+     * Lock-free queue of the pending writes (multiple producers, single consumer).
+     * Producers claim a slot of the ring with a CAS and publish a copy of their data in it.
+     * The consumer (the write thread) parks when the ring is empty and concatenates the
+     * writes in order into one bulk transfer. Producers never wait: a write that doesn't fit
+     * in the ring is rejected.
+     */
+    private class WriteRing
+    {
+        private final AtomicReferenceArray<byte[]> slots;
+        private final int mask;
 
-        SynchronizedBuffer()
+        private final AtomicLong tail = new AtomicLong(); // Next slot to claim
+        private volatile long head; // Next slot to consume
+        private final AtomicLong urgentTail = new AtomicLong(); // Slot after the last urgent write
+        private final AtomicLong pendingBytes = new AtomicLong();
+        private volatile Thread consumer; // Set while the consumer is parked
+
+        private volatile int packetSize = DEFAULT_PACKET_SIZE;
+        private volatile long delayNs;
+
+        // Consumer side only
+        private byte[] current; // Write being consumed
+        private int currentOffset;
+        private final byte[] scratch = new byte[MAX_BULK_BUFFER];
+
+        WriteRing(int capacity)
         {
-            this.buffer = new Buffer();
+            slots = new AtomicReferenceArray<>(capacity);
+            mask = capacity - 1;
         }
 
-        synchronized void put(byte[] src)
+        void setPacketSize(int packetSize)
         {
-            if(src == null || src.length == 0) return;
+            if(packetSize > 0)
+                this.packetSize = packetSize;
+        }
+
+        void setDelay(long delayUs)
+        {
+            delayNs = TimeUnit.MICROSECONDS.toNanos(Math.max(0, delayUs));
+        }
+
+        /*
+         * It returns false if the ring is full
+         */
+        boolean put(byte[] src, boolean urgent)
+        {
+            if(src == null || src.length == 0) return true;
+
+            byte[] data = Arrays.copyOf(src, src.length);
+            long slot;
+            do
+            {
+                slot = tail.get();
+                if(slot - head >= slots.length())
+                    return false; // Full
+            }while(!tail.compareAndSet(slot, slot + 1));
 
             if(debugging)
                 UsbSerialDebugger.printLogPut(src, true);
 
-            buffer.write(src);
-            notify();
+            slots.lazySet((int) (slot & mask), data);
+            pendingBytes.addAndGet(data.length);
+
+            if(urgent)
+            {
+                // Only grows, a later urgent write covers an earlier one
+                long urgentSlot;
+                do
+                {
+                    urgentSlot = urgentTail.get();
+                }while(urgentSlot < slot + 1 && !urgentTail.compareAndSet(urgentSlot, slot + 1));
+            }
+
+            Thread parked = consumer;
+            if(parked != null)
+                LockSupport.unpark(parked);
+            return true;
         }
 
-        synchronized byte[] get()
+        byte[] get()
         {
-            if(buffer.size() ==  0)
+            int length = get(scratch);
+            return Arrays.copyOf(scratch, length);
+        }
+
+        int get(byte[] dst)
+        {
+            if(!waitForData())
+                return 0;
+
+            long delay = delayNs;
+            if(delay > 0)
+                waitForPacket(System.nanoTime() + delay);
+
+            // Whole packets only, unless it is the end of the pending data
+            int limit = Math.min(dst.length, MAX_BULK_BUFFER);
+            int size = packetSize;
+            if(limit >= size)
+                limit -= limit % size;
+
+            int length = 0;
+            while(length < limit)
             {
-                try
-                {
-                    wait();
-                } catch (InterruptedException e)
+                if(current == null)
                 {
-                    e.printStackTrace();
-                    Thread.currentThread().interrupt();
-                }
-            }
-            byte[] dst;
-            if(buffer.size() <= MAX_BULK_BUFFER){
-                dst = buffer.readByteArray();
-            }else{
-                try {
-                    dst = buffer.readByteArray(MAX_BULK_BUFFER);
-                } catch (EOFException e) {
-                    e.printStackTrace();
-                    return new byte[0];
+                    current = poll();
+                    currentOffset = 0;
+                    if(current == null)
+                        break;
                 }
+                int n = Math.min(current.length - currentOffset, limit - length);
+                System.arraycopy(current, currentOffset, dst, length, n);
+                length += n;
+                currentOffset += n;
+                if(currentOffset == current.length)
+                    current = null;
             }
+            pendingBytes.addAndGet(-length);
 
             if(debugging)
-                UsbSerialDebugger.printLogGet(dst, true);
+                UsbSerialDebugger.printLogGet(Arrays.copyOf(dst, length), true);
 
-            return dst;
+            return length;
+        }
+
+        private boolean isEmpty()
+        {
+            return current == null && head == tail.get();
+        }
+
+        private byte[] poll()
+        {
+            long slot = head;
+            if(slot == tail.get())
+                return null;
+
+            int index = (int) (slot & mask);
+            byte[] data;
+            // The slot is claimed, its data may not be published yet
+            while((data = slots.get(index)) == null)
+                Thread.yield();
+            slots.lazySet(index, null);
+            head = slot + 1;
+            return data;
+        }
+
+        private boolean waitForData()
+        {
+            Thread thread = Thread.currentThread();
+            while(isEmpty())
+            {
+                consumer = thread;
+                if(isEmpty())
+                    LockSupport.park(this);
+                consumer = null;
+
+                if(thread.isInterrupted())
+                    return false;
+            }
+            return true;
+        }
+
+        private void waitForPacket(long deadline)
+        {
+            Thread thread = Thread.currentThread();
+            while(pendingBytes.get() < packetSize && urgentTail.get() <= head && !thread.isInterrupted())
+            {
+                long timeout = deadline - System.nanoTime();
+                if(timeout <= 0)
+                    return;
+
+                consumer = thread;
+                if(pendingBytes.get() < packetSize && urgentTail.get() <= head)
+                    LockSupport.parkNanos(this, timeout);
+                consumer = null;
+            }
         }
     }
 
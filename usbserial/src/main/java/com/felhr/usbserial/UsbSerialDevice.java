@@ -4,6 +4,7 @@ import com.felhr.deviceids.CH34xIds;
 import com.felhr.deviceids.CP210xIds;
 import com.felhr.deviceids.FTDISioIds;
 import com.felhr.deviceids.PL2303Ids;
+import com.felhr.utils.SafeUsbRequest;
 
 import android.annotation.TargetApi;
 import android.hardware.usb.UsbConstants;
@@ -31,10 +32,14 @@ public abstract class UsbSerialDevice implements UsbSerialInterface
 
     protected static final int USB_TIMEOUT = 0;
 
+    // Number of IN requests kept in flight by the WorkerThread
+    public static final int DEFAULT_READ_REQUESTS = 1;
+    public static final int MAX_READ_REQUESTS = SerialBuffer.MAX_READ_BUFFERS;
+
     protected SerialBuffer serialBuffer;
 
     protected WorkerThread workerThread;
-    protected WriteThread writeThread;
+    protected volatile WriteThread writeThread;
     protected ReadThread readThread;
 
     // Endpoints for synchronous read and write operations
@@ -50,6 +55,10 @@ public abstract class UsbSerialDevice implements UsbSerialInterface
     private String portName = "";
     protected boolean isOpen;
 
+    private int readRequestCount = DEFAULT_READ_REQUESTS;
+    // Only the reading thread increments it
+    private volatile long overrunCount;
+
     public UsbSerialDevice(UsbDevice device, UsbDeviceConnection connection)
     {
         this.device = device;
@@ -128,9 +137,50 @@ public abstract class UsbSerialDevice implements UsbSerialInterface
 
     @Override
     public void write(byte[] buffer)
+    {
+        write(buffer, false);
+    }
+
+    /**
+     * Write without waiting for the write delay, e.g. a control packet.
+     * The writes queued before it are sent in the same transfer, in order.
+     * It never blocks: writes made while the port is closed are queued until it's opened, and a
+     * write is dropped (see {@link #getDroppedWriteCount()}) only when too many writes are pending.
+     *
+     * @param buffer data to write
+     * @param urgent false is the same as {@link #write(byte[])}
+     */
+    public void write(byte[] buffer, boolean urgent)
     {
         if(asyncMode)
-            serialBuffer.putWriteBuffer(buffer);
+            serialBuffer.putWriteBuffer(buffer, urgent);
+    }
+
+    /**
+     * @return asynchronous writes dropped since this device was created
+     */
+    @Override
+    public long getDroppedWriteCount()
+    {
+        return serialBuffer.getDroppedWriteCount();
+    }
+
+    /**
+     * <p>
+     *     Nagle-style write coalescing: when less than a packet of the OUT endpoint is pending,
+     *     the write thread waits up to delayUs for more writes before sending it.
+     * </p>
+     *
+     * <p>
+     *     0 (default) favors latency and sends the pending writes right away. A delay suits many small
+     *     writes (e.g. telemetry), while {@link #write(byte[], boolean)} bounds the latency of control packets.
+     * </p>
+     *
+     * @param delayUs max delay of a write, in microseconds
+     */
+    public void setWriteDelay(long delayUs)
+    {
+        serialBuffer.setWriteDelay(delayUs);
     }
 
     /**
@@ -157,6 +207,43 @@ public abstract class UsbSerialDevice implements UsbSerialInterface
         return -1;
     }
 
+    /**
+     * <p>
+     *     Use this setter <strong>before</strong> calling {@link #open()} to keep several IN requests in flight.
+     * </p>
+     *
+     * <p>
+     *     Each request reads into its own buffer, so the IN endpoint stays busy while {@link UsbReadCallback}
+     *     processes the previous transfer. The data is still delivered in the order the requests were queued.
+     *     High baud rates (921600 and above) may need 4 or more requests to avoid overrunning the device FIFO.
+     *     It has no effect on Android versions without asynchronous reads.
+     * </p>
+     *
+     * @param count number of requests, between 1 (default) and {@link #MAX_READ_REQUESTS}
+     */
+    public void setReadRequestCount(int count) {
+        readRequestCount = Math.max(1, Math.min(MAX_READ_REQUESTS, count));
+    }
+
+    public int getReadRequestCount() {
+        return readRequestCount;
+    }
+
+    /**
+     * Overruns are counted when the device reports one (FTDI modem status) or when every queued
+     * IN request has completed before the oldest one was queued again (the endpoint was idle).
+     *
+     * @return overruns since this device was created
+     */
+    @Override
+    public long getOverrunCount() {
+        return overrunCount;
+    }
+
+    protected void countOverrun() {
+        overrunCount++;
+    }
+
     @Override
     public int read(UsbReadCallback mCallback)
     {
@@ -167,7 +254,7 @@ public abstract class UsbSerialDevice implements UsbSerialInterface
         {
             if (workerThread != null) {
                 workerThread.setCallback(mCallback);
-                workerThread.getUsbRequest().queue(serialBuffer.getReadBuffer(), SerialBuffer.DEFAULT_READ_BUFFER_SIZE);
+                workerThread.queueRequests();
             }
         }else
         {
@@ -177,6 +264,25 @@ public abstract class UsbSerialDevice implements UsbSerialInterface
         return 0;
     }
 
+    @Override
+    public int readBuffer(UsbReadBufferCallback mCallback)
+    {
+        if(!asyncMode)
+            return -1;
+
+        if(mr1Version)
+        {
+            if (workerThread != null) {
+                workerThread.setBufferCallback(mCallback);
+                workerThread.queueRequests();
+            }
+        }else
+        {
+            readThread.setBufferCallback(mCallback);
+        }
+        return 0;
+    }
+
 
     @Override
     public abstract void close();
@@ -324,15 +430,23 @@ public abstract class UsbSerialDevice implements UsbSerialInterface
 
 
     /*
-     * WorkerThread waits for request notifications from IN endpoint
+     * WorkerThread waits for request notifications from IN endpoint.
+     * It keeps readRequestCount requests in flight, each one with its own read buffer,
+     * and hands the data to the callback in the order the requests were queued.
+     * The callbacks run on this thread, with its monitor held.
      */
     protected class WorkerThread extends AbstractWorkerThread
     {
         private final UsbSerialDevice usbSerialDevice;
 
         private UsbReadCallback callback;
+        private UsbReadBufferCallback bufferCallback;
         private UsbRequest requestIN;
 
+        private UsbRequest[] requests = new UsbRequest[0];
+        private final ReadRequestSequence sequence = new ReadRequestSequence();
+        private boolean queued;
+
         public WorkerThread(UsbSerialDevice usbSerialDevice)
         {
             this.usbSerialDevice = usbSerialDevice;
@@ -345,39 +459,135 @@ public abstract class UsbSerialDevice implements UsbSerialInterface
             if(request != null && request.getEndpoint().getType() == UsbConstants.USB_ENDPOINT_XFER_BULK
                     && request.getEndpoint().getDirection() == UsbConstants.USB_DIR_IN)
             {
-                byte[] data = serialBuffer.getDataReceived();
+                onRequestCompleted(request);
+            }
+        }
 
-                // FTDI devices reserves two first bytes of an IN endpoint with info about
-                // modem and Line.
-                if(isFTDIDevice())
-                {
-                    ((FTDISerialDevice) usbSerialDevice).ftdiUtilities.checkModemStatus(data); //Check the Modem status
-                    serialBuffer.clearReadBuffer();
+        private synchronized void onRequestCompleted(UsbRequest request)
+        {
+            int index = indexOf(request);
+            if(index < 0)
+                return;
+
+            if(sequence.onCompleted(index))
+                countOverrun();
 
-                    if(data.length > 2)
-                    {
-                        data = FTDISerialDevice.adaptArray(data);
-                        onReceivedData(data);
-                    }
+            // A later request may complete first: wait for the oldest one
+            int current;
+            while((current = sequence.poll()) >= 0)
+            {
+                int length = receivedLength(current);
+                if(bufferCallback != null)
+                {
+                    // The view is the request buffer: it is queued again once the callback has returned
+                    if(length >= 0)
+                        bufferCallback.onReceivedData(serialBuffer.getDataReceivedView(current, length));
+                    serialBuffer.clearReadBuffer(current);
+                    queueRequest(current);
                 }else
                 {
-                    // Clear buffer, execute the callback
-                    serialBuffer.clearReadBuffer();
-                    onReceivedData(data);
+                    // The data is copied: queue the request again before the callback
+                    byte[] data = (length >= 0 && callback != null) ? serialBuffer.getDataReceived(current, length) : null;
+                    serialBuffer.clearReadBuffer(current);
+                    queueRequest(current);
+                    if(data != null)
+                        callback.onReceivedData(data);
                 }
-                // Queue a new request
-                requestIN.queue(serialBuffer.getReadBuffer(), SerialBuffer.DEFAULT_READ_BUFFER_SIZE);
             }
         }
 
+        /*
+         * Length of the data received by a request, -1 if there is nothing to deliver
+         */
+        private int receivedLength(int index)
+        {
+            byte[] data = serialBuffer.getReadArray(index);
+            int length = serialBuffer.getReceivedLength(index);
+
+            // FTDI devices reserves two first bytes of every packet of an IN endpoint with info about
+            // modem and Line. They are removed in place.
+            if(isFTDIDevice())
+            {
+                if(length > 0)
+                    ((FTDISerialDevice) usbSerialDevice).ftdiUtilities.checkModemStatus(data); //Check the Modem status
+
+                return (length > 2) ? FTDISerialDevice.stripStatusBytes(data, length) : -1;
+            }
+            return length;
+        }
+
+        private void queueRequest(int index)
+        {
+            if(requests[index].queue(serialBuffer.getReadBuffer(index), SerialBuffer.DEFAULT_READ_BUFFER_SIZE))
+                sequence.onQueued(index);
+        }
+
+        /*
+         * Queue all the requests, only the first call has an effect
+         */
+        public synchronized void queueRequests()
+        {
+            if(queued)
+                return;
+
+            queued = true;
+            for(int i=0;i<=requests.length-1;i++)
+                queueRequest(i);
+        }
+
+        private int indexOf(UsbRequest request)
+        {
+            Object clientData = request.getClientData();
+            if(clientData instanceof Integer)
+            {
+                int index = (Integer) clientData;
+                if(index >= 0 && index < requests.length && requests[index] == request)
+                    return index;
+            }
+            return -1;
+        }
+
         public void setCallback(UsbReadCallback callback)
         {
             this.callback = callback;
+            this.bufferCallback = null;
         }
 
-        public void setUsbRequest(UsbRequest request)
+        public void setBufferCallback(UsbReadBufferCallback bufferCallback)
         {
+            this.bufferCallback = bufferCallback;
+            this.callback = null;
+        }
+
+        /*
+         * Set the first IN request, the others are created alike on the same endpoint
+         */
+        public synchronized void setUsbRequest(UsbRequest request)
+        {
+            closeExtraRequests();
             this.requestIN = request;
+
+            serialBuffer.setReadBufferCount(readRequestCount);
+            int count = serialBuffer.getReadBufferCount();
+
+            UsbRequest[] newRequests = new UsbRequest[count];
+            newRequests[0] = request;
+            int n = 1;
+            while(n < count)
+            {
+                UsbRequest newRequest = (request instanceof SafeUsbRequest) ?
+                        new SafeUsbRequest() : new UsbRequest();
+                if(!newRequest.initialize(connection, request.getEndpoint()))
+                    break;
+                newRequests[n++] = newRequest;
+            }
+
+            requests = new UsbRequest[n];
+            System.arraycopy(newRequests, 0, requests, 0, n);
+            for(int i=0;i<=n-1;i++)
+                requests[i].setClientData(i);
+            sequence.reset(n);
+            queued = false;
         }
 
         public UsbRequest getUsbRequest()
@@ -385,23 +595,39 @@ public abstract class UsbSerialDevice implements UsbSerialInterface
             return requestIN;
         }
 
-        private void onReceivedData(byte[] data)
+        /*
+         * Close the requests created by setUsbRequest, no request is queued anymore.
+         * The first request belongs to the device
+         */
+        public synchronized void releaseRequests()
         {
-            if(callback != null)
-                callback.onReceivedData(data);
+            closeExtraRequests();
+            requests = new UsbRequest[0];
+            sequence.reset(0);
+        }
+
+        private void closeExtraRequests()
+        {
+            for(int i=1;i<=requests.length-1;i++)
+            {
+                requests[i].cancel();
+                requests[i].close();
+            }
         }
     }
 
     private class WriteThread extends AbstractWorkerThread
     {
         private UsbEndpoint outEndpoint;
+        private final byte[] data = new byte[SerialBuffer.MAX_BULK_BUFFER];
 
         @Override
         public void doRun()
         {
-            byte[] data = serialBuffer.getWriteBuffer();
-            if(data.length > 0)
-                connection.bulkTransfer(outEndpoint, data, data.length, USB_TIMEOUT);
+            // Pending writes are coalesced into one transfer
+            int length = serialBuffer.getWriteBuffer(data);
+            if(length > 0)
+                connection.bulkTransfer(outEndpoint, data, length, USB_TIMEOUT);
         }
 
         public void setUsbEndpoint(UsbEndpoint outEndpoint)
@@ -415,6 +641,7 @@ public abstract class UsbSerialDevice implements UsbSerialInterface
         private final UsbSerialDevice usbSerialDevice;
 
         private UsbReadCallback callback;
+        private UsbReadBufferCallback bufferCallback;
         private UsbEndpoint inEndpoint;
 
         public ReadThread(UsbSerialDevice usbSerialDevice)
@@ -425,37 +652,39 @@ public abstract class UsbSerialDevice implements UsbSerialInterface
         public void setCallback(UsbReadCallback callback)
         {
             this.callback = callback;
+            this.bufferCallback = null;
+        }
+
+        public void setBufferCallback(UsbReadBufferCallback bufferCallback)
+        {
+            this.bufferCallback = bufferCallback;
+            this.callback = null;
         }
 
         @Override
         public void doRun()
         {
-            byte[] dataReceived = null;
+            byte[] dataReceived = serialBuffer.getBufferCompatible();
             int numberBytes;
             if(inEndpoint != null)
-                numberBytes = connection.bulkTransfer(inEndpoint, serialBuffer.getBufferCompatible(),
+                numberBytes = connection.bulkTransfer(inEndpoint, dataReceived,
                         SerialBuffer.DEFAULT_READ_BUFFER_SIZE, 0);
             else
                 numberBytes = 0;
 
             if(numberBytes > 0)
             {
-                dataReceived = serialBuffer.getDataReceivedCompatible(numberBytes);
-
-                // FTDI devices reserve two first bytes of an IN endpoint with info about
-                // modem and Line.
+                // FTDI devices reserve two first bytes of every packet of an IN endpoint with info about
+                // modem and Line. They are removed in place.
                 if(isFTDIDevice())
                 {
                     ((FTDISerialDevice) usbSerialDevice).ftdiUtilities.checkModemStatus(dataReceived);
 
-                    if(dataReceived.length > 2)
-                    {
-                        dataReceived = FTDISerialDevice.adaptArray(dataReceived);
-                        onReceivedData(dataReceived);
-                    }
+                    if(numberBytes > 2)
+                        onReceivedData(FTDISerialDevice.stripStatusBytes(dataReceived, numberBytes));
                 }else
                 {
-                    onReceivedData(dataReceived);
+                    onReceivedData(numberBytes);
                 }
             }
         }
@@ -465,10 +694,12 @@ public abstract class UsbSerialDevice implements UsbSerialInterface
             this.inEndpoint = inEndpoint;
         }
 
-        private void onReceivedData(byte[] data)
+        private void onReceivedData(int numberBytes)
         {
-            if(callback != null)
-                callback.onReceivedData(data);
+            if(bufferCallback != null)
+                bufferCallback.onReceivedData(serialBuffer.getDataReceivedViewCompatible(numberBytes));
+            else if(callback != null)
+                callback.onReceivedData(serialBuffer.getDataReceivedCompatible(numberBytes));
         }
     }
 
@@ -481,6 +712,7 @@ public abstract class UsbSerialDevice implements UsbSerialInterface
     protected void setThreadsParams(UsbRequest request, UsbEndpoint endpoint)
     {
         writeThread.setUsbEndpoint(endpoint);
+        serialBuffer.setWritePacketSize(endpoint.getMaxPacketSize());
         if(mr1Version)
         {
             workerThread.setUsbRequest(request);
@@ -498,6 +730,7 @@ public abstract class UsbSerialDevice implements UsbSerialInterface
         if(mr1Version && workerThread != null)
         {
             workerThread.stopThread();
+            workerThread.releaseRequests();
             workerThread = null;
         }else if(!mr1Version && readThread != null)
         {
@@ -1,5 +1,7 @@
 package com.felhr.usbserial;
 
+import java.nio.ByteBuffer;
+
 /**
  * Interface to handle a serial port
  * @author felhr (felhr85@gmail.com)
@@ -32,6 +34,7 @@ public interface UsbSerialInterface
     boolean open();
     void write(byte[] buffer);
     int read(UsbReadCallback mCallback);
+    int readBuffer(UsbReadBufferCallback mCallback);
     void close();
 
     // Common Usb Serial Operations (I/O Synchronous)
@@ -62,6 +65,11 @@ public interface UsbSerialInterface
     void getOverrun(UsbOverrunCallback overrunCallback);
     void getParity(UsbParityCallback parityCallback);
 
+    // Overruns reported by the device or caused by an idle read pipeline
+    long getOverrunCount();
+    // Asynchronous writes dropped because the write queue is full
+    long getDroppedWriteCount();
+
     interface UsbCTSCallback
     {
         void onCTSChanged(boolean state);
@@ -99,4 +107,13 @@ public interface UsbSerialInterface
         void onReceivedData(byte[] data);
     }
 
+    // Usb Read Callback without copies: data is a read-only view of a pooled buffer
+    // (from its position to its limit), only valid until onReceivedData returns.
+    // It is called on the read thread and its request is only queued again after it returns,
+    // so it must be short: hand the data to another thread (copy or parse it) and return.
+    interface UsbReadBufferCallback
+    {
+        void onReceivedData(ByteBuffer data);
+    }
+
 }
@@ -0,0 +1,636 @@
+package com.felhr.utils;
+
+import java.nio.ByteBuffer;
+
+/*
+ * Incremental decoder of the frames of a byte stream (e.g. the data of a UsbReadCallback).
+ * Each call only scans the new bytes, however the stream is split. The framing is pluggable:
+ *      - Delimiter: frames end with a byte sequence (e.g. "\r\n")
+ *      - LengthPrefix: 1, 2 or 4 bytes of payload length (MSB first), then the payload
+ *      - Cobs: COBS encoded frames, each one followed by 0x00
+ *      - Slip: SLIP (RFC 1055) frames, each one followed by 0xC0
+ * With a CRC, the last bytes of a frame (before a delimiter) are the CRC of the rest of it,
+ * MSB first. They are removed, the frames that fail the check are dropped and counted.
+ *
+ * Complete frames are copied once into a ring: nextFrame(byte[], int) reads them without
+ * allocating. When the ring is full, the oldest frames are dropped and counted.
+ */
+public class FrameDecoder
+{
+    public static final int DEFAULT_MAX_FRAME_LENGTH = 4 * 1024;
+    public static final int DEFAULT_RING_CAPACITY = 16 * 1024;
+    public static final int DEFAULT_MAX_FRAMES = 256;
+
+    private final Framing framing;
+    private final Crc crc;
+
+    // Frame being decoded
+    private final byte[] frame;
+    private int frameLength;
+    private boolean frameInvalid;
+
+    // Complete frames: their bytes and lengths, oldest first
+    private final byte[] ring;
+    private int ringHead;
+    private int ringUsed;
+    private final int[] lengths;
+    private int lengthsHead;
+    private int pendingFrames;
+
+    // For the buffers without an accessible array (e.g. read-only views)
+    private final byte[] scratch = new byte[512];
+
+    private long decodedFrames;
+    private long crcErrors;
+    private long framingErrors;
+    private long droppedFrames;
+
+    public FrameDecoder(Framing framing)
+    {
+        this(framing, Crc.NONE);
+    }
+
+    public FrameDecoder(Framing framing, Crc crc)
+    {
+        this(framing, crc, DEFAULT_MAX_FRAME_LENGTH, DEFAULT_RING_CAPACITY, DEFAULT_MAX_FRAMES);
+    }
+
+    /**
+     * @param maxFrameLength longer frames are dropped (framing error)
+     * @param ringCapacity bytes of the complete frames not read yet, at least maxFrameLength
+     * @param maxFrames number of complete frames not read yet
+     */
+    public FrameDecoder(Framing framing, Crc crc, int maxFrameLength, int ringCapacity, int maxFrames)
+    {
+        if(framing == null || crc == null || maxFrameLength <= 0 || maxFrames <= 0)
+            throw new IllegalArgumentException("Invalid frame decoder parameters");
+
+        this.framing = framing;
+        this.crc = crc;
+        frame = new byte[maxFrameLength];
+        ring = new byte[Math.max(ringCapacity, maxFrameLength)];
+        lengths = new int[maxFrames];
+    }
+
+    public synchronized void decode(byte[] data)
+    {
+        if(data != null)
+            framing.decode(this, data, 0, data.length);
+    }
+
+    public synchronized void decode(byte[] data, int offset, int length)
+    {
+        framing.decode(this, data, offset, length);
+    }
+
+    /*
+     * Decode the remaining bytes of data, its position is moved to its limit
+     */
+    public synchronized void decode(ByteBuffer data)
+    {
+        if(data.hasArray())
+        {
+            framing.decode(this, data.array(), data.arrayOffset() + data.position(), data.remaining());
+            data.position(data.limit());
+            return;
+        }
+        while(data.hasRemaining())
+        {
+            int n = Math.min(scratch.length, data.remaining());
+            data.get(scratch, 0, n);
+            framing.decode(this, scratch, 0, n);
+        }
+    }
+
+    /*
+     * Forget the frame being decoded, e.g. after a reconnection
+     */
+    public synchronized void reset()
+    {
+        framing.reset();
+        resetFrame();
+    }
+
+    public synchronized boolean hasFrames()
+    {
+        return pendingFrames > 0;
+    }
+
+    public synchronized int getPendingFrames()
+    {
+        return pendingFrames;
+    }
+
+    /*
+     * Length of the next frame, -1 if there is none
+     */
+    public synchronized int peekFrameLength()
+    {
+        return (pendingFrames > 0) ? lengths[lengthsHead] : -1;
+    }
+
+    /*
+     * Copy the next frame to dst at offset and remove it.
+     * It returns the length of the frame, -1 if there is none
+     */
+    public synchronized int nextFrame(byte[] dst, int offset)
+    {
+        if(pendingFrames == 0)
+            return -1;
+
+        int length = lengths[lengthsHead];
+        if(dst.length - offset < length)
+            throw new IllegalArgumentException("Frame of " + length + " bytes does not fit in dst");
+
+        int first = Math.min(length, ring.length - ringHead);
+        System.arraycopy(ring, ringHead, dst, offset, first);
+        System.arraycopy(ring, 0, dst, offset + first, length - first);
+        removeFrame();
+        return length;
+    }
+
+    /*
+     * The next frame in a new array, null if there is none
+     */
+    public synchronized byte[] nextFrame()
+    {
+        if(pendingFrames == 0)
+            return null;
+
+        byte[] dst = new byte[lengths[lengthsHead]];
+        nextFrame(dst, 0);
+        return dst;
+    }
+
+    public synchronized long getDecodedFrames() { return decodedFrames; }
+
+    public synchronized long getCrcErrors() { return crcErrors; }
+
+    public synchronized long getFramingErrors() { return framingErrors; }
+
+    public synchronized long getDroppedFrames() { return droppedFrames; }
+
+    public Crc getCrc() { return crc; }
+
+    public int getMaxFrameLength() { return frame.length; }
+
+    // Framing callbacks, called from decode with the decoder's monitor held
+
+    void appendByte(byte b)
+    {
+        if(frameLength < frame.length)
+            frame[frameLength++] = b;
+        else
+            frameInvalid = true;
+    }
+
+    void appendBytes(byte[] data, int offset, int length)
+    {
+        if(length <= 0)
+            return;
+
+        if(frameLength + length <= frame.length)
+        {
+            System.arraycopy(data, offset, frame, frameLength, length);
+            frameLength += length;
+        }else
+        {
+            frameInvalid = true;
+        }
+    }
+
+    int getFrameLength()
+    {
+        return frameLength;
+    }
+
+    /*
+     * Nothing was decoded since the last frame
+     */
+    boolean isFrameEmpty()
+    {
+        return frameLength == 0 && !frameInvalid;
+    }
+
+    /*
+     * The rest of the current frame is decoded but it is dropped when it ends
+     */
+    void invalidateFrame()
+    {
+        frameInvalid = true;
+    }
+
+    /*
+     * Drop the current frame now (framing error)
+     */
+    void discardFrame()
+    {
+        framingErrors++;
+        resetFrame();
+    }
+
+    /*
+     * Check and store the current frame. Its last trailerLength bytes (e.g. a delimiter)
+     * are not part of the CRC, keepTrailer leaves them at the end of the frame
+     */
+    void endFrame(int trailerLength, boolean keepTrailer)
+    {
+        if(frameInvalid)
+        {
+            discardFrame();
+            return;
+        }
+
+        int length = frameLength - trailerLength;
+        if(crc.length > 0)
+        {
+            int dataLength = length - crc.length;
+            if(dataLength < 0 || crc.compute(frame, 0, dataLength) != readCrc(dataLength))
+            {
+                crcErrors++;
+                resetFrame();
+                return;
+            }
+            if(keepTrailer && trailerLength > 0)
+                System.arraycopy(frame, length, frame, dataLength, trailerLength);
+            length = dataLength;
+        }
+        if(keepTrailer)
+            length += trailerLength;
+
+        pushFrame(length);
+        decodedFrames++;
+        resetFrame();
+    }
+
+    private long readCrc(int offset)
+    {
+        long value = 0;
+        for(int i=0;i<=crc.length-1;i++)
+            value = (value << 8) | (frame[offset + i] & 0xFF);
+        return value;
+    }
+
+    private void resetFrame()
+    {
+        frameLength = 0;
+        frameInvalid = false;
+    }
+
+    private void pushFrame(int length)
+    {
+        while(ringUsed + length > ring.length || pendingFrames == lengths.length)
+        {
+            removeFrame();
+            droppedFrames++;
+        }
+
+        int tail = (ringHead + ringUsed) % ring.length;
+        int first = Math.min(length, ring.length - tail);
+        System.arraycopy(frame, 0, ring, tail, first);
+        System.arraycopy(frame, first, ring, 0, length - first);
+
+        lengths[(lengthsHead + pendingFrames) % lengths.length] = length;
+        ringUsed += length;
+        pendingFrames++;
+    }
+
+    private void removeFrame()
+    {
+        int length = lengths[lengthsHead];
+        lengthsHead = (lengthsHead + 1) % lengths.length;
+        ringHead = (ringHead + length) % ring.length;
+        ringUsed -= length;
+        pendingFrames--;
+    }
+
+    public interface Framing
+    {
+        /*
+         * Decode the bytes of data from offset, calling back the decoder for the frames.
+         * Only the decoder calls it: the framings are the ones of this package
+         */
+        void decode(FrameDecoder decoder, byte[] data, int offset, int length);
+
+        void reset();
+    }
+
+    public enum Crc
+    {
+        NONE(0),
+        // Polynomial 0x07, initial value 0 (CRC-8/SMBUS)
+        CRC8(1),
+        // Polynomial 0x1021, initial value 0xFFFF (CRC-16/CCITT-FALSE)
+        CRC16_CCITT(2),
+        // The CRC of zip and ethernet
+        CRC32(4);
+
+        private static final int[] CRC8_TABLE = new int[256];
+        private static final int[] CRC16_TABLE = new int[256];
+        private static final int[] CRC32_TABLE = new int[256];
+
+        static
+        {
+            for(int i=0;i<=255;i++)
+            {
+                int crc8 = i;
+                int crc16 = i << 8;
+                int crc32 = i;
+                for(int bit=0;bit<=7;bit++)
+                {
+                    crc8 = ((crc8 & 0x80) != 0) ? (crc8 << 1) ^ 0x07 : crc8 << 1;
+                    crc16 = ((crc16 & 0x8000) != 0) ? (crc16 << 1) ^ 0x1021 : crc16 << 1;
+                    crc32 = ((crc32 & 1) != 0) ? (crc32 >>> 1) ^ 0xEDB88320 : crc32 >>> 1;
+                }
+                CRC8_TABLE[i] = crc8 & 0xFF;
+                CRC16_TABLE[i] = crc16 & 0xFFFF;
+                CRC32_TABLE[i] = crc32;
+            }
+        }
+
+        // Bytes of the CRC at the end of a frame
+        public final int length;
+
+        Crc(int length)
+        {
+            this.length = length;
+        }
+
+        public long compute(byte[] data, int offset, int length)
+        {
+            int end = offset + length;
+            switch(this)
+            {
+                case CRC8:
+                {
+                    int crc = 0;
+                    for(int i=offset;i<end;i++)
+                        crc = CRC8_TABLE[(crc ^ data[i]) & 0xFF];
+                    return crc;
+                }
+                case CRC16_CCITT:
+                {
+                    int crc = 0xFFFF;
+                    for(int i=offset;i<end;i++)
+                        crc = ((crc << 8) ^ CRC16_TABLE[((crc >>> 8) ^ data[i]) & 0xFF]) & 0xFFFF;
+                    return crc;
+                }
+                case CRC32:
+                {
+                    int crc = 0xFFFFFFFF;
+                    for(int i=offset;i<end;i++)
+                        crc = (crc >>> 8) ^ CRC32_TABLE[(crc ^ data[i]) & 0xFF];
+                    return ~crc & 0xFFFFFFFFL;
+                }
+                default:
+                    return 0;
+            }
+        }
+    }
+
+    /*
+     * Frames ending with a delimiter. A delimiter split between two calls is found too
+     */
+    public static class Delimiter implements Framing
+    {
+        private final byte[] delimiter;
+        // Length of the longest proper prefix of the delimiter that is also a suffix (KMP)
+        private final int[] fallback;
+        private final boolean keepDelimiter;
+
+        private int matched;
+
+        /**
+         * @param keepDelimiter the frames end with the delimiter
+         */
+        public Delimiter(byte[] delimiter, boolean keepDelimiter)
+        {
+            if(delimiter == null || delimiter.length == 0)
+                throw new IllegalArgumentException("Empty delimiter");
+
+            this.delimiter = delimiter.clone();
+            this.keepDelimiter = keepDelimiter;
+
+            fallback = new int[delimiter.length];
+            int k = 0;
+            for(int i=1;i<=delimiter.length-1;i++)
+            {
+                while(k > 0 && delimiter[i] != delimiter[k])
+                    k = fallback[k - 1];
+                if(delimiter[i] == delimiter[k])
+                    k++;
+                fallback[i] = k;
+            }
+        }
+
+        @Override
+        public void decode(FrameDecoder decoder, byte[] data, int offset, int length)
+        {
+            int start = offset;
+            int end = offset + length;
+            for(int i=offset;i<end;i++)
+            {
+                byte b = data[i];
+                while(matched > 0 && b != delimiter[matched])
+                    matched = fallback[matched - 1];
+                if(b == delimiter[matched])
+                    matched++;
+
+                if(matched == delimiter.length)
+                {
+                    decoder.appendBytes(data, start, i + 1 - start);
+                    decoder.endFrame(delimiter.length, keepDelimiter);
+                    matched = 0;
+                    start = i + 1;
+                }
+            }
+            decoder.appendBytes(data, start, end - start);
+        }
+
+        @Override
+        public void reset()
+        {
+            matched = 0;
+        }
+    }
+
+    /*
+     * Frames of a length header (MSB first) and a payload of this length, then its CRC.
+     * A length too large for the decoder is not a header: the decoder resynchronizes
+     * on the next byte
+     */
+    public static class LengthPrefix implements Framing
+    {
+        private final int lengthBytes;
+
+        private int headerRead;
+        private int payloadLength;
+        private int remaining;
+
+        /**
+         * @param lengthBytes size of the length header: 1, 2 or 4
+         */
+        public LengthPrefix(int lengthBytes)
+        {
+            if(lengthBytes != 1 && lengthBytes != 2 && lengthBytes != 4)
+                throw new IllegalArgumentException("The length header must be 1, 2 or 4 bytes");
+
+            this.lengthBytes = lengthBytes;
+        }
+
+        @Override
+        public void decode(FrameDecoder decoder, byte[] data, int offset, int length)
+        {
+            int i = offset;
+            int end = offset + length;
+            while(i < end)
+            {
+                if(headerRead < lengthBytes)
+                {
+                    payloadLength = (payloadLength << 8) | (data[i++] & 0xFF);
+                    if(++headerRead < lengthBytes)
+                        continue;
+
+                    // A 4 bytes length can be negative or overflow with the CRC
+                    int crcLength = decoder.getCrc().length;
+                    if(payloadLength < 0 || payloadLength > decoder.getMaxFrameLength() - crcLength)
+                    {
+                        // Drop the first byte of the header
+                        decoder.discardFrame();
+                        headerRead--;
+                        payloadLength &= (1 << (8 * headerRead)) - 1;
+                        continue;
+                    }
+
+                    remaining = payloadLength + crcLength;
+                    if(remaining == 0)
+                        endFrame(decoder);
+                }else
+                {
+                    int n = Math.min(remaining, end - i);
+                    decoder.appendBytes(data, i, n);
+                    i += n;
+                    remaining -= n;
+                    if(remaining == 0)
+                        endFrame(decoder);
+                }
+            }
+        }
+
+        private void endFrame(FrameDecoder decoder)
+        {
+            decoder.endFrame(0, false);
+            reset();
+        }
+
+        @Override
+        public void reset()
+        {
+            headerRead = 0;
+            payloadLength = 0;
+            remaining = 0;
+        }
+    }
+
+    /*
+     * Consistent Overhead Byte Stuffing: no 0x00 in a frame, each frame is followed by 0x00
+     */
+    public static class Cobs implements Framing
+    {
+        private boolean started;
+        private int remaining; // Bytes left in the block
+        private boolean zeroPending; // The block ends with a 0x00, unless it is the last one
+
+        @Override
+        public void decode(FrameDecoder decoder, byte[] data, int offset, int length)
+        {
+            int end = offset + length;
+            for(int i=offset;i<end;i++)
+            {
+                byte b = data[i];
+                if(b == 0)
+                {
+                    if(remaining > 0) // Truncated block
+                        decoder.invalidateFrame();
+                    // Nothing between two delimiters is not a frame
+                    if(started)
+                        decoder.endFrame(0, false);
+                    reset();
+                }else if(remaining == 0)
+                {
+                    // Block code
+                    if(zeroPending)
+                        decoder.appendByte((byte) 0);
+                    int code = b & 0xFF;
+                    remaining = code - 1;
+                    zeroPending = code < 0xFF;
+                    started = true;
+                }else
+                {
+                    decoder.appendByte(b);
+                    remaining--;
+                }
+            }
+        }
+
+        @Override
+        public void reset()
+        {
+            started = false;
+            remaining = 0;
+            zeroPending = false;
+        }
+    }
+
+    /*
+     * Serial Line IP framing (RFC 1055). Empty frames are skipped
+     */
+    public static class Slip implements Framing
+    {
+        public static final byte END = (byte) 0xC0;
+        public static final byte ESC = (byte) 0xDB;
+        public static final byte ESC_END = (byte) 0xDC;
+        public static final byte ESC_ESC = (byte) 0xDD;
+
+        private boolean escaped;
+
+        @Override
+        public void decode(FrameDecoder decoder, byte[] data, int offset, int length)
+        {
+            int end = offset + length;
+            for(int i=offset;i<end;i++)
+            {
+                byte b = data[i];
+                if(b == END)
+                {
+                    if(escaped)
+                        decoder.invalidateFrame();
+                    if(!decoder.isFrameEmpty())
+                        decoder.endFrame(0, false);
+                    escaped = false;
+                }else if(escaped)
+                {
+                    if(b == ESC_END)
+                        decoder.appendByte(END);
+                    else if(b == ESC_ESC)
+                        decoder.appendByte(ESC);
+                    else
+                        decoder.invalidateFrame();
+                    escaped = false;
+                }else if(b == ESC)
+                {
+                    escaped = true;
+                }else
+                {
+                    decoder.appendByte(b);
+                }
+            }
+        }
+
+        @Override
+        public void reset()
+        {
+            escaped = false;
+        }
+    }
+}
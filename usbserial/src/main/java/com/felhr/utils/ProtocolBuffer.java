@@ -1,157 +1,111 @@
 package com.felhr.utils;
 
-import com.annimon.stream.IntStream;
-import com.annimon.stream.function.IntPredicate;
-
-import java.io.UnsupportedEncodingException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 
 // Thanks to Thomas Moorhead for improvements and suggestions
 
+/*
+ * Commands ending with a delimiter, decoded incrementally by a FrameDecoder:
+ * each call only scans the new data and the commands wait in its ring until they are read.
+ * The commands include the delimiter. Text and binary commands are decoded alike, the mode
+ * only remains in the constructors for compatibility.
+ * Commands longer than the buffer size are dropped, and the oldest ones when more than
+ * MAX_COMMANDS are pending: both are counted (see getDroppedCommands).
+ */
 public class ProtocolBuffer {
 
     public static final String BINARY = "binary";
     public static final String TEXT = "text";
 
-    private String mode;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
 
     private static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_COMMANDS = 1024;
 
-    private byte[] rawBuffer;
-    private int bufferPointer = 0;
-
-    private byte[] separator;
-    private String delimiter;
-    private StringBuilder stringBuffer;
-
-    private List<String> commands = new ArrayList<>();
-    private List<byte[]> rawCommands = new ArrayList<>();
+    // Longest command
+    private final int bufferSize;
+    private FrameDecoder decoder;
+    private byte[] textBuffer;
 
     public ProtocolBuffer(String mode){
-        this.mode = mode;
-        if(mode.equals(BINARY)){
-            rawBuffer = new byte[DEFAULT_BUFFER_SIZE];
-        }else{
-            stringBuffer = new StringBuilder(DEFAULT_BUFFER_SIZE);
-        }
+        this(mode, DEFAULT_BUFFER_SIZE);
     }
 
     public ProtocolBuffer(String mode, int bufferSize){
-        this.mode = mode;
-        if(mode.equals(BINARY)){
-            rawBuffer = new byte[bufferSize];
-        }else{
-            stringBuffer = new StringBuilder(bufferSize);
-        }
+        this.bufferSize = bufferSize;
     }
 
     public void setDelimiter(String delimiter){
-        this.delimiter = delimiter;
+        setDelimiter(delimiter.getBytes(UTF_8));
     }
 
-    public void setDelimiter(byte[] delimiter){
-        this.separator = delimiter;
+    public synchronized void setDelimiter(byte[] delimiter){
+        decoder = new FrameDecoder(new FrameDecoder.Delimiter(delimiter, true), FrameDecoder.Crc.NONE,
+                bufferSize, 4 * bufferSize, MAX_COMMANDS);
     }
 
     public synchronized void appendData(byte[] data){
         // Ignore the frequent empty calls
         if (data.length == 0) return;
 
-        if(mode.equals(TEXT)){
-            try {
-                String dataStr = new String(data, "UTF-8");
-                stringBuffer.append(dataStr);
-
-                String buffer = stringBuffer.toString();
-                int prevIndex = 0;
-                int index = buffer.indexOf(delimiter);
-                while (index >= 0) {
-                    String tempStr = buffer.substring(prevIndex, index + delimiter.length());
-                    commands.add(tempStr);
-                    prevIndex = index + delimiter.length();
-                    index = stringBuffer.toString().indexOf(delimiter, prevIndex);
-                }
-
-                if( /*prevIndex < buffer.length() &&*/ prevIndex > 0){
-                    String tempStr = buffer.substring(prevIndex, buffer.length());
-                    stringBuffer.setLength(0);
-                    stringBuffer.append(tempStr);
-                }
-
-            } catch (UnsupportedEncodingException e) {
-                e.printStackTrace();
-            }
-        }else if(mode.equals(BINARY)){
-            appendRawData(data);
-        }
+        getDecoder().decode(data);
     }
 
-    public boolean hasMoreCommands(){
-        if(mode.equals(TEXT)) {
-            return commands.size() > 0;
-        }else {
-            return rawCommands.size() > 0;
-        }
+    /*
+     * Append the remaining bytes of data, e.g. the view of a UsbReadBufferCallback
+     */
+    public synchronized void appendData(ByteBuffer data){
+        getDecoder().decode(data);
     }
 
-    public String nextTextCommand(){
-        if(commands.size() > 0){
-            return commands.remove(0);
-        }else{
+    public synchronized boolean hasMoreCommands(){
+        return decoder != null && decoder.hasFrames();
+    }
+
+    public synchronized String nextTextCommand(){
+        if(!hasMoreCommands()){
             return null;
         }
+        if(textBuffer == null){
+            textBuffer = new byte[bufferSize];
+        }
+        int length = decoder.nextFrame(textBuffer, 0);
+        return new String(textBuffer, 0, length, UTF_8);
     }
 
-    public byte[] nextBinaryCommand(){
-        if(rawCommands.size() > 0){
-            return rawCommands.remove(0);
-        }else{
+    public synchronized byte[] nextBinaryCommand(){
+        if(!hasMoreCommands()){
             return null;
         }
+        return decoder.nextFrame();
     }
 
-    private void appendRawData(byte[] rawData){
-
-        System.arraycopy(rawData, 0, rawBuffer, bufferPointer, rawData.length);
-        bufferPointer += rawData.length;
-
-        SeparatorPredicate predicate = new SeparatorPredicate();
-        int[] indexes =
-                IntStream.range(0, bufferPointer)
-                        .filter(predicate)
-                        .toArray();
-
-        int prevIndex = 0;
-        for(Integer i : indexes){
-            byte[] command = Arrays.copyOfRange(rawBuffer, prevIndex, i + separator.length);
-            rawCommands.add(command);
-            prevIndex = i + separator.length;
+    /*
+     * Copy the next command to dst without allocating.
+     * It returns its length, -1 if there is none
+     */
+    public synchronized int nextBinaryCommand(byte[] dst){
+        if(!hasMoreCommands()){
+            return -1;
         }
+        return decoder.nextFrame(dst, 0);
+    }
 
-        if(prevIndex < rawBuffer.length
-                && prevIndex > 0){
-            byte[] tempBuffer = Arrays.copyOfRange(rawBuffer, prevIndex, rawBuffer.length);
-            bufferPointer = 0;
-            System.arraycopy(tempBuffer, 0, rawBuffer, bufferPointer, rawData.length);
-            bufferPointer += rawData.length;
+    /*
+     * Commands longer than the buffer size or dropped because too many were pending
+     */
+    public synchronized long getDroppedCommands(){
+        if(decoder == null){
+            return 0;
         }
-
+        return decoder.getFramingErrors() + decoder.getDroppedFrames();
     }
 
-    private class SeparatorPredicate implements IntPredicate{
-        @Override
-        public boolean test(int value) {
-            if(rawBuffer[value] == separator[0]){
-                for(int i=1;i<=separator.length-1;i++){
-                    if(rawBuffer[value + i] != separator[i]){
-                        return false;
-                    }
-                }
-                return true;
-            }
-            return false;
+    private FrameDecoder getDecoder(){
+        if(decoder == null){
+            throw new IllegalStateException("The delimiter of the commands is not set");
         }
+        return decoder;
     }
 }
@@ -46,4 +46,17 @@ public class FTDISerialDeviceTest {
         byte[] wanted = {3,4,5,6,7,8,9,10,11,12,13,14,15,16,17,18,19,20,21,22,23,24,25,26,27,28,29,30,31,32,33,34,35,36,37,38,39,40,41,42,43,44,45,46,47,48,49,50,51,52,53,54,55,56,57,58,59,60,61,62,63,64, 3,4,5,6,7,8,9,10,11,12,13,14,15,16,17,18,19,20,21,22,23,24,25,26,27,28,29,30,31,32,33,34,35,36,37,38,39,40,41,42,43,44,45,46,47,48,49,50,51,52,53,54,55,56,57,58,59,60,61,62};
         Assert.assertArrayEquals(wanted, FTDISerialDevice.adaptArray(withHeaders));
     }
+
+    @Test
+    public void stripInPlace() {
+        byte[] withHeaders = new byte[200];
+        for (int i = 0; i < withHeaders.length; i++) {
+            withHeaders[i] = (byte) i;
+        }
+        byte[] wanted = FTDISerialDevice.adaptArray(Arrays.copyOf(withHeaders, 130));
+        int length = FTDISerialDevice.stripStatusBytes(withHeaders, 130);
+        Assert.assertEquals(124, length);
+        Assert.assertArrayEquals(wanted, Arrays.copyOf(withHeaders, length));
+        Assert.assertEquals(0, FTDISerialDevice.stripStatusBytes(withHeaders, 2));
+    }
 }
@@ -0,0 +1,66 @@
+package com.felhr.usbserial;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ReadRequestSequenceTest {
+
+    private static ReadRequestSequence queuedSequence(int count) {
+        ReadRequestSequence sequence = new ReadRequestSequence();
+        sequence.reset(count);
+        for (int i = 0; i < count; i++) {
+            sequence.onQueued(i);
+        }
+        return sequence;
+    }
+
+    @Test
+    public void deliversInQueueOrder() {
+        ReadRequestSequence sequence = queuedSequence(3);
+
+        Assert.assertFalse(sequence.onCompleted(1));
+        Assert.assertEquals("Should wait for the oldest request", -1, sequence.poll());
+
+        Assert.assertFalse(sequence.onCompleted(0));
+        Assert.assertEquals(0, sequence.poll());
+        Assert.assertEquals(1, sequence.poll());
+        Assert.assertEquals(-1, sequence.poll());
+    }
+
+    @Test
+    public void outOfOrderCompletionsAreNotOverruns() {
+        ReadRequestSequence sequence = queuedSequence(3);
+
+        // All the requests complete, the oldest one last
+        Assert.assertFalse(sequence.onCompleted(2));
+        Assert.assertFalse(sequence.onCompleted(1));
+        Assert.assertFalse(sequence.onCompleted(0));
+
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(i, sequence.poll());
+            sequence.onQueued(i);
+        }
+        Assert.assertFalse(sequence.onCompleted(1));
+        Assert.assertFalse(sequence.onCompleted(0));
+    }
+
+    @Test
+    public void newestCompletionWithNothingQueuedIsAnOverrun() {
+        ReadRequestSequence sequence = queuedSequence(2);
+
+        Assert.assertFalse(sequence.onCompleted(0));
+        Assert.assertEquals(0, sequence.poll());
+        Assert.assertTrue(sequence.onCompleted(1));
+    }
+
+    @Test
+    public void singleRequestIsNeverAnOverrun() {
+        ReadRequestSequence sequence = queuedSequence(1);
+
+        Assert.assertFalse(sequence.onCompleted(0));
+        Assert.assertEquals(0, sequence.poll());
+    }
+}
@@ -0,0 +1,115 @@
+package com.felhr.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+@RunWith(JUnit4.class)
+public class FrameDecoderTest {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private static byte[] withCrc16(String payload, String delimiter) {
+        byte[] data = payload.getBytes(ASCII);
+        long crc = FrameDecoder.Crc.CRC16_CCITT.compute(data, 0, data.length);
+        byte[] frame = Arrays.copyOf(data, data.length + 2 + delimiter.length());
+        frame[data.length] = (byte) (crc >> 8);
+        frame[data.length + 1] = (byte) crc;
+        System.arraycopy(delimiter.getBytes(ASCII), 0, frame, data.length + 2, delimiter.length());
+        return frame;
+    }
+
+    @Test
+    public void crcCheckValues() {
+        byte[] check = "123456789".getBytes(ASCII);
+        Assert.assertEquals(0xF4, FrameDecoder.Crc.CRC8.compute(check, 0, check.length));
+        Assert.assertEquals(0x29B1, FrameDecoder.Crc.CRC16_CCITT.compute(check, 0, check.length));
+        Assert.assertEquals(0xCBF43926L, FrameDecoder.Crc.CRC32.compute(check, 0, check.length));
+    }
+
+    @Test
+    public void delimitedFramesAreCheckedWhateverTheSplit() {
+        FrameDecoder decoder = new FrameDecoder(
+                new FrameDecoder.Delimiter("\r\n".getBytes(ASCII), false), FrameDecoder.Crc.CRC16_CCITT);
+
+        byte[] first = withCrc16("$adc,1,2", "\r\n");
+        byte[] corrupted = withCrc16("$adc,3,4", "\r\n");
+        corrupted[1] = 'b';
+        byte[] last = withCrc16("$adc,5,6", "\r\n");
+
+        // one byte at a time, the delimiter is split too
+        for (byte b : first) {
+            decoder.decode(new byte[] {b});
+        }
+        decoder.decode(corrupted);
+        decoder.decode(ByteBuffer.wrap(last).asReadOnlyBuffer());
+
+        Assert.assertEquals(2, decoder.getPendingFrames());
+        Assert.assertEquals(1, decoder.getCrcErrors());
+        byte[] dst = new byte[16];
+        int length = decoder.nextFrame(dst, 0);
+        Assert.assertEquals("$adc,1,2", new String(dst, 0, length, ASCII));
+        Assert.assertArrayEquals("$adc,5,6".getBytes(ASCII), decoder.nextFrame());
+        Assert.assertEquals(-1, decoder.nextFrame(dst, 0));
+    }
+
+    @Test
+    public void lengthPrefixResynchronizesAfterAnInvalidLength() {
+        FrameDecoder decoder = new FrameDecoder(new FrameDecoder.LengthPrefix(2),
+                FrameDecoder.Crc.NONE, 8, 64, 4);
+
+        // 0xFF 0x00 is too long: the decoder restarts from 0x00
+        decoder.decode(new byte[] {(byte) 0xFF, 0x00, 0x03, 1, 2});
+        decoder.decode(new byte[] {3, 0x00, 0x00, 0x00, 0x01, 9});
+
+        Assert.assertEquals(1, decoder.getFramingErrors());
+        Assert.assertArrayEquals(new byte[] {1, 2, 3}, decoder.nextFrame());
+        Assert.assertArrayEquals(new byte[0], decoder.nextFrame());
+        Assert.assertArrayEquals(new byte[] {9}, decoder.nextFrame());
+    }
+
+    @Test
+    public void lengthPrefixRejectsALengthOverflowingWithTheCrc() {
+        FrameDecoder decoder = new FrameDecoder(new FrameDecoder.LengthPrefix(4), FrameDecoder.Crc.CRC32);
+
+        byte[] payload = "ok".getBytes(ASCII);
+        long crc = FrameDecoder.Crc.CRC32.compute(payload, 0, payload.length);
+        // 0x7FFFFFFE + 4 bytes of CRC overflows: the 4 headers starting in it are dropped
+        decoder.decode(new byte[] {0x7F, (byte) 0xFF, (byte) 0xFF, (byte) 0xFE, 0x00, 0x00, 0x00, 0x02,
+                'o', 'k', (byte) (crc >> 24), (byte) (crc >> 16), (byte) (crc >> 8), (byte) crc});
+
+        Assert.assertEquals(4, decoder.getFramingErrors());
+        Assert.assertArrayEquals(payload, decoder.nextFrame());
+        Assert.assertFalse(decoder.hasFrames());
+    }
+
+    @Test
+    public void cobsAndSlipFramesAreUnstuffed() {
+        FrameDecoder cobs = new FrameDecoder(new FrameDecoder.Cobs());
+        cobs.decode(new byte[] {0x00, 0x03, 0x11, 0x22, 0x02, 0x33, 0x00, 0x01, 0x01, 0x00});
+        // truncated block
+        cobs.decode(new byte[] {0x05, 0x11, 0x00});
+
+        Assert.assertArrayEquals(new byte[] {0x11, 0x22, 0x00, 0x33}, cobs.nextFrame());
+        Assert.assertArrayEquals(new byte[] {0x00}, cobs.nextFrame());
+        Assert.assertFalse(cobs.hasFrames());
+        Assert.assertEquals(1, cobs.getFramingErrors());
+
+        // two frames fit in the ring: the oldest one is dropped
+        FrameDecoder slip = new FrameDecoder(new FrameDecoder.Slip(), FrameDecoder.Crc.NONE, 4, 8, 2);
+        slip.decode(new byte[] {(byte) 0xC0, 0x01, (byte) 0xDB, (byte) 0xDC, (byte) 0xC0,
+                0x02, (byte) 0xDB, (byte) 0xDD, (byte) 0xC0, 0x03, (byte) 0xC0});
+        // bad escape
+        slip.decode(new byte[] {(byte) 0xDB, 0x01, (byte) 0xC0});
+
+        Assert.assertEquals(1, slip.getDroppedFrames());
+        Assert.assertEquals(1, slip.getFramingErrors());
+        Assert.assertArrayEquals(new byte[] {0x02, (byte) 0xDB}, slip.nextFrame());
+        Assert.assertArrayEquals(new byte[] {0x03}, slip.nextFrame());
+    }
+}